@@ -0,0 +1,80 @@
+package com.clutch.mobilesdk.benchmarks;
+
+import com.clutch.mobilesdk.models.ModelAdapters;
+import com.clutch.mobilesdk.models.ProfileViewResponse;
+import com.google.gson.Gson;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures parsing profiles of different sizes, both from a string and streaming from bytes as the NativeAPIClient does.
+ * The size is the amount of entries in each of the balances, demographics, subscription lists and segments.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProfileParsingBenchmark {
+
+  @Param({"2", "20", "200"})
+  public int size;
+
+  private final Gson gson = ModelAdapters.gson();
+
+  private String json;
+
+  private byte[] bytes;
+
+  @Setup
+  public void setUp() {
+    json = profile(size);
+    bytes = json.getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Benchmark
+  public ProfileViewResponse parseString() {
+    return gson.fromJson(json, ProfileViewResponse.class);
+  }
+
+  @Benchmark
+  public ProfileViewResponse parseStream() {
+    return gson.fromJson(new InputStreamReader(new ByteArrayInputStream(bytes), StandardCharsets.UTF_8), ProfileViewResponse.class);
+  }
+
+  /**
+   * Build a profile response with the given amount of entries in every map and list.
+   * @param size Amount of entries
+   * @return Profile JSON
+   */
+  static String profile(int size) {
+    StringBuilder builder = new StringBuilder("{\"success\":true,\"balances\":{");
+    for(int i = 0; i < size; i++) {
+      builder.append(i == 0 ? "" : ",").append("\"Custom.B").append(i).append("\":").append(i * 10).append(".25");
+    }
+    builder.append("},\"primaryDemographics\":{");
+    for(int i = 0; i < size; i++) {
+      builder.append(i == 0 ? "" : ",").append("\"field").append(i).append("\":\"Value of primary field ").append(i).append('"');
+    }
+    builder.append("},\"customDemographics\":{");
+    for(int i = 0; i < size; i++) {
+      builder.append(i == 0 ? "" : ",").append("\"custom").append(i).append("\":\"Value of custom field ").append(i).append('"');
+    }
+    builder.append("},\"emailOptIn\":true,\"emailSubscriptionLists\":{");
+    for(int i = 0; i < size; i++) {
+      builder.append(i == 0 ? "" : ",").append("\"list").append(i).append("\":").append(i % 2 == 0);
+    }
+    builder.append("},\"segments\":[");
+    for(int i = 0; i < size; i++) {
+      builder.append(i == 0 ? "" : ",").append("{\"name\":\"Segment ").append(i)
+              .append("\",\"description\":\"Members of segment ").append(i).append("\",\"id\":\"s").append(i).append("\"}");
+    }
+    return builder.append("]}").toString();
+  }
+
+}
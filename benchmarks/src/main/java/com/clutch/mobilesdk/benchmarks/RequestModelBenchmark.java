@@ -0,0 +1,111 @@
+package com.clutch.mobilesdk.benchmarks;
+
+import com.clutch.mobilesdk.models.*;
+import com.google.gson.Gson;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures serializing every request model with the shared Gson instance, as ClutchClient does for every call.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RequestModelBenchmark {
+
+  private static final String TOKEN = "2b0c9c3e-6d3a-4b4f-9b8e-0d5c1f1a2e3b";
+
+  @Param({"demographics", "optInStatus", "pushToken", "event", "eventBatch", "register", "getToken"})
+  public String model;
+
+  private final Gson gson = ModelAdapters.gson();
+
+  private Object request;
+
+  @Setup
+  public void setUp() {
+    switch(model) {
+      case "demographics":
+        DemographicsUpdateRequest demographics = new DemographicsUpdateRequest();
+        demographics.token = TOKEN;
+        demographics.primaryFields = fields("firstName", "John", "lastName", "Doe");
+        demographics.customFields = fields("favoriteStore", "Downtown");
+        request = demographics;
+        break;
+      case "optInStatus":
+        SubscriptionListUpdateRequest optIn = new SubscriptionListUpdateRequest();
+        optIn.token = TOKEN;
+        optIn.globalOptIn = true;
+        optIn.subscriptionListId = "news";
+        optIn.newOptIn = true;
+        request = optIn;
+        break;
+      case "pushToken":
+        PushTokenUpdateRequest pushToken = new PushTokenUpdateRequest();
+        pushToken.token = TOKEN;
+        pushToken.pushTokenType = "gcm";
+        pushToken.pushToken = "dGhpcyBpcyBhIHB1c2ggdG9rZW4gb2YgYWJvdXQgdGhlIHVzdWFsIGxlbmd0aCBmb3IgRkNN";
+        request = pushToken;
+        break;
+      case "event":
+        request = event("purchase");
+        break;
+      case "eventBatch":
+        RegisterEventBatchRequest batch = new RegisterEventBatchRequest();
+        List<RegisterEventRequest> events = new ArrayList<>();
+        for(int i = 0; i < 50; i++) {
+          events.add(event("category-" + i));
+        }
+        batch.events = events;
+        request = batch;
+        break;
+      case "register":
+        RegisterRequest register = new RegisterRequest();
+        register.captchaId = "c9d1e2f3";
+        register.captchaSecret = "x7k2p";
+        register.primaryFields = fields("firstName", "John", "lastName", "Doe", "email", "john@example.com");
+        register.customFields = fields("favoriteStore", "Downtown");
+        request = register;
+        break;
+      case "getToken":
+        GetTokenRequest getToken = new GetTokenRequest();
+        getToken.cardNumber = "6000123412341234";
+        getToken.pin = "1234";
+        getToken.captchaId = "c9d1e2f3";
+        getToken.captchaSecret = "x7k2p";
+        request = getToken;
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown model " + model);
+    }
+  }
+
+  @Benchmark
+  public String serialize() {
+    return gson.toJson(request);
+  }
+
+  private static RegisterEventRequest event(String categoryId) {
+    RegisterEventRequest event = new RegisterEventRequest();
+    event.token = TOKEN;
+    event.categoryId = categoryId;
+    return event;
+  }
+
+  private static Map<String, String> fields(String... keysAndValues) {
+    Map<String, String> fields = new HashMap<>();
+    for(int i = 0; i < keysAndValues.length; i += 2) {
+      fields.put(keysAndValues[i], keysAndValues[i + 1]);
+    }
+    return fields;
+  }
+
+}
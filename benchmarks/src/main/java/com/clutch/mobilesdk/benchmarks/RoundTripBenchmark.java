@@ -0,0 +1,107 @@
+package com.clutch.mobilesdk.benchmarks;
+
+import com.clutch.mobilesdk.ClutchClient;
+import com.clutch.mobilesdk.models.ListFieldsResponse;
+import com.clutch.mobilesdk.models.ProfileViewResponse;
+import com.clutch.mobilesdk.network.NativeAPIClient;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures complete ClutchClient calls against an in-process HTTP server on the loopback interface: signing, the
+ * connection pool, writing the request, reading and parsing the response, and completing the stage.
+ * The server answers every call with a fixed body, so the results show the overhead of the client rather than the API.
+ * The server disables Nagle's algorithm, which otherwise adds the delayed acknowledgement of the loopback interface
+ * (about 40 ms) to every response.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dsun.net.httpserver.nodelay=true")
+@State(Scope.Benchmark)
+public class RoundTripBenchmark {
+
+  private static final String TOKEN = "2b0c9c3e-6d3a-4b4f-9b8e-0d5c1f1a2e3b";
+
+  private static final String FIELDS = "{\"primaryFields\":[{\"apiName\":\"firstName\",\"displayName\":\"First name\",\"required\":true,\"editable\":true},"
+          + "{\"apiName\":\"lastName\",\"displayName\":\"Last name\",\"required\":true,\"editable\":true}],"
+          + "\"customFields\":[{\"apiName\":\"favoriteStore\",\"displayName\":\"Favorite store\",\"required\":false,\"editable\":true}]}";
+
+  private HttpServer server;
+
+  private ExecutorService serverExecutor;
+
+  private NativeAPIClient apiClient;
+
+  private ClutchClient client;
+
+  @Setup
+  public void setUp() throws IOException {
+    byte[] profile = ProfileParsingBenchmark.profile(20).getBytes(StandardCharsets.UTF_8);
+    byte[] fields = FIELDS.getBytes(StandardCharsets.UTF_8);
+    byte[] success = "{\"success\":true}".getBytes(StandardCharsets.UTF_8);
+
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext("/profile/token/", exchange -> respond(exchange, profile));
+    server.createContext("/brand/fields", exchange -> respond(exchange, fields));
+    server.createContext("/profile/demographics", exchange -> respond(exchange, success));
+    serverExecutor = Executors.newFixedThreadPool(4);
+    server.setExecutor(serverExecutor);
+    server.start();
+
+    apiClient = new NativeAPIClient("benchmark", "benchmark-secret");
+    apiClient.setEndpoint("http://localhost:" + server.getAddress().getPort());
+    apiClient.setCoalescing(false);
+    client = new ClutchClient(apiClient);
+  }
+
+  @TearDown
+  public void tearDown() throws InterruptedException {
+    apiClient.shutdown();
+    server.stop(0);
+    serverExecutor.shutdownNow();
+  }
+
+  @Benchmark
+  public ProfileViewResponse getProfile() {
+    return client.getProfile(TOKEN).toCompletableFuture().join();
+  }
+
+  @Benchmark
+  public ListFieldsResponse getFields() {
+    return client.getFields().toCompletableFuture().join();
+  }
+
+  @Benchmark
+  public Boolean updateDemographics() {
+    return client.updateDemographics(TOKEN, Collections.singletonMap("firstName", "John"), null).toCompletableFuture().join();
+  }
+
+  private static void respond(HttpExchange exchange, byte[] body) throws IOException {
+    try(InputStream in = exchange.getRequestBody()) {
+      byte[] buffer = new byte[1024];
+      while(in.read(buffer) != -1) {
+        // Discard
+      }
+    }
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    exchange.sendResponseHeaders(200, body.length);
+    try(OutputStream out = exchange.getResponseBody()) {
+      out.write(body);
+    }
+  }
+
+}
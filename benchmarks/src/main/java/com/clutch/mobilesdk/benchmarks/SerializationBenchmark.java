@@ -0,0 +1,72 @@
+package com.clutch.mobilesdk.benchmarks;
+
+import com.clutch.mobilesdk.models.DemographicsUpdateRequest;
+import com.clutch.mobilesdk.models.ModelAdapters;
+import com.clutch.mobilesdk.models.ProfileViewResponse;
+import com.google.gson.Gson;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the shared Gson instance with streaming model adapters to the original reflective path, which created a new
+ * Gson instance for every request and response.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SerializationBenchmark {
+
+  private static final String PROFILE = "{\"success\":true,\"balances\":{\"Points\":1250,\"Punches\":3,\"Currency.USD\":12.50},"
+          + "\"primaryDemographics\":{\"firstName\":\"John\",\"lastName\":\"Doe\",\"email\":\"john@example.com\"},"
+          + "\"customDemographics\":{\"favoriteStore\":\"Downtown\"},\"emailOptIn\":true,"
+          + "\"emailSubscriptionLists\":{\"news\":true,\"offers\":false},"
+          + "\"segments\":[{\"name\":\"Gold\",\"description\":\"Gold members\",\"id\":\"s1\"},{\"name\":\"Local\",\"description\":\"Near a store\",\"id\":\"s2\"}]}";
+
+  private final Gson sharedReflective = new Gson();
+
+  private final Gson shared = ModelAdapters.gson();
+
+  private DemographicsUpdateRequest request;
+
+  @Setup
+  public void setUp() {
+    request = new DemographicsUpdateRequest();
+    request.token = "2b0c9c3e-6d3a-4b4f-9b8e-0d5c1f1a2e3b";
+    request.primaryFields = new HashMap<>();
+    request.primaryFields.put("firstName", "John");
+    request.primaryFields.put("lastName", "Doe");
+    request.customFields = new HashMap<>();
+    request.customFields.put("favoriteStore", "Downtown");
+  }
+
+  @Benchmark
+  public ProfileViewResponse parseProfileNewGson() {
+    return new Gson().fromJson(PROFILE, ProfileViewResponse.class);
+  }
+
+  @Benchmark
+  public ProfileViewResponse parseProfileSharedReflective() {
+    return sharedReflective.fromJson(PROFILE, ProfileViewResponse.class);
+  }
+
+  @Benchmark
+  public ProfileViewResponse parseProfileAdapters() {
+    return shared.fromJson(PROFILE, ProfileViewResponse.class);
+  }
+
+  @Benchmark
+  public String serializeRequestNewGson() {
+    return new Gson().toJson(request);
+  }
+
+  @Benchmark
+  public String serializeRequestAdapters() {
+    return shared.toJson(request);
+  }
+
+}
@@ -0,0 +1,106 @@
+package com.clutch.mobilesdk.benchmarks;
+
+import com.clutch.mobilesdk.RequestSigner;
+import com.clutch.mobilesdk.ShaHelper;
+import com.clutch.mobilesdk.network.APIClient;
+import com.clutch.mobilesdk.network.ResponseHandler;
+import com.clutch.mobilesdk.network.ResponseWrapper;
+import com.google.gson.Gson;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Compares request signing with the RequestSigner to the original ShaHelper and Gson based signing, and measures the
+ * hash functions and the complete set of request headers on their own.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SigningBenchmark {
+
+  private static final String SECRET = "supersecretkey123";
+
+  private static final String METHOD = "/profile/demographics";
+
+  private static final String POST_DATA = "{\"token\":\"2b0c9c3e-6d3a-4b4f-9b8e-0d5c1f1a2e3b\",\"primaryFields\":{\"firstName\":\"John\"},\"customFields\":{}}";
+
+  private RequestSigner signer;
+
+  private HeaderClient client;
+
+  @Setup
+  public void setUp() {
+    signer = new RequestSigner(SECRET);
+    client = new HeaderClient();
+  }
+
+  @Benchmark
+  public String sha512() {
+    return ShaHelper.sha512(POST_DATA);
+  }
+
+  @Benchmark
+  public String hmacSha512() {
+    return ShaHelper.hmacSha512(POST_DATA, SECRET);
+  }
+
+  @Benchmark
+  public String legacySignature() {
+    String requestID = UUID.randomUUID().toString();
+    String requestTime = Long.toString(System.currentTimeMillis());
+    String contentDigest = ShaHelper.sha512(POST_DATA);
+    String hmacData = new Gson().toJson(Arrays.asList(requestID, requestTime, METHOD, contentDigest));
+    return ShaHelper.hmacSha512(hmacData, SECRET);
+  }
+
+  @Benchmark
+  public String signerSignature() {
+    String requestID = signer.newRequestId();
+    String requestTime = Long.toString(System.currentTimeMillis());
+    return signer.sign(requestID, requestTime, METHOD, signer.digest(POST_DATA));
+  }
+
+  @Benchmark
+  public Map<String, String> headers() {
+    return client.headers();
+  }
+
+  @Benchmark
+  public Map<String, String> headersGet() {
+    return client.headersGet();
+  }
+
+  /**
+   * API client that only exposes the request headers.
+   */
+  private static class HeaderClient extends APIClient {
+
+    HeaderClient() {
+      super("app-key", SECRET);
+    }
+
+    Map<String, String> headers() {
+      return getHeaders(METHOD, POST_DATA);
+    }
+
+    Map<String, String> headersGet() {
+      return getHeaders("/brand/fields", null);
+    }
+
+    @Override
+    public <T> Future<ResponseWrapper<T>> placeAsyncCall(String method, String postData, Function<String, T> parser, ResponseHandler<T> handler) {
+      throw new UnsupportedOperationException();
+    }
+
+  }
+
+}
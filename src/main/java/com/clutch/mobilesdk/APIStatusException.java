@@ -0,0 +1,32 @@
+package com.clutch.mobilesdk;
+
+/**
+ * Indicates the Clutch mobile API responded with an unexpected HTTP status code.
+ */
+public class APIStatusException extends APIException {
+
+  private static final long serialVersionUID = 1L;
+
+  private final int statusCode;
+
+  private final long retryAfterMillis;
+
+  public APIStatusException(int statusCode, long retryAfterMillis) {
+    super("Could not reach Clutch mobile API, HTTP status code: " + statusCode);
+    this.statusCode = statusCode;
+    this.retryAfterMillis = retryAfterMillis;
+  }
+
+  public int getStatusCode() {
+    return statusCode;
+  }
+
+  /**
+   * Get the delay the server asked for with a Retry-After header.
+   * @return Delay in milliseconds, or -1 if the server did not specify one
+   */
+  public long getRetryAfterMillis() {
+    return retryAfterMillis;
+  }
+
+}
@@ -0,0 +1,189 @@
+package com.clutch.mobilesdk;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Cache for brand-wide metadata that rarely changes, i.e. the fields and subscription lists, per app key.
+ *
+ * Entries are fresh for the TTL. Near the end of the TTL, the first request refreshes the entry in the background while
+ * the cached value is still served (refresh-ahead). After the TTL, the stale value is served for at most the stale
+ * period while it is revalidated in the background. Older entries are loaded again before they are served.
+ * A failed background refresh keeps the current value, and is attempted again on the next request.
+ *
+ * Instances are thread-safe, and can be shared between ClutchClients with different app keys.
+ */
+public class BrandMetadataCache {
+
+  private final long ttlNanos;
+
+  private final long refreshAheadNanos;
+
+  private final long maxStaleNanos;
+
+  private final ConcurrentHashMap<String, Entry<?>> entries = new ConcurrentHashMap<>();
+
+  private final AtomicLong hits = new AtomicLong();
+
+  private final AtomicLong misses = new AtomicLong();
+
+  private final AtomicLong refreshes = new AtomicLong();
+
+  /**
+   * Set up a new cache.
+   * @param ttlMillis Time an entry is fresh after loading it
+   * @param refreshAheadMillis Time before the end of the TTL from which a request refreshes the entry in the background
+   * @param maxStaleMillis Time after the end of the TTL that the stale value is still served while revalidating
+   */
+  public BrandMetadataCache(long ttlMillis, long refreshAheadMillis, long maxStaleMillis) {
+    this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    this.refreshAheadNanos = TimeUnit.MILLISECONDS.toNanos(Math.min(refreshAheadMillis, ttlMillis));
+    this.maxStaleNanos = TimeUnit.MILLISECONDS.toNanos(maxStaleMillis);
+  }
+
+  /**
+   * Set up a new cache with a TTL of 15 minutes, refreshing 1 minute ahead, and serving stale values for up to 1 day.
+   */
+  public BrandMetadataCache() {
+    this(15 * 60 * 1000, 60 * 1000, 24 * 60 * 60 * 1000);
+  }
+
+  /**
+   * Get a cached value, loading it if there is no usable value.
+   * @param appKey App key the value belongs to
+   * @param method API method that returns the value, e.g. /brand/fields
+   * @param loader Loader that places the call
+   * @param <T> Type of the value
+   * @return Stage holding the value. Cached values complete the stage right away.
+   */
+  @SuppressWarnings("unchecked")
+  public <T> CompletionStage<T> get(String appKey, String method, Supplier<CompletionStage<T>> loader) {
+    String key = appKey + method;
+    while(true) {
+      Entry<T> entry = (Entry<T>) entries.computeIfAbsent(key, k -> new Entry<>());
+      synchronized(entry) {
+        if(entries.get(key) != entry) {
+          continue; // Removed after a failed load, or invalidated
+        }
+        long now = System.nanoTime();
+        if(entry.value != null && now - entry.loadedAt < ttlNanos + maxStaleNanos) {
+          hits.incrementAndGet();
+          if(entry.loading == null && now - entry.loadedAt >= ttlNanos - refreshAheadNanos) {
+            refreshes.incrementAndGet();
+            load(key, entry, loader);
+          }
+          return CompletableFuture.completedFuture(entry.value);
+        }
+        misses.incrementAndGet();
+        CompletableFuture<T> loading = entry.loading != null ? entry.loading : load(key, entry, loader);
+        // Don't expose the shared future, so callers can't complete or cancel it
+        return loading.thenApply(value -> value);
+      }
+    }
+  }
+
+  /**
+   * Start loading a value into an entry. Must be called while holding the lock on the entry.
+   * @return Future that completes with the loaded value
+   */
+  private <T> CompletableFuture<T> load(String key, Entry<T> entry, Supplier<CompletionStage<T>> loader) {
+    CompletableFuture<T> loading = new CompletableFuture<>();
+    entry.loading = loading;
+    CompletionStage<T> stage;
+    try {
+      stage = loader.get();
+    } catch(RuntimeException ex) {
+      stage = failed(ex);
+    }
+    stage.whenComplete((value, ex) -> {
+      synchronized(entry) {
+        entry.loading = null;
+        if(ex == null && value != null) {
+          entry.value = value;
+          entry.loadedAt = System.nanoTime();
+        } else if(entry.value == null) {
+          // Nothing to serve, so the next request loads again
+          entries.remove(key, entry);
+        }
+      }
+      if(ex == null) {
+        loading.complete(value);
+      } else {
+        loading.completeExceptionally(ex);
+      }
+    });
+    return loading;
+  }
+
+  private static <T> CompletionStage<T> failed(Throwable ex) {
+    CompletableFuture<T> future = new CompletableFuture<>();
+    future.completeExceptionally(ex);
+    return future;
+  }
+
+  /**
+   * Remove all cached values for an app key, so they are loaded again on the next request.
+   * @param appKey App key
+   */
+  public void invalidate(String appKey) {
+    entries.keySet().removeIf(key -> key.startsWith(appKey + "/"));
+  }
+
+  /**
+   * Remove a cached value, so it is loaded again on the next request.
+   * @param appKey App key
+   * @param method API method that returns the value, e.g. /brand/fields
+   */
+  public void invalidate(String appKey, String method) {
+    entries.remove(appKey + method);
+  }
+
+  /**
+   * Remove all cached values.
+   */
+  public void invalidateAll() {
+    entries.clear();
+  }
+
+  /**
+   * Get the amount of requests served from the cache, including stale values.
+   * @return Amount of cache hits
+   */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * Get the amount of requests that had to wait for a value to be loaded.
+   * @return Amount of cache misses
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * Get the amount of background refreshes that were started.
+   * @return Amount of refreshes
+   */
+  public long getRefreshes() {
+    return refreshes.get();
+  }
+
+  /**
+   * Cached value, and the load in progress.
+   */
+  private static class Entry<T> {
+
+    private T value;
+
+    private long loadedAt;
+
+    private CompletableFuture<T> loading;
+
+  }
+
+}
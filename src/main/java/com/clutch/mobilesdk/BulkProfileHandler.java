@@ -0,0 +1,25 @@
+package com.clutch.mobilesdk;
+
+import com.clutch.mobilesdk.models.ProfileViewResponse;
+
+/**
+ * Handler for the profiles of a bulk fetch, see ClutchClient.getProfiles. It is called for one token at a time, in the
+ * order the calls complete.
+ */
+public interface BulkProfileHandler {
+
+  /**
+   * Handle the profile of a token.
+   * @param token Token
+   * @param profile Profile, use its success flag to check if the token was valid
+   */
+  void handleProfile(String token, ProfileViewResponse profile);
+
+  /**
+   * Handle a token whose profile could not be fetched. The other tokens are still fetched.
+   * @param token Token
+   * @param ex The API exception showing why the call failed
+   */
+  void handleError(String token, APIException ex);
+
+}
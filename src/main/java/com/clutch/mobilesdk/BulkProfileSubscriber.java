@@ -0,0 +1,130 @@
+package com.clutch.mobilesdk;
+
+import com.clutch.mobilesdk.models.ProfileViewResponse;
+
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Subscriber that hands the profiles of a bulk fetch to a BulkProfileHandler, see ClutchClient.getProfiles.
+ *
+ * The profiles are published by ClutchPublishers.fromCalls, which bounds the calls in flight and only takes tokens from
+ * the iterator when there is room for their call. Every call is turned into an outcome, so a failed token doesn't fail
+ * the stream. The handler is called from the signals of the publisher, so for one token at a time.
+ */
+class BulkProfileSubscriber implements ClutchFlow.Subscriber<BulkProfileSubscriber.Outcome> {
+
+  private final BulkProfileHandler handler;
+
+  private final CompletableFuture<Integer> result = new CompletableFuture<>();
+
+  /**
+   * Amount of profiles that were fetched, only accessed from the signals, which never run concurrently.
+   */
+  private int fetched;
+
+  private BulkProfileSubscriber(BulkProfileHandler handler) {
+    this.handler = handler;
+  }
+
+  /**
+   * Start a bulk fetch.
+   * @param client Client to fetch the profiles with
+   * @param tokens Tokens to fetch the profiles of
+   * @param parallelism Maximum amount of calls in flight
+   * @param handler Handler for every profile and failure
+   * @return Future holding the amount of profiles that were fetched. Cancelling it stops the fetch, and cancels the calls
+   * in flight, as does a failure of the handler or the iterator.
+   */
+  static CompletableFuture<Integer> fetch(ClutchClient client, Iterator<String> tokens, int parallelism, BulkProfileHandler handler) {
+    BulkProfileSubscriber subscriber = new BulkProfileSubscriber(handler);
+    ClutchPublishers.fromCalls(() -> tokens, parallelism, token -> outcome(client, token)).subscribe(subscriber);
+    return subscriber.result;
+  }
+
+  /**
+   * Fetch the profile of a token, recovering a failure into the outcome.
+   * @return Future holding the outcome. Cancelling it cancels the call.
+   */
+  private static CompletableFuture<Outcome> outcome(ClutchClient client, String token) {
+    CompletableFuture<ProfileViewResponse> call;
+    try {
+      call = client.getProfile(token).toCompletableFuture();
+    } catch(RuntimeException ex) {
+      call = new CompletableFuture<>();
+      call.completeExceptionally(ex);
+    }
+    CompletableFuture<ProfileViewResponse> pending = call;
+    CompletableFuture<Outcome> outcome = pending.handle((profile, ex) -> new Outcome(token, profile, ex));
+    outcome.whenComplete((value, ex) -> {
+      if(outcome.isCancelled()) {
+        pending.cancel(true);
+      }
+    });
+    return outcome;
+  }
+
+  @Override
+  public void onSubscribe(ClutchFlow.Subscription subscription) {
+    result.whenComplete((count, ex) -> {
+      if(ex != null) {
+        subscription.cancel();
+      }
+    });
+    // The publisher bounds the calls in flight, so there is no need to bound the demand
+    subscription.request(Long.MAX_VALUE);
+  }
+
+  @Override
+  public void onNext(Outcome outcome) {
+    if(result.isDone()) {
+      return;
+    }
+    try {
+      if(outcome.failure == null) {
+        handler.handleProfile(outcome.token, outcome.profile);
+        fetched++;
+      } else {
+        handler.handleError(outcome.token, unwrap(outcome.failure));
+      }
+    } catch(RuntimeException ex) {
+      result.completeExceptionally(ex);
+    }
+  }
+
+  @Override
+  public void onError(Throwable throwable) {
+    result.completeExceptionally(throwable);
+  }
+
+  @Override
+  public void onComplete() {
+    result.complete(fetched);
+  }
+
+  private static APIException unwrap(Throwable ex) {
+    Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+    return cause instanceof APIException ? (APIException) cause : new APIException("Could not fetch profile", cause);
+  }
+
+  /**
+   * Profile or failure of a token.
+   */
+  static class Outcome {
+
+    private final String token;
+
+    private final ProfileViewResponse profile;
+
+    private final Throwable failure;
+
+    private Outcome(String token, ProfileViewResponse profile, Throwable failure) {
+      this.token = token;
+      this.profile = profile;
+      this.failure = failure;
+    }
+
+  }
+
+}
@@ -0,0 +1,393 @@
+package com.clutch.mobilesdk;
+
+import com.clutch.mobilesdk.network.Priority;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of prefetched captchas, so registration and login screens can show a captcha without waiting for a round trip,
+ * also when the user needs a new captcha after a failed attempt.
+ *
+ * Once fewer captchas than the low watermark are available, the pool fetches new captchas in the background lane until
+ * the capacity is reached. Captchas are discarded once they are older than the maximum age, which should be below the
+ * time the API keeps them valid. Optionally, the pool also downloads the captcha images, as their URL can only be used
+ * once. A captcha is handed out only once, as the API only accepts it for a single attempt.
+ *
+ * If the pool is empty, take fetches a captcha right away in the interactive lane, and downloads its image without
+ * waiting for the downloads of the pool.
+ */
+public class CaptchaPool implements AutoCloseable {
+
+  private static final int CONNECT_TIMEOUT = 10000;
+
+  private static final int READ_TIMEOUT = 15000;
+
+  /**
+   * Largest captcha image that is downloaded.
+   */
+  private static final int MAX_IMAGE_SIZE = 1024 * 1024;
+
+  /**
+   * Wait before fetching again after a failed fetch.
+   */
+  private static final long RETRY_DELAY_MILLIS = 5000;
+
+  private final ClutchClient client;
+
+  private final ClutchClient background;
+
+  private final int lowWatermark;
+
+  private final int capacity;
+
+  private final long maxAgeMillis;
+
+  private final boolean prefetchImages;
+
+  /**
+   * Available captchas, oldest first.
+   */
+  private final ArrayDeque<Captcha> available = new ArrayDeque<>();
+
+  /**
+   * Captchas being fetched for the pool.
+   */
+  private int fetching;
+
+  private boolean retryScheduled;
+
+  private boolean closed;
+
+  private final AtomicLong hits = new AtomicLong();
+
+  private final AtomicLong misses = new AtomicLong();
+
+  private final AtomicLong expired = new AtomicLong();
+
+  private final AtomicLong failures = new AtomicLong();
+
+  /**
+   * Single thread that expires captchas and downloads the images of the captchas fetched for the pool.
+   */
+  private final ScheduledThreadPoolExecutor scheduler;
+
+  /**
+   * Threads that download the images of captchas fetched on demand, so they don't wait behind the downloads for the
+   * pool. Threads are only started when an empty pool is taken from, and stop once they are idle.
+   */
+  private final ExecutorService onDemand;
+
+  /**
+   * Set up a new captcha pool, which starts fetching captchas right away.
+   * @param client Client to fetch captchas with
+   * @param lowWatermark Amount of available captchas below which the pool is refilled
+   * @param capacity Maximum amount of available captchas
+   * @param maxAgeMillis Time after which a captcha is discarded
+   * @param prefetchImages True to also download the captcha images
+   */
+  public CaptchaPool(ClutchClient client, int lowWatermark, int capacity, long maxAgeMillis, boolean prefetchImages) {
+    if(lowWatermark < 1 || capacity < lowWatermark) {
+      throw new IllegalArgumentException("The low watermark must be at least 1, and at most the capacity");
+    }
+    this.client = client;
+    this.background = client.withPriority(Priority.BACKGROUND);
+    this.lowWatermark = lowWatermark;
+    this.capacity = capacity;
+    this.maxAgeMillis = maxAgeMillis;
+    this.prefetchImages = prefetchImages;
+    this.scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+      Thread thread = new Thread(runnable, "clutch-captcha-pool");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.scheduler.setRemoveOnCancelPolicy(true);
+    this.scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    this.onDemand = Executors.newCachedThreadPool(runnable -> {
+      Thread thread = new Thread(runnable, "clutch-captcha-image");
+      thread.setDaemon(true);
+      return thread;
+    });
+    refill();
+  }
+
+  /**
+   * Set up a new captcha pool that keeps up to 2 captchas without images, refilling once the last one is taken.
+   * Captchas are discarded after 5 minutes.
+   * @param client Client to fetch captchas with
+   */
+  public CaptchaPool(ClutchClient client) {
+    this(client, 1, 2, TimeUnit.MINUTES.toMillis(5), false);
+  }
+
+  /**
+   * Take a captcha to show to the user. It is removed from the pool, as it can only be used for a single attempt.
+   * @return Stage holding the captcha, which is already completed if one was available
+   */
+  public CompletionStage<Captcha> take() {
+    Captcha captcha = null;
+    synchronized(this) {
+      if(closed) {
+        CompletableFuture<Captcha> result = new CompletableFuture<>();
+        result.completeExceptionally(new APIException("Captcha pool was closed"));
+        return result;
+      }
+      while(captcha == null && !available.isEmpty()) {
+        captcha = available.pollFirst();
+        if(isExpired(captcha)) {
+          expired.incrementAndGet();
+          captcha = null;
+        }
+      }
+    }
+    refill();
+    if(captcha != null) {
+      hits.incrementAndGet();
+      return CompletableFuture.completedFuture(captcha);
+    }
+    misses.incrementAndGet();
+    return fetch(client, onDemand);
+  }
+
+  /**
+   * Start fetching captchas if the pool is below its low watermark, until the capacity is reached.
+   */
+  private void refill() {
+    int count;
+    synchronized(this) {
+      if(closed || retryScheduled || available.size() + fetching >= lowWatermark) {
+        return;
+      }
+      count = capacity - available.size() - fetching;
+      fetching += count;
+    }
+    for(int i = 0; i < count; i++) {
+      fetch(background, scheduler).whenComplete(this::add);
+    }
+  }
+
+  /**
+   * Add a fetched captcha to the pool, or schedule a new attempt if the fetch failed.
+   */
+  private void add(Captcha captcha, Throwable ex) {
+    synchronized(this) {
+      fetching--;
+      if(closed) {
+        return;
+      }
+      if(ex != null) {
+        failures.incrementAndGet();
+        if(!retryScheduled) {
+          retryScheduled = schedule(this::retry, RETRY_DELAY_MILLIS);
+        }
+        return;
+      }
+      available.addLast(captcha);
+    }
+    schedule(() -> expire(captcha), maxAgeMillis);
+  }
+
+  private void retry() {
+    synchronized(this) {
+      retryScheduled = false;
+    }
+    refill();
+  }
+
+  /**
+   * Discard a captcha once it is too old, and refill the pool.
+   */
+  private void expire(Captcha captcha) {
+    synchronized(this) {
+      if(!available.remove(captcha)) {
+        return;
+      }
+      expired.incrementAndGet();
+    }
+    refill();
+  }
+
+  private boolean isExpired(Captcha captcha) {
+    return System.nanoTime() - captcha.fetchedAt >= TimeUnit.MILLISECONDS.toNanos(maxAgeMillis);
+  }
+
+  /**
+   * Schedule a task in the pool thread.
+   * @return False if the pool was closed
+   */
+  private boolean schedule(Runnable task, long delayMillis) {
+    try {
+      scheduler.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+      return true;
+    } catch(RejectedExecutionException ex) {
+      return false;
+    }
+  }
+
+  /**
+   * Fetch a new captcha ID, and download its image if enabled.
+   * @param client Client to fetch the captcha with, which determines the lane
+   * @param downloads Executor to download the image in
+   * @return Stage holding the captcha
+   */
+  private CompletionStage<Captcha> fetch(ClutchClient client, Executor downloads) {
+    CompletionStage<String> id;
+    try {
+      id = client.getCaptchaID();
+    } catch(RuntimeException ex) {
+      CompletableFuture<Captcha> result = new CompletableFuture<>();
+      result.completeExceptionally(ex);
+      return result;
+    }
+    if(!prefetchImages) {
+      return id.thenApply(captchaId -> new Captcha(captchaId, client.getCaptchaImageURL(captchaId), null));
+    }
+    return id.thenCompose(captchaId -> {
+      String imageURL = client.getCaptchaImageURL(captchaId);
+      CompletableFuture<Captcha> result = new CompletableFuture<>();
+      try {
+        downloads.execute(() -> {
+          try {
+            result.complete(new Captcha(captchaId, imageURL, download(imageURL)));
+          } catch(IOException ex) {
+            result.completeExceptionally(new APIException("Could not download captcha image", ex));
+          }
+        });
+      } catch(RejectedExecutionException ex) {
+        result.completeExceptionally(new APIException("Captcha pool was closed", ex));
+      }
+      return result;
+    });
+  }
+
+  /**
+   * Download a captcha image.
+   * @param imageURL URL of the image
+   * @return Image bytes
+   * @throws IOException If the download failed
+   */
+  private static byte[] download(String imageURL) throws IOException {
+    HttpURLConnection conn = (HttpURLConnection) new URL(imageURL).openConnection();
+    conn.setConnectTimeout(CONNECT_TIMEOUT);
+    conn.setReadTimeout(READ_TIMEOUT);
+    try {
+      if(conn.getResponseCode() != HttpURLConnection.HTTP_OK) {
+        throw new IOException("Unexpected status code " + conn.getResponseCode());
+      }
+      try(InputStream in = conn.getInputStream()) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while((read = in.read(buffer)) != -1) {
+          out.write(buffer, 0, read);
+          if(out.size() > MAX_IMAGE_SIZE) {
+            throw new IOException("Captcha image exceeds " + MAX_IMAGE_SIZE + " bytes");
+          }
+        }
+        return out.toByteArray();
+      }
+    } finally {
+      conn.disconnect();
+    }
+  }
+
+  /**
+   * Stop refilling and discard the available captchas. Fetches in flight still complete, but are not added.
+   */
+  @Override
+  public void close() {
+    synchronized(this) {
+      closed = true;
+      available.clear();
+    }
+    scheduler.shutdownNow();
+    onDemand.shutdownNow();
+  }
+
+  /**
+   * Get the amount of captchas that are available right away.
+   * @return Amount of available captchas
+   */
+  public synchronized int getAvailable() {
+    return available.size();
+  }
+
+  /**
+   * Get the amount of captchas that were taken from the pool.
+   * @return Amount of hits
+   */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * Get the amount of captchas that had to be fetched on demand, because the pool was empty.
+   * @return Amount of misses
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * Get the amount of captchas that were discarded because they were too old.
+   * @return Amount of expired captchas
+   */
+  public long getExpired() {
+    return expired.get();
+  }
+
+  /**
+   * Get the amount of failed background fetches.
+   * @return Amount of failures
+   */
+  public long getFailures() {
+    return failures.get();
+  }
+
+  /**
+   * A captcha that can be shown to the user.
+   */
+  public static class Captcha {
+
+    /**
+     * Captcha ID, to pass to registerNewCard or getTokenExistingCard.
+     */
+    public final String captchaId;
+
+    /**
+     * URL of the image, which can only be accessed once. If the image was prefetched, it was already accessed.
+     */
+    public final String imageURL;
+
+    /**
+     * Image bytes, or null if images are not prefetched.
+     */
+    public final byte[] image;
+
+    /**
+     * Time the captcha was fetched, in System.nanoTime.
+     */
+    private final long fetchedAt = System.nanoTime();
+
+    Captcha(String captchaId, String imageURL, byte[] image) {
+      this.captchaId = captchaId;
+      this.imageURL = imageURL;
+      this.image = image;
+    }
+
+  }
+
+}
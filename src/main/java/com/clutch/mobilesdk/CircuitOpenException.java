@@ -0,0 +1,15 @@
+package com.clutch.mobilesdk;
+
+/**
+ * Indicates a call was not placed because the circuit breaker is open, after too many calls to the Clutch mobile API
+ * failed or were slow.
+ */
+public class CircuitOpenException extends APIException {
+
+  private static final long serialVersionUID = 1L;
+
+  public CircuitOpenException(String message) {
+    super(message);
+  }
+
+}
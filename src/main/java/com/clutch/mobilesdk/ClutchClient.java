@@ -2,24 +2,300 @@ package com.clutch.mobilesdk;
 
 import com.clutch.mobilesdk.models.*;
 import com.clutch.mobilesdk.network.APIClient;
+import com.clutch.mobilesdk.network.CallOptions;
+import com.clutch.mobilesdk.network.Priority;
 import com.clutch.mobilesdk.network.ResponseHandler;
 import com.clutch.mobilesdk.network.ResponseWrapper;
+import com.clutch.mobilesdk.network.StreamParser;
 import com.google.gson.Gson;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 /**
  * Clutch Mobile API client for Java / Android.
  *
+ * Every call is available in two variants: one that takes a ResponseHandler and returns a Future, and one without a
+ * handler that returns a CompletionStage, which can be composed with other calls without blocking.
+ * Handlers and stages are completed in the callback executor of the APIClient, see APIClient.setCallbackExecutor.
  */
 public class ClutchClient {
 
+  /**
+   * Shared Gson instance with streaming adapters for all models.
+   */
+  private static final Gson GSON = ModelAdapters.gson();
+
+  private static final StreamParser<Boolean> HEALTH_PARSER = reader -> true;
+
+  private static final StreamParser<Boolean> SUCCESS_PARSER = reader -> GSON.fromJson(reader, BasicResponse.class).success;
+
+  private static final StreamParser<ListSubscriptionListsResponse> SUBSCRIPTION_LISTS_PARSER = reader -> GSON.fromJson(reader, ListSubscriptionListsResponse.class);
+
+  private static final StreamParser<ListFieldsResponse> FIELDS_PARSER = reader -> GSON.fromJson(reader, ListFieldsResponse.class);
+
+  private static final StreamParser<String> CAPTCHA_PARSER = reader -> GSON.fromJson(reader, CaptchaResponse.class).captchaId;
+
+  private static final StreamParser<RegisterResponse> REGISTER_PARSER = reader -> GSON.fromJson(reader, RegisterResponse.class);
+
+  private static final StreamParser<String> TOKEN_PARSER = reader -> {
+    GetTokenResponse response = GSON.fromJson(reader, GetTokenResponse.class);
+    if(response == null || !response.success) {
+      throw new APIException("Invalid input");
+    }
+    return response.token;
+  };
+
+  private static final StreamParser<RegisterEventBatchResponse> EVENT_BATCH_PARSER = reader -> GSON.fromJson(reader, RegisterEventBatchResponse.class);
+
+  private static final StreamParser<ProfileViewResponse> PROFILE_PARSER = reader -> GSON.fromJson(reader, ProfileViewResponse.class);
+
   private APIClient apiClient;
 
+  /**
+   * Deadline for every call, or 0 to use the deadline of the retry policy.
+   */
+  private final long deadlineMillis;
+
+  /**
+   * Lane for every call, or null to use the default lane of each method.
+   */
+  private final Priority priority;
+
+  /**
+   * Cache for the fields and subscription lists, or null to always fetch them.
+   */
+  private volatile BrandMetadataCache brandMetadataCache;
+
+  /**
+   * Cache for profiles, or null to always download them.
+   */
+  private volatile ProfileCache profileCache;
+
+  /**
+   * Journal for mutations, or null to not record them.
+   */
+  private volatile MutationJournal mutationJournal;
+
+  /**
+   * Sequence numbers of journaled mutations that are being sent, which are skipped by a replay.
+   */
+  private final Set<Long> journalInFlight;
+
+  /**
+   * Stages of journaled mutations that wait for older mutations to be sent, by sequence number. Also guards the
+   * decisions which mutation is sent next.
+   */
+  private final Map<Long, CompletableFuture<Boolean>> journalQueued;
+
+  /**
+   * Coalescers for demographics and opt-in updates, or null to send every update.
+   */
+  private volatile WriteCoalescer<String, DemographicsUpdateRequest> demographicsCoalescer;
+
+  private volatile WriteCoalescer<List<String>, SubscriptionListUpdateRequest> optInCoalescer;
+
+  /**
+   * Replay in progress, or null.
+   */
+  private final AtomicReference<CompletableFuture<Integer>> replay;
+
   public ClutchClient(APIClient apiClient) {
     this.apiClient = apiClient;
+    this.deadlineMillis = 0;
+    this.priority = null;
+    this.journalInFlight = ConcurrentHashMap.newKeySet();
+    this.journalQueued = new HashMap<>();
+    this.replay = new AtomicReference<>();
+  }
+
+  /**
+   * Set up a client that shares the API client, caches, journal and write coalescing of another client.
+   * @param client Client to share with
+   * @param deadlineMillis Deadline for every call, or 0 to use the deadline of the retry policy
+   * @param priority Lane for every call, or null to use the default lane of each method
+   */
+  private ClutchClient(ClutchClient client, long deadlineMillis, Priority priority) {
+    this.apiClient = client.apiClient;
+    this.deadlineMillis = deadlineMillis;
+    this.priority = priority;
+    this.brandMetadataCache = client.brandMetadataCache;
+    this.profileCache = client.profileCache;
+    this.mutationJournal = client.mutationJournal;
+    this.journalInFlight = client.journalInFlight;
+    this.journalQueued = client.journalQueued;
+    this.demographicsCoalescer = client.demographicsCoalescer;
+    this.optInCoalescer = client.optInCoalescer;
+    this.replay = client.replay;
+  }
+
+  /**
+   * Get a client that places every call with a deadline, which covers all attempts and the backoff between them.
+   * A call that is still running once its deadline passes fails with a DeadlineExceededException, and its connection
+   * is closed right away. Cancelling a call has the same effect.
+   *
+   * The returned client shares the API client, caches, journal and write coalescing of this client, as they are set at
+   * the time of this call. Merged writes are sent with the deadline of the client that set the coalescing window.
+   * @param deadlineMillis Maximum time per call, or 0 to use the deadline of the retry policy (default)
+   * @return Client with the deadline
+   */
+  public ClutchClient withDeadline(long deadlineMillis) {
+    return new ClutchClient(this, deadlineMillis, priority);
+  }
+
+  /**
+   * Get the deadline of every call.
+   * @return Deadline in milliseconds, or 0 if the deadline of the retry policy is used
+   */
+  public long getDeadlineMillis() {
+    return deadlineMillis;
+  }
+
+  /**
+   * Get a client that places every call in the given lane, instead of the default lane of each method.
+   * By default, calls a user typically waits for (profiles, tokens, captchas, registration, fields and subscription
+   * lists) are interactive, profile updates and health checks are normal, and events, push tokens and journal replays
+   * run in the background.
+   *
+   * The returned client shares the API client, caches, journal and write coalescing of this client, like withDeadline.
+   * @param priority Lane for every call, or null to use the default lane of each method
+   * @return Client with the lane
+   */
+  public ClutchClient withPriority(Priority priority) {
+    return new ClutchClient(this, deadlineMillis, priority);
+  }
+
+  /**
+   * Get the lane of every call.
+   * @return Lane, or null if the default lane of each method is used
+   */
+  public Priority getPriority() {
+    return priority;
+  }
+
+  /**
+   * Cache the fields and subscription lists, which rarely change, instead of fetching them for every call.
+   * The cache can be shared by clients with different app keys.
+   * @param brandMetadataCache Cache, or null to always fetch them (default)
+   */
+  public void setBrandMetadataCache(BrandMetadataCache brandMetadataCache) {
+    this.brandMetadataCache = brandMetadataCache;
+  }
+
+  public BrandMetadataCache getBrandMetadataCache() {
+    return brandMetadataCache;
+  }
+
+  /**
+   * Cache profiles per token. Cached profiles are revalidated with a conditional call, so an unchanged profile is not
+   * downloaded and parsed again, and successful demographics and opt-in updates are applied to them right away.
+   * Releasing a token removes its profile from the cache.
+   * @param profileCache Cache, or null to always download profiles (default)
+   */
+  public void setProfileCache(ProfileCache profileCache) {
+    this.profileCache = profileCache;
+  }
+
+  public ProfileCache getProfileCache() {
+    return profileCache;
+  }
+
+  /**
+   * Merge demographics updates for the same token, and opt-in updates for the same token and subscription list, that
+   * are placed within a window into a single call. Later values for the same field or list win.
+   * This suits UIs that update a profile field by field. Every caller gets the result of the merged call.
+   * Updates that are waiting are sent right away when the window changes.
+   * @param windowMillis Time to wait for more updates after the first one, or 0 to send every update (default)
+   */
+  public void setWriteCoalescingWindow(long windowMillis) {
+    WriteCoalescer<String, DemographicsUpdateRequest> previousDemographics = demographicsCoalescer;
+    WriteCoalescer<List<String>, SubscriptionListUpdateRequest> previousOptIn = optInCoalescer;
+    if(windowMillis > 0) {
+      demographicsCoalescer = new WriteCoalescer<>(windowMillis, WriteScheduler.INSTANCE, ClutchClient::mergeDemographics,
+              request -> mutate("/profile/demographics", GSON.toJson(request), Priority.NORMAL));
+      optInCoalescer = new WriteCoalescer<>(windowMillis, WriteScheduler.INSTANCE, ClutchClient::mergeOptIn,
+              request -> mutate("/profile/optInStatus", GSON.toJson(request), Priority.NORMAL));
+    } else {
+      demographicsCoalescer = null;
+      optInCoalescer = null;
+    }
+    if(previousDemographics != null) {
+      previousDemographics.flushAll();
+      previousOptIn.flushAll();
+    }
+  }
+
+  /**
+   * Send all demographics and opt-in updates that are waiting to be merged right away, e.g. when the app moves to the background.
+   */
+  public void flushWrites() {
+    WriteCoalescer<String, DemographicsUpdateRequest> demographics = demographicsCoalescer;
+    WriteCoalescer<List<String>, SubscriptionListUpdateRequest> optIn = optInCoalescer;
+    if(demographics != null) {
+      demographics.flushAll();
+      optIn.flushAll();
+    }
+  }
+
+  /**
+   * Record demographics, opt-in, push token and event updates in a journal before sending them, so they are not lost
+   * when they fail. Updates that fail because of the network or a server error stay in the journal, and are sent again
+   * by replayJournal. Updates that are accepted, or rejected because of a client error, are acknowledged in the journal.
+   *
+   * Updates are sent in the order they were made. While older updates are pending, a new update is queued behind them
+   * and sent by a replay, so an older update never overwrites a newer one. A failed update reports the failure to its
+   * caller, but as it stays in the journal, it may still be applied by a later replay. Queued updates fail with the
+   * failure that stopped the replay before them. Batches of events sent with registerEvents are not journaled.
+   * @param mutationJournal Journal, or null to not record updates (default)
+   */
+  public void setMutationJournal(MutationJournal mutationJournal) {
+    this.mutationJournal = mutationJournal;
+  }
+
+  public MutationJournal getMutationJournal() {
+    return mutationJournal;
+  }
+
+  /**
+   * Send the updates in the journal again, in order. Call this after the app starts and once connectivity returns.
+   * The replay stops at the first update that fails again, so the order of updates is kept. Updates that are made
+   * during the replay are queued behind it.
+   * @return Stage holding the amount of updates that were acknowledged. If a replay is in progress, this is its stage.
+   */
+  public CompletionStage<Integer> replayJournal() {
+    MutationJournal journal = mutationJournal;
+    if(journal == null) {
+      return CompletableFuture.completedFuture(0);
+    }
+    CompletableFuture<Integer> result;
+    synchronized(journalQueued) {
+      CompletableFuture<Integer> current = replay.get();
+      if(current != null) {
+        return current;
+      }
+      result = new CompletableFuture<>();
+      replay.set(result);
+    }
+    replayNext(journal, 0, 0, result);
+    return result;
   }
 
   /**
@@ -28,7 +304,15 @@ public class ClutchClient {
    * @return True iff the health check can be reached
    */
   public Future<ResponseWrapper<Boolean>> getHealthCheck(ResponseHandler<Boolean> handler) {
-    return apiClient.placeAsyncCall("/health", null, data -> true, handler);
+    return apiClient.placeAsyncStreamingCall("/health", null, HEALTH_PARSER, handler, options(Priority.NORMAL));
+  }
+
+  /**
+   * Place a health check, checking if the mobile API can be reached.
+   * @return Stage holding true iff the health check can be reached
+   */
+  public CompletionStage<Boolean> getHealthCheck() {
+    return apiClient.placeStagedCall("/health", null, HEALTH_PARSER, options(Priority.NORMAL));
   }
 
   /**
@@ -37,9 +321,18 @@ public class ClutchClient {
    * @return Future holding the API response
    */
   public Future<ResponseWrapper<ListSubscriptionListsResponse>> getSubscriptionLists(ResponseHandler<ListSubscriptionListsResponse> handler) {
-    return apiClient.placeAsyncCall("/brand/lists", null,
-            data -> new Gson().fromJson(data, ListSubscriptionListsResponse.class),
-            handler);
+    if(brandMetadataCache != null) {
+      return toFuture(getSubscriptionLists(), handler);
+    }
+    return apiClient.placeAsyncStreamingCall("/brand/lists", null, SUBSCRIPTION_LISTS_PARSER, handler, readOptions(Priority.INTERACTIVE));
+  }
+
+  /**
+   * List all subscription lists.
+   * @return Stage holding all available subscription lists and their meta data
+   */
+  public CompletionStage<ListSubscriptionListsResponse> getSubscriptionLists() {
+    return cached("/brand/lists", SUBSCRIPTION_LISTS_PARSER);
   }
 
   /**
@@ -49,9 +342,19 @@ public class ClutchClient {
    * @return Future holding the API response
    */
   public Future<ResponseWrapper<ListFieldsResponse>> getFields(ResponseHandler<ListFieldsResponse> handler) {
-    return apiClient.placeAsyncCall("/brand/fields", null,
-            data -> new Gson().fromJson(data, ListFieldsResponse.class),
-            handler);
+    if(brandMetadataCache != null) {
+      return toFuture(getFields(), handler);
+    }
+    return apiClient.placeAsyncStreamingCall("/brand/fields", null, FIELDS_PARSER, handler, readOptions(Priority.INTERACTIVE));
+  }
+
+  /**
+   * List all available demographics / custom fields.
+   * Includes information about required and editable status of fields.
+   * @return Stage holding all available demographics / custom fields
+   */
+  public CompletionStage<ListFieldsResponse> getFields() {
+    return cached("/brand/fields", FIELDS_PARSER);
   }
 
   /**
@@ -60,9 +363,15 @@ public class ClutchClient {
    * @return Future holding the API response
    */
   public Future<ResponseWrapper<String>> getCaptchaID(ResponseHandler<String> handler) {
-    return apiClient.placeAsyncCall("/captcha/new", null,
-            data -> new Gson().fromJson(data, CaptchaResponse.class).captchaId,
-            handler);
+    return apiClient.placeAsyncStreamingCall("/captcha/new", null, CAPTCHA_PARSER, handler, options(Priority.INTERACTIVE).withCoalescing(false));
+  }
+
+  /**
+   * Generate a captcha ID.
+   * @return Stage holding the captcha ID
+   */
+  public CompletionStage<String> getCaptchaID() {
+    return apiClient.placeStagedCall("/captcha/new", null, CAPTCHA_PARSER, options(Priority.INTERACTIVE).withCoalescing(false));
   }
 
   /**
@@ -90,14 +399,21 @@ public class ClutchClient {
    * @return Future holding API response
    */
   public Future<ResponseWrapper<RegisterResponse>> registerNewCard(String captchaId, String captchaValue, Map<String, String> primaryFields, Map<String, String> customFields, ResponseHandler<RegisterResponse> handler) {
-    RegisterRequest request = new RegisterRequest();
-    request.captchaId = captchaId;
-    request.captchaSecret = captchaValue;
-    request.primaryFields = primaryFields;
-    request.customFields = customFields;
-    return apiClient.placeAsyncCall("/auth/token/register", new Gson().toJson(request),
-            data -> new Gson().fromJson(data, RegisterResponse.class),
-            handler);
+    return apiClient.placeAsyncStreamingCall("/auth/token/register", registerRequest(captchaId, captchaValue, primaryFields, customFields),
+            REGISTER_PARSER, handler, options(Priority.INTERACTIVE));
+  }
+
+  /**
+   * Register for a new mobile token, see registerNewCard with a handler.
+   *
+   * @param captchaId ID of the captcha image that was entered
+   * @param captchaValue Value that the user could read from the captcha
+   * @param primaryFields Demographics values for primary fields
+   * @param customFields Demographics/custom values for custom fields
+   * @return Stage holding the response object, including the created Clutch card number and PIN, along with the mobile access token
+   */
+  public CompletionStage<RegisterResponse> registerNewCard(String captchaId, String captchaValue, Map<String, String> primaryFields, Map<String, String> customFields) {
+    return apiClient.placeStagedCall("/auth/token/register", registerRequest(captchaId, captchaValue, primaryFields, customFields), REGISTER_PARSER, options(Priority.INTERACTIVE));
   }
 
   /**
@@ -113,20 +429,21 @@ public class ClutchClient {
    * @return Future holding API response
    */
   public Future<ResponseWrapper<String>> getTokenExistingCard(String captchaId, String captchaValue, String cardNumber, String pin, ResponseHandler<String> handler) {
-    GetTokenRequest request = new GetTokenRequest();
-    request.captchaId = captchaId;
-    request.captchaSecret = captchaValue;
-    request.cardNumber = cardNumber;
-    request.pin = pin;
-    return apiClient.placeAsyncCall("/auth/token/existing", new Gson().toJson(request),
-            data -> {
-              GetTokenResponse response = new Gson().fromJson(data, GetTokenResponse.class);
-              if(response == null || !response.success) {
-                throw new APIException("Invalid input");
-              }
-              return response.token;
-            },
-            handler);
+    return apiClient.placeAsyncStreamingCall("/auth/token/existing", getTokenRequest(captchaId, captchaValue, cardNumber, pin),
+            TOKEN_PARSER, handler, options(Priority.INTERACTIVE));
+  }
+
+  /**
+   * Get an app token for an existing Clutch card, see getTokenExistingCard with a handler.
+   *
+   * @param captchaId ID of the captcha image that was entered
+   * @param captchaValue Value that the user could read from the captcha
+   * @param cardNumber Clutch card number of the card that belongs to the user
+   * @param pin Card PIN if the Clutch configuration specifies this as required for the app key
+   * @return Stage holding the token
+   */
+  public CompletionStage<String> getTokenExistingCard(String captchaId, String captchaValue, String cardNumber, String pin) {
+    return apiClient.placeStagedCall("/auth/token/existing", getTokenRequest(captchaId, captchaValue, cardNumber, pin), TOKEN_PARSER, options(Priority.INTERACTIVE));
   }
 
   /**
@@ -136,9 +453,18 @@ public class ClutchClient {
    * @return Future holding API response
    */
   public Future<ResponseWrapper<Boolean>> releaseToken(String token, ResponseHandler<Boolean> handler) {
-    return apiClient.placeAsyncCall("/auth/token/release/" + token, null,
-            data -> new Gson().fromJson(data, BasicResponse.class).success,
-            handler);
+    invalidateProfile(token);
+    return apiClient.placeAsyncStreamingCall("/auth/token/release/" + token, null, SUCCESS_PARSER, handler, options(Priority.INTERACTIVE).withCoalescing(false));
+  }
+
+  /**
+   * Release a token. This will invalidate the token, preventing it from being used in future API calls.
+   * @param token Mobile app token to release
+   * @return Stage holding a flag with the request success state
+   */
+  public CompletionStage<Boolean> releaseToken(String token) {
+    invalidateProfile(token);
+    return apiClient.placeStagedCall("/auth/token/release/" + token, null, SUCCESS_PARSER, options(Priority.INTERACTIVE).withCoalescing(false));
   }
 
   /**
@@ -150,13 +476,24 @@ public class ClutchClient {
    * @return Future holding API response
    */
   public Future<ResponseWrapper<Boolean>> updateDemographics(String token, Map<String, String> primaryFields, Map<String, String> customFields, ResponseHandler<Boolean> handler) {
-    DemographicsUpdateRequest request = new DemographicsUpdateRequest();
-    request.token = token;
-    request.primaryFields = primaryFields == null ? new HashMap<>() : primaryFields;
-    request.customFields = customFields == null ? new HashMap<>() : customFields;
-    return apiClient.placeAsyncCall("/profile/demographics", new Gson().toJson(request),
-            data -> new Gson().fromJson(data, BasicResponse.class).success,
-            handler);
+    if(demographicsCoalescer != null || profileCache != null) {
+      return toFuture(updateDemographics(token, primaryFields, customFields), handler);
+    }
+    return mutate("/profile/demographics", GSON.toJson(demographicsRequest(token, primaryFields, customFields)), Priority.NORMAL, handler);
+  }
+
+  /**
+   * Update demographics.
+   * @param token Token to access a single card
+   * @param primaryFields Demographics values for primary fields, should only contain updates
+   * @param customFields Demographics/custom values for custom fields, should only contain updates
+   * @return Stage holding a flag with the request success state
+   */
+  public CompletionStage<Boolean> updateDemographics(String token, Map<String, String> primaryFields, Map<String, String> customFields) {
+    DemographicsUpdateRequest request = demographicsRequest(token, primaryFields, customFields);
+    WriteCoalescer<String, DemographicsUpdateRequest> coalescer = demographicsCoalescer;
+    CompletionStage<Boolean> stage = coalescer != null ? coalescer.submit(token, request) : mutate("/profile/demographics", GSON.toJson(request), Priority.NORMAL);
+    return updateProfile(stage, cache -> cache.applyDemographics(apiClient.getAppKey(), token, primaryFields, customFields));
   }
 
   /**
@@ -172,6 +509,18 @@ public class ClutchClient {
     return updatePushToken(token, "apns", pushToken, handler);
   }
 
+  /**
+   * Update the push token for APNS (Apple).
+   * This should typically not be used from an Android app.
+   *
+   * @param token Token to access a single card
+   * @param pushToken New APNS push token for the user
+   * @return Stage holding a flag with the request success state
+   */
+  public CompletionStage<Boolean> updatePushTokenAPNS(String token, String pushToken) {
+    return mutate("/profile/pushToken", pushTokenRequest(token, "apns", pushToken), Priority.BACKGROUND);
+  }
+
   /**
    * Update the push token for GCM (Android).
    * @param token Token to access a single card
@@ -183,6 +532,16 @@ public class ClutchClient {
     return updatePushToken(token, "gcm", pushToken, handler);
   }
 
+  /**
+   * Update the push token for GCM (Android).
+   * @param token Token to access a single card
+   * @param pushToken New GCM push token for the user
+   * @return Stage holding a flag with the request success state
+   */
+  public CompletionStage<Boolean> updatePushTokenGCM(String token, String pushToken) {
+    return mutate("/profile/pushToken", pushTokenRequest(token, "gcm", pushToken), Priority.BACKGROUND);
+  }
+
   /**
    * Register a card event.
    * @param token Token to access a single card
@@ -191,12 +550,30 @@ public class ClutchClient {
    * @return Future holding API response
    */
   public Future<ResponseWrapper<Boolean>> registerEvent(String token, String eventCategoryId, ResponseHandler<Boolean> handler) {
-    RegisterEventRequest request = new RegisterEventRequest();
-    request.token = token;
-    request.categoryId = eventCategoryId;
-    return apiClient.placeAsyncCall("/profile/event", new Gson().toJson(request),
-            data -> new Gson().fromJson(data, BasicResponse.class).success,
-            handler);
+    return mutate("/profile/event", eventRequest(token, eventCategoryId), Priority.BACKGROUND, handler);
+  }
+
+  /**
+   * Register a card event.
+   * @param token Token to access a single card
+   * @param eventCategoryId The category ID of the event to record
+   * @return Stage holding a flag with the request success state
+   */
+  public CompletionStage<Boolean> registerEvent(String token, String eventCategoryId) {
+    return mutate("/profile/event", eventRequest(token, eventCategoryId), Priority.BACKGROUND);
+  }
+
+  /**
+   * Register multiple card events in a single call to the batch endpoint.
+   * The batch endpoint is not available for every brand, see EventPipeline to fall back to single calls.
+   * Unlike single events, a batch is not recorded in the mutation journal.
+   * @param events Events to register, each with a token and event category ID
+   * @return Stage holding the result per event
+   */
+  public CompletionStage<RegisterEventBatchResponse> registerEvents(List<RegisterEventRequest> events) {
+    RegisterEventBatchRequest request = new RegisterEventBatchRequest();
+    request.events = events;
+    return apiClient.placeStagedCall("/profile/events", GSON.toJson(request), EVENT_BATCH_PARSER, options(Priority.BACKGROUND));
   }
 
   /**
@@ -209,14 +586,25 @@ public class ClutchClient {
    * @return Future holding API response
    */
   public Future<ResponseWrapper<Boolean>> updateOptInStatus(String token, String subscriptionListId, Boolean globalOptIn, Boolean newOptIn, ResponseHandler<Boolean> handler) {
-    SubscriptionListUpdateRequest request = new SubscriptionListUpdateRequest();
-    request.token = token;
-    request.subscriptionListId = subscriptionListId;
-    request.newOptIn = newOptIn;
-    request.globalOptIn = globalOptIn;
-    return apiClient.placeAsyncCall("/profile/optInStatus", new Gson().toJson(request),
-            data -> new Gson().fromJson(data, BasicResponse.class).success,
-            handler);
+    if(optInCoalescer != null || profileCache != null) {
+      return toFuture(updateOptInStatus(token, subscriptionListId, globalOptIn, newOptIn), handler);
+    }
+    return mutate("/profile/optInStatus", GSON.toJson(optInRequest(token, subscriptionListId, globalOptIn, newOptIn)), Priority.NORMAL, handler);
+  }
+
+  /**
+   * Update the subscription list opt in status for a single subscription list.
+   * @param token Token to access a single card
+   * @param subscriptionListId ID of the subscription list that gets an opt in status change
+   * @param globalOptIn New global opt in status, or null if this should not be changed
+   * @param newOptIn New opt in status, true for opted in, false for opted out
+   * @return Stage holding a flag with the request success state
+   */
+  public CompletionStage<Boolean> updateOptInStatus(String token, String subscriptionListId, Boolean globalOptIn, Boolean newOptIn) {
+    SubscriptionListUpdateRequest request = optInRequest(token, subscriptionListId, globalOptIn, newOptIn);
+    WriteCoalescer<List<String>, SubscriptionListUpdateRequest> coalescer = optInCoalescer;
+    CompletionStage<Boolean> stage = coalescer != null ? coalescer.submit(Arrays.asList(token, subscriptionListId), request) : mutate("/profile/optInStatus", GSON.toJson(request), Priority.NORMAL);
+    return updateProfile(stage, cache -> cache.applyOptIn(apiClient.getAppKey(), token, subscriptionListId, globalOptIn, newOptIn));
   }
 
   /**
@@ -226,9 +614,51 @@ public class ClutchClient {
    * @return Future holding API response
    */
   public Future<ResponseWrapper<ProfileViewResponse>> getProfile(String token, ResponseHandler<ProfileViewResponse> handler) {
-    return apiClient.placeAsyncCall("/profile/token/" + token, null,
-            data -> new Gson().fromJson(data, ProfileViewResponse.class),
-            handler);
+    if(profileCache != null) {
+      return toFuture(getProfile(token), handler);
+    }
+    return apiClient.placeAsyncStreamingCall("/profile/token/" + token, null, PROFILE_PARSER, handler, readOptions(Priority.INTERACTIVE));
+  }
+
+  /**
+   * Get the current profile status for a user.
+   * @param token Token to access a single card
+   * @return Stage holding all information for the current card
+   */
+  public CompletionStage<ProfileViewResponse> getProfile(String token) {
+    String method = "/profile/token/" + token;
+    ProfileCache cache = profileCache;
+    if(cache == null) {
+      return apiClient.placeStagedCall(method, null, PROFILE_PARSER, readOptions(Priority.INTERACTIVE));
+    }
+    return cache.get(apiClient.getAppKey(), token, etag -> apiClient.placeConditionalCall(method, etag, PROFILE_PARSER, readOptions(Priority.INTERACTIVE)));
+  }
+
+  /**
+   * Get the profiles of many users, e.g. to reconcile balances, with a bounded amount of calls in flight.
+   * Tokens are only taken from the iterator when there is room for their call, so it can be backed by a stream or a
+   * database cursor. Every profile goes to the handler as soon as it arrives, and a failed token does not stop the others.
+   * The calls run in the background lane, unless this client has a lane of its own.
+   * @param tokens Tokens, e.g. stream.iterator()
+   * @param parallelism Maximum amount of calls in flight
+   * @param handler Handler for every profile and failure
+   * @return Stage holding the amount of profiles that were fetched, which completes after the handler was called for
+   * every token. Cancelling it stops the fetch.
+   */
+  public CompletionStage<Integer> getProfiles(Iterator<String> tokens, int parallelism, BulkProfileHandler handler) {
+    ClutchClient client = priority != null ? this : withPriority(Priority.BACKGROUND);
+    return BulkProfileSubscriber.fetch(client, tokens, parallelism, handler);
+  }
+
+  /**
+   * Get the profiles of many users, see getProfiles.
+   * @param tokens Tokens
+   * @param parallelism Maximum amount of calls in flight
+   * @param handler Handler for every profile and failure
+   * @return Stage holding the amount of profiles that were fetched
+   */
+  public CompletionStage<Integer> getProfiles(Iterable<String> tokens, int parallelism, BulkProfileHandler handler) {
+    return getProfiles(tokens.iterator(), parallelism, handler);
   }
 
   /**
@@ -241,14 +671,395 @@ public class ClutchClient {
    * @return Future holding API response
    */
   private Future<ResponseWrapper<Boolean>> updatePushToken(String token, String pushTokenType, String pushToken, ResponseHandler<Boolean> handler) {
+    return mutate("/profile/pushToken", pushTokenRequest(token, pushTokenType, pushToken), Priority.BACKGROUND, handler);
+  }
+
+  /**
+   * Send the oldest pending mutation after a sequence number, and continue with the next one once it was acknowledged.
+   */
+  private void replayNext(MutationJournal journal, long after, int count, CompletableFuture<Integer> result) {
+    MutationJournal.Entry next;
+    synchronized(journalQueued) {
+      next = journal.getNext(after);
+      if(next == null || journalInFlight.contains(next.sequence)) {
+        // An update that is being sent replays the rest once it completes
+        replay.set(null);
+        next = null;
+      } else {
+        journalInFlight.add(next.sequence);
+      }
+    }
+    if(next == null) {
+      result.complete(count);
+      return;
+    }
+    MutationJournal.Entry entry = next;
+    apiClient.placeStagedCall(entry.method, entry.postData, SUCCESS_PARSER, options(Priority.BACKGROUND)).whenComplete((success, ex) -> {
+      if(ex != null && !isFinal(ex)) {
+        journalInFlight.remove(entry.sequence);
+        failQueued(ex, true);
+        result.complete(count);
+        return;
+      }
+      acknowledge(journal, entry.sequence);
+      journalInFlight.remove(entry.sequence);
+      CompletableFuture<Boolean> queued;
+      synchronized(journalQueued) {
+        queued = journalQueued.remove(entry.sequence);
+      }
+      // Move on first, so a caller that sees its update complete also sees the replay end after the last one
+      replayNext(journal, entry.sequence, count + 1, result);
+      if(queued != null) {
+        if(ex == null) {
+          queued.complete(success);
+        } else {
+          queued.completeExceptionally(unwrap(ex));
+        }
+      }
+    });
+  }
+
+  /**
+   * Place a mutation, recording it in the journal if there is one.
+   * @param method Method, e.g. /profile/demographics
+   * @param postData Post data
+   * @param lane Default lane of the mutation
+   * @param handler Handler for the success flag, or null
+   * @return Future holding the API response
+   */
+  private Future<ResponseWrapper<Boolean>> mutate(String method, String postData, Priority lane, ResponseHandler<Boolean> handler) {
+    MutationJournal journal = mutationJournal;
+    long sequence = journal == null ? -1 : append(journal, method, postData);
+    if(sequence == -1) {
+      return apiClient.placeAsyncStreamingCall(method, postData, SUCCESS_PARSER, handler, options(lane));
+    }
+    CompletableFuture<Boolean> queued = queued(sequence);
+    if(queued != null) {
+      return toFuture(queued, handler);
+    }
+    return apiClient.placeAsyncStreamingCall(method, postData, SUCCESS_PARSER, new ResponseHandler<Boolean>() {
+      @Override
+      public void handleSuccess(Boolean response) {
+        completeMutation(journal, sequence, null);
+        if(handler != null) {
+          handler.handleSuccess(response);
+        }
+      }
+
+      @Override
+      public void handleError(APIException ex) {
+        completeMutation(journal, sequence, ex);
+        if(handler != null) {
+          handler.handleError(ex);
+        }
+      }
+    }, options(lane));
+  }
+
+  /**
+   * Place a mutation, recording it in the journal if there is one.
+   * @param method Method, e.g. /profile/demographics
+   * @param postData Post data
+   * @param lane Default lane of the mutation
+   * @return Stage holding the success flag
+   */
+  private CompletionStage<Boolean> mutate(String method, String postData, Priority lane) {
+    MutationJournal journal = mutationJournal;
+    long sequence = journal == null ? -1 : append(journal, method, postData);
+    CompletableFuture<Boolean> queued = sequence == -1 ? null : queued(sequence);
+    if(queued != null) {
+      return queued;
+    }
+    CompletionStage<Boolean> stage = apiClient.placeStagedCall(method, postData, SUCCESS_PARSER, options(lane));
+    if(sequence != -1) {
+      stage.whenComplete((success, ex) -> completeMutation(journal, sequence, ex));
+    }
+    return stage;
+  }
+
+  /**
+   * Append a mutation to the journal. If that fails, the mutation is still placed, but without a journal entry.
+   * If older mutations are pending, the mutation is queued behind them, otherwise it is marked as being sent.
+   * @return Sequence number, or -1 if the mutation could not be appended
+   */
+  private long append(MutationJournal journal, String method, String postData) {
+    synchronized(journalQueued) {
+      long sequence;
+      try {
+        sequence = journal.append(method, postData);
+      } catch(IOException ex) {
+        return -1;
+      }
+      if(journal.getPendingCount() > 1) {
+        journalQueued.put(sequence, new CompletableFuture<>());
+      } else {
+        journalInFlight.add(sequence);
+      }
+      return sequence;
+    }
+  }
+
+  /**
+   * Get the stage of a mutation that was queued behind older mutations, and start a replay to send it.
+   * @return Stage, or null if the mutation should be sent right away
+   */
+  private CompletableFuture<Boolean> queued(long sequence) {
+    CompletableFuture<Boolean> queued;
+    synchronized(journalQueued) {
+      queued = journalQueued.get(sequence);
+    }
+    if(queued != null) {
+      replayJournal();
+    }
+    return queued;
+  }
+
+  /**
+   * Acknowledge a journaled mutation unless it should be sent again. Mutations that were queued behind it are sent
+   * next, or fail if it has to be sent again.
+   */
+  private void completeMutation(MutationJournal journal, long sequence, Throwable ex) {
+    if(ex != null && !isFinal(ex)) {
+      journalInFlight.remove(sequence);
+      failQueued(ex, false);
+      return;
+    }
+    acknowledge(journal, sequence);
+    journalInFlight.remove(sequence);
+    if(journal.getPendingCount() > journalInFlight.size()) {
+      replayJournal();
+    }
+  }
+
+  /**
+   * Fail the stages of all queued mutations, which stay in the journal for the next replay.
+   * @param ex Failure of the mutation they were queued behind
+   * @param stopReplay True to end the replay in progress, before new mutations can be queued behind it
+   */
+  private void failQueued(Throwable ex, boolean stopReplay) {
+    List<CompletableFuture<Boolean>> failed;
+    synchronized(journalQueued) {
+      if(stopReplay) {
+        replay.set(null);
+      }
+      failed = new ArrayList<>(journalQueued.values());
+      journalQueued.clear();
+    }
+    Throwable cause = unwrap(ex);
+    failed.forEach(queued -> queued.completeExceptionally(cause));
+  }
+
+  private static Throwable unwrap(Throwable ex) {
+    return ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+  }
+
+  private static void acknowledge(MutationJournal journal, long sequence) {
+    try {
+      journal.acknowledge(sequence);
+    } catch(IOException ex) {
+      // Sent again on the next replay
+    }
+  }
+
+  /**
+   * Check if a failed mutation should not be sent again, as the API processed it and rejected it.
+   */
+  private static boolean isFinal(Throwable ex) {
+    Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+    if(cause instanceof APIStatusException) {
+      int status = ((APIStatusException) cause).getStatusCode();
+      return status >= 400 && status < 500 && status != 408 && status != 429;
+    }
+    return cause instanceof ResponseTooLargeException;
+  }
+
+  /**
+   * Single daemon thread shared by all clients, that sends merged writes once their window has passed.
+   */
+  private static class WriteScheduler {
+
+    private static final ScheduledExecutorService INSTANCE = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "clutch-write-coalescer");
+      thread.setDaemon(true);
+      return thread;
+    });
+
+  }
+
+  /**
+   * Get brand metadata from the cache if there is one, otherwise place the call.
+   * @param method Method, e.g. /brand/fields
+   * @param parser Parser for the response
+   * @param <T> Type of the response
+   * @return Stage holding the response
+   */
+  private <T> CompletionStage<T> cached(String method, StreamParser<T> parser) {
+    BrandMetadataCache cache = brandMetadataCache;
+    if(cache == null) {
+      return apiClient.placeStagedCall(method, null, parser, readOptions(Priority.INTERACTIVE));
+    }
+    return cache.get(apiClient.getAppKey(), method, () -> apiClient.placeStagedCall(method, null, parser, readOptions(Priority.INTERACTIVE)));
+  }
+
+  /**
+   * Apply a successful profile update to the profile cache, before the returned stage completes.
+   * @param stage Stage holding the success flag of the update
+   * @param update Update to apply to the cache
+   * @return Stage holding the success flag. Cancelling it cancels the update.
+   */
+  private CompletionStage<Boolean> updateProfile(CompletionStage<Boolean> stage, Consumer<ProfileCache> update) {
+    ProfileCache cache = profileCache;
+    if(cache == null) {
+      return stage;
+    }
+    CompletableFuture<Boolean> result = stage.thenApply(success -> {
+      if(Boolean.TRUE.equals(success)) {
+        update.accept(cache);
+      }
+      return success;
+    }).toCompletableFuture();
+    result.whenComplete((success, ex) -> {
+      if(result.isCancelled()) {
+        stage.toCompletableFuture().cancel(true);
+      }
+    });
+    return result;
+  }
+
+  private void invalidateProfile(String token) {
+    ProfileCache cache = profileCache;
+    if(cache != null) {
+      cache.invalidate(apiClient.getAppKey(), token);
+    }
+  }
+
+  /**
+   * Adapt a stage to the handler variant of a call, invoking the handler in the callback executor.
+   * @param stage Stage holding the response
+   * @param handler Handler for the response, or null
+   * @param <T> Type of the response
+   * @return Future holding the wrapped response, which completes after the handler was invoked. Cancelling it cancels
+   * the stage.
+   */
+  private <T> Future<ResponseWrapper<T>> toFuture(CompletionStage<T> stage, ResponseHandler<T> handler) {
+    CompletableFuture<ResponseWrapper<T>> result = new CompletableFuture<>();
+    result.whenComplete((wrapper, ex) -> {
+      if(result.isCancelled()) {
+        stage.toCompletableFuture().cancel(true);
+      }
+    });
+    BiConsumer<T, Throwable> callback = (response, ex) -> {
+      if(handler != null) {
+        if(ex == null) {
+          try {
+            handler.handleSuccess(response);
+          } catch(Exception handlerEx) {
+            handler.handleError(new APIException("Unexpected API problem", handlerEx));
+          }
+        } else {
+          Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+          handler.handleError(cause instanceof APIException ? (APIException) cause : new APIException("Unexpected API problem", cause));
+        }
+      }
+      result.complete(ex == null ? new ResponseWrapper<>(response) : new ResponseWrapper<>());
+    };
+    Executor executor = apiClient.getCallbackExecutor();
+    if(executor == null) {
+      stage.whenComplete(callback);
+    } else {
+      stage.whenCompleteAsync(callback, executor);
+    }
+    return result;
+  }
+
+  /**
+   * Get the options for a call, with the deadline of this client.
+   * @param lane Default lane of the method, used unless this client has a lane of its own
+   * @return Call options
+   */
+  private CallOptions options(Priority lane) {
+    return new CallOptions(deadlineMillis, priority != null ? priority : lane);
+  }
+
+  /**
+   * Get the options for an idempotent read, which may share the request of an identical call in flight.
+   * @param lane Default lane of the method, used unless this client has a lane of its own
+   * @return Call options
+   */
+  private CallOptions readOptions(Priority lane) {
+    return options(lane).withCoalescing(true);
+  }
+
+  private static String registerRequest(String captchaId, String captchaValue, Map<String, String> primaryFields, Map<String, String> customFields) {
+    RegisterRequest request = new RegisterRequest();
+    request.captchaId = captchaId;
+    request.captchaSecret = captchaValue;
+    request.primaryFields = primaryFields;
+    request.customFields = customFields;
+    return GSON.toJson(request);
+  }
+
+  private static String getTokenRequest(String captchaId, String captchaValue, String cardNumber, String pin) {
+    GetTokenRequest request = new GetTokenRequest();
+    request.captchaId = captchaId;
+    request.captchaSecret = captchaValue;
+    request.cardNumber = cardNumber;
+    request.pin = pin;
+    return GSON.toJson(request);
+  }
+
+  private static DemographicsUpdateRequest demographicsRequest(String token, Map<String, String> primaryFields, Map<String, String> customFields) {
+    DemographicsUpdateRequest request = new DemographicsUpdateRequest();
+    request.token = token;
+    request.primaryFields = primaryFields == null ? new HashMap<>() : primaryFields;
+    request.customFields = customFields == null ? new HashMap<>() : customFields;
+    return request;
+  }
+
+  /**
+   * Merge two demographics updates for the same token, where the values of the later update win.
+   */
+  private static DemographicsUpdateRequest mergeDemographics(DemographicsUpdateRequest earlier, DemographicsUpdateRequest later) {
+    DemographicsUpdateRequest merged = new DemographicsUpdateRequest();
+    merged.token = later.token;
+    merged.primaryFields = new LinkedHashMap<>(earlier.primaryFields);
+    merged.primaryFields.putAll(later.primaryFields);
+    merged.customFields = new LinkedHashMap<>(earlier.customFields);
+    merged.customFields.putAll(later.customFields);
+    return merged;
+  }
+
+  private static String pushTokenRequest(String token, String pushTokenType, String pushToken) {
     PushTokenUpdateRequest request = new PushTokenUpdateRequest();
     request.token = token;
     request.pushTokenType = pushTokenType;
     request.pushToken = pushToken;
+    return GSON.toJson(request);
+  }
+
+  private static String eventRequest(String token, String eventCategoryId) {
+    RegisterEventRequest request = new RegisterEventRequest();
+    request.token = token;
+    request.categoryId = eventCategoryId;
+    return GSON.toJson(request);
+  }
+
+  private static SubscriptionListUpdateRequest optInRequest(String token, String subscriptionListId, Boolean globalOptIn, Boolean newOptIn) {
+    SubscriptionListUpdateRequest request = new SubscriptionListUpdateRequest();
+    request.token = token;
+    request.subscriptionListId = subscriptionListId;
+    request.newOptIn = newOptIn;
+    request.globalOptIn = globalOptIn;
+    return request;
+  }
 
-    return apiClient.placeAsyncCall("/profile/pushToken", new Gson().toJson(request),
-            data -> new Gson().fromJson(data, BasicResponse.class).success,
-            handler);
+  /**
+   * Merge two opt-in updates for the same token and subscription list, where the values of the later update win.
+   */
+  private static SubscriptionListUpdateRequest mergeOptIn(SubscriptionListUpdateRequest earlier, SubscriptionListUpdateRequest later) {
+    return optInRequest(later.token, later.subscriptionListId,
+            later.globalOptIn != null ? later.globalOptIn : earlier.globalOptIn,
+            later.newOptIn != null ? later.newOptIn : earlier.newOptIn);
   }
 
 }
@@ -0,0 +1,77 @@
+package com.clutch.mobilesdk;
+
+/**
+ * Interfaces for reactive streams, with the same methods and rules as java.util.concurrent.Flow and the Reactive Streams
+ * specification. Flow is only available from Java 9, and not on every Android version, so the publishers of this SDK
+ * implement these interfaces instead. They adapt to Flow or org.reactivestreams with a wrapper that forwards every method.
+ */
+public final class ClutchFlow {
+
+  private ClutchFlow() {
+  }
+
+  /**
+   * Producer of items that are received by subscribers, once they requested them.
+   * @param <T> Type of the items
+   */
+  public interface Publisher<T> {
+
+    /**
+     * Add a subscriber, which first receives onSubscribe, and then only receives items that it requested.
+     * @param subscriber Subscriber
+     * @throws NullPointerException If the subscriber is null
+     */
+    void subscribe(Subscriber<? super T> subscriber);
+
+  }
+
+  /**
+   * Receiver of items. The methods are called one at a time, and nothing is called after onError or onComplete.
+   * @param <T> Type of the items
+   */
+  public interface Subscriber<T> {
+
+    /**
+     * Receive the subscription, before any other method is called. Nothing is received until items are requested.
+     * @param subscription Subscription
+     */
+    void onSubscribe(Subscription subscription);
+
+    /**
+     * Receive the next item.
+     * @param item Item, never null
+     */
+    void onNext(T item);
+
+    /**
+     * Receive the failure that terminated the stream.
+     * @param throwable Failure
+     */
+    void onError(Throwable throwable);
+
+    /**
+     * Receive the end of the stream, after all items.
+     */
+    void onComplete();
+
+  }
+
+  /**
+   * Link between a publisher and a subscriber.
+   */
+  public interface Subscription {
+
+    /**
+     * Request more items. Requests add up, up to Long.MAX_VALUE for an unbounded amount.
+     * @param n Amount of items, a request of 0 or less fails the stream with an IllegalArgumentException
+     */
+    void request(long n);
+
+    /**
+     * Stop receiving items. The subscriber may still receive items that were already on their way.
+     */
+    void cancel();
+
+  }
+
+}
@@ -0,0 +1,306 @@
+package com.clutch.mobilesdk;
+
+import com.clutch.mobilesdk.models.ProfileViewResponse;
+import com.clutch.mobilesdk.network.Priority;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Publishers for the calls of a ClutchClient, for reactive code that should not block a thread per call.
+ *
+ * Calls only start once their result was requested, so the demand of the subscriber limits the calls in flight, and
+ * results are emitted in the order the calls complete. Cancelling the subscription cancels the calls in flight, which
+ * closes their connections. The first failed call fails the stream; to skip failures instead, recover in the call,
+ * e.g. with exceptionally. Every subscriber gets calls of its own.
+ */
+public final class ClutchPublishers {
+
+  private ClutchPublishers() {
+  }
+
+  /**
+   * Get a publisher for a single call, e.g. () -> client.getProfile(token). The call is placed once the subscriber
+   * requests its result.
+   * @param call Places the call
+   * @param <T> Type of the result
+   * @return Publisher of the result
+   */
+  public static <T> ClutchFlow.Publisher<T> fromCall(Supplier<? extends CompletionStage<T>> call) {
+    Objects.requireNonNull(call, "call");
+    return fromCalls(Collections.singleton(call), 1, Supplier::get);
+  }
+
+  /**
+   * Get a publisher that places a call for every input, with at most maxConcurrency calls in flight, and never more
+   * than the subscriber requested. Inputs are only taken from the iterator when there is room for their call.
+   * @param inputs Inputs, iterated once per subscriber, e.g. a list or stream::iterator
+   * @param maxConcurrency Maximum amount of calls in flight
+   * @param call Places the call for an input
+   * @param <T> Type of the inputs
+   * @param <R> Type of the results
+   * @return Publisher of the results
+   */
+  public static <T, R> ClutchFlow.Publisher<R> fromCalls(Iterable<T> inputs, int maxConcurrency, Function<? super T, ? extends CompletionStage<R>> call) {
+    Objects.requireNonNull(inputs, "inputs");
+    Objects.requireNonNull(call, "call");
+    if(maxConcurrency < 1) {
+      throw new IllegalArgumentException("At least one call in flight is required");
+    }
+    return subscriber -> {
+      Objects.requireNonNull(subscriber, "subscriber");
+      new CallSubscription<>(subscriber, inputs, maxConcurrency, call).start();
+    };
+  }
+
+  /**
+   * Get a publisher of the profiles of many users, see ClutchClient.getProfiles. The calls run in the background lane,
+   * unless the client has a lane of its own.
+   * @param client Client to fetch the profiles with
+   * @param tokens Tokens
+   * @param maxConcurrency Maximum amount of calls in flight
+   * @return Publisher of the profiles
+   */
+  public static ClutchFlow.Publisher<ProfileViewResponse> profiles(ClutchClient client, Iterable<String> tokens, int maxConcurrency) {
+    ClutchClient lane = client.getPriority() != null ? client : client.withPriority(Priority.BACKGROUND);
+    return fromCalls(tokens, maxConcurrency, lane::getProfile);
+  }
+
+  /**
+   * Subscription that places calls for the demand of its subscriber.
+   *
+   * All signals to the subscriber are sent from the drain loop, which runs in one thread at a time. A request, cancel or
+   * completed call while the loop runs makes it go around again, so requests from within onNext and calls that complete
+   * right away don't recurse.
+   */
+  private static class CallSubscription<T, R> implements ClutchFlow.Subscription {
+
+    private final ClutchFlow.Subscriber<? super R> subscriber;
+
+    private final Iterable<T> inputs;
+
+    private final int maxConcurrency;
+
+    private final Function<? super T, ? extends CompletionStage<R>> call;
+
+    /**
+     * Amount of times the drain loop was asked to run, non-zero while it is running.
+     */
+    private final AtomicInteger wip = new AtomicInteger();
+
+    private Iterator<T> iterator;
+
+    private long requested;
+
+    private int inFlight;
+
+    private final ArrayDeque<R> ready = new ArrayDeque<>();
+
+    private final Set<CompletableFuture<R>> calls = new HashSet<>();
+
+    private boolean exhausted;
+
+    private boolean cancelled;
+
+    private boolean terminated;
+
+    private Throwable error;
+
+    private CallSubscription(ClutchFlow.Subscriber<? super R> subscriber, Iterable<T> inputs, int maxConcurrency, Function<? super T, ? extends CompletionStage<R>> call) {
+      this.subscriber = subscriber;
+      this.inputs = inputs;
+      this.maxConcurrency = maxConcurrency;
+      this.call = call;
+    }
+
+    private void start() {
+      try {
+        subscriber.onSubscribe(this);
+      } catch(RuntimeException ex) {
+        cancel();
+        return;
+      }
+      drain();
+    }
+
+    @Override
+    public void request(long n) {
+      synchronized(this) {
+        if(cancelled || terminated) {
+          return;
+        }
+        if(n <= 0) {
+          fail(new IllegalArgumentException("Requested " + n + " items, requests must be positive"));
+        } else {
+          requested = requested + n < 0 ? Long.MAX_VALUE : requested + n;
+        }
+      }
+      drain();
+    }
+
+    @Override
+    public void cancel() {
+      List<CompletableFuture<R>> pending;
+      synchronized(this) {
+        if(cancelled) {
+          return;
+        }
+        cancelled = true;
+        ready.clear();
+        pending = new ArrayList<>(calls);
+        calls.clear();
+      }
+      pending.forEach(future -> future.cancel(true));
+    }
+
+    /**
+     * Fail the stream, unless it already failed. Must be called while holding the lock.
+     */
+    private void fail(Throwable failure) {
+      if(error == null) {
+        error = failure;
+      }
+    }
+
+    private void drain() {
+      if(wip.getAndIncrement() != 0) {
+        return;
+      }
+      int missed = 1;
+      do {
+        try {
+          emit();
+        } catch(RuntimeException ex) {
+          // The subscriber broke the rules by throwing, so it won't receive anything else
+          cancel();
+        }
+        missed = wip.addAndGet(-missed);
+      } while(missed != 0);
+    }
+
+    /**
+     * Send the results that were requested, start calls for the remaining demand, and terminate the stream once it is
+     * done or failed.
+     */
+    private void emit() {
+      while(true) {
+        R item;
+        synchronized(this) {
+          if(cancelled || terminated) {
+            return;
+          }
+          if(error != null) {
+            break;
+          }
+          if(requested == 0 || ready.isEmpty()) {
+            break;
+          }
+          item = ready.poll();
+          if(requested != Long.MAX_VALUE) {
+            requested--;
+          }
+        }
+        subscriber.onNext(item);
+      }
+
+      List<T> next = new ArrayList<>();
+      synchronized(this) {
+        if(error == null) {
+          try {
+            if(iterator == null) {
+              iterator = inputs.iterator();
+            }
+            // Checked without demand as well, so an empty stream completes right away
+            while(!exhausted && inFlight + next.size() < maxConcurrency) {
+              if(!iterator.hasNext()) {
+                exhausted = true;
+              } else if(inFlight + next.size() + ready.size() < requested) {
+                next.add(iterator.next());
+              } else {
+                break;
+              }
+            }
+          } catch(RuntimeException ex) {
+            fail(ex);
+          }
+          inFlight += next.size();
+        }
+      }
+      next.forEach(this::place);
+
+      Throwable failure;
+      List<CompletableFuture<R>> pending;
+      synchronized(this) {
+        if(cancelled || terminated) {
+          return;
+        }
+        failure = error;
+        if(failure == null && !(exhausted && inFlight == 0 && ready.isEmpty())) {
+          return;
+        }
+        terminated = true;
+        ready.clear();
+        pending = new ArrayList<>(calls);
+        calls.clear();
+      }
+      pending.forEach(future -> future.cancel(true));
+      if(failure != null) {
+        subscriber.onError(failure);
+      } else {
+        subscriber.onComplete();
+      }
+    }
+
+    private void place(T input) {
+      CompletableFuture<R> future;
+      try {
+        future = call.apply(input).toCompletableFuture();
+      } catch(RuntimeException ex) {
+        future = new CompletableFuture<>();
+        future.completeExceptionally(ex);
+      }
+      CompletableFuture<R> pending = future;
+      boolean cancelNow;
+      synchronized(this) {
+        cancelNow = cancelled || terminated;
+        if(!cancelNow) {
+          calls.add(pending);
+        }
+      }
+      if(cancelNow) {
+        pending.cancel(true);
+      }
+      pending.whenComplete((result, ex) -> {
+        synchronized(this) {
+          calls.remove(pending);
+          inFlight--;
+          if(cancelled || terminated) {
+            return;
+          }
+          if(ex != null) {
+            fail(ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex);
+          } else if(result == null) {
+            fail(new NullPointerException("Call completed without a result"));
+          } else {
+            ready.add(result);
+          }
+        }
+        drain();
+      });
+    }
+
+  }
+
+}
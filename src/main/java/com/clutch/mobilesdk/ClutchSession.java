@@ -0,0 +1,475 @@
+package com.clutch.mobilesdk;
+
+import com.clutch.mobilesdk.models.GetTokenResponse;
+import com.clutch.mobilesdk.models.ProfileViewResponse;
+import com.clutch.mobilesdk.models.RegisterResponse;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Session of a single user, holding a token and the state that was seen for it, to skip calls that can't change anything.
+ *
+ * The session keeps the latest profile and serves it without a call within the freshness window. After that, the profile
+ * is fetched again on the next request. Concurrent requests share a single call. Successful updates are applied to the
+ * profile right away.
+ *
+ * Updates are skipped if they would not change anything: demographics and opt-in updates that match a fresh profile
+ * while no other update of it is in flight, and push tokens that were already sent in this session. Identical push token updates that are in flight are shared.
+ *
+ * Releasing the session releases the token and drops all state at once. Calls on a released session fail with an
+ * APIException. Instances are thread-safe.
+ */
+public class ClutchSession {
+
+  private static final String APNS = "apns";
+
+  private static final String GCM = "gcm";
+
+  private final ClutchClient client;
+
+  private final String token;
+
+  private final String cardNumber;
+
+  private final long freshnessNanos;
+
+  /**
+   * Latest profile, or null before it was fetched.
+   */
+  private ProfileViewResponse profile;
+
+  /**
+   * Time the profile was fetched, in System.nanoTime.
+   */
+  private long fetchedAt;
+
+  /**
+   * Profile request in flight, or null.
+   */
+  private CompletableFuture<ProfileViewResponse> refresh;
+
+  /**
+   * Incremented by every successful update, so a profile that was fetched before an update isn't used to overwrite it.
+   */
+  private long updates;
+
+  /**
+   * Push tokens per type, with the value that was sent successfully and the update that is in flight.
+   */
+  private final Map<String, PushToken> pushTokens = new HashMap<>();
+
+  private int pendingWrites;
+
+  /**
+   * Pending writes that change the profile once they succeed, which the profile doesn't reflect yet.
+   */
+  private int pendingUpdates;
+
+  private boolean released;
+
+  private final AtomicLong skippedCalls = new AtomicLong();
+
+  /**
+   * Set up a session for a token.
+   * @param client Client to place calls with
+   * @param token Token to access a single card
+   * @param cardNumber Card number, or null if it is not known
+   * @param freshnessMillis Time the profile is served without a call, or 0 to fetch it on every request
+   */
+  public ClutchSession(ClutchClient client, String token, String cardNumber, long freshnessMillis) {
+    this.client = Objects.requireNonNull(client, "client");
+    this.token = Objects.requireNonNull(token, "token");
+    this.cardNumber = cardNumber;
+    this.freshnessNanos = TimeUnit.MILLISECONDS.toNanos(freshnessMillis);
+  }
+
+  /**
+   * Set up a session for a token, serving the profile without a call for 30 seconds.
+   * @param client Client to place calls with
+   * @param token Token to access a single card
+   */
+  public ClutchSession(ClutchClient client, String token) {
+    this(client, token, null, TimeUnit.SECONDS.toMillis(30));
+  }
+
+  /**
+   * Set up a session for a newly registered card.
+   * @param client Client to place calls with
+   * @param response Successful response of registerNewCard
+   * @return Session
+   * @throws APIException If the registration failed
+   */
+  public static ClutchSession of(ClutchClient client, RegisterResponse response) {
+    if(response == null || !response.success || response.token == null) {
+      throw new APIException("Registration failed, no token to start a session with");
+    }
+    return new ClutchSession(client, response.token, response.cardNumber, TimeUnit.SECONDS.toMillis(30));
+  }
+
+  /**
+   * Set up a session for an existing card.
+   * @param client Client to place calls with
+   * @param response Successful token response
+   * @return Session
+   * @throws APIException If no token was issued
+   */
+  public static ClutchSession of(ClutchClient client, GetTokenResponse response) {
+    if(response == null || !response.success || response.token == null) {
+      throw new APIException("No token was issued to start a session with");
+    }
+    return new ClutchSession(client, response.token);
+  }
+
+  /**
+   * Get the profile, without a call if it is still fresh.
+   * @return Stage holding the profile
+   */
+  public CompletionStage<ProfileViewResponse> getProfile() {
+    synchronized(this) {
+      if(profile != null && System.nanoTime() - fetchedAt < freshnessNanos && !released) {
+        skippedCalls.incrementAndGet();
+        return CompletableFuture.completedFuture(profile);
+      }
+    }
+    return refreshProfile();
+  }
+
+  /**
+   * Fetch the profile, even if it is still fresh, e.g. after a pull to refresh.
+   * @return Stage holding the profile
+   */
+  public CompletionStage<ProfileViewResponse> refreshProfile() {
+    CompletableFuture<ProfileViewResponse> result;
+    long updatesAtStart;
+    synchronized(this) {
+      if(released) {
+        return failed();
+      }
+      if(refresh != null) {
+        return refresh;
+      }
+      result = new CompletableFuture<>();
+      refresh = result;
+      updatesAtStart = updates;
+    }
+    long start = System.nanoTime();
+    CompletionStage<ProfileViewResponse> stage;
+    try {
+      stage = client.getProfile(token);
+    } catch(RuntimeException ex) {
+      stage = failedStage(ex);
+    }
+    stage.whenComplete((fetched, ex) -> {
+      ProfileViewResponse current = fetched;
+      synchronized(this) {
+        if(refresh == result) {
+          refresh = null;
+        }
+        if(ex == null && !released && fetched != null && fetched.success) {
+          if(updates == updatesAtStart || profile == null) {
+            profile = fetched;
+            fetchedAt = start;
+          } else {
+            // An update completed meanwhile, which this profile may not reflect yet
+            current = profile;
+          }
+        }
+      }
+      if(ex == null) {
+        result.complete(current);
+      } else {
+        result.completeExceptionally(ex);
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Get the latest profile without placing a call.
+   * @return Profile, or null if it was not fetched yet
+   */
+  public synchronized ProfileViewResponse getProfileSnapshot() {
+    return profile;
+  }
+
+  /**
+   * Update demographics, only sending the fields that differ from a fresh profile.
+   * @param primaryFields Demographics values for primary fields
+   * @param customFields Demographics/custom values for custom fields
+   * @return Stage holding a flag with the request success state, which is true right away if nothing changed
+   */
+  public CompletionStage<Boolean> updateDemographics(Map<String, String> primaryFields, Map<String, String> customFields) {
+    Map<String, String> changedPrimary;
+    Map<String, String> changedCustom;
+    synchronized(this) {
+      if(released) {
+        return failed();
+      }
+      ProfileViewResponse fresh = getSettledProfile();
+      changedPrimary = changed(fresh == null ? null : fresh.primaryDemographics, primaryFields);
+      changedCustom = changed(fresh == null ? null : fresh.customDemographics, customFields);
+      if(changedPrimary.isEmpty() && changedCustom.isEmpty()) {
+        skippedCalls.incrementAndGet();
+        return CompletableFuture.completedFuture(true);
+      }
+    }
+    return write(() -> client.updateDemographics(token, changedPrimary.isEmpty() ? null : changedPrimary, changedCustom.isEmpty() ? null : changedCustom),
+            current -> ProfileCache.withDemographics(current, changedPrimary, changedCustom));
+  }
+
+  /**
+   * Update the opt in status of a subscription list, unless a fresh profile already has it.
+   * @param subscriptionListId ID of the subscription list that gets an opt in status change
+   * @param globalOptIn New global opt in status, or null if this should not be changed
+   * @param newOptIn New opt in status, true for opted in, false for opted out
+   * @return Stage holding a flag with the request success state, which is true right away if nothing changed
+   */
+  public CompletionStage<Boolean> updateOptInStatus(String subscriptionListId, Boolean globalOptIn, Boolean newOptIn) {
+    synchronized(this) {
+      if(released) {
+        return failed();
+      }
+      ProfileViewResponse fresh = getSettledProfile();
+      if(fresh != null && (globalOptIn == null || globalOptIn == fresh.emailOptIn) && fresh.emailSubscriptionLists != null
+              && Objects.equals(fresh.emailSubscriptionLists.get(subscriptionListId), newOptIn)) {
+        skippedCalls.incrementAndGet();
+        return CompletableFuture.completedFuture(true);
+      }
+    }
+    return write(() -> client.updateOptInStatus(token, subscriptionListId, globalOptIn, newOptIn),
+            current -> ProfileCache.withOptIn(current, subscriptionListId, globalOptIn, newOptIn));
+  }
+
+  /**
+   * Update the push token for GCM (Android), unless it was already sent in this session.
+   * @param pushToken New GCM push token for the user
+   * @return Stage holding a flag with the request success state
+   */
+  public CompletionStage<Boolean> updatePushTokenGCM(String pushToken) {
+    return updatePushToken(GCM, pushToken, () -> client.updatePushTokenGCM(token, pushToken));
+  }
+
+  /**
+   * Update the push token for APNS (Apple), unless it was already sent in this session.
+   * @param pushToken New APNS push token for the user
+   * @return Stage holding a flag with the request success state
+   */
+  public CompletionStage<Boolean> updatePushTokenAPNS(String pushToken) {
+    return updatePushToken(APNS, pushToken, () -> client.updatePushTokenAPNS(token, pushToken));
+  }
+
+  /**
+   * Register a card event. Events are never skipped.
+   * @param eventCategoryId The category ID of the event to record
+   * @return Stage holding a flag with the request success state
+   */
+  public CompletionStage<Boolean> registerEvent(String eventCategoryId) {
+    synchronized(this) {
+      if(released) {
+        return failed();
+      }
+    }
+    return write(() -> client.registerEvent(token, eventCategoryId), null);
+  }
+
+  /**
+   * Release the token, and drop the profile and push token state right away.
+   * @return Stage holding a flag with the request success state
+   */
+  public CompletionStage<Boolean> release() {
+    CompletableFuture<ProfileViewResponse> pendingRefresh;
+    synchronized(this) {
+      if(released) {
+        return CompletableFuture.completedFuture(true);
+      }
+      released = true;
+      profile = null;
+      pushTokens.clear();
+      pendingRefresh = refresh;
+      refresh = null;
+    }
+    if(pendingRefresh != null) {
+      pendingRefresh.completeExceptionally(new APIException("Session was released"));
+    }
+    return client.releaseToken(token);
+  }
+
+  private CompletionStage<Boolean> updatePushToken(String type, String pushToken, Call call) {
+    CompletableFuture<Boolean> result;
+    synchronized(this) {
+      if(released) {
+        return failed();
+      }
+      PushToken state = pushTokens.computeIfAbsent(type, t -> new PushToken());
+      if(Objects.equals(state.sent, pushToken) && state.inFlight == null) {
+        skippedCalls.incrementAndGet();
+        return CompletableFuture.completedFuture(true);
+      }
+      if(state.inFlight != null && Objects.equals(state.sending, pushToken)) {
+        skippedCalls.incrementAndGet();
+        return state.inFlight;
+      }
+      result = new CompletableFuture<>();
+      state.sending = pushToken;
+      state.inFlight = result;
+    }
+    write(call, null).whenComplete((success, ex) -> {
+      synchronized(this) {
+        PushToken state = pushTokens.get(type);
+        if(state != null && state.inFlight == result) {
+          state.inFlight = null;
+          state.sending = null;
+          if(ex == null && Boolean.TRUE.equals(success)) {
+            state.sent = pushToken;
+          }
+        }
+      }
+      if(ex == null) {
+        result.complete(success);
+      } else {
+        result.completeExceptionally(ex);
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Place a write, counting it as pending until it completes, and apply it to the profile if it succeeded.
+   * @param call Places the write
+   * @param update Applies the write to a profile, or null if it doesn't change the profile
+   * @return Stage holding a flag with the request success state
+   */
+  private CompletionStage<Boolean> write(Call call, Function<ProfileViewResponse, ProfileViewResponse> update) {
+    synchronized(this) {
+      pendingWrites++;
+      if(update != null) {
+        pendingUpdates++;
+      }
+    }
+    CompletionStage<Boolean> stage;
+    try {
+      stage = call.place();
+    } catch(RuntimeException ex) {
+      stage = failedStage(ex);
+    }
+    return stage.whenComplete((success, ex) -> {
+      synchronized(this) {
+        pendingWrites--;
+        if(update != null) {
+          pendingUpdates--;
+        }
+        if(ex == null && Boolean.TRUE.equals(success) && !released && update != null) {
+          updates++;
+          if(profile != null) {
+            profile = update.apply(profile);
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Get the profile to skip updates against, if it is within the freshness window and no update of it is in flight.
+   * An update in flight may still change the profile, so an update that matches the profile could undo it. Must be
+   * called while holding the lock.
+   */
+  private ProfileViewResponse getSettledProfile() {
+    return profile != null && pendingUpdates == 0 && System.nanoTime() - fetchedAt < freshnessNanos ? profile : null;
+  }
+
+  /**
+   * Get the values that differ from the current values.
+   * @param current Current values, or null if they are not known
+   * @param values New values, or null
+   * @return Changed values
+   */
+  private static Map<String, String> changed(Map<String, String> current, Map<String, String> values) {
+    Map<String, String> changed = new HashMap<>();
+    if(values != null) {
+      values.forEach((key, value) -> {
+        if(current == null || !current.containsKey(key) || !Objects.equals(current.get(key), value)) {
+          changed.put(key, value);
+        }
+      });
+    }
+    return changed;
+  }
+
+  private static <T> CompletableFuture<T> failed() {
+    return failedStage(new APIException("Session was released"));
+  }
+
+  private static <T> CompletableFuture<T> failedStage(Throwable ex) {
+    CompletableFuture<T> result = new CompletableFuture<>();
+    result.completeExceptionally(ex);
+    return result;
+  }
+
+  public String getToken() {
+    return token;
+  }
+
+  /**
+   * Get the card number, which is only known for sessions of a newly registered card.
+   * @return Card number, or null
+   */
+  public String getCardNumber() {
+    return cardNumber;
+  }
+
+  public synchronized boolean isReleased() {
+    return released;
+  }
+
+  /**
+   * Get the amount of writes that were placed, but did not complete yet.
+   * @return Amount of pending writes
+   */
+  public synchronized int getPendingWrites() {
+    return pendingWrites;
+  }
+
+  /**
+   * Get the amount of calls that were skipped because they could not change anything, or were already in flight.
+   * @return Amount of skipped calls
+   */
+  public long getSkippedCalls() {
+    return skippedCalls.get();
+  }
+
+  /**
+   * Places a write.
+   */
+  private interface Call {
+
+    CompletionStage<Boolean> place();
+
+  }
+
+  /**
+   * Push token state of a single type.
+   */
+  private static class PushToken {
+
+    /**
+     * Value that was sent successfully, or null.
+     */
+    private String sent;
+
+    /**
+     * Value that is being sent, or null.
+     */
+    private String sending;
+
+    private CompletableFuture<Boolean> inFlight;
+
+  }
+
+}
@@ -0,0 +1,14 @@
+package com.clutch.mobilesdk;
+
+/**
+ * Indicates a call was not placed because the concurrency limit was reached and too many calls were already waiting.
+ */
+public class ConcurrencyLimitException extends APIException {
+
+  private static final long serialVersionUID = 1L;
+
+  public ConcurrencyLimitException(String message) {
+    super(message);
+  }
+
+}
@@ -0,0 +1,15 @@
+package com.clutch.mobilesdk;
+
+/**
+ * Indicates a call did not complete within its deadline, which covers all attempts and the backoff between them.
+ * The connection of the call is closed, so it does not hold a thread or socket any longer.
+ */
+public class DeadlineExceededException extends APIException {
+
+  private static final long serialVersionUID = 1L;
+
+  public DeadlineExceededException(String message) {
+    super(message);
+  }
+
+}
@@ -0,0 +1,298 @@
+package com.clutch.mobilesdk;
+
+import com.clutch.mobilesdk.models.BasicResponse;
+import com.clutch.mobilesdk.models.RegisterEventBatchResponse;
+import com.clutch.mobilesdk.models.RegisterEventRequest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pipeline that registers card events in batches, for apps that register events at a high rate.
+ *
+ * Events are queued in a bounded, lock-free queue and flushed once a full batch is queued, or once the oldest queued
+ * event waited for the maximum delay. A batch is sent in a single call to the batch endpoint if enabled. Otherwise, or
+ * if the endpoint turns out not to be available, the events of a batch are sent as single calls that are all placed at
+ * once, so they share the connections and threads of the API client.
+ *
+ * The capacity bounds the events that are queued or being sent. Events submitted beyond that are dropped right away,
+ * which pushes back on the caller instead of piling up work.
+ */
+public class EventPipeline implements AutoCloseable {
+
+  private final ClutchClient client;
+
+  private final int capacity;
+
+  private final int maxBatchSize;
+
+  private final long maxDelayMillis;
+
+  private volatile boolean batchEndpoint;
+
+  private final ConcurrentLinkedQueue<Event> queue = new ConcurrentLinkedQueue<>();
+
+  /**
+   * Events that are queued.
+   */
+  private final AtomicInteger queued = new AtomicInteger();
+
+  /**
+   * Events that are queued or being sent, bounded by the capacity.
+   */
+  private final AtomicInteger pending = new AtomicInteger();
+
+  private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+  private final AtomicLong dropped = new AtomicLong();
+
+  private final AtomicLong batches = new AtomicLong();
+
+  /**
+   * Single thread that takes batches from the queue and places their calls.
+   */
+  private final ScheduledThreadPoolExecutor flusher;
+
+  /**
+   * Set up a new event pipeline.
+   * @param client Client to place calls with
+   * @param capacity Maximum amount of events that are queued or being sent
+   * @param maxBatchSize Maximum amount of events per batch
+   * @param maxDelayMillis Maximum time an event waits in the queue before it is flushed
+   * @param batchEndpoint True to send batches to the batch endpoint, see ClutchClient.registerEvents
+   */
+  public EventPipeline(ClutchClient client, int capacity, int maxBatchSize, long maxDelayMillis, boolean batchEndpoint) {
+    if(maxBatchSize < 1 || capacity < maxBatchSize) {
+      throw new IllegalArgumentException("The batch size must be at least 1, and at most the capacity");
+    }
+    this.client = client;
+    this.capacity = capacity;
+    this.maxBatchSize = maxBatchSize;
+    this.maxDelayMillis = maxDelayMillis;
+    this.batchEndpoint = batchEndpoint;
+    this.flusher = new ScheduledThreadPoolExecutor(1, runnable -> {
+      Thread thread = new Thread(runnable, "clutch-event-pipeline");
+      thread.setDaemon(true);
+      return thread;
+    });
+    // The final flush on close sends everything, so delayed flushes are not needed anymore
+    this.flusher.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+  }
+
+  /**
+   * Set up a new event pipeline with a capacity of 1000 events, batches of at most 50 events and a maximum delay of 1 second,
+   * sending single calls.
+   * @param client Client to place calls with
+   */
+  public EventPipeline(ClutchClient client) {
+    this(client, 1000, 50, 1000, false);
+  }
+
+  /**
+   * Submit a card event.
+   * @param token Token to access a single card
+   * @param eventCategoryId The category ID of the event to record
+   * @return Stage holding a flag with the request success state for this event. If the pipeline is at capacity,
+   * it fails right away with an APIException.
+   */
+  public CompletionStage<Boolean> submit(String token, String eventCategoryId) {
+    Event event = new Event(token, eventCategoryId);
+    int current;
+    do {
+      current = pending.get();
+      if(current >= capacity) {
+        dropped.incrementAndGet();
+        event.result.completeExceptionally(new APIException("Event pipeline is at capacity, event dropped"));
+        return event.result;
+      }
+    } while(!pending.compareAndSet(current, current + 1));
+
+    queue.offer(event);
+    try {
+      if(queued.incrementAndGet() >= maxBatchSize) {
+        flusher.execute(() -> flush(false));
+      } else if(flushScheduled.compareAndSet(false, true)) {
+        flusher.schedule(() -> flush(true), maxDelayMillis, TimeUnit.MILLISECONDS);
+      }
+    } catch(RejectedExecutionException ex) {
+      // Closed, so the final flush may have missed this event
+      if(queue.remove(event)) {
+        queued.decrementAndGet();
+        event.complete(null, new APIException("Event pipeline was closed"));
+      }
+    }
+    return event.result;
+  }
+
+  /**
+   * Flush all queued events now, e.g. when the app moves to the background.
+   */
+  public void flush() {
+    try {
+      flusher.execute(() -> flush(true));
+    } catch(RejectedExecutionException ex) {
+      // Closed, everything was flushed
+    }
+  }
+
+  /**
+   * Send the queued events in batches. Runs in the flusher thread.
+   * @param all True to send all queued events, false to only send full batches
+   */
+  private void flush(boolean all) {
+    if(all) {
+      flushScheduled.set(false);
+    }
+    while(all ? queued.get() > 0 : queued.get() >= maxBatchSize) {
+      List<Event> batch = new ArrayList<>(Math.min(maxBatchSize, queued.get()));
+      Event event;
+      while(batch.size() < maxBatchSize && (event = queue.poll()) != null) {
+        queued.decrementAndGet();
+        batch.add(event);
+      }
+      if(batch.isEmpty()) {
+        return;
+      }
+      send(batch);
+    }
+  }
+
+  private void send(List<Event> batch) {
+    batches.incrementAndGet();
+    if(!batchEndpoint || batch.size() == 1) {
+      sendSingle(batch);
+      return;
+    }
+
+    List<RegisterEventRequest> requests = new ArrayList<>(batch.size());
+    for(Event event : batch) {
+      RegisterEventRequest request = new RegisterEventRequest();
+      request.token = event.token;
+      request.categoryId = event.eventCategoryId;
+      requests.add(request);
+    }
+    CompletionStage<RegisterEventBatchResponse> stage;
+    try {
+      stage = client.registerEvents(requests);
+    } catch(RuntimeException ex) {
+      fail(batch, ex);
+      return;
+    }
+    stage.whenComplete((response, ex) -> {
+      Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+      if(cause instanceof APIStatusException && isUnsupported(((APIStatusException) cause).getStatusCode())) {
+        // The batch endpoint is not available, use single calls from now on
+        batchEndpoint = false;
+        sendSingle(batch);
+      } else if(cause != null) {
+        fail(batch, cause);
+      } else if(response == null || response.results == null || response.results.size() != batch.size()) {
+        fail(batch, new APIException("Unexpected batch response"));
+      } else {
+        for(int i = 0; i < batch.size(); i++) {
+          BasicResponse result = response.results.get(i);
+          batch.get(i).complete(result != null && result.success, null);
+        }
+      }
+    });
+  }
+
+  private static boolean isUnsupported(int statusCode) {
+    return statusCode == 404 || statusCode == 405 || statusCode == 501;
+  }
+
+  /**
+   * Send every event in a single call, placing all calls at once.
+   */
+  private void sendSingle(List<Event> batch) {
+    for(Event event : batch) {
+      try {
+        client.registerEvent(event.token, event.eventCategoryId).whenComplete(event::complete);
+      } catch(RuntimeException ex) {
+        event.complete(null, ex);
+      }
+    }
+  }
+
+  private void fail(List<Event> batch, Throwable cause) {
+    for(Event event : batch) {
+      event.complete(null, cause);
+    }
+  }
+
+  /**
+   * Flush all queued events and stop accepting new ones. Events that are being sent still complete.
+   */
+  @Override
+  public void close() {
+    flush();
+    flusher.shutdown();
+  }
+
+  /**
+   * Get the amount of events that were dropped because the pipeline was at capacity.
+   * @return Amount of dropped events
+   */
+  public long getDroppedEvents() {
+    return dropped.get();
+  }
+
+  /**
+   * Get the amount of events that are queued or being sent.
+   * @return Amount of pending events
+   */
+  public int getPendingEvents() {
+    return pending.get();
+  }
+
+  /**
+   * Get the amount of batches that were sent.
+   * @return Amount of batches
+   */
+  public long getBatches() {
+    return batches.get();
+  }
+
+  public boolean isBatchEndpoint() {
+    return batchEndpoint;
+  }
+
+  /**
+   * A submitted event.
+   */
+  private class Event {
+
+    private final String token;
+
+    private final String eventCategoryId;
+
+    private final CompletableFuture<Boolean> result = new CompletableFuture<>();
+
+    Event(String token, String eventCategoryId) {
+      this.token = token;
+      this.eventCategoryId = eventCategoryId;
+    }
+
+    void complete(Boolean success, Throwable ex) {
+      pending.decrementAndGet();
+      if(ex == null) {
+        result.complete(success);
+      } else {
+        Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+        result.completeExceptionally(cause instanceof APIException ? cause : new APIException("Unexpected API problem", cause));
+      }
+    }
+
+  }
+
+}
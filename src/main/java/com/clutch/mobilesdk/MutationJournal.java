@@ -0,0 +1,374 @@
+package com.clutch.mobilesdk;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of outbound mutations, so they can be sent again after they failed or the app was restarted.
+ *
+ * The journal is a sequence of memory-mapped segment files in a directory. Every mutation is appended as a record before
+ * it is sent, and an acknowledgement record is appended once the API accepted or definitively rejected it. Records are
+ * written straight into the mapped segment, so an append costs a few microseconds and survives a crash of the app.
+ * Call sync to also make it survive a crash of the device.
+ *
+ * Segments that only hold acknowledged mutations are deleted from the oldest segment on. If too many segments are kept
+ * around by a few old pending mutations, those mutations are copied to the newest segment so the old ones can be deleted.
+ *
+ * Record format: int record length, byte type, long sequence number, payload, int CRC32 over type, sequence and payload.
+ * A zero length or an invalid checksum marks the end of a segment.
+ *
+ * Instances are thread-safe. A directory must only be used by a single journal at a time.
+ */
+public class MutationJournal implements Closeable {
+
+  private static final byte APPEND = 1;
+
+  private static final byte ACKNOWLEDGE = 2;
+
+  /**
+   * Length, type, sequence and checksum.
+   */
+  private static final int RECORD_OVERHEAD = 4 + 1 + 8 + 4;
+
+  private static final String SEGMENT_PREFIX = "journal-";
+
+  private static final String SEGMENT_SUFFIX = ".log";
+
+  /**
+   * Amount of segments from which pending mutations are copied out of the oldest segment.
+   */
+  private static final int MAX_SEGMENTS = 4;
+
+  /**
+   * A mutation that was appended, but not yet acknowledged.
+   */
+  public static class Entry {
+
+    public final long sequence;
+
+    public final String method;
+
+    public final String postData;
+
+    /**
+     * Segment that holds the latest copy of this entry.
+     */
+    private Segment segment;
+
+    Entry(long sequence, String method, String postData) {
+      this.sequence = sequence;
+      this.method = method;
+      this.postData = postData;
+    }
+
+  }
+
+  private final File directory;
+
+  private final int segmentSize;
+
+  private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+
+  private final TreeMap<Long, Entry> pending = new TreeMap<>();
+
+  private final CRC32 crc = new CRC32();
+
+  /**
+   * Buffer to assemble a record in before writing it to the segment, grown as needed.
+   */
+  private ByteBuffer record = ByteBuffer.allocate(1024);
+
+  private long nextSequence = 1;
+
+  private int nextSegmentIndex;
+
+  private boolean closed;
+
+  /**
+   * Open a journal, recovering the pending mutations from the segments in the directory.
+   * @param directory Directory for the segment files, created if it does not exist
+   * @param segmentSize Size of a segment file in bytes
+   * @throws IOException If the journal could not be opened
+   */
+  public MutationJournal(File directory, int segmentSize) throws IOException {
+    if(!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Could not create journal directory " + directory);
+    }
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    recover();
+  }
+
+  /**
+   * Open a journal with segments of 256 KB.
+   * @param directory Directory for the segment files, created if it does not exist
+   * @throws IOException If the journal could not be opened
+   */
+  public MutationJournal(File directory) throws IOException {
+    this(directory, 256 * 1024);
+  }
+
+  /**
+   * Append a mutation.
+   * @param method API method, e.g. /profile/demographics
+   * @param postData Post data
+   * @return Sequence number to acknowledge the mutation with
+   * @throws IOException If the mutation could not be written
+   */
+  public synchronized long append(String method, String postData) throws IOException {
+    checkOpen();
+    Entry entry = new Entry(nextSequence++, method, postData);
+    writeAppend(entry);
+    pending.put(entry.sequence, entry);
+    compact();
+    return entry.sequence;
+  }
+
+  /**
+   * Acknowledge a mutation, so it is not sent again. Acknowledging an unknown sequence number has no effect.
+   * @param sequence Sequence number, as returned by append
+   * @throws IOException If the acknowledgement could not be written
+   */
+  public synchronized void acknowledge(long sequence) throws IOException {
+    checkOpen();
+    Entry entry = pending.remove(sequence);
+    if(entry == null) {
+      return;
+    }
+    write(ACKNOWLEDGE, sequence, null, null);
+    entry.segment.unacknowledged--;
+    compact();
+  }
+
+  /**
+   * Get all mutations that were not acknowledged, in the order they were appended.
+   * @return Pending mutations
+   */
+  public synchronized List<Entry> getPending() {
+    return new ArrayList<>(pending.values());
+  }
+
+  /**
+   * Get the oldest mutation that was not acknowledged, after a sequence number.
+   * @param sequence Sequence number, or 0 for the oldest pending mutation
+   * @return Pending mutation, or null if there is none
+   */
+  synchronized Entry getNext(long sequence) {
+    Map.Entry<Long, Entry> next = pending.higherEntry(sequence);
+    return next == null ? null : next.getValue();
+  }
+
+  public synchronized int getPendingCount() {
+    return pending.size();
+  }
+
+  /**
+   * Get the amount of segment files in use.
+   * @return Amount of segments
+   */
+  public synchronized int getSegmentCount() {
+    return segments.size();
+  }
+
+  /**
+   * Force all written records to the storage device.
+   */
+  public synchronized void sync() {
+    for(Segment segment : segments) {
+      segment.buffer.force();
+    }
+  }
+
+  @Override
+  public synchronized void close() {
+    if(!closed) {
+      sync();
+      closed = true;
+    }
+  }
+
+  private void checkOpen() throws IOException {
+    if(closed) {
+      throw new IOException("Journal is closed");
+    }
+  }
+
+  /**
+   * Delete the oldest segments while they hold no pending mutations, and move pending mutations out of the oldest
+   * segment if there are too many segments. Segments are only deleted from the oldest on, as acknowledgements in a
+   * segment can refer to mutations in older segments.
+   */
+  private void compact() throws IOException {
+    if(segments.size() > MAX_SEGMENTS) {
+      Segment oldest = segments.peekFirst();
+      for(Entry entry : pending.values()) {
+        if(entry.segment == oldest) {
+          writeAppend(entry);
+        }
+      }
+      oldest.unacknowledged = 0;
+    }
+    while(segments.size() > 1 && segments.peekFirst().unacknowledged == 0) {
+      Segment segment = segments.removeFirst();
+      if(!segment.file.delete()) {
+        throw new IOException("Could not delete journal segment " + segment.file);
+      }
+    }
+  }
+
+  private void writeAppend(Entry entry) throws IOException {
+    byte[] method = entry.method.getBytes(StandardCharsets.UTF_8);
+    byte[] postData = entry.postData == null ? new byte[0] : entry.postData.getBytes(StandardCharsets.UTF_8);
+    entry.segment = write(APPEND, entry.sequence, method, postData);
+    entry.segment.unacknowledged++;
+  }
+
+  /**
+   * Write a record to the newest segment, starting a new segment if it does not fit.
+   * An append record has a payload of the method length, the method and the post data.
+   * @return Segment the record was written to
+   */
+  private Segment write(byte type, long sequence, byte[] method, byte[] postData) throws IOException {
+    int payloadLength = method == null ? 0 : 4 + method.length + postData.length;
+    int length = RECORD_OVERHEAD + payloadLength;
+    if(record.capacity() < length) {
+      record = ByteBuffer.allocate(Math.max(length, record.capacity() * 2));
+    }
+    // Buffer methods are called through Buffer, JDK 9 added covariant overrides that Java 8 lacks
+    ((Buffer) record).clear();
+    record.putInt(length);
+    record.put(type);
+    record.putLong(sequence);
+    if(method != null) {
+      record.putInt(method.length);
+      record.put(method);
+      record.put(postData);
+    }
+    crc.reset();
+    crc.update(record.array(), 4, length - 8);
+    record.putInt((int) crc.getValue());
+    ((Buffer) record).flip();
+
+    Segment segment = segments.peekLast();
+    // Keep room for the zero length that marks the end of the segment
+    if(segment == null || segment.buffer.remaining() < length + 4) {
+      segment = createSegment(length + 4);
+    }
+    segment.buffer.put(record);
+    return segment;
+  }
+
+  private Segment createSegment(int minimumSize) throws IOException {
+    File file = new File(directory, String.format("%s%010d%s", SEGMENT_PREFIX, nextSegmentIndex++, SEGMENT_SUFFIX));
+    Segment segment = new Segment(file, map(file, Math.max(segmentSize, minimumSize)));
+    segments.addLast(segment);
+    return segment;
+  }
+
+  private static MappedByteBuffer map(File file, int size) throws IOException {
+    try(RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw"); FileChannel channel = randomAccessFile.getChannel()) {
+      // The mapping stays valid after the channel is closed
+      return channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, channel.size()));
+    }
+  }
+
+  /**
+   * Read all segments, rebuilding the pending mutations and continuing after the last valid record of the newest segment.
+   */
+  private void recover() throws IOException {
+    File[] files = directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+    if(files != null) {
+      Arrays.sort(files);
+      for(File file : files) {
+        String index = file.getName().substring(SEGMENT_PREFIX.length(), file.getName().length() - SEGMENT_SUFFIX.length());
+        nextSegmentIndex = Math.max(nextSegmentIndex, Integer.parseInt(index) + 1);
+        Segment segment = new Segment(file, map(file, 0));
+        segments.addLast(segment);
+        readSegment(segment);
+      }
+    }
+    if(segments.isEmpty()) {
+      createSegment(0);
+    }
+    compact();
+  }
+
+  private void readSegment(Segment segment) {
+    MappedByteBuffer buffer = segment.buffer;
+    while(buffer.remaining() >= RECORD_OVERHEAD) {
+      int start = buffer.position();
+      int length = buffer.getInt();
+      if(length < RECORD_OVERHEAD || length - 4 > buffer.remaining()) {
+        // End of the segment
+        ((Buffer) buffer).position(start);
+        return;
+      }
+      byte[] body = new byte[length - 8];
+      buffer.get(body);
+      int checksum = buffer.getInt();
+      crc.reset();
+      crc.update(body);
+      if(checksum != (int) crc.getValue()) {
+        // Torn write, the rest of this segment is overwritten
+        ((Buffer) buffer).position(start);
+        return;
+      }
+
+      ByteBuffer data = ByteBuffer.wrap(body);
+      byte type = data.get();
+      long sequence = data.getLong();
+      nextSequence = Math.max(nextSequence, sequence + 1);
+      if(type == APPEND) {
+        int methodLength = data.getInt();
+        String method = new String(body, 13, methodLength, StandardCharsets.UTF_8);
+        String postData = new String(body, 13 + methodLength, body.length - 13 - methodLength, StandardCharsets.UTF_8);
+        Entry entry = new Entry(sequence, method, postData);
+        entry.segment = segment;
+        segment.unacknowledged++;
+        Entry previous = pending.put(sequence, entry);
+        if(previous != null) {
+          // A copy made by compaction
+          previous.segment.unacknowledged--;
+        }
+      } else if(type == ACKNOWLEDGE) {
+        Entry entry = pending.remove(sequence);
+        if(entry != null) {
+          entry.segment.unacknowledged--;
+        }
+      }
+    }
+  }
+
+  /**
+   * A segment file and the amount of pending mutations whose latest copy it holds.
+   */
+  private static class Segment {
+
+    private final File file;
+
+    private final MappedByteBuffer buffer;
+
+    private int unacknowledged;
+
+    Segment(File file, MappedByteBuffer buffer) {
+      this.file = file;
+      this.buffer = buffer;
+    }
+
+  }
+
+}
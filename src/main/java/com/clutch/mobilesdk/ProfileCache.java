@@ -0,0 +1,283 @@
+package com.clutch.mobilesdk;
+
+import com.clutch.mobilesdk.models.ProfileViewResponse;
+import com.clutch.mobilesdk.network.ConditionalResponse;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Cache for profiles, per app key and token.
+ *
+ * Profiles are revalidated with a conditional request whenever the server returned an entity tag for them. If the profile
+ * did not change, the server responds with 304 Not Modified and the cached profile is served without downloading or
+ * parsing it again. Optionally, profiles are served without revalidating them for a maximum age.
+ *
+ * Successful demographics and opt-in updates of the ClutchClient are applied to the cached profile right away, so it
+ * reflects the updates before the profile is fetched again. Updates made elsewhere are picked up by the next revalidation.
+ *
+ * Cached profiles are shared by all callers, and should not be modified. Instances are thread-safe, and can be shared
+ * between ClutchClients with different app keys.
+ */
+public class ProfileCache {
+
+  private final long maxAgeNanos;
+
+  /**
+   * Entries in access order, so the least recently used entry is evicted first.
+   */
+  private final LinkedHashMap<String, Entry> entries;
+
+  /**
+   * Incremented for every update that is applied locally, so a download placed before it does not overwrite it.
+   */
+  private long sequence;
+
+  private final AtomicLong hits = new AtomicLong();
+
+  private final AtomicLong notModified = new AtomicLong();
+
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * Set up a new cache.
+   * @param maxEntries Maximum amount of cached profiles, the least recently used profile is evicted first
+   * @param maxAgeMillis Time a profile is served without revalidating it, or 0 to revalidate on every request
+   */
+  public ProfileCache(int maxEntries, long maxAgeMillis) {
+    this.maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxAgeMillis);
+    this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+        return size() > maxEntries;
+      }
+    };
+  }
+
+  /**
+   * Set up a new cache for 100 profiles, which are revalidated on every request.
+   */
+  public ProfileCache() {
+    this(100, 0);
+  }
+
+  /**
+   * Get a profile, revalidating or loading it if needed.
+   * @param appKey App key the profile belongs to
+   * @param token Token of the profile
+   * @param loader Loader that places a conditional call, given the entity tag of the cached profile or null
+   * @return Stage holding the profile. Profiles within the maximum age complete the stage right away. Cancelling the
+   * stage cancels the call of the loader.
+   */
+  public CompletionStage<ProfileViewResponse> get(String appKey, String token, Function<String, CompletionStage<ConditionalResponse<ProfileViewResponse>>> loader) {
+    String key = key(appKey, token);
+    Entry cached;
+    long placedAt;
+    synchronized(this) {
+      cached = entries.get(key);
+      if(cached != null && System.nanoTime() - cached.validatedAt < maxAgeNanos) {
+        hits.incrementAndGet();
+        return CompletableFuture.completedFuture(cached.profile);
+      }
+      placedAt = sequence;
+    }
+    CompletableFuture<ConditionalResponse<ProfileViewResponse>> call = loader.apply(cached == null ? null : cached.etag).toCompletableFuture();
+    CompletableFuture<ProfileViewResponse> result = call.thenApply(response -> {
+      synchronized(this) {
+        if(response.notModified && cached != null) {
+          notModified.incrementAndGet();
+          // Serve the latest version, which may have been updated since the call was placed
+          Entry current = entries.get(key);
+          Entry entry = current != null && Objects.equals(cached.etag, current.etag) ? current : cached;
+          entry.validatedAt = System.nanoTime();
+          return entry.profile;
+        }
+        misses.incrementAndGet();
+        ProfileViewResponse profile = response.response;
+        Entry current = entries.get(key);
+        if(current != null && current.version > placedAt) {
+          // An update was applied after the call was placed, which the downloaded profile may not reflect yet
+          return current.profile;
+        }
+        if(profile != null && profile.success && (response.etag != null || maxAgeNanos > 0)) {
+          entries.put(key, new Entry(profile, response.etag));
+        } else {
+          entries.remove(key);
+        }
+        return profile;
+      }
+    });
+    result.whenComplete((profile, ex) -> {
+      if(result.isCancelled()) {
+        call.cancel(true);
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Apply a successful demographics update to the cached profile, if there is one.
+   * @param appKey App key the profile belongs to
+   * @param token Token of the profile
+   * @param primaryFields Updated primary fields, or null
+   * @param customFields Updated custom fields, or null
+   */
+  public synchronized void applyDemographics(String appKey, String token, Map<String, String> primaryFields, Map<String, String> customFields) {
+    Entry entry = entries.get(key(appKey, token));
+    if(entry != null) {
+      entry.profile = withDemographics(entry.profile, primaryFields, customFields);
+      entry.version = ++sequence;
+    }
+  }
+
+  /**
+   * Apply a successful opt-in update to the cached profile, if there is one.
+   * @param appKey App key the profile belongs to
+   * @param token Token of the profile
+   * @param subscriptionListId Updated subscription list, or null
+   * @param globalOptIn New global opt in status, or null if it did not change
+   * @param newOptIn New opt in status for the subscription list
+   */
+  public synchronized void applyOptIn(String appKey, String token, String subscriptionListId, Boolean globalOptIn, Boolean newOptIn) {
+    Entry entry = entries.get(key(appKey, token));
+    if(entry != null) {
+      entry.profile = withOptIn(entry.profile, subscriptionListId, globalOptIn, newOptIn);
+      entry.version = ++sequence;
+    }
+  }
+
+  /**
+   * Remove a cached profile, e.g. after its token was released.
+   * @param appKey App key the profile belongs to
+   * @param token Token of the profile
+   */
+  public synchronized void invalidate(String appKey, String token) {
+    entries.remove(key(appKey, token));
+  }
+
+  /**
+   * Remove all cached profiles.
+   */
+  public synchronized void invalidateAll() {
+    entries.clear();
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * Get the amount of requests served within the maximum age, without placing a call.
+   * @return Amount of cache hits
+   */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * Get the amount of requests that were revalidated with a 304 response, so the profile was not downloaded.
+   * @return Amount of not modified responses
+   */
+  public long getNotModified() {
+    return notModified.get();
+  }
+
+  /**
+   * Get the amount of requests that downloaded the profile.
+   * @return Amount of cache misses
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  private static String key(String appKey, String token) {
+    return appKey + "/" + token;
+  }
+
+  /**
+   * Get a copy of a profile with a demographics update applied.
+   * @param profile Profile, which is not modified
+   * @param primaryFields Updated primary fields, or null
+   * @param customFields Updated custom fields, or null
+   * @return Updated copy
+   */
+  static ProfileViewResponse withDemographics(ProfileViewResponse profile, Map<String, String> primaryFields, Map<String, String> customFields) {
+    ProfileViewResponse copy = copy(profile);
+    copy.primaryDemographics = merge(copy.primaryDemographics, primaryFields);
+    copy.customDemographics = merge(copy.customDemographics, customFields);
+    return copy;
+  }
+
+  /**
+   * Get a copy of a profile with an opt-in update applied.
+   * @param profile Profile, which is not modified
+   * @param subscriptionListId Updated subscription list, or null
+   * @param globalOptIn New global opt in status, or null if it did not change
+   * @param newOptIn New opt in status for the subscription list
+   * @return Updated copy
+   */
+  static ProfileViewResponse withOptIn(ProfileViewResponse profile, String subscriptionListId, Boolean globalOptIn, Boolean newOptIn) {
+    ProfileViewResponse copy = copy(profile);
+    if(globalOptIn != null) {
+      copy.emailOptIn = globalOptIn;
+    }
+    if(subscriptionListId != null && newOptIn != null) {
+      copy.emailSubscriptionLists = merge(copy.emailSubscriptionLists, Collections.singletonMap(subscriptionListId, newOptIn));
+    }
+    return copy;
+  }
+
+  /**
+   * Copy a profile, so updates don't modify the instance that callers hold. Only the updated maps are copied by merge.
+   */
+  private static ProfileViewResponse copy(ProfileViewResponse profile) {
+    ProfileViewResponse copy = new ProfileViewResponse(profile.success);
+    copy.balances = profile.balances;
+    copy.primaryDemographics = profile.primaryDemographics;
+    copy.customDemographics = profile.customDemographics;
+    copy.emailOptIn = profile.emailOptIn;
+    copy.emailSubscriptionLists = profile.emailSubscriptionLists;
+    copy.segments = profile.segments;
+    return copy;
+  }
+
+  private static <V> Map<String, V> merge(Map<String, V> values, Map<String, V> updates) {
+    if(updates == null || updates.isEmpty()) {
+      return values;
+    }
+    Map<String, V> merged = values == null ? new HashMap<>() : new HashMap<>(values);
+    merged.putAll(updates);
+    return merged;
+  }
+
+  /**
+   * Cached profile, with its entity tag, the last time it was known to be current, and the sequence number of the last
+   * update that was applied to it locally.
+   */
+  private static class Entry {
+
+    private ProfileViewResponse profile;
+
+    private final String etag;
+
+    private long validatedAt;
+
+    private long version;
+
+    Entry(ProfileViewResponse profile, String etag) {
+      this.profile = profile;
+      this.etag = etag;
+      this.validatedAt = System.nanoTime();
+    }
+
+  }
+
+}
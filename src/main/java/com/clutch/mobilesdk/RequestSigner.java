@@ -0,0 +1,294 @@
+package com.clutch.mobilesdk;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+/**
+ * Signs API requests with the app secret.
+ *
+ * The signature is the HMAC-SHA512 of the JSON array [requestId, requestTime, method, contentDigest], where the content
+ * digest is the SHA512 hash of the post data (or an empty string without post data). This produces the same signatures
+ * as ShaHelper combined with Gson, but keeps a pre-keyed Mac, a digest and all buffers per thread, so signing a request
+ * only allocates the resulting strings.
+ *
+ * Instances are thread-safe and should be created once per app secret.
+ */
+public class RequestSigner {
+
+  private static final String HMAC_SHA512 = "HmacSHA512";
+
+  /**
+   * Size of the buffer used to feed data to the Mac and digest.
+   */
+  private static final int BUFFER_SIZE = 1024;
+
+  private static final char[] HEX_CHARS = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+
+  private final String appSecret;
+
+  private final ThreadLocal<State> state = ThreadLocal.withInitial(this::createState);
+
+  /**
+   * Set up a new signer. The key is only set up once a thread signs its first request, so an unusable app secret (e.g.
+   * an empty one) fails when signing, not here.
+   * @param appSecret App secret to sign with
+   */
+  public RequestSigner(String appSecret) {
+    this.appSecret = appSecret;
+  }
+
+  /**
+   * Generate a new random request ID, formatted as a version 4 UUID.
+   * @return Request ID
+   */
+  public String newRequestId() {
+    State s = state.get();
+    byte[] bytes = s.random;
+    s.secureRandom.nextBytes(bytes);
+    bytes[6] = (byte) ((bytes[6] & 0x0f) | 0x40);
+    bytes[8] = (byte) ((bytes[8] & 0x3f) | 0x80);
+
+    char[] chars = s.uuid;
+    int pos = 0;
+    for(int i = 0; i < bytes.length; i++) {
+      if(i == 4 || i == 6 || i == 8 || i == 10) {
+        chars[pos++] = '-';
+      }
+      chars[pos++] = HEX_CHARS[(bytes[i] & 0xF0) >>> 4];
+      chars[pos++] = HEX_CHARS[bytes[i] & 0x0F];
+    }
+    return new String(chars);
+  }
+
+  /**
+   * Create the content digest for post data.
+   * @param postData Post data, or null if there is none
+   * @return Hex encoded SHA512 hash of the UTF-8 encoded post data, or an empty string without post data
+   */
+  public String digest(String postData) {
+    if(postData == null) {
+      return "";
+    }
+    State s = state.get();
+    s.length = 0;
+    s.target = s.digest;
+    s.writeUtf8(postData);
+    s.flush();
+    return s.hex(s.digestBytes());
+  }
+
+  /**
+   * Create the request signature.
+   * @param requestId Request ID
+   * @param requestTime Request time, as a string of milliseconds since the epoch
+   * @param method Method, starting with a leading slash, e.g. /brand/lists
+   * @param contentDigest Content digest, see digest
+   * @return Hex encoded HMAC-SHA512 signature
+   */
+  public String sign(String requestId, String requestTime, String method, String contentDigest) {
+    State s = state.get();
+    s.length = 0;
+    s.target = s.mac;
+    s.writeByte('[');
+    s.writeJsonString(requestId);
+    s.writeByte(',');
+    s.writeJsonString(requestTime);
+    s.writeByte(',');
+    s.writeJsonString(method);
+    s.writeByte(',');
+    s.writeJsonString(contentDigest);
+    s.writeByte(']');
+    s.flush();
+    return s.hex(s.macBytes());
+  }
+
+  private State createState() {
+    try {
+      Mac mac = Mac.getInstance(HMAC_SHA512);
+      mac.init(new SecretKeySpec(appSecret.getBytes(StandardCharsets.UTF_8), HMAC_SHA512));
+      return new State(mac, MessageDigest.getInstance("SHA-512"));
+    } catch(GeneralSecurityException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
+  /**
+   * Signing state for a single thread.
+   */
+  private static class State {
+
+    private final Mac mac;
+
+    private final MessageDigest digest;
+
+    private final SecureRandom secureRandom = new SecureRandom();
+
+    private final byte[] random = new byte[16];
+
+    private final char[] uuid = new char[36];
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    private final byte[] output = new byte[64];
+
+    private final char[] hex = new char[128];
+
+    private int length;
+
+    /**
+     * Either the mac or digest, receives the buffer contents on flush.
+     */
+    private Object target;
+
+    State(Mac mac, MessageDigest digest) {
+      this.mac = mac;
+      this.digest = digest;
+    }
+
+    /**
+     * Write a string as a JSON string literal, escaped the same way as the default Gson configuration does.
+     */
+    void writeJsonString(String value) {
+      writeByte('"');
+      for(int i = 0; i < value.length(); i++) {
+        char c = value.charAt(i);
+        switch(c) {
+          case '"': writeAscii("\\\""); break;
+          case '\\': writeAscii("\\\\"); break;
+          case '\t': writeAscii("\\t"); break;
+          case '\b': writeAscii("\\b"); break;
+          case '\n': writeAscii("\\n"); break;
+          case '\r': writeAscii("\\r"); break;
+          case '\f': writeAscii("\\f"); break;
+          case '<': case '>': case '&': case '=': case '\'': case '\u2028': case '\u2029':
+            writeUnicodeEscape(c);
+            break;
+          default:
+            if(c < 0x20) {
+              writeUnicodeEscape(c);
+            } else {
+              writeChar(value, i, c);
+              if(Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                i++;
+              }
+            }
+        }
+      }
+      writeByte('"');
+    }
+
+    /**
+     * Write a string as UTF-8.
+     */
+    void writeUtf8(String value) {
+      for(int i = 0; i < value.length(); i++) {
+        char c = value.charAt(i);
+        writeChar(value, i, c);
+        if(Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+          i++;
+        }
+      }
+    }
+
+    /**
+     * Write the character at index i as UTF-8, combined with the next character if it forms a surrogate pair.
+     * Unpaired surrogates are written as '?', like String.getBytes does.
+     */
+    private void writeChar(String value, int i, char c) {
+      if(length > BUFFER_SIZE - 4) {
+        flush();
+      }
+      if(c < 0x80) {
+        buffer[length++] = (byte) c;
+      } else if(c < 0x800) {
+        buffer[length++] = (byte) (0xC0 | (c >> 6));
+        buffer[length++] = (byte) (0x80 | (c & 0x3F));
+      } else if(Character.isSurrogate(c)) {
+        if(Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+          int codePoint = Character.toCodePoint(c, value.charAt(i + 1));
+          buffer[length++] = (byte) (0xF0 | (codePoint >> 18));
+          buffer[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+          buffer[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+          buffer[length++] = (byte) (0x80 | (codePoint & 0x3F));
+        } else {
+          buffer[length++] = '?';
+        }
+      } else {
+        buffer[length++] = (byte) (0xE0 | (c >> 12));
+        buffer[length++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+        buffer[length++] = (byte) (0x80 | (c & 0x3F));
+      }
+    }
+
+    private void writeUnicodeEscape(char c) {
+      writeAscii("\\u");
+      writeByte(HEX_CHARS[(c >> 12) & 0xF]);
+      writeByte(HEX_CHARS[(c >> 8) & 0xF]);
+      writeByte(HEX_CHARS[(c >> 4) & 0xF]);
+      writeByte(HEX_CHARS[c & 0xF]);
+    }
+
+    private void writeAscii(String value) {
+      for(int i = 0; i < value.length(); i++) {
+        writeByte(value.charAt(i));
+      }
+    }
+
+    void writeByte(char c) {
+      if(length == BUFFER_SIZE) {
+        flush();
+      }
+      buffer[length++] = (byte) c;
+    }
+
+    /**
+     * Feed the buffer contents to the current target.
+     */
+    void flush() {
+      if(target == mac) {
+        mac.update(buffer, 0, length);
+      } else {
+        digest.update(buffer, 0, length);
+      }
+      length = 0;
+    }
+
+    /**
+     * Finish the HMAC into the output buffer.
+     */
+    byte[] macBytes() {
+      try {
+        mac.doFinal(output, 0);
+        return output;
+      } catch(GeneralSecurityException ex) {
+        throw new RuntimeException(ex);
+      }
+    }
+
+    /**
+     * Finish the digest into the output buffer.
+     */
+    byte[] digestBytes() {
+      try {
+        digest.digest(output, 0, output.length);
+        return output;
+      } catch(GeneralSecurityException ex) {
+        throw new RuntimeException(ex);
+      }
+    }
+
+    String hex(byte[] data) {
+      int pos = 0;
+      for(int i = 0; i < data.length; i++) {
+        hex[pos++] = HEX_CHARS[(data[i] & 0xF0) >>> 4];
+        hex[pos++] = HEX_CHARS[data[i] & 0x0F];
+      }
+      return new String(hex, 0, pos);
+    }
+  }
+
+}
@@ -0,0 +1,14 @@
+package com.clutch.mobilesdk;
+
+/**
+ * Indicates the response body of an API call exceeded the maximum response size, so reading it was aborted.
+ */
+public class ResponseTooLargeException extends APIException {
+
+  private static final long serialVersionUID = 1L;
+
+  public ResponseTooLargeException(String message) {
+    super(message);
+  }
+
+}
@@ -0,0 +1,131 @@
+package com.clutch.mobilesdk;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+
+/**
+ * Merges writes with the same key that are submitted within a window into a single write.
+ *
+ * The window starts at the first write for a key, so a write waits at most the window before it is sent. Every caller
+ * gets the result of the merged write.
+ *
+ * @param <K> Key type, e.g. the token
+ * @param <R> Request type
+ */
+class WriteCoalescer<K, R> {
+
+  private final long windowMillis;
+
+  private final ScheduledExecutorService scheduler;
+
+  private final BinaryOperator<R> merge;
+
+  private final Function<R, CompletionStage<Boolean>> send;
+
+  private final Map<K, PendingWrite<R>> pending = new HashMap<>();
+
+  /**
+   * Set up a new write coalescer.
+   * @param windowMillis Time to wait for more writes after the first write for a key
+   * @param scheduler Scheduler for sending the merged writes
+   * @param merge Merges an earlier request with a later one, where the values of the later one win
+   * @param send Sends a merged request
+   */
+  WriteCoalescer(long windowMillis, ScheduledExecutorService scheduler, BinaryOperator<R> merge, Function<R, CompletionStage<Boolean>> send) {
+    this.windowMillis = windowMillis;
+    this.scheduler = scheduler;
+    this.merge = merge;
+    this.send = send;
+  }
+
+  /**
+   * Submit a write, merging it with the pending write for the key.
+   * @param key Key
+   * @param request Request
+   * @return Stage holding the result of the merged write
+   */
+  CompletionStage<Boolean> submit(K key, R request) {
+    PendingWrite<R> write;
+    boolean first = false;
+    synchronized(pending) {
+      write = pending.get(key);
+      if(write == null) {
+        write = new PendingWrite<>(request);
+        pending.put(key, write);
+        first = true;
+      } else {
+        write.request = merge.apply(write.request, request);
+      }
+    }
+    if(first) {
+      scheduler.schedule(() -> flush(key), windowMillis, TimeUnit.MILLISECONDS);
+    }
+    // Don't expose the shared future, so callers can't complete or cancel it
+    return write.result.thenApply(success -> success);
+  }
+
+  /**
+   * Send the pending write for a key.
+   */
+  private void flush(K key) {
+    PendingWrite<R> write;
+    synchronized(pending) {
+      write = pending.remove(key);
+    }
+    if(write != null) {
+      send(write);
+    }
+  }
+
+  /**
+   * Send all pending writes now.
+   */
+  void flushAll() {
+    List<PendingWrite<R>> writes;
+    synchronized(pending) {
+      writes = new ArrayList<>(pending.values());
+      pending.clear();
+    }
+    for(PendingWrite<R> write : writes) {
+      send(write);
+    }
+  }
+
+  private void send(PendingWrite<R> write) {
+    try {
+      send.apply(write.request).whenComplete((success, ex) -> {
+        if(ex == null) {
+          write.result.complete(success);
+        } else {
+          write.result.completeExceptionally(ex);
+        }
+      });
+    } catch(RuntimeException ex) {
+      write.result.completeExceptionally(ex);
+    }
+  }
+
+  /**
+   * A merged request that waits to be sent, and the result shared by all its callers.
+   */
+  private static class PendingWrite<R> {
+
+    private R request;
+
+    private final CompletableFuture<Boolean> result = new CompletableFuture<>();
+
+    PendingWrite(R request) {
+      this.request = request;
+    }
+
+  }
+
+}
@@ -0,0 +1,665 @@
+package com.clutch.mobilesdk.models;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streaming type adapters for all API models, so (de)serialization does not need reflection.
+ *
+ * The adapters read and write the same JSON as the reflective Gson adapters would: fields are written in declaration order,
+ * null values are omitted, unknown fields are skipped and null values for primitive fields keep the default value.
+ * When adding a field to a model, it should also be added to its adapter here.
+ */
+public class ModelAdapters implements TypeAdapterFactory {
+
+  private static final Map<Class<?>, TypeAdapter<?>> ADAPTERS = new HashMap<>();
+
+  /**
+   * Shared, thread-safe Gson instance with all model adapters registered.
+   */
+  private static final Gson GSON = new GsonBuilder().registerTypeAdapterFactory(new ModelAdapters()).create();
+
+  /**
+   * Get the shared Gson instance, with all model adapters registered.
+   * @return Gson instance, which is safe to use from multiple threads
+   */
+  public static Gson gson() {
+    return GSON;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+    return (TypeAdapter<T>) ADAPTERS.get(type.getRawType());
+  }
+
+  private static <T> void register(Class<T> type, TypeAdapter<T> adapter) {
+    ADAPTERS.put(type, adapter);
+  }
+
+  private static final ModelAdapter<BasicResponse> BASIC_RESPONSE = new ModelAdapter<BasicResponse>() {
+    @Override
+    void writeFields(JsonWriter out, BasicResponse value) throws IOException {
+      out.name("success").value(value.success);
+    }
+
+    @Override
+    BasicResponse newInstance() {
+      return new BasicResponse();
+    }
+
+    @Override
+    void readField(JsonReader in, String name, BasicResponse value) throws IOException {
+      if("success".equals(name)) {
+        value.success = readBoolean(in, value.success);
+      } else {
+        in.skipValue();
+      }
+    }
+  };
+
+  private static final ModelAdapter<DemographicField> DEMOGRAPHIC_FIELD = new ModelAdapter<DemographicField>() {
+    @Override
+    void writeFields(JsonWriter out, DemographicField value) throws IOException {
+      out.name("apiName").value(value.apiName);
+      out.name("displayName").value(value.displayName);
+      out.name("required").value(value.required);
+      out.name("editable").value(value.editable);
+    }
+
+    @Override
+    DemographicField newInstance() {
+      return new DemographicField();
+    }
+
+    @Override
+    void readField(JsonReader in, String name, DemographicField value) throws IOException {
+      switch(name) {
+        case "apiName": value.apiName = readString(in); break;
+        case "displayName": value.displayName = readString(in); break;
+        case "required": value.required = readBoolean(in, value.required); break;
+        case "editable": value.editable = readBoolean(in, value.editable); break;
+        default: in.skipValue();
+      }
+    }
+  };
+
+  private static final ModelAdapter<Segment> SEGMENT = new ModelAdapter<Segment>() {
+    @Override
+    void writeFields(JsonWriter out, Segment value) throws IOException {
+      out.name("name").value(value.name);
+      out.name("description").value(value.description);
+      out.name("id").value(value.id);
+    }
+
+    @Override
+    Segment newInstance() {
+      return new Segment();
+    }
+
+    @Override
+    void readField(JsonReader in, String name, Segment value) throws IOException {
+      switch(name) {
+        case "name": value.name = readString(in); break;
+        case "description": value.description = readString(in); break;
+        case "id": value.id = readString(in); break;
+        default: in.skipValue();
+      }
+    }
+  };
+
+  private static final ModelAdapter<SubscriptionList> SUBSCRIPTION_LIST = new ModelAdapter<SubscriptionList>() {
+    @Override
+    void writeFields(JsonWriter out, SubscriptionList value) throws IOException {
+      out.name("id").value(value.id);
+      out.name("name").value(value.name);
+    }
+
+    @Override
+    SubscriptionList newInstance() {
+      return new SubscriptionList();
+    }
+
+    @Override
+    void readField(JsonReader in, String name, SubscriptionList value) throws IOException {
+      switch(name) {
+        case "id": value.id = readString(in); break;
+        case "name": value.name = readString(in); break;
+        default: in.skipValue();
+      }
+    }
+  };
+
+  private static final ModelAdapter<RegisterEventRequest> REGISTER_EVENT_REQUEST = new ModelAdapter<RegisterEventRequest>() {
+    @Override
+    void writeFields(JsonWriter out, RegisterEventRequest value) throws IOException {
+      out.name("token").value(value.token);
+      out.name("categoryId").value(value.categoryId);
+    }
+
+    @Override
+    RegisterEventRequest newInstance() {
+      return new RegisterEventRequest();
+    }
+
+    @Override
+    void readField(JsonReader in, String name, RegisterEventRequest value) throws IOException {
+      switch(name) {
+        case "token": value.token = readString(in); break;
+        case "categoryId": value.categoryId = readString(in); break;
+        default: in.skipValue();
+      }
+    }
+  };
+
+  static {
+    register(BasicResponse.class, BASIC_RESPONSE);
+
+    register(CaptchaResponse.class, new ModelAdapter<CaptchaResponse>() {
+      @Override
+      void writeFields(JsonWriter out, CaptchaResponse value) throws IOException {
+        out.name("captchaId").value(value.captchaId);
+      }
+
+      @Override
+      CaptchaResponse newInstance() {
+        return new CaptchaResponse();
+      }
+
+      @Override
+      void readField(JsonReader in, String name, CaptchaResponse value) throws IOException {
+        if("captchaId".equals(name)) {
+          value.captchaId = readString(in);
+        } else {
+          in.skipValue();
+        }
+      }
+    });
+
+    register(DemographicField.class, DEMOGRAPHIC_FIELD);
+
+    register(DemographicsUpdateRequest.class, new ModelAdapter<DemographicsUpdateRequest>() {
+      @Override
+      void writeFields(JsonWriter out, DemographicsUpdateRequest value) throws IOException {
+        out.name("token").value(value.token);
+        writeMap(out.name("primaryFields"), value.primaryFields, JsonWriter::value);
+        writeMap(out.name("customFields"), value.customFields, JsonWriter::value);
+      }
+
+      @Override
+      DemographicsUpdateRequest newInstance() {
+        return new DemographicsUpdateRequest();
+      }
+
+      @Override
+      void readField(JsonReader in, String name, DemographicsUpdateRequest value) throws IOException {
+        switch(name) {
+          case "token": value.token = readString(in); break;
+          case "primaryFields": value.primaryFields = readMap(in, ModelAdapters::readString); break;
+          case "customFields": value.customFields = readMap(in, ModelAdapters::readString); break;
+          default: in.skipValue();
+        }
+      }
+    });
+
+    register(GetTokenRequest.class, new ModelAdapter<GetTokenRequest>() {
+      @Override
+      void writeFields(JsonWriter out, GetTokenRequest value) throws IOException {
+        out.name("cardNumber").value(value.cardNumber);
+        out.name("pin").value(value.pin);
+        out.name("captchaId").value(value.captchaId);
+        out.name("captchaSecret").value(value.captchaSecret);
+      }
+
+      @Override
+      GetTokenRequest newInstance() {
+        return new GetTokenRequest();
+      }
+
+      @Override
+      void readField(JsonReader in, String name, GetTokenRequest value) throws IOException {
+        switch(name) {
+          case "cardNumber": value.cardNumber = readString(in); break;
+          case "pin": value.pin = readString(in); break;
+          case "captchaId": value.captchaId = readString(in); break;
+          case "captchaSecret": value.captchaSecret = readString(in); break;
+          default: in.skipValue();
+        }
+      }
+    });
+
+    register(GetTokenResponse.class, new ModelAdapter<GetTokenResponse>() {
+      @Override
+      void writeFields(JsonWriter out, GetTokenResponse value) throws IOException {
+        out.name("success").value(value.success);
+        out.name("token").value(value.token);
+      }
+
+      @Override
+      GetTokenResponse newInstance() {
+        return new GetTokenResponse();
+      }
+
+      @Override
+      void readField(JsonReader in, String name, GetTokenResponse value) throws IOException {
+        switch(name) {
+          case "success": value.success = readBoolean(in, value.success); break;
+          case "token": value.token = readString(in); break;
+          default: in.skipValue();
+        }
+      }
+    });
+
+    register(ListFieldsResponse.class, new ModelAdapter<ListFieldsResponse>() {
+      @Override
+      void writeFields(JsonWriter out, ListFieldsResponse value) throws IOException {
+        writeList(out.name("primaryFields"), value.primaryFields, DEMOGRAPHIC_FIELD);
+        writeList(out.name("customFields"), value.customFields, DEMOGRAPHIC_FIELD);
+      }
+
+      @Override
+      ListFieldsResponse newInstance() {
+        return new ListFieldsResponse();
+      }
+
+      @Override
+      void readField(JsonReader in, String name, ListFieldsResponse value) throws IOException {
+        switch(name) {
+          case "primaryFields": value.primaryFields = readList(in, DEMOGRAPHIC_FIELD); break;
+          case "customFields": value.customFields = readList(in, DEMOGRAPHIC_FIELD); break;
+          default: in.skipValue();
+        }
+      }
+    });
+
+    register(ListSubscriptionListsResponse.class, new ModelAdapter<ListSubscriptionListsResponse>() {
+      @Override
+      void writeFields(JsonWriter out, ListSubscriptionListsResponse value) throws IOException {
+        writeList(out.name("subscriptionLists"), value.subscriptionLists, SUBSCRIPTION_LIST);
+      }
+
+      @Override
+      ListSubscriptionListsResponse newInstance() {
+        return new ListSubscriptionListsResponse();
+      }
+
+      @Override
+      void readField(JsonReader in, String name, ListSubscriptionListsResponse value) throws IOException {
+        if("subscriptionLists".equals(name)) {
+          value.subscriptionLists = readList(in, SUBSCRIPTION_LIST);
+        } else {
+          in.skipValue();
+        }
+      }
+    });
+
+    register(ProfileViewResponse.class, new ModelAdapter<ProfileViewResponse>() {
+      @Override
+      void writeFields(JsonWriter out, ProfileViewResponse value) throws IOException {
+        out.name("success").value(value.success);
+        writeMap(out.name("balances"), value.balances, JsonWriter::value);
+        writeMap(out.name("primaryDemographics"), value.primaryDemographics, JsonWriter::value);
+        writeMap(out.name("customDemographics"), value.customDemographics, JsonWriter::value);
+        out.name("emailOptIn").value(value.emailOptIn);
+        writeMap(out.name("emailSubscriptionLists"), value.emailSubscriptionLists, JsonWriter::value);
+        writeList(out.name("segments"), value.segments, SEGMENT);
+      }
+
+      @Override
+      ProfileViewResponse newInstance() {
+        return new ProfileViewResponse();
+      }
+
+      @Override
+      void readField(JsonReader in, String name, ProfileViewResponse value) throws IOException {
+        switch(name) {
+          case "success": value.success = readBoolean(in, value.success); break;
+          case "balances": value.balances = readMap(in, ModelAdapters::readBigDecimal); break;
+          case "primaryDemographics": value.primaryDemographics = readMap(in, ModelAdapters::readString); break;
+          case "customDemographics": value.customDemographics = readMap(in, ModelAdapters::readString); break;
+          case "emailOptIn": value.emailOptIn = readBoolean(in, value.emailOptIn); break;
+          case "emailSubscriptionLists": value.emailSubscriptionLists = readMap(in, ModelAdapters::readNullableBoolean); break;
+          case "segments": value.segments = readList(in, SEGMENT); break;
+          default: in.skipValue();
+        }
+      }
+    });
+
+    register(PushTokenUpdateRequest.class, new ModelAdapter<PushTokenUpdateRequest>() {
+      @Override
+      void writeFields(JsonWriter out, PushTokenUpdateRequest value) throws IOException {
+        out.name("token").value(value.token);
+        out.name("pushTokenType").value(value.pushTokenType);
+        out.name("pushToken").value(value.pushToken);
+      }
+
+      @Override
+      PushTokenUpdateRequest newInstance() {
+        return new PushTokenUpdateRequest();
+      }
+
+      @Override
+      void readField(JsonReader in, String name, PushTokenUpdateRequest value) throws IOException {
+        switch(name) {
+          case "token": value.token = readString(in); break;
+          case "pushTokenType": value.pushTokenType = readString(in); break;
+          case "pushToken": value.pushToken = readString(in); break;
+          default: in.skipValue();
+        }
+      }
+    });
+
+    register(RegisterEventBatchRequest.class, new ModelAdapter<RegisterEventBatchRequest>() {
+      @Override
+      void writeFields(JsonWriter out, RegisterEventBatchRequest value) throws IOException {
+        writeList(out.name("events"), value.events, REGISTER_EVENT_REQUEST);
+      }
+
+      @Override
+      RegisterEventBatchRequest newInstance() {
+        return new RegisterEventBatchRequest();
+      }
+
+      @Override
+      void readField(JsonReader in, String name, RegisterEventBatchRequest value) throws IOException {
+        if("events".equals(name)) {
+          value.events = readList(in, REGISTER_EVENT_REQUEST);
+        } else {
+          in.skipValue();
+        }
+      }
+    });
+
+    register(RegisterEventBatchResponse.class, new ModelAdapter<RegisterEventBatchResponse>() {
+      @Override
+      void writeFields(JsonWriter out, RegisterEventBatchResponse value) throws IOException {
+        out.name("success").value(value.success);
+        writeList(out.name("results"), value.results, BASIC_RESPONSE);
+      }
+
+      @Override
+      RegisterEventBatchResponse newInstance() {
+        return new RegisterEventBatchResponse();
+      }
+
+      @Override
+      void readField(JsonReader in, String name, RegisterEventBatchResponse value) throws IOException {
+        switch(name) {
+          case "success": value.success = readBoolean(in, value.success); break;
+          case "results": value.results = readList(in, BASIC_RESPONSE); break;
+          default: in.skipValue();
+        }
+      }
+    });
+
+    register(RegisterEventRequest.class, REGISTER_EVENT_REQUEST);
+
+    register(RegisterRequest.class, new ModelAdapter<RegisterRequest>() {
+      @Override
+      void writeFields(JsonWriter out, RegisterRequest value) throws IOException {
+        out.name("captchaId").value(value.captchaId);
+        out.name("captchaSecret").value(value.captchaSecret);
+        writeMap(out.name("primaryFields"), value.primaryFields, JsonWriter::value);
+        writeMap(out.name("customFields"), value.customFields, JsonWriter::value);
+      }
+
+      @Override
+      RegisterRequest newInstance() {
+        return new RegisterRequest();
+      }
+
+      @Override
+      void readField(JsonReader in, String name, RegisterRequest value) throws IOException {
+        switch(name) {
+          case "captchaId": value.captchaId = readString(in); break;
+          case "captchaSecret": value.captchaSecret = readString(in); break;
+          case "primaryFields": value.primaryFields = readMap(in, ModelAdapters::readString); break;
+          case "customFields": value.customFields = readMap(in, ModelAdapters::readString); break;
+          default: in.skipValue();
+        }
+      }
+    });
+
+    register(RegisterResponse.class, new ModelAdapter<RegisterResponse>() {
+      @Override
+      void writeFields(JsonWriter out, RegisterResponse value) throws IOException {
+        out.name("success").value(value.success);
+        out.name("token").value(value.token);
+        out.name("cardNumber").value(value.cardNumber);
+        out.name("pin").value(value.pin);
+      }
+
+      @Override
+      RegisterResponse newInstance() {
+        return new RegisterResponse();
+      }
+
+      @Override
+      void readField(JsonReader in, String name, RegisterResponse value) throws IOException {
+        switch(name) {
+          case "success": value.success = readBoolean(in, value.success); break;
+          case "token": value.token = readString(in); break;
+          case "cardNumber": value.cardNumber = readString(in); break;
+          case "pin": value.pin = readString(in); break;
+          default: in.skipValue();
+        }
+      }
+    });
+
+    register(ReleaseTokenResponse.class, new ModelAdapter<ReleaseTokenResponse>() {
+      @Override
+      void writeFields(JsonWriter out, ReleaseTokenResponse value) throws IOException {
+        out.name("success").value(value.success);
+      }
+
+      @Override
+      ReleaseTokenResponse newInstance() {
+        return new ReleaseTokenResponse();
+      }
+
+      @Override
+      void readField(JsonReader in, String name, ReleaseTokenResponse value) throws IOException {
+        if("success".equals(name)) {
+          value.success = readBoolean(in, value.success);
+        } else {
+          in.skipValue();
+        }
+      }
+    });
+
+    register(Segment.class, SEGMENT);
+
+    register(SubscriptionList.class, SUBSCRIPTION_LIST);
+
+    register(SubscriptionListUpdateRequest.class, new ModelAdapter<SubscriptionListUpdateRequest>() {
+      @Override
+      void writeFields(JsonWriter out, SubscriptionListUpdateRequest value) throws IOException {
+        out.name("token").value(value.token);
+        out.name("globalOptIn").value(value.globalOptIn);
+        out.name("subscriptionListId").value(value.subscriptionListId);
+        out.name("newOptIn").value(value.newOptIn);
+      }
+
+      @Override
+      SubscriptionListUpdateRequest newInstance() {
+        return new SubscriptionListUpdateRequest();
+      }
+
+      @Override
+      void readField(JsonReader in, String name, SubscriptionListUpdateRequest value) throws IOException {
+        switch(name) {
+          case "token": value.token = readString(in); break;
+          case "globalOptIn": value.globalOptIn = readNullableBoolean(in); break;
+          case "subscriptionListId": value.subscriptionListId = readString(in); break;
+          case "newOptIn": value.newOptIn = readNullableBoolean(in); break;
+          default: in.skipValue();
+        }
+      }
+    });
+  }
+
+  /**
+   * Base adapter for a model object, reading and writing the object boundaries and the null value.
+   * @param <T> Model type
+   */
+  abstract static class ModelAdapter<T> extends TypeAdapter<T> {
+
+    @Override
+    public void write(JsonWriter out, T value) throws IOException {
+      if(value == null) {
+        out.nullValue();
+        return;
+      }
+      out.beginObject();
+      writeFields(out, value);
+      out.endObject();
+    }
+
+    @Override
+    public T read(JsonReader in) throws IOException {
+      if(in.peek() == JsonToken.NULL) {
+        in.nextNull();
+        return null;
+      }
+      T value = newInstance();
+      in.beginObject();
+      while(in.hasNext()) {
+        readField(in, in.nextName(), value);
+      }
+      in.endObject();
+      return value;
+    }
+
+    abstract void writeFields(JsonWriter out, T value) throws IOException;
+
+    abstract T newInstance();
+
+    abstract void readField(JsonReader in, String name, T value) throws IOException;
+  }
+
+  /**
+   * Reads a single JSON value.
+   */
+  interface ValueReader<T> {
+    T read(JsonReader in) throws IOException;
+  }
+
+  /**
+   * Writes a single JSON value.
+   */
+  interface ValueWriter<T> {
+    void write(JsonWriter out, T value) throws IOException;
+  }
+
+  static String readString(JsonReader in) throws IOException {
+    JsonToken token = in.peek();
+    if(token == JsonToken.NULL) {
+      in.nextNull();
+      return null;
+    }
+    if(token == JsonToken.BOOLEAN) {
+      return Boolean.toString(in.nextBoolean());
+    }
+    return in.nextString();
+  }
+
+  static Boolean readNullableBoolean(JsonReader in) throws IOException {
+    JsonToken token = in.peek();
+    if(token == JsonToken.NULL) {
+      in.nextNull();
+      return null;
+    }
+    if(token == JsonToken.STRING) {
+      return Boolean.parseBoolean(in.nextString());
+    }
+    return in.nextBoolean();
+  }
+
+  /**
+   * Read a primitive boolean, keeping the current value for a JSON null.
+   */
+  static boolean readBoolean(JsonReader in, boolean current) throws IOException {
+    Boolean value = readNullableBoolean(in);
+    return value == null ? current : value;
+  }
+
+  static BigDecimal readBigDecimal(JsonReader in) throws IOException {
+    if(in.peek() == JsonToken.NULL) {
+      in.nextNull();
+      return null;
+    }
+    return new BigDecimal(in.nextString());
+  }
+
+  static <V> Map<String, V> readMap(JsonReader in, ValueReader<V> valueReader) throws IOException {
+    if(in.peek() == JsonToken.NULL) {
+      in.nextNull();
+      return null;
+    }
+    Map<String, V> map = new LinkedHashMap<>();
+    in.beginObject();
+    while(in.hasNext()) {
+      map.put(in.nextName(), valueReader.read(in));
+    }
+    in.endObject();
+    return map;
+  }
+
+  static <V> void writeMap(JsonWriter out, Map<String, V> map, ValueWriter<? super V> valueWriter) throws IOException {
+    if(map == null) {
+      out.nullValue();
+      return;
+    }
+    out.beginObject();
+    for(Map.Entry<String, V> entry : map.entrySet()) {
+      out.name(String.valueOf(entry.getKey()));
+      if(entry.getValue() == null) {
+        out.nullValue();
+      } else {
+        valueWriter.write(out, entry.getValue());
+      }
+    }
+    out.endObject();
+  }
+
+  static <E> List<E> readList(JsonReader in, TypeAdapter<E> elementAdapter) throws IOException {
+    if(in.peek() == JsonToken.NULL) {
+      in.nextNull();
+      return null;
+    }
+    List<E> list = new ArrayList<>();
+    in.beginArray();
+    while(in.hasNext()) {
+      list.add(elementAdapter.read(in));
+    }
+    in.endArray();
+    return list;
+  }
+
+  static <E> void writeList(JsonWriter out, List<E> list, TypeAdapter<E> elementAdapter) throws IOException {
+    if(list == null) {
+      out.nullValue();
+      return;
+    }
+    out.beginArray();
+    for(E element : list) {
+      elementAdapter.write(out, element);
+    }
+    out.endArray();
+  }
+
+}
@@ -0,0 +1,12 @@
+package com.clutch.mobilesdk.models;
+
+import java.util.List;
+
+public class RegisterEventBatchRequest {
+
+  /**
+   * Events to register, in order.
+   */
+  public List<RegisterEventRequest> events;
+
+}
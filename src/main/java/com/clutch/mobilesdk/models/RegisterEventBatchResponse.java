@@ -0,0 +1,14 @@
+package com.clutch.mobilesdk.models;
+
+import java.util.List;
+
+public class RegisterEventBatchResponse {
+
+  public boolean success;
+
+  /**
+   * Result per event, in the same order as the events in the request.
+   */
+  public List<BasicResponse> results;
+
+}
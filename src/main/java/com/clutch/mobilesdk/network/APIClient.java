@@ -1,12 +1,15 @@
 package com.clutch.mobilesdk.network;
 
-import com.clutch.mobilesdk.ShaHelper;
-import com.google.gson.Gson;
+import com.clutch.mobilesdk.APIException;
+import com.clutch.mobilesdk.RequestSigner;
 
-import java.util.Arrays;
+import java.io.IOException;
+import java.io.StringReader;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
 import java.util.function.Function;
 
@@ -15,15 +18,50 @@ import java.util.function.Function;
  */
 public abstract class APIClient {
 
+  /**
+   * Method prefixes that are followed by a token or ID, which is left out of the method path for instrumentation.
+   */
+  private static final String[] PARAMETERIZED_METHODS = {"/profile/token/", "/auth/token/release/", "/captcha/show/"};
+
   protected final String appKey;
 
   protected final String appSecret;
 
+  /**
+   * Signer for all requests, keyed with the app secret.
+   */
+  protected final RequestSigner signer;
+
   /**
    * Endpoint, without a trailing slash.
    */
   protected String endpoint = "https://mobile-api.clutch.com";
 
+  /**
+   * Maximum size of a response body in bytes. Reading larger responses is aborted.
+   */
+  protected volatile long maxResponseSize = 10 * 1024 * 1024;
+
+  /**
+   * Executor for response handlers and completion stages, or null to run them in the network thread.
+   */
+  protected volatile Executor callbackExecutor;
+
+  /**
+   * Circuit breaker for calls, or null to always place calls.
+   */
+  protected volatile CircuitBreaker circuitBreaker;
+
+  /**
+   * Adaptive limit on calls in flight, or null to only limit calls by the amount of threads.
+   */
+  protected volatile ConcurrencyLimiter concurrencyLimiter;
+
+  /**
+   * Receiver of call timings and counters.
+   */
+  protected volatile Instrumentation instrumentation = Instrumentation.NOOP;
+
   /**
    * Set up a new API client.
    * @param appKey App key for this implementation
@@ -32,6 +70,11 @@ public abstract class APIClient {
   public APIClient(String appKey, String appSecret) {
     this.appKey = appKey;
     this.appSecret = appSecret;
+    this.signer = new RequestSigner(appSecret);
+  }
+
+  public String getAppKey() {
+    return appKey;
   }
 
   /**
@@ -50,6 +93,100 @@ public abstract class APIClient {
     return endpoint;
   }
 
+  /**
+   * Set the maximum size of a response body. Calls with a larger response fail with a ResponseTooLargeException,
+   * without reading the rest of the response.
+   * @param maxResponseSize Maximum size in bytes, 10 MB by default
+   */
+  public void setMaxResponseSize(long maxResponseSize) {
+    this.maxResponseSize = maxResponseSize;
+  }
+
+  public long getMaxResponseSize() {
+    return maxResponseSize;
+  }
+
+  /**
+   * Set the executor that runs response handlers and completes the stages returned by placeStagedCall.
+   * Use this to keep slow handlers from holding up network threads, or to get callbacks in the UI thread.
+   * @param callbackExecutor Executor, or null to run callbacks in the network thread (default)
+   */
+  public void setCallbackExecutor(Executor callbackExecutor) {
+    this.callbackExecutor = callbackExecutor;
+  }
+
+  public Executor getCallbackExecutor() {
+    return callbackExecutor;
+  }
+
+  /**
+   * Set the circuit breaker, which makes calls fail fast with a CircuitOpenException while the API is degraded.
+   * Implementations record the outcome of every attempt, and probe the /health method to close the breaker again.
+   * @param circuitBreaker Circuit breaker, or null to always place calls (default)
+   */
+  public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+    this.circuitBreaker = circuitBreaker;
+  }
+
+  public CircuitBreaker getCircuitBreaker() {
+    return circuitBreaker;
+  }
+
+  /**
+   * Set the concurrency limiter, which adapts the amount of calls in flight to the latency and failures of the API.
+   * Calls over the limit are queued, and fail fast with a ConcurrencyLimitException once the queue is full.
+   * Implementations acquire a slot for every attempt, and release it with the outcome of the attempt.
+   * @param concurrencyLimiter Concurrency limiter, or null to not limit calls beyond the amount of threads (default)
+   */
+  public void setConcurrencyLimiter(ConcurrencyLimiter concurrencyLimiter) {
+    this.concurrencyLimiter = concurrencyLimiter;
+  }
+
+  public ConcurrencyLimiter getConcurrencyLimiter() {
+    return concurrencyLimiter;
+  }
+
+  /**
+   * Set the instrumentation, which receives the timings of every phase of a call and counters per method path.
+   * @param instrumentation Instrumentation, e.g. an InMemoryInstrumentation, or null to not record anything (default)
+   */
+  public void setInstrumentation(Instrumentation instrumentation) {
+    this.instrumentation = instrumentation == null ? Instrumentation.NOOP : instrumentation;
+  }
+
+  public Instrumentation getInstrumentation() {
+    return instrumentation;
+  }
+
+  /**
+   * Get the path of a method for instrumentation, leaving out tokens, IDs and query strings.
+   * @param method Method, e.g. /profile/token/abc
+   * @return Normalized path, e.g. /profile/token/*
+   */
+  public static String normalizePath(String method) {
+    int query = method.indexOf('?');
+    String path = query == -1 ? method : method.substring(0, query);
+    for(String prefix : PARAMETERIZED_METHODS) {
+      if(path.startsWith(prefix) && path.length() > prefix.length()) {
+        return prefix + "*";
+      }
+    }
+    return path;
+  }
+
+  /**
+   * Run a callback in the callback executor, or in the current thread if there is none.
+   * @param callback Callback to run
+   */
+  protected void dispatch(Runnable callback) {
+    Executor executor = callbackExecutor;
+    if(executor == null) {
+      callback.run();
+    } else {
+      executor.execute(callback);
+    }
+  }
+
   /**
    * Place an async call.
    * Implementations can choose to retry failed calls multiple times, and should use the getHeaders method once per attempt.
@@ -64,6 +201,134 @@ public abstract class APIClient {
    */
   public abstract <T> Future<ResponseWrapper<T>> placeAsyncCall(String method, String postData, Function<String, T> parser, ResponseHandler<T> handler);
 
+  /**
+   * Place an async call, parsing the response while it is being read from the network.
+   * This avoids keeping the complete response in memory as a string before parsing it.
+   *
+   * The default implementation reads the response as a string and parses that, implementations should override this
+   * method to parse straight from the response stream.
+   *
+   * @param <T> Type of object to expect back
+   * @param method API method to call
+   * @param postData Post data or null for GET calls
+   * @param parser Parser to convert the response body from the server into the desired output object
+   * @param handler Handler for the expected result object, or failures. This should be invoked when the API call finishes, times out or errors out in any other way.
+   * @return A future that holds the wrapped API response, see placeAsyncCall
+   */
+  public <T> Future<ResponseWrapper<T>> placeAsyncStreamingCall(String method, String postData, StreamParser<T> parser, ResponseHandler<T> handler) {
+    return placeAsyncCall(method, postData, data -> {
+      try {
+        return parser.parse(new StringReader(data));
+      } catch(IOException ex) {
+        throw new APIException("Could not parse response", ex);
+      }
+    }, handler);
+  }
+
+  /**
+   * Place an async call with options, see placeAsyncStreamingCall. Once the deadline passes, the call fails with a
+   * DeadlineExceededException.
+   *
+   * The default implementation ignores the options, implementations should override this method to enforce the deadline
+   * and schedule by priority.
+   *
+   * @param <T> Type of object to expect back
+   * @param method API method to call
+   * @param postData Post data or null for GET calls
+   * @param parser Parser to convert the response body from the server into the desired output object
+   * @param handler Handler for the expected result object, or failures
+   * @param options Deadline and lane of the call
+   * @return A future that holds the wrapped API response, see placeAsyncCall
+   */
+  public <T> Future<ResponseWrapper<T>> placeAsyncStreamingCall(String method, String postData, StreamParser<T> parser, ResponseHandler<T> handler, CallOptions options) {
+    return placeAsyncStreamingCall(method, postData, parser, handler);
+  }
+
+  /**
+   * Place an async call, returning a completion stage that can be composed with other calls without blocking.
+   * The stage completes in the callback executor. Cancelling the returned stage (through toCompletableFuture)
+   * cancels the network request.
+   *
+   * The default implementation bridges placeAsyncStreamingCall.
+   *
+   * @param <T> Type of object to expect back
+   * @param method API method to call
+   * @param postData Post data or null for GET calls
+   * @param parser Parser to convert the response body from the server into the desired output object
+   * @return Completion stage holding the parsed response, or completed exceptionally with an APIException
+   */
+  public <T> CompletionStage<T> placeStagedCall(String method, String postData, StreamParser<T> parser) {
+    CompletableFuture<T> stage = new CompletableFuture<>();
+    Future<ResponseWrapper<T>> future = placeAsyncStreamingCall(method, postData, parser, new ResponseHandler<T>() {
+      @Override
+      public void handleSuccess(T response) {
+        dispatch(() -> stage.complete(response));
+      }
+
+      @Override
+      public void handleError(APIException ex) {
+        dispatch(() -> stage.completeExceptionally(ex));
+      }
+    });
+    stage.whenComplete((response, ex) -> {
+      if(stage.isCancelled()) {
+        future.cancel(true);
+      }
+    });
+    return stage;
+  }
+
+  /**
+   * Place an async call with options, returning a completion stage, see placeStagedCall. Once the deadline passes, the
+   * stage completes exceptionally with a DeadlineExceededException.
+   *
+   * The default implementation ignores the options, implementations should override this method to enforce the deadline
+   * and schedule by priority.
+   *
+   * @param <T> Type of object to expect back
+   * @param method API method to call
+   * @param postData Post data or null for GET calls
+   * @param parser Parser to convert the response body from the server into the desired output object
+   * @param options Deadline and lane of the call
+   * @return Completion stage holding the parsed response, or completed exceptionally with an APIException
+   */
+  public <T> CompletionStage<T> placeStagedCall(String method, String postData, StreamParser<T> parser, CallOptions options) {
+    return placeStagedCall(method, postData, parser);
+  }
+
+  /**
+   * Place a conditional GET call, which only downloads the response if it changed since the cached version.
+   * If an entity tag is given, it is sent as If-None-Match, and a 304 response completes the stage without parsing anything.
+   *
+   * The default implementation always places a plain call, and never returns an entity tag.
+   *
+   * @param <T> Type of object to expect back
+   * @param method API method to call
+   * @param etag Entity tag of the cached response, or null to place an unconditional call
+   * @param parser Parser to convert the response body from the server into the desired output object
+   * @return Completion stage holding the conditional response, see placeStagedCall
+   */
+  public <T> CompletionStage<ConditionalResponse<T>> placeConditionalCall(String method, String etag, StreamParser<T> parser) {
+    return placeStagedCall(method, null, parser).thenApply(response -> new ConditionalResponse<>(false, response, null));
+  }
+
+  /**
+   * Place a conditional GET call with options, see placeConditionalCall.
+   *
+   * The default implementation ignores the options, implementations should override this method to enforce the deadline
+   * and schedule by priority.
+   *
+   * @param <T> Type of object to expect back
+   * @param method API method to call
+   * @param etag Entity tag of the cached response, or null to place an unconditional call
+   * @param parser Parser to convert the response body from the server into the desired output object
+   * @param options Deadline and lane of the call
+   * @return Completion stage holding the conditional response
+   */
+  public <T> CompletionStage<ConditionalResponse<T>> placeConditionalCall(String method, String etag, StreamParser<T> parser, CallOptions options) {
+    return placeConditionalCall(method, etag, parser);
+  }
+
   /**
    * Get all headers for request identification and authentication.
    *
@@ -73,19 +338,18 @@ public abstract class APIClient {
    *                  The result is a map where keys are header names and the values are the header values.
    */
   protected Map<String, String> getHeaders(String method, String postData) {
-    String requestID = UUID.randomUUID().toString();
+    long start = System.nanoTime();
+    String requestID = signer.newRequestId();
     String requestTime = Long.toString(System.currentTimeMillis());
-    String contentDigest = postData == null ? "" : ShaHelper.sha512(postData);
-
-    String hmacData = new Gson().toJson(Arrays.asList(requestID, requestTime, method, contentDigest));// Create the data string as JSON - this is used as the hmac sha512 data component
-    String signature = ShaHelper.hmacSha512(hmacData, appSecret);
+    String signature = signer.sign(requestID, requestTime, method, signer.digest(postData));
 
-    Map<String, String> headers = new HashMap<>();
+    Map<String, String> headers = new HashMap<>(8);
     headers.put("X-Application-Key", appKey);
     headers.put("X-Request-Id", requestID);
     headers.put("X-Request-Time", requestTime);
     headers.put("X-Signature", signature);
 
+    instrumentation.recordTime(normalizePath(method), Instrumentation.Phase.SIGNING, System.nanoTime() - start);
     return headers;
   }
 
@@ -0,0 +1,103 @@
+package com.clutch.mobilesdk.network;
+
+import java.util.Objects;
+
+/**
+ * Options for placing a single call: its deadline, the lane it is scheduled in, and whether it may share the request of
+ * an identical call. Instances are immutable.
+ */
+public final class CallOptions {
+
+  /**
+   * Options with the deadline of the retry policy, in the normal lane, without coalescing.
+   */
+  public static final CallOptions DEFAULT = new CallOptions(0, Priority.NORMAL);
+
+  private final long deadlineMillis;
+
+  private final Priority priority;
+
+  private final boolean coalescing;
+
+  /**
+   * Set up call options.
+   * @param deadlineMillis Maximum time for the call, including all retries, or 0 to use the deadline of the retry policy
+   * @param priority Lane to schedule the call in
+   */
+  public CallOptions(long deadlineMillis, Priority priority) {
+    this(deadlineMillis, priority, false);
+  }
+
+  private CallOptions(long deadlineMillis, Priority priority, boolean coalescing) {
+    if(deadlineMillis < 0) {
+      throw new IllegalArgumentException("The deadline can't be negative");
+    }
+    this.deadlineMillis = deadlineMillis;
+    this.priority = Objects.requireNonNull(priority, "priority");
+    this.coalescing = coalescing;
+  }
+
+  /**
+   * Get options with a different deadline.
+   * @param deadlineMillis Maximum time for the call, or 0 to use the deadline of the retry policy
+   * @return Options
+   */
+  public CallOptions withDeadline(long deadlineMillis) {
+    return new CallOptions(deadlineMillis, priority, coalescing);
+  }
+
+  /**
+   * Get options with a different lane.
+   * @param priority Lane to schedule the call in
+   * @return Options
+   */
+  public CallOptions withPriority(Priority priority) {
+    return new CallOptions(deadlineMillis, priority, coalescing);
+  }
+
+  /**
+   * Get options that allow or prevent coalescing. Only idempotent reads, like the profile or brand metadata, may share
+   * the request of an identical call. GET calls that return a new value every time, like a new captcha, or that change
+   * state, like releasing a token, must place a request of their own.
+   * @param coalescing True to share the request of an identical GET call in flight, if the API client coalesces calls
+   * @return Options
+   */
+  public CallOptions withCoalescing(boolean coalescing) {
+    return new CallOptions(deadlineMillis, priority, coalescing);
+  }
+
+  public long getDeadlineMillis() {
+    return deadlineMillis;
+  }
+
+  public Priority getPriority() {
+    return priority;
+  }
+
+  public boolean isCoalescing() {
+    return coalescing;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if(this == o) {
+      return true;
+    }
+    if(!(o instanceof CallOptions)) {
+      return false;
+    }
+    CallOptions other = (CallOptions) o;
+    return deadlineMillis == other.deadlineMillis && priority == other.priority && coalescing == other.coalescing;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(deadlineMillis, priority, coalescing);
+  }
+
+  @Override
+  public String toString() {
+    return "CallOptions{deadlineMillis=" + deadlineMillis + ", priority=" + priority + ", coalescing=" + coalescing + "}";
+  }
+
+}
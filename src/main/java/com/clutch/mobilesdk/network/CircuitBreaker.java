@@ -0,0 +1,242 @@
+package com.clutch.mobilesdk.network;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Circuit breaker that stops placing calls when the Clutch mobile API is degraded.
+ *
+ * The outcome of the last calls is kept in a sliding window. Once the window holds the minimum amount of calls and the
+ * rate of failed or slow calls reaches its threshold, the breaker opens and calls fail fast with a CircuitOpenException.
+ * After the open duration, the breaker becomes half-open and the API client probes the /health method. If the probe
+ * succeeds the breaker closes again, otherwise it stays open for another open duration.
+ *
+ * Instances are thread-safe, and should only be used by a single API client.
+ */
+public class CircuitBreaker {
+
+  /**
+   * State of the circuit breaker.
+   */
+  public enum State {
+
+    /**
+     * Calls are placed, and their outcome is recorded.
+     */
+    CLOSED,
+
+    /**
+     * Calls fail fast, until the open duration has passed.
+     */
+    OPEN,
+
+    /**
+     * Calls fail fast, while a probe checks if the API has recovered.
+     */
+    HALF_OPEN
+
+  }
+
+  /**
+   * Listener for state changes.
+   */
+  public interface Listener {
+
+    /**
+     * Called after the state changed, in the thread that caused the change.
+     * @param breaker Circuit breaker
+     * @param from Previous state
+     * @param to New state
+     */
+    void onStateChange(CircuitBreaker breaker, State from, State to);
+
+  }
+
+  private static final byte FAILED = 1;
+
+  private static final byte SLOW = 2;
+
+  private final float failureRateThreshold;
+
+  private final float slowCallRateThreshold;
+
+  private final long slowCallNanos;
+
+  private final int minimumCalls;
+
+  private final long openMillis;
+
+  private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+  /**
+   * Outcomes of the last calls, as a ring buffer of FAILED and SLOW flags.
+   */
+  private final byte[] window;
+
+  private int position;
+
+  private int calls;
+
+  private int failedCalls;
+
+  private int slowCalls;
+
+  private State state = State.CLOSED;
+
+  private long openedAt;
+
+  /**
+   * Set up a new circuit breaker.
+   * @param failureRateThreshold Rate of failed calls that opens the breaker, between 0 and 1
+   * @param slowCallRateThreshold Rate of slow calls that opens the breaker, between 0 and 1
+   * @param slowCallMillis Duration from which a call counts as slow
+   * @param windowSize Amount of last calls to calculate the rates over
+   * @param minimumCalls Minimum amount of calls in the window before the breaker can open
+   * @param openMillis Time the breaker stays open before probing the API
+   */
+  public CircuitBreaker(float failureRateThreshold, float slowCallRateThreshold, long slowCallMillis, int windowSize, int minimumCalls, long openMillis) {
+    if(windowSize < 1 || minimumCalls < 1 || minimumCalls > windowSize) {
+      throw new IllegalArgumentException("The minimum amount of calls must be between 1 and the window size");
+    }
+    this.failureRateThreshold = failureRateThreshold;
+    this.slowCallRateThreshold = slowCallRateThreshold;
+    this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(slowCallMillis);
+    this.window = new byte[windowSize];
+    this.minimumCalls = minimumCalls;
+    this.openMillis = openMillis;
+  }
+
+  /**
+   * Set up a circuit breaker that opens for 30 seconds when half of the last 20 calls failed, or all of them took
+   * 5 seconds or more. It needs at least 10 calls to open.
+   */
+  public CircuitBreaker() {
+    this(0.5f, 1f, 5000, 20, 10, 30000);
+  }
+
+  /**
+   * Check if a call may be placed.
+   * @return True if the breaker is closed
+   */
+  public synchronized boolean allowCall() {
+    return state == State.CLOSED;
+  }
+
+  /**
+   * Record the outcome of a call. Outcomes are ignored unless the breaker is closed.
+   * @param durationNanos Duration of the call
+   * @param failed True if the call failed in a way that indicates the API is degraded
+   */
+  public void record(long durationNanos, boolean failed) {
+    byte outcome = (byte) ((failed ? FAILED : 0) | (durationNanos >= slowCallNanos ? SLOW : 0));
+    synchronized(this) {
+      if(state != State.CLOSED) {
+        return;
+      }
+      if(calls == window.length) {
+        byte oldest = window[position];
+        failedCalls -= oldest & FAILED;
+        slowCalls -= (oldest & SLOW) >> 1;
+      } else {
+        calls++;
+      }
+      window[position] = outcome;
+      position = (position + 1) % window.length;
+      failedCalls += outcome & FAILED;
+      slowCalls += (outcome & SLOW) >> 1;
+
+      if(calls < minimumCalls
+              || (failedCalls < failureRateThreshold * calls && slowCalls < slowCallRateThreshold * calls)) {
+        return;
+      }
+      open();
+    }
+    notifyListeners(State.CLOSED, State.OPEN);
+  }
+
+  /**
+   * Move from open to half-open if the open duration has passed, so a probe can be placed.
+   * @return True if the caller should now place the probe
+   */
+  public boolean startProbe() {
+    synchronized(this) {
+      if(state != State.OPEN || System.nanoTime() - openedAt < TimeUnit.MILLISECONDS.toNanos(openMillis)) {
+        return false;
+      }
+      state = State.HALF_OPEN;
+    }
+    notifyListeners(State.OPEN, State.HALF_OPEN);
+    return true;
+  }
+
+  /**
+   * Record the outcome of the probe, closing the breaker if it succeeded or opening it again if it failed.
+   * @param success True if the API responded properly
+   */
+  public void finishProbe(boolean success) {
+    synchronized(this) {
+      if(state != State.HALF_OPEN) {
+        return;
+      }
+      if(success) {
+        state = State.CLOSED;
+        calls = 0;
+        position = 0;
+        failedCalls = 0;
+        slowCalls = 0;
+      } else {
+        open();
+      }
+    }
+    notifyListeners(State.HALF_OPEN, success ? State.CLOSED : State.OPEN);
+  }
+
+  private void open() {
+    state = State.OPEN;
+    openedAt = System.nanoTime();
+  }
+
+  private void notifyListeners(State from, State to) {
+    for(Listener listener : listeners) {
+      listener.onStateChange(this, from, to);
+    }
+  }
+
+  public void addListener(Listener listener) {
+    listeners.add(listener);
+  }
+
+  public void removeListener(Listener listener) {
+    listeners.remove(listener);
+  }
+
+  public synchronized State getState() {
+    return state;
+  }
+
+  /**
+   * Get the rate of failed calls in the current window.
+   * @return Rate between 0 and 1, or 0 without calls
+   */
+  public synchronized float getFailureRate() {
+    return calls == 0 ? 0 : (float) failedCalls / calls;
+  }
+
+  /**
+   * Get the rate of slow calls in the current window.
+   * @return Rate between 0 and 1, or 0 without calls
+   */
+  public synchronized float getSlowCallRate() {
+    return calls == 0 ? 0 : (float) slowCalls / calls;
+  }
+
+  /**
+   * Get the time the breaker stays open before probing the API.
+   * @return Open duration in milliseconds
+   */
+  public long getOpenMillis() {
+    return openMillis;
+  }
+
+}
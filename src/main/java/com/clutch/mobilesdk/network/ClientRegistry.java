@@ -0,0 +1,255 @@
+package com.clutch.mobilesdk.network;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Registry of API clients for several app keys, e.g. on a backend that serves multiple brands.
+ *
+ * All clients share a single executor, scheduler and connection pool, and report to the same instrumentation, so a
+ * registry with many brands doesn't keep a pool of idle threads per brand and reuses connections between them. Every
+ * client still signs its requests with its own app secret, and has its own priority lanes, retry policy and circuit
+ * breaker.
+ *
+ * The threads are divided fairly: every client gets an equal share of the maximum concurrency (rounded up), which is
+ * adjusted whenever a client is added or evicted. Clients that had no calls pending for the idle time are evicted.
+ * An evicted client keeps working, but no longer counts towards the fair share, so get the client from the registry
+ * for every batch of calls instead of holding on to it.
+ *
+ * Instances are thread-safe.
+ */
+public class ClientRegistry implements AutoCloseable {
+
+  private final ExecutorService executor;
+
+  private final ScheduledThreadPoolExecutor scheduler;
+
+  private final ConnectionPool connectionPool;
+
+  private final int maxConcurrency;
+
+  private final long idleNanos;
+
+  private final Map<String, Tenant> tenants = new HashMap<>();
+
+  private String endpoint;
+
+  private Instrumentation instrumentation = Instrumentation.NOOP;
+
+  private boolean closed;
+
+  private final AtomicLong evictions = new AtomicLong();
+
+  /**
+   * Set up a registry.
+   * @param executionMode Execution mode of the shared executor
+   * @param maxConcurrency Maximum amount of concurrent calls of all clients together
+   * @param idleMillis Time after the last call of a client until it is evicted
+   */
+  public ClientRegistry(NativeAPIClient.ExecutionMode executionMode, int maxConcurrency, long idleMillis) {
+    if(maxConcurrency < 1) {
+      throw new IllegalArgumentException("At least one concurrent call is required");
+    }
+    if(idleMillis <= 0) {
+      throw new IllegalArgumentException("The idle time must be positive");
+    }
+    this.executor = NativeAPIClient.createExecutor(executionMode, maxConcurrency);
+    this.scheduler = NativeAPIClient.createScheduler();
+    this.connectionPool = new ConnectionPool(Math.max(5, maxConcurrency));
+    this.maxConcurrency = maxConcurrency;
+    this.idleNanos = TimeUnit.MILLISECONDS.toNanos(idleMillis);
+    long interval = Math.max(1, idleMillis / 2);
+    scheduler.scheduleWithFixedDelay(this::evictIdle, interval, interval, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Set up a registry with a fixed pool of 8 threads, evicting clients after 10 minutes without calls.
+   */
+  public ClientRegistry() {
+    this(NativeAPIClient.ExecutionMode.FIXED_POOL, 8, TimeUnit.MINUTES.toMillis(10));
+  }
+
+  /**
+   * Get the client for an app key, setting it up if there is none yet. If the app key has a client with a different app
+   * secret, e.g. after a secret was rotated, that client is evicted and replaced. The old client keeps a single slot to
+   * finish the calls it still has, so it doesn't take threads from the new client.
+   * @param appKey App key
+   * @param appSecret App secret
+   * @return API client
+   * @throws IllegalStateException If the registry was closed
+   */
+  public synchronized NativeAPIClient get(String appKey, String appSecret) {
+    Objects.requireNonNull(appKey, "appKey");
+    Objects.requireNonNull(appSecret, "appSecret");
+    if(closed) {
+      throw new IllegalStateException("The registry was closed");
+    }
+    Tenant tenant = tenants.get(appKey);
+    if(tenant != null && tenant.appSecret.equals(appSecret)) {
+      return tenant.client;
+    }
+    if(tenant != null) {
+      tenants.remove(appKey);
+      tenant.client.getPriorityLanes().resize(1);
+    }
+    NativeAPIClient client = new NativeAPIClient(appKey, appSecret, executor, scheduler, connectionPool, maxConcurrency, true);
+    if(endpoint != null) {
+      client.setEndpoint(endpoint);
+    }
+    client.setInstrumentation(instrumentation);
+    tenants.put(appKey, new Tenant(appSecret, client));
+    resize();
+    return client;
+  }
+
+  /**
+   * Evict the clients that have no calls pending, and placed or completed their last call before the idle time.
+   * Like a replaced client, an evicted client keeps a single slot, in case it is still used.
+   * This runs periodically, at half the idle time.
+   * @return Amount of evicted clients
+   */
+  public int evictIdle() {
+    long since = System.nanoTime() - idleNanos;
+    List<String> evicted = new ArrayList<>();
+    synchronized(this) {
+      tenants.forEach((appKey, tenant) -> {
+        if(tenant.client.isIdleSince(since)) {
+          evicted.add(appKey);
+        }
+      });
+      if(evicted.isEmpty()) {
+        return 0;
+      }
+      evicted.forEach(appKey -> tenants.remove(appKey).client.getPriorityLanes().resize(1));
+      resize();
+    }
+    evictions.addAndGet(evicted.size());
+    return evicted.size();
+  }
+
+  /**
+   * Give every client its fair share of the concurrency. Must be called while holding the lock.
+   */
+  private void resize() {
+    int share = getFairShare(tenants.size());
+    tenants.values().forEach(tenant -> tenant.client.getPriorityLanes().resize(share));
+  }
+
+  private int getFairShare(int tenantCount) {
+    return Math.max(1, (maxConcurrency + tenantCount - 1) / Math.max(1, tenantCount));
+  }
+
+  /**
+   * Set the endpoint of all clients, including the clients that are set up later.
+   * @param endpoint New endpoint, e.g. https://mobile-api.clutch.com
+   */
+  public synchronized void setEndpoint(String endpoint) {
+    this.endpoint = endpoint;
+    tenants.values().forEach(tenant -> tenant.client.setEndpoint(endpoint));
+  }
+
+  /**
+   * Set the instrumentation of all clients, including the clients that are set up later. The method paths of all app
+   * keys are recorded together.
+   * @param instrumentation Instrumentation, or null to not record anything (default)
+   */
+  public synchronized void setInstrumentation(Instrumentation instrumentation) {
+    this.instrumentation = instrumentation == null ? Instrumentation.NOOP : instrumentation;
+    tenants.values().forEach(tenant -> tenant.client.setInstrumentation(this.instrumentation));
+  }
+
+  public synchronized Instrumentation getInstrumentation() {
+    return instrumentation;
+  }
+
+  /**
+   * Get the connection pool that is shared by all clients.
+   * @return Connection pool
+   */
+  public ConnectionPool getConnectionPool() {
+    return connectionPool;
+  }
+
+  public int getMaxConcurrency() {
+    return maxConcurrency;
+  }
+
+  /**
+   * Get the maximum amount of concurrent calls of every client.
+   * @return Fair share
+   */
+  public synchronized int getFairShare() {
+    return getFairShare(tenants.size());
+  }
+
+  /**
+   * Get the amount of clients in the registry.
+   * @return Amount of clients
+   */
+  public synchronized int size() {
+    return tenants.size();
+  }
+
+  /**
+   * Get the amount of clients that were evicted because they were idle.
+   * @return Amount of evictions
+   */
+  public long getEvictions() {
+    return evictions.get();
+  }
+
+  /**
+   * Shutdown the shared threads, and drop all clients.
+   * @param timeoutMillis Timeout in milliseconds, wait this many milliseconds at most for completion of running tasks
+   * @throws InterruptedException
+   */
+  public void shutdown(long timeoutMillis) throws InterruptedException {
+    synchronized(this) {
+      closed = true;
+      tenants.clear();
+    }
+    executor.shutdown();
+    scheduler.shutdown();
+    if(!executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS)) {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Shutdown the shared threads, waiting at most 2 seconds. If the current thread is interrupted while waiting, the
+   * threads are not waited for, and the thread keeps its interrupted status.
+   */
+  @Override
+  public void close() {
+    try {
+      shutdown(2000);
+    } catch(InterruptedException ex) {
+      executor.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Client of an app key.
+   */
+  private static class Tenant {
+
+    private final String appSecret;
+
+    private final NativeAPIClient client;
+
+    private Tenant(String appSecret, NativeAPIClient client) {
+      this.appSecret = appSecret;
+      this.client = client;
+    }
+
+  }
+
+}
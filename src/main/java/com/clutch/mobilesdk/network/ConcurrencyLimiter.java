@@ -0,0 +1,190 @@
+package com.clutch.mobilesdk.network;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Adaptive limit on the amount of calls in flight, using additive increase / multiplicative decrease (AIMD).
+ *
+ * Every completed call is a sample. A call that failed in a way that indicates overload, or that took longer than the
+ * latency tolerance times the smoothed latency of earlier calls, decreases the limit by the backoff ratio. Other calls
+ * increase the limit by one per limit calls, as long as the limit is actually in use. The smoothed latency follows
+ * lasting changes slowly, so the limit settles where latency stops growing with concurrency.
+ *
+ * Calls over the limit wait in a bounded queue, and are started in order as calls complete. Once the queue is full,
+ * calls are rejected right away, so callers can fail fast instead of piling up behind a degraded endpoint.
+ *
+ * Instances are thread-safe, and should only be used by a single API client.
+ */
+public class ConcurrencyLimiter {
+
+  /**
+   * Weight of a new sample in the smoothed latency.
+   */
+  private static final double SMOOTHING = 0.05;
+
+  private final int minLimit;
+
+  private final int maxLimit;
+
+  private final double backoffRatio;
+
+  private final double latencyTolerance;
+
+  private final int maxQueueSize;
+
+  private final ArrayDeque<Runnable> queue = new ArrayDeque<>();
+
+  private final AtomicLong rejected = new AtomicLong();
+
+  private double limit;
+
+  private int inFlight;
+
+  /**
+   * Smoothed latency in nanoseconds, 0 before the first sample.
+   */
+  private double smoothedNanos;
+
+  /**
+   * Set up a new concurrency limiter.
+   * @param initialLimit Limit to start with
+   * @param minLimit Lowest limit
+   * @param maxLimit Highest limit
+   * @param backoffRatio Factor the limit is multiplied with on overload, between 0 and 1
+   * @param latencyTolerance Factor of the smoothed latency from which a call indicates overload, more than 1
+   * @param maxQueueSize Maximum amount of calls waiting for the limit, calls are rejected beyond this
+   */
+  public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double backoffRatio, double latencyTolerance, int maxQueueSize) {
+    if(minLimit < 1 || minLimit > initialLimit || initialLimit > maxLimit) {
+      throw new IllegalArgumentException("The limits must be at least 1, with the initial limit between the lowest and highest limit");
+    }
+    if(backoffRatio <= 0 || backoffRatio >= 1 || latencyTolerance <= 1) {
+      throw new IllegalArgumentException("The backoff ratio must be between 0 and 1, and the latency tolerance more than 1");
+    }
+    this.limit = initialLimit;
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.backoffRatio = backoffRatio;
+    this.latencyTolerance = latencyTolerance;
+    this.maxQueueSize = maxQueueSize;
+  }
+
+  /**
+   * Set up a concurrency limiter that starts at 4 calls and adapts between 1 and 64 calls, backing off by 10% on
+   * failures or calls that take more than twice as long as usual. At most 100 calls wait for the limit.
+   */
+  public ConcurrencyLimiter() {
+    this(4, 1, 64, 0.9, 2, 100);
+  }
+
+  /**
+   * Acquire a slot for a call. If a slot is free, the call is started right away in the current thread. Otherwise it is
+   * queued, and started in the thread that releases a slot. Every started call must release its slot exactly once.
+   * @param start Starts the call
+   * @return False if the queue is full, in which case the call is not started
+   */
+  public boolean acquire(Runnable start) {
+    synchronized(this) {
+      if(inFlight >= (int) limit || !queue.isEmpty()) {
+        if(queue.size() >= maxQueueSize) {
+          rejected.incrementAndGet();
+          return false;
+        }
+        queue.addLast(start);
+        return true;
+      }
+      inFlight++;
+    }
+    start.run();
+    return true;
+  }
+
+  /**
+   * Remove a call that is waiting in the queue, e.g. because it was cancelled.
+   * @param start Start of the call, as passed to acquire
+   * @return True if the call was queued, so it won't be started
+   */
+  public synchronized boolean remove(Runnable start) {
+    return queue.remove(start);
+  }
+
+  /**
+   * Release the slot of a completed call, adapting the limit to its outcome.
+   * @param durationNanos Duration of the call
+   * @param overloaded True if the call failed in a way that indicates overload, e.g. a network failure or server error
+   */
+  public void release(long durationNanos, boolean overloaded) {
+    List<Runnable> started;
+    synchronized(this) {
+      boolean limited = inFlight * 2 >= limit;
+      if(smoothedNanos == 0) {
+        smoothedNanos = durationNanos;
+      }
+      if(overloaded || durationNanos > smoothedNanos * latencyTolerance) {
+        limit = Math.max(minLimit, limit * backoffRatio);
+      } else if(limited) {
+        limit = Math.min(maxLimit, limit + 1 / limit);
+      }
+      smoothedNanos += (durationNanos - smoothedNanos) * SMOOTHING;
+      started = releaseSlot();
+    }
+    started.forEach(Runnable::run);
+  }
+
+  /**
+   * Release the slot of a call that did not complete, e.g. because it was not placed or cancelled, without adapting the limit.
+   */
+  public void release() {
+    List<Runnable> started;
+    synchronized(this) {
+      started = releaseSlot();
+    }
+    started.forEach(Runnable::run);
+  }
+
+  /**
+   * Free a slot and take the queued calls that now fit in the limit. Must be called while holding the lock.
+   * @return Calls to start, outside of the lock
+   */
+  private List<Runnable> releaseSlot() {
+    inFlight--;
+    List<Runnable> started = new ArrayList<>(1);
+    while(inFlight < (int) limit && !queue.isEmpty()) {
+      inFlight++;
+      started.add(queue.pollFirst());
+    }
+    return started;
+  }
+
+  /**
+   * Get the current limit on calls in flight.
+   * @return Limit
+   */
+  public synchronized int getLimit() {
+    return (int) limit;
+  }
+
+  public synchronized int getInFlight() {
+    return inFlight;
+  }
+
+  /**
+   * Get the amount of calls waiting for the limit.
+   * @return Queue depth
+   */
+  public synchronized int getQueueDepth() {
+    return queue.size();
+  }
+
+  /**
+   * Get the amount of calls that were rejected because the queue was full.
+   * @return Amount of rejected calls
+   */
+  public long getRejected() {
+    return rejected.get();
+  }
+
+}
@@ -0,0 +1,30 @@
+package com.clutch.mobilesdk.network;
+
+/**
+ * Response to a conditional GET call, see APIClient.placeConditionalCall.
+ * @param <T> Type of the parsed response
+ */
+public class ConditionalResponse <T> {
+
+  /**
+   * True if the server responded with 304 Not Modified, so the cached response is still current.
+   */
+  public boolean notModified;
+
+  /**
+   * Parsed response, or null if it was not modified.
+   */
+  public T response;
+
+  /**
+   * Entity tag of the response, or null if the server did not return one.
+   */
+  public String etag;
+
+  public ConditionalResponse(boolean notModified, T response, String etag) {
+    this.notModified = notModified;
+    this.response = response;
+    this.etag = etag;
+  }
+
+}
@@ -0,0 +1,224 @@
+package com.clutch.mobilesdk.network;
+
+import com.clutch.mobilesdk.APIException;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of kept-alive connections, used by the NativeAPIClient.
+ *
+ * HttpURLConnection keeps idle connections in the keep-alive cache of the runtime, as long as the response body is read
+ * completely, the streams are closed and the connection is not disconnected. This pool makes sure that connections are
+ * released that way, limits the amount of connections in use per endpoint and shares a single SSL socket factory between
+ * all connections, which is required for HTTPS connections (and their TLS sessions) to be reused.
+ *
+ * NOTE: The runtime keeps at most http.maxConnections idle connections per destination (5 by default), so that system
+ * property should not be lower than the pool size. HttpURLConnection does not support HTTP/2, so every connection handles
+ * a single request at a time.
+ */
+public class ConnectionPool {
+
+  private final int maxConnectionsPerEndpoint;
+
+  private final SSLSocketFactory socketFactory;
+
+  /**
+   * Permits for connections in use, per endpoint.
+   */
+  private final ConcurrentMap<String, Semaphore> permits = new ConcurrentHashMap<>();
+
+  /**
+   * Flag per thread that is set as soon as a new TLS socket is opened, to tell reused and new connections apart.
+   */
+  private final ThreadLocal<boolean[]> newSocket = ThreadLocal.withInitial(() -> new boolean[1]);
+
+  private final AtomicLong reusedTlsConnections = new AtomicLong();
+
+  private final AtomicLong newTlsConnections = new AtomicLong();
+
+  /**
+   * Set up a new connection pool.
+   * @param maxConnectionsPerEndpoint Maximum amount of connections in use per endpoint
+   * @param socketFactory SSL socket factory to use for HTTPS connections
+   */
+  public ConnectionPool(int maxConnectionsPerEndpoint, SSLSocketFactory socketFactory) {
+    if(maxConnectionsPerEndpoint < 1) {
+      throw new IllegalArgumentException("At least one connection per endpoint is required");
+    }
+    this.maxConnectionsPerEndpoint = maxConnectionsPerEndpoint;
+    this.socketFactory = new TrackingSocketFactory(socketFactory);
+  }
+
+  /**
+   * Set up a new connection pool with the default SSL socket factory.
+   * @param maxConnectionsPerEndpoint Maximum amount of connections in use per endpoint
+   */
+  public ConnectionPool(int maxConnectionsPerEndpoint) {
+    this(maxConnectionsPerEndpoint, HttpsURLConnection.getDefaultSSLSocketFactory());
+  }
+
+  /**
+   * Set up a new connection pool with 5 connections per endpoint, matching the default keep-alive cache size.
+   */
+  public ConnectionPool() {
+    this(5);
+  }
+
+  /**
+   * Open a connection, waiting for a free slot if the maximum amount of connections for the endpoint is in use.
+   * Every opened connection must be handed back with release, in the same thread, with the same URL.
+   * @param url URL to connect to
+   * @param timeoutMillis Maximum time to wait for a free slot
+   * @return Connection, which will reuse a kept-alive connection if one is available
+   * @throws IOException If the connection could not be opened
+   */
+  public HttpURLConnection open(URL url, int timeoutMillis) throws IOException {
+    Semaphore semaphore = permits.computeIfAbsent(key(url), k -> new Semaphore(maxConnectionsPerEndpoint, true));
+    try {
+      if(!semaphore.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+        throw new APIException("No connection available for " + key(url));
+      }
+    } catch(InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new APIException("Interrupted while waiting for a connection", ex);
+    }
+
+    try {
+      HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+      if(conn instanceof HttpsURLConnection) {
+        ((HttpsURLConnection) conn).setSSLSocketFactory(socketFactory);
+      }
+      newSocket.get()[0] = false;
+      return conn;
+    } catch(IOException | RuntimeException ex) {
+      semaphore.release();
+      throw ex;
+    }
+  }
+
+  /**
+   * Hand a connection back to the pool.
+   * @param url URL the connection was opened for. The connection may have followed a redirect to another endpoint
+   *            since, so its own URL doesn't identify the slot it holds.
+   * @param conn Connection that was opened with open
+   * @param reusable True if the response was read completely and the streams were closed, so the connection can be kept alive.
+   *                 False to close the underlying socket.
+   */
+  public void release(URL url, HttpURLConnection conn, boolean reusable) {
+    if(conn instanceof HttpsURLConnection) {
+      if(newSocket.get()[0]) {
+        newTlsConnections.incrementAndGet();
+      } else {
+        reusedTlsConnections.incrementAndGet();
+      }
+    }
+    if(!reusable) {
+      conn.disconnect();
+    }
+    Semaphore semaphore = permits.get(key(url));
+    if(semaphore != null) {
+      semaphore.release();
+    }
+  }
+
+  /**
+   * Get the amount of HTTPS requests that reused a kept-alive connection, skipping the TCP and TLS handshakes.
+   * Plain HTTP connections are opened by the runtime without a socket factory to observe, so they are not counted.
+   * @return Amount of reused TLS connections
+   */
+  public long getReusedTlsConnections() {
+    return reusedTlsConnections.get();
+  }
+
+  /**
+   * Get the amount of HTTPS requests that had to open a new connection and do a TLS handshake.
+   * Plain HTTP connections are not counted.
+   * @return Amount of new TLS connections
+   */
+  public long getNewTlsConnections() {
+    return newTlsConnections.get();
+  }
+
+  public int getMaxConnectionsPerEndpoint() {
+    return maxConnectionsPerEndpoint;
+  }
+
+  /**
+   * Get the pool key for a URL.
+   * @param url URL
+   * @return Key based on protocol, host and port
+   */
+  private static String key(URL url) {
+    int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+    return url.getProtocol() + "://" + url.getHost() + ":" + port;
+  }
+
+  /**
+   * SSL socket factory that flags the current thread whenever a new socket is created.
+   */
+  private class TrackingSocketFactory extends SSLSocketFactory {
+
+    private final SSLSocketFactory delegate;
+
+    TrackingSocketFactory(SSLSocketFactory delegate) {
+      this.delegate = delegate;
+    }
+
+    private Socket track(Socket socket) {
+      newSocket.get()[0] = true;
+      return socket;
+    }
+
+    @Override
+    public String[] getDefaultCipherSuites() {
+      return delegate.getDefaultCipherSuites();
+    }
+
+    @Override
+    public String[] getSupportedCipherSuites() {
+      return delegate.getSupportedCipherSuites();
+    }
+
+    @Override
+    public Socket createSocket() throws IOException {
+      return track(delegate.createSocket());
+    }
+
+    @Override
+    public Socket createSocket(Socket s, String host, int port, boolean autoClose) throws IOException {
+      return track(delegate.createSocket(s, host, port, autoClose));
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+      return track(delegate.createSocket(host, port));
+    }
+
+    @Override
+    public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+      return track(delegate.createSocket(host, port, localHost, localPort));
+    }
+
+    @Override
+    public Socket createSocket(InetAddress host, int port) throws IOException {
+      return track(delegate.createSocket(host, port));
+    }
+
+    @Override
+    public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+      return track(delegate.createSocket(address, port, localAddress, localPort));
+    }
+  }
+
+}
@@ -0,0 +1,127 @@
+package com.clutch.mobilesdk.network;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces identical calls that are in flight at the same time into a single call (single-flight).
+ *
+ * Every caller gets its own future, which completes with the result of the shared call. Cancelling it only detaches
+ * that caller: the shared call is cancelled once all its callers cancelled.
+ */
+class InFlightCalls {
+
+  private final ConcurrentHashMap<Object, Flight<?>> flights = new ConcurrentHashMap<>();
+
+  private final AtomicLong coalesced = new AtomicLong();
+
+  /**
+   * Join the call in flight for a key, or start a new call if there is none.
+   * @param key Key of the call, equal keys must produce equal results
+   * @param call Starts the call
+   * @param <T> Type of the result
+   * @return Future for this caller
+   */
+  @SuppressWarnings("unchecked")
+  <T> CompletableFuture<T> join(Object key, Supplier<CompletableFuture<T>> call) {
+    AtomicReference<Flight<T>> started = new AtomicReference<>();
+    Flight<T> flight = (Flight<T>) flights.compute(key, (k, current) -> {
+      if(current != null && current.join()) {
+        return current;
+      }
+      started.set(new Flight<>());
+      return started.get();
+    });
+
+    if(started.get() == null) {
+      coalesced.incrementAndGet();
+    } else {
+      start(key, flight, call);
+    }
+
+    CompletableFuture<T> caller = new CompletableFuture<>();
+    flight.result.whenComplete((response, ex) -> {
+      if(ex == null) {
+        caller.complete(response);
+      } else {
+        caller.completeExceptionally(ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex);
+      }
+    });
+    caller.whenComplete((response, ex) -> {
+      if(caller.isCancelled() && flight.leave()) {
+        flight.result.cancel(true);
+      }
+    });
+    return caller;
+  }
+
+  private <T> void start(Object key, Flight<T> flight, Supplier<CompletableFuture<T>> call) {
+    CompletableFuture<T> shared;
+    try {
+      shared = call.get();
+    } catch(RuntimeException ex) {
+      flights.remove(key, flight);
+      flight.result.completeExceptionally(ex);
+      return;
+    }
+    shared.whenComplete((response, ex) -> {
+      // Calls placed from now on get a fresh result
+      flights.remove(key, flight);
+      if(ex == null) {
+        flight.result.complete(response);
+      } else {
+        flight.result.completeExceptionally(ex);
+      }
+    });
+    flight.result.whenComplete((response, ex) -> {
+      if(flight.result.isCancelled()) {
+        flights.remove(key, flight);
+        shared.cancel(true);
+      }
+    });
+  }
+
+  /**
+   * Get the amount of calls that joined a call in flight, instead of placing their own.
+   * @return Amount of coalesced calls
+   */
+  long getCoalesced() {
+    return coalesced.get();
+  }
+
+  /**
+   * A shared call and its callers.
+   */
+  private static class Flight<T> {
+
+    private final CompletableFuture<T> result = new CompletableFuture<>();
+
+    private int callers = 1;
+
+    /**
+     * Add a caller.
+     * @return False if the call was cancelled, so it can't be joined anymore
+     */
+    synchronized boolean join() {
+      if(callers == 0 || result.isCancelled()) {
+        return false;
+      }
+      callers++;
+      return true;
+    }
+
+    /**
+     * Remove a caller that cancelled.
+     * @return True if this was the last caller, so the call should be cancelled
+     */
+    synchronized boolean leave() {
+      return --callers == 0;
+    }
+
+  }
+
+}
@@ -0,0 +1,134 @@
+package com.clutch.mobilesdk.network;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Instrumentation that keeps a latency histogram per phase and the counters per method path in memory.
+ * Take a snapshot to read them, e.g. to log them periodically or to show them in a debug screen.
+ *
+ * Instances are thread-safe, and can be shared by multiple API clients to aggregate their calls.
+ */
+public class InMemoryInstrumentation implements Instrumentation {
+
+  private static final LatencyHistogram.Snapshot EMPTY = new LatencyHistogram().snapshot();
+
+  private final ConcurrentHashMap<String, PathMetrics> paths = new ConcurrentHashMap<>();
+
+  @Override
+  public void recordTime(String path, Phase phase, long nanos) {
+    metrics(path).histogram(phase).record(nanos);
+  }
+
+  @Override
+  public void increment(String path, Counter counter, long amount) {
+    metrics(path).counters.addAndGet(counter.ordinal(), amount);
+  }
+
+  private PathMetrics metrics(String path) {
+    PathMetrics metrics = paths.get(path);
+    return metrics != null ? metrics : paths.computeIfAbsent(path, key -> new PathMetrics());
+  }
+
+  /**
+   * Take a snapshot of all method paths.
+   * @return Snapshot per normalized method path, sorted by path
+   */
+  public Map<String, PathSnapshot> snapshot() {
+    Map<String, PathSnapshot> snapshot = new TreeMap<>();
+    paths.forEach((path, metrics) -> snapshot.put(path, metrics.snapshot()));
+    return Collections.unmodifiableMap(snapshot);
+  }
+
+  /**
+   * Remove everything that was recorded.
+   */
+  public void reset() {
+    paths.clear();
+  }
+
+  /**
+   * Histograms and counters of a method path. Histograms are created on their first use.
+   */
+  private static class PathMetrics {
+
+    private final AtomicReferenceArray<LatencyHistogram> histograms = new AtomicReferenceArray<>(Phase.values().length);
+
+    private final AtomicLongArray counters = new AtomicLongArray(Counter.values().length);
+
+    private LatencyHistogram histogram(Phase phase) {
+      LatencyHistogram histogram = histograms.get(phase.ordinal());
+      if(histogram == null) {
+        histograms.compareAndSet(phase.ordinal(), null, new LatencyHistogram());
+        histogram = histograms.get(phase.ordinal());
+      }
+      return histogram;
+    }
+
+    private PathSnapshot snapshot() {
+      LatencyHistogram.Snapshot[] timers = new LatencyHistogram.Snapshot[histograms.length()];
+      for(int i = 0; i < timers.length; i++) {
+        LatencyHistogram histogram = histograms.get(i);
+        timers[i] = histogram == null ? EMPTY : histogram.snapshot();
+      }
+      long[] values = new long[counters.length()];
+      for(int i = 0; i < values.length; i++) {
+        values[i] = counters.get(i);
+      }
+      return new PathSnapshot(timers, values);
+    }
+
+  }
+
+  /**
+   * Timers and counters of a method path at a point in time.
+   */
+  public static class PathSnapshot {
+
+    private final LatencyHistogram.Snapshot[] timers;
+
+    private final long[] counters;
+
+    PathSnapshot(LatencyHistogram.Snapshot[] timers, long[] counters) {
+      this.timers = timers;
+      this.counters = counters;
+    }
+
+    /**
+     * Get the histogram of a phase.
+     * @param phase Phase
+     * @return Histogram snapshot, empty if the phase was never recorded
+     */
+    public LatencyHistogram.Snapshot getTimer(Phase phase) {
+      return timers[phase.ordinal()];
+    }
+
+    public long getCounter(Counter counter) {
+      return counters[counter.ordinal()];
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder builder = new StringBuilder();
+      for(Counter counter : Counter.values()) {
+        builder.append(counter).append('=').append(getCounter(counter)).append(' ');
+      }
+      for(Phase phase : Phase.values()) {
+        LatencyHistogram.Snapshot timer = getTimer(phase);
+        if(timer.getCount() > 0) {
+          builder.append(phase).append("[p50=").append(timer.getPercentile(50, TimeUnit.MICROSECONDS))
+                  .append("us p99=").append(timer.getPercentile(99, TimeUnit.MICROSECONDS))
+                  .append("us max=").append(timer.getMax(TimeUnit.MICROSECONDS)).append("us] ");
+        }
+      }
+      return builder.toString().trim();
+    }
+
+  }
+
+}
@@ -0,0 +1,120 @@
+package com.clutch.mobilesdk.network;
+
+/**
+ * Receives timings and counters of API calls, per normalized method path, e.g. /profile/token/* or /brand/fields.
+ *
+ * Implementations are called from network and callback threads on every call, so recording must be thread-safe and
+ * cheap. See InMemoryInstrumentation for an implementation that keeps histograms in memory, or forward the values to
+ * your own metrics library.
+ */
+public interface Instrumentation {
+
+  /**
+   * Instrumentation that ignores everything, used when none is set.
+   */
+  Instrumentation NOOP = new Instrumentation() {
+    @Override
+    public void recordTime(String path, Phase phase, long nanos) {
+    }
+
+    @Override
+    public void increment(String path, Counter counter, long amount) {
+    }
+  };
+
+  /**
+   * Timed phase of a call.
+   */
+  enum Phase {
+
+    /**
+     * Complete call, from placing it until its result is available, including all attempts.
+     */
+    TOTAL,
+
+    /**
+     * Wait for the concurrency limiter and a thread, per attempt.
+     */
+    QUEUE,
+
+    /**
+     * Signing the request, per attempt.
+     */
+    SIGNING,
+
+    /**
+     * Opening the connection, or taking it from the keep-alive cache, per attempt.
+     */
+    CONNECT,
+
+    /**
+     * Time to first byte, from sending the request until the response status is in, per attempt.
+     */
+    FIRST_BYTE,
+
+    /**
+     * Waiting for the response body from the network.
+     */
+    DOWNLOAD,
+
+    /**
+     * Parsing the response body, excluding the time waiting for the network.
+     */
+    PARSE,
+
+    /**
+     * Running the response handler, or the stages depending on the result if there is no callback executor.
+     */
+    CALLBACK
+
+  }
+
+  /**
+   * Counter of a method path.
+   */
+  enum Counter {
+
+    /**
+     * Calls placed, including calls that joined an identical call in flight.
+     */
+    CALLS,
+
+    /**
+     * Attempts that were retried after a failure.
+     */
+    RETRIES,
+
+    /**
+     * Calls that failed, after all attempts.
+     */
+    FAILURES,
+
+    /**
+     * Bytes of request bodies sent.
+     */
+    BYTES_SENT,
+
+    /**
+     * Bytes of response bodies received, including error bodies.
+     */
+    BYTES_RECEIVED
+
+  }
+
+  /**
+   * Record the duration of a phase.
+   * @param path Normalized method path
+   * @param phase Phase
+   * @param nanos Duration in nanoseconds
+   */
+  void recordTime(String path, Phase phase, long nanos);
+
+  /**
+   * Increment a counter.
+   * @param path Normalized method path
+   * @param counter Counter
+   * @param amount Amount to add
+   */
+  void increment(String path, Counter counter, long amount);
+
+}
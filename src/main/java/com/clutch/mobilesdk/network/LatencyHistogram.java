@@ -0,0 +1,160 @@
+package com.clutch.mobilesdk.network;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of durations with log-linear buckets, in the style of HdrHistogram.
+ *
+ * Every power of two is split into 16 linear sub-buckets, so recorded values are kept with a relative error of at most
+ * 1/16 (about 6%), from 1 nanosecond up to about 18 minutes. Longer durations are counted in the last bucket.
+ * Recording is lock-free and allocation-free: it increments a single bucket and updates the count, sum and maximum.
+ *
+ * Instances are thread-safe. Snapshots taken while values are recorded may miss some of those values.
+ */
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 4;
+
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  /**
+   * Values are capped at 2^40 nanoseconds.
+   */
+  private static final int MAX_BIT = 40;
+
+  private static final int BUCKETS = SUB_BUCKETS + (MAX_BIT - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+  private final AtomicLong count = new AtomicLong();
+
+  private final AtomicLong sum = new AtomicLong();
+
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+   * Record a duration.
+   * @param nanos Duration in nanoseconds, negative values are counted as 0
+   */
+  public void record(long nanos) {
+    long value = Math.max(0, nanos);
+    buckets.incrementAndGet(index(value));
+    count.incrementAndGet();
+    sum.addAndGet(value);
+    long current;
+    while(value > (current = max.get()) && !max.compareAndSet(current, value)) {
+      // Retry
+    }
+  }
+
+  /**
+   * Get the bucket of a value: values below the sub-bucket count have a bucket of their own, larger values share a
+   * bucket with the values that have the same highest bit and the same next 4 bits.
+   */
+  private static int index(long value) {
+    if(value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int highestBit = Math.min(MAX_BIT - 1, 63 - Long.numberOfLeadingZeros(value));
+    int shift = highestBit - SUB_BUCKET_BITS;
+    int subBucket = value >= 1L << MAX_BIT ? SUB_BUCKETS - 1 : (int) (value >>> shift) - SUB_BUCKETS;
+    return SUB_BUCKETS + shift * SUB_BUCKETS + subBucket;
+  }
+
+  /**
+   * Get the highest value that is counted in a bucket.
+   */
+  private static long highestValue(int index) {
+    if(index < SUB_BUCKETS) {
+      return index;
+    }
+    int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+    int subBucket = (index - SUB_BUCKETS) % SUB_BUCKETS;
+    return ((long) (SUB_BUCKETS + subBucket + 1) << shift) - 1;
+  }
+
+  /**
+   * Take a snapshot of the recorded values.
+   * @return Snapshot
+   */
+  public Snapshot snapshot() {
+    long[] counts = new long[BUCKETS];
+    for(int i = 0; i < BUCKETS; i++) {
+      counts[i] = buckets.get(i);
+    }
+    return new Snapshot(counts, count.get(), sum.get(), max.get());
+  }
+
+  /**
+   * Recorded values at a point in time.
+   */
+  public static class Snapshot {
+
+    private final long[] counts;
+
+    private final long count;
+
+    private final long sum;
+
+    private final long max;
+
+    Snapshot(long[] counts, long count, long sum, long max) {
+      this.counts = counts;
+      this.count = count;
+      this.sum = sum;
+      this.max = max;
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    /**
+     * Get the mean duration.
+     * @param unit Unit to return
+     * @return Mean duration, or 0 if nothing was recorded
+     */
+    public double getMean(TimeUnit unit) {
+      return count == 0 ? 0 : (double) sum / count / unit.toNanos(1);
+    }
+
+    /**
+     * Get the longest recorded duration.
+     * @param unit Unit to return
+     * @return Maximum duration, truncated to the unit
+     */
+    public long getMax(TimeUnit unit) {
+      return unit.convert(max, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Get the duration that the given percentage of recorded values is at or below, e.g. 99 for the 99th percentile.
+     * The result is the highest value of its bucket, but never more than the maximum.
+     * @param percentile Percentile between 0 and 100
+     * @param unit Unit to return
+     * @return Duration, truncated to the unit, or 0 if nothing was recorded
+     */
+    public long getPercentile(double percentile, TimeUnit unit) {
+      long total = 0;
+      for(long bucketCount : counts) {
+        total += bucketCount;
+      }
+      if(total == 0) {
+        return 0;
+      }
+      long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+      long seen = 0;
+      for(int i = 0; i < counts.length; i++) {
+        seen += counts[i];
+        if(seen >= rank) {
+          return unit.convert(Math.min(highestValue(i), max), TimeUnit.NANOSECONDS);
+        }
+      }
+      return getMax(unit);
+    }
+
+  }
+
+}
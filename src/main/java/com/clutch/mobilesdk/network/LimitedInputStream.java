@@ -0,0 +1,117 @@
+package com.clutch.mobilesdk.network;
+
+import com.clutch.mobilesdk.ResponseTooLargeException;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Input stream that aborts reading once more than a maximum amount of bytes was read.
+ * Also keeps track of read failures, to tell network problems apart from parse problems, and of the time spent
+ * waiting for the network, to tell download time apart from parse time.
+ */
+class LimitedInputStream extends FilterInputStream {
+
+  private final long limit;
+
+  private long count;
+
+  private boolean failed;
+
+  private long readNanos;
+
+  LimitedInputStream(InputStream in, long limit) {
+    super(in);
+    this.limit = limit;
+  }
+
+  @Override
+  public int read() throws IOException {
+    int b;
+    long start = System.nanoTime();
+    try {
+      b = super.read();
+    } catch(IOException ex) {
+      failed = true;
+      throw ex;
+    } finally {
+      readNanos += System.nanoTime() - start;
+    }
+    if(b != -1) {
+      count(1);
+    }
+    return b;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    int n;
+    long start = System.nanoTime();
+    try {
+      n = super.read(b, off, len);
+    } catch(IOException ex) {
+      failed = true;
+      throw ex;
+    } finally {
+      readNanos += System.nanoTime() - start;
+    }
+    if(n > 0) {
+      count(n);
+    }
+    return n;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    byte[] buffer = new byte[(int) Math.min(n, 1024)];
+    int read = read(buffer, 0, buffer.length);
+    return Math.max(read, 0);
+  }
+
+  @Override
+  public boolean markSupported() {
+    return false;
+  }
+
+  private void count(long n) {
+    count += n;
+    if(count > limit) {
+      failed = true;
+      throw new ResponseTooLargeException("Response exceeds the maximum size of " + limit + " bytes");
+    }
+  }
+
+  /**
+   * Check if the response was too large.
+   * @return True if more bytes than the limit were read
+   */
+  boolean isTooLarge() {
+    return count > limit;
+  }
+
+  /**
+   * Check if reading failed, either because of an I/O problem or an oversized response.
+   * @return True if a read failed
+   */
+  boolean isFailed() {
+    return failed;
+  }
+
+  /**
+   * Get the amount of bytes read.
+   * @return Amount of bytes
+   */
+  long getCount() {
+    return count;
+  }
+
+  /**
+   * Get the time spent in reads of the underlying stream.
+   * @return Time in nanoseconds
+   */
+  long getReadNanos() {
+    return readNanos;
+  }
+
+}
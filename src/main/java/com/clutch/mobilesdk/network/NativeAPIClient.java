@@ -1,13 +1,23 @@
 package com.clutch.mobilesdk.network;
 
 import com.clutch.mobilesdk.APIException;
+import com.clutch.mobilesdk.APIStatusException;
+import com.clutch.mobilesdk.CircuitOpenException;
+import com.clutch.mobilesdk.ConcurrencyLimitException;
+import com.clutch.mobilesdk.DeadlineExceededException;
+import com.clutch.mobilesdk.ResponseTooLargeException;
 
 import java.io.*;
+import java.lang.reflect.Method;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 
 /**
@@ -15,12 +25,89 @@ import java.util.function.Function;
  */
 public class NativeAPIClient extends APIClient {
 
+  private static final int CONNECT_TIMEOUT = 10000;
+
+  private static final int READ_TIMEOUT = 15000;
+
+  /**
+   * Method that is probed to check if the API recovered, when the circuit breaker is half-open.
+   */
+  private static final String PROBE_METHOD = "/health";
+
+  /**
+   * Execution mode for network calls.
+   */
+  public enum ExecutionMode {
+
+    /**
+     * Run calls in a fixed pool of platform threads.
+     */
+    FIXED_POOL,
+
+    /**
+     * Run every call in its own virtual thread, if the runtime supports virtual threads (Java 21 and up).
+     * Otherwise, calls run in a fixed pool of platform threads.
+     */
+    VIRTUAL_THREADS
+
+  }
+
   /**
    * Executor service responsible for handling network traffic.
    */
   private final ExecutorService executor;
 
-  private final CompletionService<ResponseWrapper> completionService;
+  /**
+   * Execution mode that is actually in use.
+   */
+  private final ExecutionMode executionMode;
+
+  /**
+   * Slots for concurrent calls, shared by the priority lanes. There is one slot per thread for a fixed pool.
+   */
+  private final PriorityLanes lanes;
+
+  /**
+   * Scheduler for the backoff between attempts. It only submits the next attempt to the executor.
+   */
+  private final ScheduledThreadPoolExecutor scheduler;
+
+  /**
+   * Pool of kept-alive connections.
+   */
+  private volatile ConnectionPool connectionPool;
+
+  /**
+   * Policy for retrying failed attempts.
+   */
+  private volatile RetryPolicy retryPolicy = new RetryPolicy();
+
+  /**
+   * Identical GET calls that are in flight.
+   */
+  private final InFlightCalls inFlightCalls = new InFlightCalls();
+
+  private volatile boolean coalescing = true;
+
+  /**
+   * Listener that schedules a probe whenever the circuit breaker opens.
+   */
+  private final CircuitBreaker.Listener probeScheduler = this::scheduleProbe;
+
+  /**
+   * True if the executors are shared with other clients of a ClientRegistry.
+   */
+  private final boolean shared;
+
+  /**
+   * Calls that were placed, but did not complete yet.
+   */
+  private final AtomicInteger pendingCalls = new AtomicInteger();
+
+  /**
+   * Time the last call was placed or completed, in System.nanoTime.
+   */
+  private volatile long lastUsedAt = System.nanoTime();
 
   /**
    * Set up a new native API client.
@@ -29,9 +116,43 @@ public class NativeAPIClient extends APIClient {
    * @param maxThreads Maximum amount of threads to use for concurrent calls. It is recommended to use just 1 or 2 here.
    */
   public NativeAPIClient(String appKey, String appSecret, int maxThreads) {
+    this(appKey, appSecret, ExecutionMode.FIXED_POOL, maxThreads);
+  }
+
+  /**
+   * Set up a new native API client with a specific execution mode.
+   *
+   * Virtual threads make it possible to have a large number of blocking calls in flight, e.g. on a backend JVM. The maximum
+   * concurrency is then enforced by the priority lanes instead of a thread count. On runtimes without virtual threads, this falls
+   * back to a fixed pool with maxConcurrency threads.
+   *
+   * @param appKey App key for your implementation
+   * @param appSecret App secret for your implementation
+   * @param executionMode Execution mode
+   * @param maxConcurrency Maximum amount of concurrent calls
+   */
+  public NativeAPIClient(String appKey, String appSecret, ExecutionMode executionMode, int maxConcurrency) {
+    this(appKey, appSecret, createExecutor(executionMode, maxConcurrency), createScheduler(), new ConnectionPool(Math.max(5, maxConcurrency)), maxConcurrency, false);
+  }
+
+  /**
+   * Set up a new native API client that runs its calls in the given executors.
+   * @param appKey App key for your implementation
+   * @param appSecret App secret for your implementation
+   * @param executor Executor for calls, see createExecutor
+   * @param scheduler Scheduler for retries, deadlines and probes, see createScheduler
+   * @param connectionPool Connection pool
+   * @param maxConcurrency Maximum amount of concurrent calls of this client
+   * @param shared True if the executors are shared with other clients, so shutting down this client leaves them running
+   */
+  NativeAPIClient(String appKey, String appSecret, ExecutorService executor, ScheduledThreadPoolExecutor scheduler, ConnectionPool connectionPool, int maxConcurrency, boolean shared) {
     super(appKey, appSecret);
-    executor = Executors.newFixedThreadPool(maxThreads);
-    completionService = new ExecutorCompletionService<ResponseWrapper>(executor);
+    this.executor = executor;
+    this.executionMode = executor instanceof ThreadPoolExecutor ? ExecutionMode.FIXED_POOL : ExecutionMode.VIRTUAL_THREADS;
+    this.lanes = new PriorityLanes(maxConcurrency);
+    this.connectionPool = connectionPool;
+    this.scheduler = scheduler;
+    this.shared = shared;
   }
 
   /**
@@ -45,119 +166,461 @@ public class NativeAPIClient extends APIClient {
 
   @Override
   public <T> Future<ResponseWrapper<T>> placeAsyncCall(String method, String postData, Function<String, T> parser, ResponseHandler<T> handler) {
+    return wrap(method, execute(method, postData, null, parser, (conn, in) -> parser.apply(readString(in)), CallOptions.DEFAULT), handler);
+  }
 
-    Callable<ResponseWrapper> callable = () -> {
-      try {
-        String response = placeCall(method, postData, 3);
-        T parsedResponse = parser.apply(response);
-        if(handler != null) {
-          handler.handleSuccess(parsedResponse);
-        }
-        return new ResponseWrapper(parsedResponse);
-      } catch(APIException ex) {
-        if(handler != null) {
-          handler.handleError(ex);
-        }
-        return new ResponseWrapper();
-      } catch(Exception ex) {
-        if(handler != null) {
-          handler.handleError(new APIException("Unexpected API problem", ex));
-        }
-        return new ResponseWrapper();
+  @Override
+  public <T> Future<ResponseWrapper<T>> placeAsyncStreamingCall(String method, String postData, StreamParser<T> parser, ResponseHandler<T> handler) {
+    return placeAsyncStreamingCall(method, postData, parser, handler, CallOptions.DEFAULT);
+  }
+
+  @Override
+  public <T> Future<ResponseWrapper<T>> placeAsyncStreamingCall(String method, String postData, StreamParser<T> parser, ResponseHandler<T> handler, CallOptions options) {
+    return wrap(method, execute(method, postData, null, parser, streamReader(parser), options), handler);
+  }
+
+  @Override
+  public <T> CompletionStage<T> placeStagedCall(String method, String postData, StreamParser<T> parser) {
+    return placeStagedCall(method, postData, parser, CallOptions.DEFAULT);
+  }
+
+  @Override
+  public <T> CompletionStage<T> placeStagedCall(String method, String postData, StreamParser<T> parser, CallOptions options) {
+    return stage(method, execute(method, postData, null, parser, streamReader(parser), options));
+  }
+
+  @Override
+  public <T> CompletionStage<ConditionalResponse<T>> placeConditionalCall(String method, String etag, StreamParser<T> parser) {
+    return placeConditionalCall(method, etag, parser, CallOptions.DEFAULT);
+  }
+
+  @Override
+  public <T> CompletionStage<ConditionalResponse<T>> placeConditionalCall(String method, String etag, StreamParser<T> parser, CallOptions options) {
+    BodyReader<T> reader = streamReader(parser);
+    return stage(method, execute(method, null, etag, parser, (conn, in) -> {
+      boolean notModified = conn.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED;
+      return new ConditionalResponse<>(notModified, notModified ? null : reader.read(conn, in), conn.getHeaderField("ETag"));
+    }, options));
+  }
+
+  /**
+   * Complete a stage with the result of a call in the callback executor.
+   * @param method Method of the call
+   * @param call Call
+   * @param <T> Type of the parsed response
+   * @return Stage holding the response. Cancelling it cancels the call.
+   */
+  private <T> CompletionStage<T> stage(String method, CompletableFuture<T> call) {
+    CompletableFuture<T> stage = new CompletableFuture<>();
+    call.whenComplete((response, ex) -> {
+      if(!call.isCancelled()) {
+        dispatch(() -> {
+          long start = System.nanoTime();
+          if(ex == null) {
+            stage.complete(response);
+          } else {
+            stage.completeExceptionally(ex);
+          }
+          instrumentation.recordTime(normalizePath(method), Instrumentation.Phase.CALLBACK, System.nanoTime() - start);
+        });
       }
-    };
+    });
+    stage.whenComplete((response, ex) -> {
+      if(stage.isCancelled()) {
+        call.cancel(true);
+      }
+    });
+    return stage;
+  }
+
+  /**
+   * Create an executor for calls.
+   * @param executionMode Execution mode
+   * @param maxConcurrency Amount of threads of a fixed pool
+   * @return Executor that starts a virtual thread per call, or a fixed pool if the runtime does not support virtual threads
+   */
+  static ExecutorService createExecutor(ExecutionMode executionMode, int maxConcurrency) {
+    ExecutorService virtualExecutor = executionMode == ExecutionMode.VIRTUAL_THREADS ? createVirtualThreadExecutor() : null;
+    return virtualExecutor != null ? virtualExecutor : Executors.newFixedThreadPool(maxConcurrency);
+  }
+
+  /**
+   * Create a scheduler for retries, deadlines and probes, in a single daemon thread.
+   * @return Scheduler
+   */
+  static ScheduledThreadPoolExecutor createScheduler() {
+    ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+      Thread thread = new Thread(runnable, "clutch-retry-scheduler");
+      thread.setDaemon(true);
+      return thread;
+    });
+    scheduler.setRemoveOnCancelPolicy(true);
+    return scheduler;
+  }
+
+  /**
+   * Create an executor that starts a new virtual thread for each task.
+   * @return Executor, or null if the runtime does not support virtual threads
+   */
+  private static ExecutorService createVirtualThreadExecutor() {
+    try {
+      Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService) factory.invoke(null);
+    } catch(ReflectiveOperationException | RuntimeException ex) {
+      return null;
+    }
+  }
+
+  /**
+   * Get the execution mode that is in use. This is FIXED_POOL if virtual threads were requested, but are not supported by the runtime.
+   * @return Execution mode
+   */
+  public ExecutionMode getExecutionMode() {
+    return executionMode;
+  }
+
+  /**
+   * Create a body reader that parses the response with a stream parser.
+   * @param parser Stream parser
+   * @param <T> Type of the parsed response
+   * @return Body reader
+   */
+  private static <T> BodyReader<T> streamReader(StreamParser<T> parser) {
+    return (conn, in) -> parser.parse(new InputStreamReader(in, StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Place a call in the executor, joining an identical GET call that is in flight if the call opted in to coalescing.
+   * @param method Method to use, starting with a leading slash, e.g. /brand/lists
+   * @param postData Post data or null to place a GET call instead
+   * @param etag Entity tag to send as If-None-Match, or null. A 304 response is then passed to the body reader.
+   * @param parser Parser of the response, only calls with the same parser, entity tag and options are coalesced
+   * @param bodyReader Reader for the response body, using the parser
+   * @param options Deadline and lane of the call
+   * @param <T> Type of the parsed response
+   * @return Future that completes with the response or an APIException. Cancelling it cancels the call, or only
+   * detaches from it if other callers share the call.
+   */
+  private <T> CompletableFuture<T> execute(String method, String postData, String etag, Object parser, BodyReader<T> bodyReader, CallOptions options) {
+    long start = System.nanoTime();
+    pendingCalls.incrementAndGet();
+    lastUsedAt = start;
+    CompletableFuture<T> call;
+    if(postData != null || !coalescing || !options.isCoalescing()) {
+      call = execute(method, postData, etag, bodyReader, options);
+    } else {
+      call = inFlightCalls.join(Arrays.asList(method, etag, parser, options), () -> execute(method, null, etag, bodyReader, options));
+    }
+    Instrumentation metrics = instrumentation;
+    String path = normalizePath(method);
+    metrics.increment(path, Instrumentation.Counter.CALLS, 1);
+    // Complete the caller after the metrics are recorded, as dependent stages of the call may run first
+    CompletableFuture<T> measured = new CompletableFuture<>();
+    call.whenComplete((response, ex) -> {
+      lastUsedAt = System.nanoTime();
+      pendingCalls.decrementAndGet();
+      metrics.recordTime(path, Instrumentation.Phase.TOTAL, System.nanoTime() - start);
+      if(ex != null && !call.isCancelled()) {
+        metrics.increment(path, Instrumentation.Counter.FAILURES, 1);
+      }
+      if(ex == null) {
+        measured.complete(response);
+      } else {
+        measured.completeExceptionally(ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex);
+      }
+    });
+    measured.whenComplete((response, ex) -> {
+      if(measured.isCancelled()) {
+        call.cancel(true);
+      }
+    });
+    return measured;
+  }
+
+  /**
+   * Place a call in the executor, retrying failed attempts according to the retry policy until the deadline passes.
+   * Every attempt waits for a slot in the lane of the call.
+   * @param method Method to use, starting with a leading slash, e.g. /brand/lists
+   * @param postData Post data or null to place a GET call instead
+   * @param etag Entity tag to send as If-None-Match, or null
+   * @param bodyReader Reader for the response body
+   * @param options Deadline and lane of the call
+   * @param <T> Type of the parsed response
+   * @return Future that completes in the network thread, either with the response or an APIException.
+   * Cancelling it aborts the call, closing its connection.
+   */
+  private <T> CompletableFuture<T> execute(String method, String postData, String etag, BodyReader<T> bodyReader, CallOptions options) {
+    PendingCall<T> call = new PendingCall<>(method, postData, etag, bodyReader, retryPolicy, options);
+    call.result.whenComplete((response, ex) -> call.finish());
+    call.place();
+    return call.result;
+  }
+
+  /**
+   * Wrap the result of a call in a future of a response wrapper, invoking the response handler once the call completes.
+   * Without a callback executor, the handler is invoked before the returned future completes.
+   * @param method Method of the call
+   * @param call Call
+   * @param handler Handler for the response, or null
+   * @param <T> Type of the parsed response
+   * @return Future holding the wrapped response. Cancelling it cancels the call.
+   */
+  private <T> Future<ResponseWrapper<T>> wrap(String method, CompletableFuture<T> call, ResponseHandler<T> handler) {
+    CompletableFuture<ResponseWrapper<T>> wrapped = call.handle((response, ex) -> {
+      if(call.isCancelled()) {
+        return new ResponseWrapper<>();
+      }
+      if(handler != null) {
+        dispatch(() -> {
+          long start = System.nanoTime();
+          if(ex == null) {
+            try {
+              handler.handleSuccess(response);
+            } catch(Exception handlerEx) {
+              handler.handleError(new APIException("Unexpected API problem", handlerEx));
+            }
+          } else {
+            handler.handleError(unwrap(ex));
+          }
+          instrumentation.recordTime(normalizePath(method), Instrumentation.Phase.CALLBACK, System.nanoTime() - start);
+        });
+      }
+      return ex == null ? new ResponseWrapper<>(response) : new ResponseWrapper<>();
+    });
 
-    // Wrap the standard future, to allow casting of the returned results
-    Future<ResponseWrapper> future = completionService.submit(callable);
     return new Future<ResponseWrapper<T>>() {
 
       @Override
       public boolean cancel(boolean mayInterruptIfRunning) {
-        return future.cancel(mayInterruptIfRunning);
+        return call.cancel(mayInterruptIfRunning);
       }
 
       @Override
       public boolean isCancelled() {
-        return future.isCancelled();
+        return call.isCancelled();
       }
 
       @Override
       public boolean isDone() {
-        return future.isDone();
+        return wrapped.isDone();
       }
 
       @Override
       public ResponseWrapper<T> get() throws InterruptedException, ExecutionException {
-        return future.get();
+        if(call.isCancelled()) {
+          throw new CancellationException();
+        }
+        return wrapped.get();
       }
 
       @Override
       public ResponseWrapper<T> get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
-        return future.get(timeout, unit);
+        if(call.isCancelled()) {
+          throw new CancellationException();
+        }
+        return wrapped.get(timeout, unit);
       }
     };
   }
 
   /**
-   * Place an API call to the Clutch Mobile API.
+   * Get the APIException from a completion failure.
+   * @param ex Failure, possibly wrapped in a CompletionException
+   * @return APIException
+   */
+  private static APIException unwrap(Throwable ex) {
+    Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+    return cause instanceof APIException ? (APIException) cause : new APIException("Unexpected API problem", cause);
+  }
+
+  /**
+   * Schedule a probe for when the circuit breaker becomes half-open, whenever it opens.
+   */
+  private void scheduleProbe(CircuitBreaker breaker, CircuitBreaker.State from, CircuitBreaker.State to) {
+    if(to == CircuitBreaker.State.OPEN) {
+      try {
+        scheduler.schedule(() -> probe(breaker), breaker.getOpenMillis(), TimeUnit.MILLISECONDS);
+      } catch(RejectedExecutionException ex) {
+        // Shut down, the breaker stays open
+      }
+    }
+  }
+
+  /**
+   * Probe the API if the circuit breaker is due for it, closing the breaker if the API responds properly.
+   * @param breaker Circuit breaker
+   */
+  private void probe(CircuitBreaker breaker) {
+    if(breaker != circuitBreaker || !breaker.startProbe()) {
+      return;
+    }
+    try {
+      executor.submit(() -> {
+        boolean success = false;
+        try {
+          placeSingleCall(PROBE_METHOD, null, null, (conn, in) -> null, READ_TIMEOUT, null);
+          success = true;
+        } catch(Exception ex) {
+          // Stays open
+        }
+        breaker.finishProbe(success);
+      });
+    } catch(RejectedExecutionException ex) {
+      breaker.finishProbe(false);
+    }
+  }
+
+  /**
+   * Place a single attempt of an API call, using a connection from the connection pool.
    * @param method Method to use, starting with a leading slash, e.g. /brand/lists
    * @param postData Post data or null to place a GET call instead
-   * @param attempts Maximum amount of attempts
-   * @return Return data as a string
+   * @param etag Entity tag to send as If-None-Match, or null. A 304 response is then passed to the body reader.
+   * @param bodyReader Reader for the response body
+   * @param timeoutMillis Maximum time to wait for the connection and each read, at most the default timeouts
+   * @param active Holder for the connection while it is in use, so it can be aborted, or null
+   * @return Response, as returned by the body reader
+   * @throws IOException If the call failed
    */
-  protected String placeCall(String method, String postData, int attempts) {
+  private <T> T placeSingleCall(String method, String postData, String etag, BodyReader<T> bodyReader, int timeoutMillis, ActiveConnection active) throws IOException {
     OutputStream outputStream = null;
-    InputStream inputStream = null;
+    LimitedInputStream inputStream = null;
     HttpURLConnection conn = null;
+    boolean reusable = false;
 
+    ConnectionPool pool = connectionPool;
+    long maxSize = maxResponseSize;
+    Instrumentation metrics = instrumentation;
+    String path = normalizePath(method);
+    URL url = new URL(endpoint + method);
+    Map<String, String> headers = getHeaders(method, postData);
+    byte[] bytes = postData == null ? null : postData.getBytes(StandardCharsets.UTF_8);
+    long connectStart = System.nanoTime();
     try {
-      URL url = new URL(endpoint + method);
-      conn = (HttpURLConnection) url.openConnection();
-      conn.setConnectTimeout(10000);
-      conn.setReadTimeout(15000);
+      conn = pool.open(url, Math.min(CONNECT_TIMEOUT, timeoutMillis));
+      if(active != null && !active.set(conn)) {
+        throw new InterruptedIOException("Call was aborted");
+      }
+      conn.setConnectTimeout(Math.min(CONNECT_TIMEOUT, timeoutMillis));
+      conn.setReadTimeout(Math.min(READ_TIMEOUT, timeoutMillis));
       conn.setDoOutput(true);
-      getHeaders(method, postData).forEach(conn::setRequestProperty);
-
-      if(postData != null) {
-        byte[] bytes = postData.getBytes(StandardCharsets.UTF_8);
-
+      headers.forEach(conn::setRequestProperty);
+      if(etag != null) {
+        conn.setRequestProperty("If-None-Match", etag);
+      }
+      if(bytes != null) {
         conn.setDoInput(true);
         conn.setRequestMethod("POST");
         conn.setRequestProperty("Content-Type", "application/json");
         conn.setRequestProperty("Content-Length", Integer.toString(bytes.length));
+      }
+      conn.connect();
+      long sendStart = System.nanoTime();
+      metrics.recordTime(path, Instrumentation.Phase.CONNECT, sendStart - connectStart);
 
+      if(bytes != null) {
         outputStream = conn.getOutputStream();
         outputStream.write(bytes, 0, bytes.length);
         outputStream.flush();
+        metrics.increment(path, Instrumentation.Counter.BYTES_SENT, bytes.length);
       }
 
       int statusCode = conn.getResponseCode();
-      if(statusCode != 200) {
-        throw new APIException("Could not reach Clutch mobile API, HTTP status code: " + statusCode);
+      metrics.recordTime(path, Instrumentation.Phase.FIRST_BYTE, System.nanoTime() - sendStart);
+      if(conn.getContentLengthLong() > maxSize) {
+        throw new ResponseTooLargeException("Response of " + conn.getContentLengthLong() + " bytes exceeds the maximum size of " + maxSize + " bytes");
       }
 
-      inputStream = conn.getInputStream();
-      InputStreamReader inputReader = new InputStreamReader(inputStream, StandardCharsets.UTF_8);
-      StringBuilder builder = new StringBuilder();
-      char[] charBuffer = new char[4096];
-      int n;
-      while((n = inputReader.read(charBuffer)) != -1) {
-        builder.append(charBuffer, 0, n);
+      if(statusCode != 200 && (etag == null || statusCode != HttpURLConnection.HTTP_NOT_MODIFIED)) {
+        // Drain the error body, so the connection can still be kept alive
+        InputStream errorStream = conn.getErrorStream();
+        if(errorStream != null) {
+          inputStream = new LimitedInputStream(errorStream, maxSize);
+          drain(inputStream);
+        }
+        reusable = true;
+        throw new APIStatusException(statusCode, getRetryAfterMillis(conn));
       }
 
-      return builder.toString();
-    } catch(MalformedURLException ex) {
-      throw new APIException("Unexpected error in endpoint URL", ex);
-    } catch(Exception ex) {
-      if(attempts > 1) {
-        return placeCall(method, postData, attempts - 1);
-      } else {
-        throw new APIException("Ran out of retries", ex);
+      inputStream = new LimitedInputStream(conn.getInputStream(), maxSize);
+      T response;
+      long parseStart = System.nanoTime();
+      try {
+        response = bodyReader.read(conn, inputStream);
+        metrics.recordTime(path, Instrumentation.Phase.PARSE, System.nanoTime() - parseStart - inputStream.getReadNanos());
+      } catch(IOException | RuntimeException ex) {
+        if(inputStream.isTooLarge()) {
+          throw new ResponseTooLargeException("Response exceeds the maximum size of " + maxSize + " bytes");
+        } else if(inputStream.isFailed()) {
+          throw ex;
+        }
+        throw new ParseException(ex);
       }
+
+      // Skip anything the body reader did not read, so the connection can be kept alive
+      drain(inputStream);
+      metrics.recordTime(path, Instrumentation.Phase.DOWNLOAD, inputStream.getReadNanos());
+      reusable = true;
+      return response;
     } finally {
       tryClose(outputStream);
       tryClose(inputStream);
-      tryDisconnect(conn);
+      if(inputStream != null) {
+        metrics.increment(path, Instrumentation.Counter.BYTES_RECEIVED, inputStream.getCount());
+      }
+      if(conn != null) {
+        // An aborted connection was disconnected, so it can't be kept alive
+        boolean owned = active == null || active.clear();
+        pool.release(url, conn, reusable && owned);
+      }
+    }
+  }
+
+  /**
+   * Get the delay requested by the Retry-After header, which holds either a number of seconds or an HTTP date.
+   * @param conn Connection
+   * @return Delay in milliseconds, or -1 without a valid Retry-After header
+   */
+  private static long getRetryAfterMillis(HttpURLConnection conn) {
+    String retryAfter = conn.getHeaderField("Retry-After");
+    if(retryAfter == null) {
+      return -1;
+    }
+    try {
+      return Math.max(0, Long.parseLong(retryAfter.trim()) * 1000);
+    } catch(NumberFormatException ex) {
+      long date = conn.getHeaderFieldDate("Retry-After", -1);
+      return date == -1 ? -1 : Math.max(0, date - System.currentTimeMillis());
+    }
+  }
+
+  /**
+   * Read a complete response body as a string.
+   * @param inputStream Response body
+   * @return Response body
+   * @throws IOException If the response could not be read
+   */
+  private static String readString(InputStream inputStream) throws IOException {
+    InputStreamReader inputReader = new InputStreamReader(inputStream, StandardCharsets.UTF_8);
+    StringBuilder builder = new StringBuilder();
+    char[] charBuffer = new char[4096];
+    int n;
+    while((n = inputReader.read(charBuffer)) != -1) {
+      builder.append(charBuffer, 0, n);
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Read a stream until the end, discarding all data.
+   * @param inputStream Stream to drain, allowed to be null
+   * @throws IOException If the stream could not be read
+   */
+  private void drain(InputStream inputStream) throws IOException {
+    if(inputStream != null) {
+      byte[] buffer = new byte[1024];
+      while(inputStream.read(buffer) != -1) {
+        // Discard
+      }
     }
   }
 
@@ -176,22 +639,497 @@ public class NativeAPIClient extends APIClient {
   }
 
   /**
-   * Attempt to disconnect a connection, unless it's null.
-   * @param conn Connection - allowed to be null
+   * Replace the connection pool, e.g. to use a different pool size or SSL socket factory.
+   * By default, the pool allows as many connections per endpoint as concurrent calls, with a minimum of 5.
+   * @param connectionPool New connection pool
+   */
+  public void setConnectionPool(ConnectionPool connectionPool) {
+    this.connectionPool = connectionPool;
+  }
+
+  /**
+   * Get the connection pool, which also holds the pool hit and miss counts.
+   * @return Connection pool
+   */
+  public ConnectionPool getConnectionPool() {
+    return connectionPool;
+  }
+
+  /**
+   * Get the priority lanes, which hold the amount of calls in flight and waiting per lane.
+   * @return Priority lanes
+   */
+  public PriorityLanes getPriorityLanes() {
+    return lanes;
+  }
+
+  /**
+   * Enable or disable coalescing of identical GET calls. When enabled, a GET call with CallOptions.withCoalescing(true)
+   * that is placed while an identical call (same method, parser and options) is in flight does not place a request of
+   * its own, but gets the same response. All callers then share the same response object, so it should not be modified.
+   * Calls without that option always place a request of their own.
+   * @param coalescing True to coalesce calls that opted in (default)
+   */
+  public void setCoalescing(boolean coalescing) {
+    this.coalescing = coalescing;
+  }
+
+  public boolean isCoalescing() {
+    return coalescing;
+  }
+
+  /**
+   * Get the amount of GET calls that got the response of an identical call in flight, instead of placing their own request.
+   * @return Amount of coalesced calls
+   */
+  public long getCoalescedCalls() {
+    return inFlightCalls.getCoalesced();
+  }
+
+  @Override
+  public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+    CircuitBreaker previous = this.circuitBreaker;
+    if(previous != null) {
+      previous.removeListener(probeScheduler);
+    }
+    if(circuitBreaker != null) {
+      circuitBreaker.addListener(probeScheduler);
+    }
+    super.setCircuitBreaker(circuitBreaker);
+  }
+
+  /**
+   * Set the policy for retrying failed calls. It applies to calls placed after this.
+   * @param retryPolicy New retry policy
+   */
+  public void setRetryPolicy(RetryPolicy retryPolicy) {
+    this.retryPolicy = retryPolicy;
+  }
+
+  /**
+   * Get the policy for retrying failed calls.
+   * @return Retry policy
+   */
+  public RetryPolicy getRetryPolicy() {
+    return retryPolicy;
+  }
+
+  /**
+   * A call that is being placed. Every attempt runs as a separate task in the executor, with fresh headers, and the
+   * backoff between attempts is scheduled so no thread is blocked while waiting.
+   *
+   * A call is aborted when it is cancelled or its deadline passes: a queued attempt is removed from its lane, the
+   * concurrency limiter or the executor, a scheduled attempt is cancelled, and the connection of a running attempt is closed, which
+   * makes blocking reads fail right away.
+   * @param <T> Type of the response
+   */
+  private class PendingCall<T> {
+
+    private final String method;
+
+    private final String postData;
+
+    private final String etag;
+
+    private final BodyReader<T> bodyReader;
+
+    private final RetryPolicy policy;
+
+    private final Priority priority;
+
+    private final long deadlineMillis;
+
+    /**
+     * Deadline for the complete call, in System.nanoTime.
+     */
+    private final long deadline;
+
+    private final CompletableFuture<T> result = new CompletableFuture<>();
+
+    private int attempts;
+
+    /**
+     * Either the running attempt or the scheduled backoff.
+     */
+    private volatile Future<?> pending;
+
+    /**
+     * Fails the call once the deadline passes.
+     */
+    private volatile Future<?> timer;
+
+    /**
+     * Connection of the running attempt.
+     */
+    private final ActiveConnection connection = new ActiveConnection();
+
+    /**
+     * Concurrency limiter of the current attempt, or null.
+     */
+    private volatile ConcurrencyLimiter limiter;
+
+    /**
+     * Set while the current attempt holds a slot of the concurrency limiter.
+     */
+    private final AtomicBoolean holdsSlot = new AtomicBoolean();
+
+    /**
+     * Set while the current attempt holds a slot of its lane.
+     */
+    private final AtomicBoolean holdsLane = new AtomicBoolean();
+
+    private final Runnable admit = this::admit;
+
+    private final Runnable start = this::start;
+
+    /**
+     * Time the current attempt was submitted, in System.nanoTime.
+     */
+    private volatile long submittedAt;
+
+    PendingCall(String method, String postData, String etag, BodyReader<T> bodyReader, RetryPolicy policy, CallOptions options) {
+      this.method = method;
+      this.postData = postData;
+      this.etag = etag;
+      this.bodyReader = bodyReader;
+      this.policy = policy;
+      this.priority = options.getPriority();
+      this.deadlineMillis = options.getDeadlineMillis() > 0 ? options.getDeadlineMillis() : policy.getDeadlineMillis();
+      this.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.deadlineMillis);
+    }
+
+    /**
+     * Start the deadline timer and submit the first attempt.
+     */
+    void place() {
+      try {
+        timer = scheduler.schedule(this::expire, deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+      } catch(RejectedExecutionException ex) {
+        // Shut down, the attempt fails as it can't be submitted
+      }
+      submit();
+      if(result.isDone()) {
+        finish();
+      }
+    }
+
+    /**
+     * Fail the call if it is still running once the deadline passes.
+     */
+    private void expire() {
+      if(result.completeExceptionally(new DeadlineExceededException("Call deadline of " + deadlineMillis + " ms exceeded"))) {
+        abort();
+      }
+    }
+
+    /**
+     * Clean up once the result completed: stop the deadline timer, and abort the call if it was cancelled.
+     */
+    void finish() {
+      Future<?> deadlineTimer = timer;
+      if(deadlineTimer != null) {
+        deadlineTimer.cancel(false);
+      }
+      if(result.isCancelled()) {
+        abort();
+      }
+    }
+
+    /**
+     * Submit the next attempt to the executor, once its lane and the concurrency limiter have a slot for it.
+     */
+    void submit() {
+      submittedAt = System.nanoTime();
+      lanes.acquire(priority, admit);
+    }
+
+    private void admit() {
+      holdsLane.set(true);
+      ConcurrencyLimiter current = concurrencyLimiter;
+      limiter = current;
+      if(current == null) {
+        start();
+      } else if(!current.acquire(start)) {
+        releaseLane();
+        result.completeExceptionally(new ConcurrencyLimitException("Concurrency limit of " + current.getLimit()
+                + " calls reached, with " + current.getQueueDepth() + " calls waiting"));
+      }
+    }
+
+    private void start() {
+      if(limiter != null) {
+        holdsSlot.set(true);
+      }
+      if(result.isDone()) {
+        releaseSlot();
+        releaseLane();
+        return;
+      }
+      try {
+        pending = executor.submit(this::attempt);
+      } catch(RejectedExecutionException ex) {
+        releaseSlot();
+        releaseLane();
+        result.completeExceptionally(new APIException("API client was shut down", ex));
+        return;
+      }
+      if(result.isDone()) {
+        abort();
+      }
+    }
+
+    /**
+     * Stop the call: remove the attempt from the queues, cancel a scheduled attempt, and close the connection of a
+     * running attempt.
+     */
+    void abort() {
+      lanes.remove(priority, admit);
+      ConcurrencyLimiter current = limiter;
+      if(current != null) {
+        current.remove(start);
+      }
+      Future<?> task = pending;
+      if(task != null) {
+        task.cancel(true);
+        if(executor instanceof ThreadPoolExecutor) {
+          // Cancelled tasks otherwise stay in the queue until a thread picks them up
+          ((ThreadPoolExecutor) executor).remove((Runnable) task);
+        }
+      }
+      connection.abort();
+      // The attempt may never run once it is cancelled
+      releaseSlot();
+      releaseLane();
+    }
+
+    /**
+     * Release the slot of the current attempt without a sample, if it holds one.
+     */
+    private void releaseSlot() {
+      if(holdsSlot.compareAndSet(true, false)) {
+        limiter.release();
+      }
+    }
+
+    /**
+     * Release the lane slot of the current attempt, if it holds one.
+     */
+    private void releaseLane() {
+      if(holdsLane.compareAndSet(true, false)) {
+        lanes.release(priority);
+      }
+    }
+
+    private void attempt() {
+      instrumentation.recordTime(normalizePath(method), Instrumentation.Phase.QUEUE, System.nanoTime() - submittedAt);
+      try {
+        long remainingMillis = getRemainingMillis();
+        if(remainingMillis <= 0) {
+          result.completeExceptionally(new DeadlineExceededException("Call deadline of " + deadlineMillis + " ms exceeded"));
+          return;
+        }
+        if(result.isDone()) {
+          return;
+        }
+        CircuitBreaker breaker = circuitBreaker;
+        if(breaker != null && !breaker.allowCall()) {
+          result.completeExceptionally(new CircuitOpenException("Circuit breaker is " + breaker.getState() + ", not placing call"));
+          return;
+        }
+        attempts++;
+        result.complete(placeMeasuredCall(breaker, (int) Math.min(Integer.MAX_VALUE, remainingMillis)));
+      } catch(MalformedURLException ex) {
+        result.completeExceptionally(new APIException("Unexpected error in endpoint URL", ex));
+      } catch(ResponseTooLargeException ex) {
+        result.completeExceptionally(ex);
+      } catch(ParseException ex) {
+        result.completeExceptionally(ex.getCause());
+      } catch(Exception ex) {
+        retry(ex);
+      } finally {
+        releaseSlot();
+        releaseLane();
+      }
+    }
+
+    /**
+     * Place a single attempt, recording its outcome in the circuit breaker and the concurrency limiter.
+     * Network failures and server errors count as failures, other responses show the API is healthy.
+     * Throttled calls also count as overload for the concurrency limiter. Aborted attempts are not recorded.
+     * @param breaker Circuit breaker, or null
+     * @param timeoutMillis Maximum time to wait for the connection and each read
+     * @return Response, as returned by the body reader
+     * @throws IOException If the call failed
+     */
+    private T placeMeasuredCall(CircuitBreaker breaker, int timeoutMillis) throws IOException {
+      long start = System.nanoTime();
+      boolean failed = true;
+      boolean throttled = false;
+      try {
+        T response = placeSingleCall(method, postData, etag, bodyReader, timeoutMillis, connection);
+        failed = false;
+        return response;
+      } catch(APIStatusException ex) {
+        failed = ex.getStatusCode() >= 500;
+        throttled = ex.getStatusCode() == 429;
+        throw ex;
+      } catch(ParseException | ResponseTooLargeException ex) {
+        failed = false;
+        throw ex;
+      } finally {
+        long duration = System.nanoTime() - start;
+        boolean aborted = failed && result.isDone();
+        if(breaker != null && !aborted) {
+          breaker.record(duration, failed);
+        }
+        if(aborted) {
+          releaseSlot();
+        } else if(holdsSlot.compareAndSet(true, false)) {
+          limiter.release(duration, failed || throttled);
+        }
+      }
+    }
+
+    /**
+     * Schedule the next attempt after a failure, or fail the call if the failure can't be retried.
+     */
+    private void retry(Exception failure) {
+      if(result.isDone()) {
+        return;
+      }
+      if(!policy.isRetryable(failure, postData == null)) {
+        result.completeExceptionally(failure instanceof APIException ? failure : new APIException("Could not reach Clutch mobile API", failure));
+        return;
+      }
+      long backoffMillis = policy.getBackoffMillis(failure, attempts);
+      if(attempts >= policy.getMaxAttempts() || backoffMillis >= getRemainingMillis()) {
+        result.completeExceptionally(new APIException("Ran out of retries", failure));
+        return;
+      }
+      instrumentation.increment(normalizePath(method), Instrumentation.Counter.RETRIES, 1);
+      try {
+        pending = scheduler.schedule(this::submit, backoffMillis, TimeUnit.MILLISECONDS);
+      } catch(RejectedExecutionException ex) {
+        result.completeExceptionally(new APIException("Ran out of retries", failure));
+        return;
+      }
+      if(result.isDone()) {
+        abort();
+      }
+    }
+
+    private long getRemainingMillis() {
+      return TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+    }
+
+  }
+
+  /**
+   * Connection of a running attempt, which can be closed from another thread to abort the attempt.
+   * Once aborted, no connection can be set anymore.
    */
-  private void tryDisconnect(HttpURLConnection conn) {
-    if(conn != null) {
-      conn.disconnect();
+  private static class ActiveConnection {
+
+    private HttpURLConnection conn;
+
+    private boolean aborted;
+
+    /**
+     * Set the connection of a new attempt.
+     * @return False if the call was aborted, so the attempt should not be placed
+     */
+    synchronized boolean set(HttpURLConnection conn) {
+      if(aborted) {
+        return false;
+      }
+      this.conn = conn;
+      return true;
+    }
+
+    /**
+     * Clear the connection once the attempt completed.
+     * @return False if the connection was closed because the call was aborted
+     */
+    synchronized boolean clear() {
+      conn = null;
+      return !aborted;
     }
+
+    /**
+     * Close the connection, making the running attempt fail, and prevent further attempts.
+     */
+    synchronized void abort() {
+      aborted = true;
+      if(conn != null) {
+        conn.disconnect();
+        conn = null;
+      }
+    }
+
   }
 
   /**
-   * Shutdown the internal connection pool.
+   * Reads a response body from the network.
+   * @param <T> Type of the response
+   */
+  protected interface BodyReader<T> {
+
+    /**
+     * Read the response body.
+     * @param connection Connection, to read the status code and response headers
+     * @param inputStream Response body, limited to the maximum response size
+     * @return Response
+     * @throws IOException If the response could not be read
+     */
+    T read(HttpURLConnection connection, InputStream inputStream) throws IOException;
+
+  }
+
+  /**
+   * Wraps a failure to parse a response that was read successfully, which should not be retried.
+   */
+  private static class ParseException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    ParseException(Exception cause) {
+      super(cause);
+    }
+
+    /**
+     * Get the failure to complete the call with.
+     * @return APIException thrown by the parser, or an APIException wrapping the failure of the parser
+     */
+    @Override
+    public synchronized APIException getCause() {
+      Throwable cause = super.getCause();
+      return cause instanceof APIException ? (APIException) cause : new APIException("Could not parse response", cause);
+    }
+
+  }
+
+  /**
+   * Check if the client has no calls pending, and placed or completed its last call before the given time.
+   * @param since Time in System.nanoTime
+   * @return True if the client is idle
+   */
+  boolean isIdleSince(long since) {
+    return pendingCalls.get() == 0 && lastUsedAt - since < 0;
+  }
+
+  /**
+   * Shutdown the internal connection pool. Clients of a ClientRegistry share its threads, which keep running until the
+   * registry is closed.
    * @param timeoutMillis Timeout in milliseconds, wait this many milliseconds at most for completion of running tasks
    * @throws InterruptedException
    */
   public void shutdown(long timeoutMillis) throws InterruptedException {
+    if(shared) {
+      return;
+    }
     executor.shutdown();
+    // Scheduled retries still fire, and fail as they can't be submitted anymore
+    scheduler.shutdown();
     if(!executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS)) {
       executor.shutdownNow();
     }
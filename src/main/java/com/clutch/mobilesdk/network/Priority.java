@@ -0,0 +1,39 @@
+package com.clutch.mobilesdk.network;
+
+/**
+ * Lane a call is scheduled in. When more calls are waiting than the API client can run at once, lanes take turns in
+ * proportion to their weight, so interactive calls mostly go first while background calls still make progress.
+ */
+public enum Priority {
+
+  /**
+   * Calls a user is waiting for, e.g. loading a profile or signing in.
+   */
+  INTERACTIVE(6),
+
+  /**
+   * Calls that should complete soon, but don't block the user interface, e.g. saving profile changes.
+   */
+  NORMAL(3),
+
+  /**
+   * Bulk and fire-and-forget calls, e.g. events, push tokens and journal replays.
+   * These never take the last free slot of the API client, so they can't hold up an interactive call on their own.
+   */
+  BACKGROUND(1);
+
+  private final int weight;
+
+  Priority(int weight) {
+    this.weight = weight;
+  }
+
+  /**
+   * Get the share of the lane in the slots that free up while calls in several lanes are waiting.
+   * @return Weight, relative to the other lanes
+   */
+  public int getWeight() {
+    return weight;
+  }
+
+}
@@ -0,0 +1,226 @@
+package com.clutch.mobilesdk.network;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Slots for the calls an API client runs at once, shared by the priority lanes.
+ *
+ * A call starts right away while a slot is free. Otherwise it waits in the queue of its lane, and every slot that frees
+ * up goes to the waiting lane that had the smallest share so far relative to its weight (stride scheduling). Under
+ * contention, lanes get slots in proportion to their weights, so a burst in one lane can delay the other lanes, but
+ * never starve them. A lane that was idle starts at the current position instead of catching up on the turns it missed.
+ *
+ * Background calls never take the last free slot if there is more than one, so a pool that is busy with bulk calls
+ * always has room for an interactive or normal call.
+ *
+ * Instances are thread-safe, and are owned by a single API client.
+ */
+public class PriorityLanes {
+
+  /**
+   * Pass distance of a lane with weight 1, divisible by every weight so strides stay exact.
+   */
+  private static final long STRIDE = 60;
+
+  private static final Priority[] LANES = Priority.values();
+
+  private int maxConcurrency;
+
+  private int maxBackground;
+
+  private final List<ArrayDeque<Runnable>> queues = new ArrayList<>();
+
+  private final int[] inFlight = new int[LANES.length];
+
+  /**
+   * Position of every lane, which advances by its stride for every slot it takes.
+   */
+  private final long[] pass = new long[LANES.length];
+
+  /**
+   * Position of the lane that last took a slot.
+   */
+  private long currentPass;
+
+  private int totalInFlight;
+
+  /**
+   * Calls to start after the call that is being started by release or resize in the current thread, or null if none is.
+   */
+  private final ThreadLocal<ArrayDeque<Runnable>> starting = new ThreadLocal<>();
+
+  /**
+   * Set up the lanes.
+   * @param maxConcurrency Amount of slots, the maximum amount of calls in flight
+   */
+  public PriorityLanes(int maxConcurrency) {
+    if(maxConcurrency < 1) {
+      throw new IllegalArgumentException("At least one slot is required");
+    }
+    this.maxConcurrency = maxConcurrency;
+    this.maxBackground = Math.max(1, maxConcurrency - 1);
+    for(int i = 0; i < LANES.length; i++) {
+      queues.add(new ArrayDeque<>());
+    }
+  }
+
+  /**
+   * Acquire a slot for a call. If a slot is free and no call is waiting in the lane, the call is started right away in
+   * the current thread. Otherwise it is queued, and started in the thread that releases a slot. Every started call must
+   * release its slot exactly once.
+   * @param priority Lane of the call
+   * @param start Starts the call
+   */
+  void acquire(Priority priority, Runnable start) {
+    int lane = priority.ordinal();
+    synchronized(this) {
+      if(!queues.get(lane).isEmpty() || !fits(lane)) {
+        if(queues.get(lane).isEmpty()) {
+          catchUp(lane);
+        }
+        queues.get(lane).addLast(start);
+        return;
+      }
+      catchUp(lane);
+      take(lane);
+    }
+    start.run();
+  }
+
+  /**
+   * Remove a call that is waiting in its lane, e.g. because it was cancelled.
+   * @param priority Lane of the call
+   * @param start Start of the call, as passed to acquire
+   * @return True if the call was queued, so it won't be started
+   */
+  synchronized boolean remove(Priority priority, Runnable start) {
+    return queues.get(priority.ordinal()).remove(start);
+  }
+
+  /**
+   * Release the slot of a call, and start the next waiting call that fits. If the slot is released while a call is
+   * being started in the current thread, e.g. because that call failed right away, the next call is started after it.
+   * @param priority Lane of the call
+   */
+  void release(Priority priority) {
+    Runnable next = null;
+    synchronized(this) {
+      inFlight[priority.ordinal()]--;
+      totalInFlight--;
+      int lane = next();
+      if(lane >= 0) {
+        take(lane);
+        next = queues.get(lane).pollFirst();
+      }
+    }
+    if(next != null) {
+      start(Collections.singletonList(next));
+    }
+  }
+
+  /**
+   * Change the amount of slots, e.g. when the fair share of a client in a ClientRegistry changes. Calls in flight keep
+   * their slots, waiting calls that fit in the new slots are started right away.
+   * @param maxConcurrency Amount of slots
+   */
+  void resize(int maxConcurrency) {
+    if(maxConcurrency < 1) {
+      throw new IllegalArgumentException("At least one slot is required");
+    }
+    List<Runnable> started = new ArrayList<>();
+    synchronized(this) {
+      this.maxConcurrency = maxConcurrency;
+      this.maxBackground = Math.max(1, maxConcurrency - 1);
+      for(int lane = next(); lane >= 0; lane = next()) {
+        take(lane);
+        started.add(queues.get(lane).pollFirst());
+      }
+    }
+    start(started);
+  }
+
+  /**
+   * Start calls that took a slot, one after the other. Calls that release their slot while they start hand the next
+   * call to this loop instead of starting it on top of their own stack, so a burst of calls that fail right away
+   * doesn't grow the stack with every call.
+   * @param calls Calls to start
+   */
+  private void start(List<Runnable> calls) {
+    ArrayDeque<Runnable> pending = starting.get();
+    if(pending != null) {
+      pending.addAll(calls);
+      return;
+    }
+    pending = new ArrayDeque<>(calls);
+    starting.set(pending);
+    try {
+      for(Runnable next = pending.pollFirst(); next != null; next = pending.pollFirst()) {
+        next.run();
+      }
+    } finally {
+      starting.remove();
+    }
+  }
+
+  /**
+   * Find the waiting lane with the smallest position that fits in the free slots. Must be called while holding the lock.
+   * @return Lane, or -1 if no waiting call fits
+   */
+  private int next() {
+    int next = -1;
+    for(int lane = 0; lane < LANES.length; lane++) {
+      if(!queues.get(lane).isEmpty() && fits(lane) && (next == -1 || pass[lane] < pass[next])) {
+        next = lane;
+      }
+    }
+    return next;
+  }
+
+  private boolean fits(int lane) {
+    return totalInFlight < maxConcurrency && (LANES[lane] != Priority.BACKGROUND || inFlight[lane] < maxBackground);
+  }
+
+  /**
+   * Move a lane that was idle to the current position, so it doesn't get the turns it missed. Must be called while
+   * holding the lock.
+   */
+  private void catchUp(int lane) {
+    pass[lane] = Math.max(pass[lane], currentPass);
+  }
+
+  /**
+   * Take a slot for a lane. Must be called while holding the lock.
+   */
+  private void take(int lane) {
+    inFlight[lane]++;
+    totalInFlight++;
+    currentPass = pass[lane];
+    pass[lane] += STRIDE / LANES[lane].getWeight();
+  }
+
+  public synchronized int getMaxConcurrency() {
+    return maxConcurrency;
+  }
+
+  /**
+   * Get the amount of calls in flight in a lane.
+   * @param priority Lane
+   * @return Calls in flight
+   */
+  public synchronized int getInFlight(Priority priority) {
+    return inFlight[priority.ordinal()];
+  }
+
+  /**
+   * Get the amount of calls waiting in a lane.
+   * @param priority Lane
+   * @return Queue depth
+   */
+  public synchronized int getQueueDepth(Priority priority) {
+    return queues.get(priority.ordinal()).size();
+  }
+
+}
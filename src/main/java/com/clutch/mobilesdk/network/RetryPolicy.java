@@ -0,0 +1,115 @@
+package com.clutch.mobilesdk.network;
+
+import com.clutch.mobilesdk.APIStatusException;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Policy that decides if and when a failed call is attempted again.
+ *
+ * Failed attempts are retried with an exponential backoff and jitter, as long as the failure is transient and retrying
+ * is safe: connection failures and 429/503 responses are always retried, as the server did not process the request.
+ * Other network failures and 5xx responses are only retried for idempotent (GET) calls. All attempts and waits of a
+ * call must fit in the deadline.
+ *
+ * Extend this class to customize the classification or backoff.
+ */
+public class RetryPolicy {
+
+  private final int maxAttempts;
+
+  private final long initialBackoffMillis;
+
+  private final long maxBackoffMillis;
+
+  private final long deadlineMillis;
+
+  /**
+   * Set up a retry policy.
+   * @param maxAttempts Maximum amount of attempts per call, including the first attempt
+   * @param initialBackoffMillis Wait before the second attempt, this doubles for every next attempt
+   * @param maxBackoffMillis Maximum wait between attempts
+   * @param deadlineMillis Maximum total time per call, including all attempts and waits
+   */
+  public RetryPolicy(int maxAttempts, long initialBackoffMillis, long maxBackoffMillis, long deadlineMillis) {
+    if(maxAttempts < 1) {
+      throw new IllegalArgumentException("At least one attempt is required");
+    }
+    this.maxAttempts = maxAttempts;
+    this.initialBackoffMillis = initialBackoffMillis;
+    this.maxBackoffMillis = maxBackoffMillis;
+    this.deadlineMillis = deadlineMillis;
+  }
+
+  /**
+   * Set up the default retry policy: at most 3 attempts, starting with a 200 ms backoff, with a 60 second deadline.
+   */
+  public RetryPolicy() {
+    this(3, 200, 5000, 60000);
+  }
+
+  /**
+   * Create a policy that never retries.
+   * @param deadlineMillis Maximum time per call
+   * @return Retry policy
+   */
+  public static RetryPolicy noRetries(long deadlineMillis) {
+    return new RetryPolicy(1, 0, 0, deadlineMillis);
+  }
+
+  /**
+   * Check if a failed attempt may be retried, ignoring the amount of attempts and the deadline.
+   * @param failure Failure of the attempt
+   * @param idempotent True if the call can safely be repeated, i.e. it has no post data
+   * @return True if the failure is transient and the call may be attempted again
+   */
+  public boolean isRetryable(Throwable failure, boolean idempotent) {
+    if(failure instanceof APIStatusException) {
+      int status = ((APIStatusException) failure).getStatusCode();
+      if(status == 429 || status == 503) {
+        return true;
+      }
+      return idempotent && (status == 408 || status >= 500);
+    }
+    if(failure instanceof ConnectException || failure instanceof UnknownHostException || failure instanceof NoRouteToHostException) {
+      return true;
+    }
+    return idempotent && failure instanceof IOException;
+  }
+
+  /**
+   * Get the wait before the next attempt.
+   * Uses the Retry-After delay if the server specified one, otherwise an exponential backoff where the second half is random.
+   * @param failure Failure of the last attempt
+   * @param attempts Amount of attempts so far
+   * @return Wait in milliseconds
+   */
+  public long getBackoffMillis(Throwable failure, int attempts) {
+    if(failure instanceof APIStatusException && ((APIStatusException) failure).getRetryAfterMillis() >= 0) {
+      return ((APIStatusException) failure).getRetryAfterMillis();
+    }
+    long backoff = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(attempts - 1, 20));
+    return backoff / 2 + (backoff > 1 ? ThreadLocalRandom.current().nextLong(backoff - backoff / 2) : 0);
+  }
+
+  public int getMaxAttempts() {
+    return maxAttempts;
+  }
+
+  public long getInitialBackoffMillis() {
+    return initialBackoffMillis;
+  }
+
+  public long getMaxBackoffMillis() {
+    return maxBackoffMillis;
+  }
+
+  public long getDeadlineMillis() {
+    return deadlineMillis;
+  }
+
+}
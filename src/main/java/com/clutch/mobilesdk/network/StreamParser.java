@@ -0,0 +1,20 @@
+package com.clutch.mobilesdk.network;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Parser that reads the output from the server straight from the response stream, without buffering it as a string first.
+ * @param <T> Type of object to parse
+ */
+public interface StreamParser<T> {
+
+  /**
+   * Parse the response body.
+   * @param reader Reader over the UTF-8 decoded response body. The reader does not have to be read until the end.
+   * @return Parsed object
+   * @throws IOException If the response body could not be read
+   */
+  T parse(Reader reader) throws IOException;
+
+}
@@ -0,0 +1,106 @@
+package com.clutch.mobilesdk;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BrandMetadataCacheTest {
+
+  private final AtomicInteger loads = new AtomicInteger();
+
+  private final AtomicReference<CompletableFuture<String>> pending = new AtomicReference<>();
+
+  /**
+   * Loader that returns a new stage for every load, which the test completes.
+   */
+  private final Supplier<CompletionStage<String>> loader = () -> {
+    loads.incrementAndGet();
+    CompletableFuture<String> future = new CompletableFuture<>();
+    pending.set(future);
+    return future;
+  };
+
+  private String get(BrandMetadataCache cache) throws Exception {
+    return cache.get("app-key", "/brand/fields", loader).toCompletableFuture().getNow(null);
+  }
+
+  /**
+   * Make sure concurrent misses share a single load, and the value is served from the cache afterwards.
+   */
+  @Test
+  public void hitMissTest() throws Exception {
+    BrandMetadataCache cache = new BrandMetadataCache(60000, 0, 0);
+    CompletableFuture<String> first = cache.get("app-key", "/brand/fields", loader).toCompletableFuture();
+    CompletableFuture<String> second = cache.get("app-key", "/brand/fields", loader).toCompletableFuture();
+    pending.get().complete("v1");
+
+    assertEquals("v1", first.get());
+    assertEquals("v1", second.get());
+    assertEquals("v1", get(cache));
+    assertEquals(1, loads.get());
+    assertEquals(2, cache.getMisses());
+    assertEquals(1, cache.getHits());
+
+    // Other app keys and methods are cached separately
+    cache.get("other-app-key", "/brand/fields", loader);
+    cache.get("app-key", "/brand/lists", loader);
+    assertEquals(3, loads.get());
+  }
+
+  /**
+   * Make sure a value near the end of its TTL is refreshed in the background, and stale values are served while revalidating.
+   */
+  @Test
+  public void refreshTest() throws Exception {
+    BrandMetadataCache cache = new BrandMetadataCache(100, 50, 60000);
+    cache.get("app-key", "/brand/fields", loader);
+    pending.get().complete("v1");
+
+    Thread.sleep(60);
+    assertEquals("v1", get(cache));
+    assertEquals("v1", get(cache));
+    assertEquals(2, loads.get());
+    assertEquals(1, cache.getRefreshes());
+    pending.get().complete("v2");
+    assertEquals("v2", get(cache));
+
+    // Stale, the value is still served and a failed revalidation keeps it
+    Thread.sleep(120);
+    assertEquals("v2", get(cache));
+    pending.get().completeExceptionally(new APIException("Unavailable"));
+    assertEquals("v2", get(cache));
+    assertEquals(4, loads.get());
+    assertEquals(1, cache.getMisses());
+  }
+
+  /**
+   * Make sure expired values and invalidated values are not served, and failed loads are not cached.
+   */
+  @Test
+  public void expiryAndInvalidationTest() throws Exception {
+    BrandMetadataCache cache = new BrandMetadataCache(50, 0, 50);
+    cache.get("app-key", "/brand/fields", loader);
+    pending.get().complete("v1");
+    Thread.sleep(120);
+    CompletableFuture<String> expired = cache.get("app-key", "/brand/fields", loader).toCompletableFuture();
+    assertTrue(!expired.isDone());
+    pending.get().completeExceptionally(new APIException("Unavailable"));
+    assertTrue(expired.isCompletedExceptionally());
+
+    cache.get("app-key", "/brand/fields", loader);
+    pending.get().complete("v2");
+    assertEquals("v2", get(cache));
+
+    cache.invalidate("app-key");
+    cache.get("app-key", "/brand/fields", loader);
+    assertEquals(4, loads.get());
+  }
+
+}
@@ -0,0 +1,148 @@
+package com.clutch.mobilesdk;
+
+import com.clutch.mobilesdk.models.ProfileViewResponse;
+import com.clutch.mobilesdk.network.NativeAPIClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CaptchaPoolTest {
+
+  private ClutchSimulator simulator;
+
+  private NativeAPIClient apiClient;
+
+  private ClutchClient client;
+
+  @Before
+  public void setUp() throws Exception {
+    simulator = new ClutchSimulator("app-key", "app-secret");
+    apiClient = new NativeAPIClient("app-key", "app-secret");
+    apiClient.setEndpoint(simulator.getEndpoint());
+    client = new ClutchClient(apiClient);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    apiClient.shutdown();
+    simulator.close();
+  }
+
+  /**
+   * Take prefetched captchas with their images, and use them for a failed and a successful login without waiting.
+   */
+  @Test
+  public void prefetchTest() throws Exception {
+    String cardNumber = simulator.addCard("1234", new ProfileViewResponse(true));
+    try(CaptchaPool pool = new CaptchaPool(client, 1, 2, 60000, true)) {
+      await(() -> pool.getAvailable() == 2);
+
+      CompletableFuture<CaptchaPool.Captcha> first = pool.take().toCompletableFuture();
+      assertTrue(first.isDone());
+      assertNotNull(first.get().image);
+      assertEquals((byte) 0x89, first.get().image[0]);
+      try {
+        client.getTokenExistingCard(first.get().captchaId, simulator.solveCaptcha(first.get().captchaId), cardNumber, "0000").toCompletableFuture().get();
+        fail("Wrong PIN accepted");
+      } catch(ExecutionException ex) {
+        // Expected
+      }
+
+      // The next attempt gets a new captcha right away
+      CompletableFuture<CaptchaPool.Captcha> second = pool.take().toCompletableFuture();
+      assertTrue(second.isDone());
+      assertNotEquals(first.get().captchaId, second.get().captchaId);
+      String token = client.getTokenExistingCard(second.get().captchaId, simulator.solveCaptcha(second.get().captchaId), cardNumber, "1234").toCompletableFuture().get();
+      assertNotNull(token);
+      assertEquals(2, pool.getHits());
+      assertEquals(0, pool.getMisses());
+
+      // Taking the last captcha refilled the pool
+      await(() -> pool.getAvailable() == 2);
+      assertEquals(4, simulator.getRequestCount("/captcha/new"));
+    }
+  }
+
+  /**
+   * Make sure the image of a captcha fetched on demand is not downloaded behind a slow image download for the pool.
+   */
+  @Test
+  public void onDemandImageTest() throws Exception {
+    CountDownLatch release = simulator.holdCaptchaImages(1);
+    try(CaptchaPool pool = new CaptchaPool(client, 1, 1, 60000, true)) {
+      // The refill is stuck downloading its image
+      await(() -> simulator.getRequestCount("/captcha/show/*") == 1);
+
+      CaptchaPool.Captcha captcha = pool.take().toCompletableFuture().get(5, TimeUnit.SECONDS);
+      assertEquals((byte) 0x89, captcha.image[0]);
+      assertEquals(1, pool.getMisses());
+      assertEquals(0, pool.getAvailable());
+
+      release.countDown();
+      await(() -> pool.getAvailable() == 1);
+    }
+  }
+
+  /**
+   * Make sure old captchas are discarded and replaced, and an empty pool fetches a captcha on demand.
+   */
+  @Test
+  public void expiryTest() throws Exception {
+    try(CaptchaPool pool = new CaptchaPool(client, 1, 1, 300, false)) {
+      await(() -> pool.getAvailable() == 1);
+      await(() -> pool.getExpired() >= 1 && pool.getAvailable() == 1);
+      assertTrue(simulator.getRequestCount("/captcha/new") >= 2);
+
+      // Keep the refill in flight while the pool is empty
+      simulator.setLatency(500, 500);
+      CaptchaPool.Captcha captcha = pool.take().toCompletableFuture().get();
+      assertNull(captcha.image);
+      assertNotNull(simulator.solveCaptcha(captcha.captchaId));
+      assertEquals(client.getCaptchaImageURL(captcha.captchaId), captcha.imageURL);
+
+      CaptchaPool.Captcha onDemand = pool.take().toCompletableFuture().get(5, TimeUnit.SECONDS);
+      assertNotNull(simulator.solveCaptcha(onDemand.captchaId));
+      assertEquals(1, pool.getMisses());
+    }
+  }
+
+  /**
+   * Make sure failed fetches are counted, and a closed pool doesn't hand out captchas.
+   */
+  @Test
+  public void failureTest() throws Exception {
+    simulator.setErrorRate(1);
+    CaptchaPool pool = new CaptchaPool(client, 1, 1, 60000, false);
+    await(() -> pool.getFailures() == 1);
+    assertEquals(0, pool.getAvailable());
+    pool.close();
+    try {
+      pool.take().toCompletableFuture().get();
+      fail("Closed pool handed out a captcha");
+    } catch(ExecutionException ex) {
+      assertTrue(ex.getCause() instanceof APIException);
+    }
+  }
+
+  private static void await(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while(!condition.getAsBoolean()) {
+      assertTrue("Timed out", System.nanoTime() < deadline);
+      Thread.sleep(10);
+    }
+  }
+
+}
@@ -0,0 +1,194 @@
+package com.clutch.mobilesdk;
+
+import com.clutch.mobilesdk.models.ProfileViewResponse;
+import com.clutch.mobilesdk.network.InMemoryInstrumentation;
+import com.clutch.mobilesdk.network.Instrumentation;
+import com.clutch.mobilesdk.network.LatencyHistogram;
+import com.clutch.mobilesdk.network.NativeAPIClient;
+import com.clutch.mobilesdk.network.RetryPolicy;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Load scenarios against the simulator, measuring the throughput and tail latency of the SDK.
+ * Every scenario runs a fixed amount of calls from concurrent workers that each place one call at a time. The throughput
+ * floors and p99 ceilings are several times below what a developer machine reaches, so they only catch regressions
+ * like serialized calls or lost connections, not small slowdowns.
+ */
+public class ClutchClientLoadTest {
+
+  private static final int WORKERS = 8;
+
+  private static final int TOKENS = 16;
+
+  private ClutchSimulator simulator;
+
+  private NativeAPIClient apiClient;
+
+  private ClutchClient client;
+
+  private final List<String> tokens = new ArrayList<>();
+
+  @Before
+  public void setUp() throws Exception {
+    simulator = new ClutchSimulator("app-key", "app-secret");
+    apiClient = new NativeAPIClient("app-key", "app-secret", WORKERS);
+    apiClient.setEndpoint(simulator.getEndpoint());
+    client = new ClutchClient(apiClient);
+    for(int i = 0; i < TOKENS; i++) {
+      ProfileViewResponse profile = new ProfileViewResponse(true);
+      profile.primaryDemographics = Collections.singletonMap("firstName", "User " + i);
+      tokens.add(simulator.createToken(simulator.addCard("1234", profile)));
+    }
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    apiClient.shutdown();
+    simulator.close();
+  }
+
+  /**
+   * Mixed reads and writes without injected faults, measuring the overhead of the SDK and the local stack.
+   */
+  @Test
+  public void throughputTest() throws Exception {
+    Result result = run(2000, i -> {
+      String token = tokens.get(i % TOKENS);
+      switch(i % 5) {
+        case 0:
+          return client.updateDemographics(token, Collections.singletonMap("lastName", "Doe " + i), null).toCompletableFuture().get();
+        case 1:
+          return client.registerEvent(token, "event-" + i).toCompletableFuture().get();
+        default:
+          return client.getProfile(token).toCompletableFuture().get().success;
+      }
+    });
+    assertEquals(0, result.failures.get());
+    assertEquals(0, simulator.getRejected());
+    assertTrue(result.getThroughput() >= 100);
+    assertTrue(result.latency.getPercentile(99, TimeUnit.MILLISECONDS) <= 250);
+  }
+
+  /**
+   * Profile reads with latency, server errors and throttling, which are retried within the deadline.
+   */
+  @Test
+  public void degradedTest() throws Exception {
+    InMemoryInstrumentation instrumentation = new InMemoryInstrumentation();
+    apiClient.setInstrumentation(instrumentation);
+    apiClient.setRetryPolicy(new RetryPolicy(5, 1, 20, 10000));
+    simulator.setLatency(1, 10);
+    simulator.setErrorRate(0.05);
+    simulator.setThrottleRate(0.05, 0);
+
+    Result result = run(1000, i -> client.getProfile(tokens.get(i % TOKENS)).toCompletableFuture().get().success);
+    // All five attempts fail for about 1 in 100,000 calls
+    assertTrue(result.failures.get() <= 1);
+    assertTrue(simulator.getInjectedErrors() > 0 && simulator.getThrottled() > 0);
+    assertEquals(simulator.getInjectedErrors() + simulator.getThrottled(),
+            instrumentation.snapshot().get("/profile/token/*").getCounter(Instrumentation.Counter.RETRIES) + result.failures.get());
+    assertTrue(result.latency.getPercentile(50, TimeUnit.MILLISECONDS) >= 1);
+    assertTrue(result.getThroughput() >= 100);
+    assertTrue(result.latency.getPercentile(99, TimeUnit.MILLISECONDS) <= 500);
+  }
+
+  /**
+   * Profile reads with bodies that trickle in, as on a slow mobile network.
+   */
+  @Test
+  public void slowBodyTest() throws Exception {
+    simulator.setSlowBody(32, 2);
+    Result result = run(100, i -> client.getProfile(tokens.get(i % TOKENS)).toCompletableFuture().get().success);
+    assertEquals(0, result.failures.get());
+    // Profiles span several chunks, with a delay after each
+    assertTrue(result.latency.getPercentile(0, TimeUnit.MILLISECONDS) >= 4);
+    assertTrue(result.getThroughput() >= 20);
+    assertTrue(result.latency.getPercentile(99, TimeUnit.MILLISECONDS) <= 2000);
+  }
+
+  /**
+   * Place calls from the workers, each placing one call at a time, until the given amount of calls is placed.
+   * @param calls Amount of calls
+   * @param call Places the call with the given sequence number, returning true on success
+   * @return Result
+   */
+  private Result run(int calls, CheckedFunction call) throws Exception {
+    Result result = new Result();
+    AtomicInteger next = new AtomicInteger();
+    ExecutorService workers = Executors.newFixedThreadPool(WORKERS);
+    long start = System.nanoTime();
+    List<Future<?>> futures = new ArrayList<>();
+    for(int w = 0; w < WORKERS; w++) {
+      futures.add(workers.submit(() -> {
+        int i;
+        while((i = next.getAndIncrement()) < calls) {
+          long callStart = System.nanoTime();
+          boolean success;
+          try {
+            success = call.apply(i);
+          } catch(Exception ex) {
+            success = false;
+          }
+          result.histogram.record(System.nanoTime() - callStart);
+          if(!success) {
+            result.failures.incrementAndGet();
+          }
+        }
+      }));
+    }
+    for(Future<?> future : futures) {
+      future.get();
+    }
+    result.elapsedNanos = System.nanoTime() - start;
+    result.calls = calls;
+    result.latency = result.histogram.snapshot();
+    workers.shutdown();
+    return result;
+  }
+
+  /**
+   * A call that can throw checked exceptions, e.g. from Future.get.
+   */
+  private interface CheckedFunction {
+
+    boolean apply(int i) throws Exception;
+
+  }
+
+  private static class Result {
+
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    private final AtomicInteger failures = new AtomicInteger();
+
+    private LatencyHistogram.Snapshot latency;
+
+    private long elapsedNanos;
+
+    private int calls;
+
+    /**
+     * Get the amount of calls completed per second, by all workers together.
+     * @return Calls per second
+     */
+    private long getThroughput() {
+      return calls * TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+
+  }
+
+}
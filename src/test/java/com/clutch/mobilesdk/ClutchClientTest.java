@@ -1,17 +1,54 @@
 package com.clutch.mobilesdk;
 
+import com.clutch.mobilesdk.models.ProfileViewResponse;
+import com.clutch.mobilesdk.models.RegisterResponse;
 import com.clutch.mobilesdk.network.NativeAPIClient;
+import com.clutch.mobilesdk.network.Priority;
+import com.clutch.mobilesdk.network.RetryPolicy;
 import com.clutch.mobilesdk.network.ResponseHandler;
+import com.clutch.mobilesdk.network.ResponseWrapper;
+import com.clutch.mobilesdk.network.StubServer;
+import com.sun.net.httpserver.HttpHandler;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 public class ClutchClientTest {
 
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
   /**
    * Run a health check against the real endpoint and make sure it responds properly.
    */
@@ -37,4 +74,498 @@ public class ClutchClientTest {
     assertTrue(callbackResult.get());
   }
 
+  /**
+   * Compose completion stages, completed in the callback executor, while a slow handler does not hold up the single network thread.
+   */
+  @Test
+  public void completionStageTest() throws Exception {
+    ExecutorService callbackExecutor = Executors.newCachedThreadPool(r -> new Thread(r, "callback"));
+    NativeAPIClient apiClient = new NativeAPIClient("app-key", "app-secret", 1);
+    try(StubServer server = new StubServer(false)) {
+      server.respond("/profile/token/abc", "{\"success\":true,\"balances\":{\"Points\":10}}");
+      server.respond("/profile/event", "{\"success\":true}");
+      apiClient.setEndpoint(server.getEndpoint());
+      apiClient.setCallbackExecutor(callbackExecutor);
+      ClutchClient client = new ClutchClient(apiClient);
+
+      CountDownLatch release = new CountDownLatch(1);
+      client.getProfile("abc", new ResponseHandler<ProfileViewResponse>() {
+        @Override
+        public void handleSuccess(ProfileViewResponse response) {
+          try {
+            release.await();
+          } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+          }
+        }
+
+        @Override
+        public void handleError(APIException ex) {
+        }
+      });
+
+      BigDecimal points = client.registerEvent("abc", "login")
+              .thenCompose(success -> client.getProfile("abc"))
+              .thenApply(profile -> {
+                assertEquals("callback", Thread.currentThread().getName());
+                return profile.balances.get("Points");
+              })
+              .toCompletableFuture().get(5, TimeUnit.SECONDS);
+      release.countDown();
+
+      assertEquals(new BigDecimal(10), points);
+    } finally {
+      apiClient.shutdown();
+      callbackExecutor.shutdown();
+    }
+  }
+
+  /**
+   * Keep failed updates in the journal, and replay them once the API is available again. An update made while older
+   * updates are pending is sent after them, so it is not overwritten by an older one.
+   */
+  @Test
+  public void mutationJournalTest() throws Exception {
+    NativeAPIClient apiClient = new NativeAPIClient("app-key", "app-secret");
+    apiClient.setRetryPolicy(RetryPolicy.noRetries(10000));
+    AtomicInteger status = new AtomicInteger(400);
+    List<String> received = Collections.synchronizedList(new ArrayList<>());
+    try(StubServer server = new StubServer(false);
+        MutationJournal journal = new MutationJournal(folder.newFolder())) {
+      HttpHandler handler = exchange -> {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int n;
+        while((n = exchange.getRequestBody().read(buffer)) != -1) {
+          body.write(buffer, 0, n);
+        }
+        if(status.get() == 200) {
+          received.add(exchange.getRequestURI().getPath() + " " + new String(body.toByteArray(), StandardCharsets.UTF_8));
+        }
+        StubServer.respond(exchange, status.get(), "{\"success\":true}");
+      };
+      server.handle("/profile/demographics", handler);
+      server.handle("/profile/event", handler);
+      apiClient.setEndpoint(server.getEndpoint());
+      ClutchClient client = new ClutchClient(apiClient);
+      client.setMutationJournal(journal);
+
+      // A rejected update is not sent again
+      assertFalse(client.registerEvent("abc", "unknown", null).get().success);
+      assertEquals(0, journal.getPendingCount());
+
+      status.set(503);
+      assertFalse(client.updateDemographics("abc", Collections.singletonMap("firstName", "John"), null, null).get().success);
+      // Queued behind the failed update, so it fails with it
+      try {
+        client.registerEvent("abc", "login").toCompletableFuture().get(5, TimeUnit.SECONDS);
+        fail("API is unavailable");
+      } catch(ExecutionException ex) {
+        assertTrue(ex.getCause().getCause() instanceof APIStatusException);
+      }
+      assertEquals(2, journal.getPendingCount());
+
+      status.set(200);
+      assertTrue(client.updateDemographics("abc", Collections.singletonMap("firstName", "Jane"), null).toCompletableFuture().get(5, TimeUnit.SECONDS));
+      assertEquals(0, journal.getPendingCount());
+      assertEquals(3, received.size());
+      assertTrue(received.get(0).startsWith("/profile/demographics") && received.get(0).contains("John"));
+      assertTrue(received.get(1).startsWith("/profile/event") && received.get(1).contains("login"));
+      assertTrue(received.get(2).startsWith("/profile/demographics") && received.get(2).contains("Jane"));
+      assertEquals(0, (int) client.replayJournal().toCompletableFuture().get(5, TimeUnit.SECONDS));
+    } finally {
+      apiClient.shutdown();
+    }
+  }
+
+  /**
+   * Cancel the handler variant of a cached call, and make sure the connection of the call is closed.
+   */
+  @Test
+  public void cachedCancelTest() throws Exception {
+    NativeAPIClient apiClient = new NativeAPIClient("app-key", "app-secret");
+    CountDownLatch disconnected = new CountDownLatch(1);
+    try(StubServer server = new StubServer(false)) {
+      server.handle("/profile/token/abc", exchange -> {
+        exchange.sendResponseHeaders(200, 0);
+        try(OutputStream out = exchange.getResponseBody()) {
+          for(int i = 0; i < 100; i++) {
+            out.write(' ');
+            out.flush();
+            Thread.sleep(50);
+          }
+          out.write("{\"success\":true}".getBytes(StandardCharsets.UTF_8));
+        } catch(IOException ex) {
+          disconnected.countDown();
+        } catch(InterruptedException ex) {
+          Thread.currentThread().interrupt();
+        }
+      });
+      apiClient.setEndpoint(server.getEndpoint());
+      ClutchClient client = new ClutchClient(apiClient);
+      client.setProfileCache(new ProfileCache());
+
+      Future<ResponseWrapper<ProfileViewResponse>> future = client.getProfile("abc", null);
+      Thread.sleep(200);
+      future.cancel(true);
+      assertTrue(disconnected.await(2, TimeUnit.SECONDS));
+    } finally {
+      apiClient.shutdown();
+    }
+  }
+
+  /**
+   * Merge demographics and opt-in updates within the window, where later values win, and give every caller the result.
+   */
+  @Test
+  public void writeCoalescingTest() throws Exception {
+    NativeAPIClient apiClient = new NativeAPIClient("app-key", "app-secret");
+    Map<String, List<String>> received = new ConcurrentHashMap<>();
+    try(StubServer server = new StubServer(false)) {
+      HttpHandler handler = exchange -> {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int n;
+        while((n = exchange.getRequestBody().read(buffer)) != -1) {
+          body.write(buffer, 0, n);
+        }
+        received.computeIfAbsent(exchange.getRequestURI().getPath(), path -> Collections.synchronizedList(new ArrayList<>()))
+                .add(new String(body.toByteArray(), StandardCharsets.UTF_8));
+        StubServer.respond(exchange, 200, "{\"success\":true}");
+      };
+      server.handle("/profile/demographics", handler);
+      server.handle("/profile/optInStatus", handler);
+      apiClient.setEndpoint(server.getEndpoint());
+      ClutchClient client = new ClutchClient(apiClient);
+      client.setWriteCoalescingWindow(200);
+
+      List<CompletableFuture<Boolean>> results = new ArrayList<>();
+      results.add(client.updateDemographics("abc", Collections.singletonMap("firstName", "John"), null).toCompletableFuture());
+      results.add(client.updateDemographics("abc", Collections.singletonMap("lastName", "Doe"), null).toCompletableFuture());
+      results.add(client.updateDemographics("xyz", null, Collections.singletonMap("color", "red")).toCompletableFuture());
+      AtomicInteger handled = new AtomicInteger();
+      Future<ResponseWrapper<Boolean>> withHandler = client.updateDemographics("abc", Collections.singletonMap("firstName", "Jane"), null,
+              new ResponseHandler<Boolean>() {
+                @Override
+                public void handleSuccess(Boolean response) {
+                  handled.incrementAndGet();
+                }
+
+                @Override
+                public void handleError(APIException ex) {
+                }
+              });
+      results.add(client.updateOptInStatus("abc", "news", null, true).toCompletableFuture());
+      results.add(client.updateOptInStatus("abc", "news", true, false).toCompletableFuture());
+      results.add(client.updateOptInStatus("abc", "news", null, true).toCompletableFuture());
+
+      for(CompletableFuture<Boolean> result : results) {
+        assertTrue(result.get(5, TimeUnit.SECONDS));
+      }
+      assertTrue(withHandler.get(5, TimeUnit.SECONDS).success);
+      assertEquals(1, handled.get());
+
+      List<String> demographics = new ArrayList<>(received.get("/profile/demographics"));
+      Collections.sort(demographics);
+      assertEquals(Arrays.asList("{\"token\":\"abc\",\"primaryFields\":{\"firstName\":\"Jane\",\"lastName\":\"Doe\"},\"customFields\":{}}",
+              "{\"token\":\"xyz\",\"primaryFields\":{},\"customFields\":{\"color\":\"red\"}}"), demographics);
+      assertEquals(Collections.singletonList("{\"token\":\"abc\",\"globalOptIn\":true,\"subscriptionListId\":\"news\",\"newOptIn\":true}"),
+              received.get("/profile/optInStatus"));
+    } finally {
+      apiClient.shutdown();
+    }
+  }
+
+  /**
+   * Make sure brand metadata is fetched once with a cache, for both call variants.
+   */
+  @Test
+  public void brandMetadataCacheTest() throws Exception {
+    NativeAPIClient apiClient = new NativeAPIClient("app-key", "app-secret");
+    try(StubServer server = new StubServer(false)) {
+      server.respond("/brand/fields", "{\"primaryFields\":[],\"customFields\":[]}");
+      apiClient.setEndpoint(server.getEndpoint());
+      ClutchClient client = new ClutchClient(apiClient);
+      BrandMetadataCache cache = new BrandMetadataCache();
+      client.setBrandMetadataCache(cache);
+
+      assertTrue(client.getFields(null).get().success);
+      assertEquals(0, client.getFields().toCompletableFuture().get().primaryFields.size());
+      assertTrue(client.getFields(null).get().success);
+      assertEquals(1, server.getRequestCount());
+      assertEquals(2, cache.getHits());
+
+      cache.invalidate("app-key", "/brand/fields");
+      client.getFields().toCompletableFuture().get();
+      assertEquals(2, server.getRequestCount());
+    } finally {
+      apiClient.shutdown();
+    }
+  }
+
+  @Test
+  public void profileCacheTest() throws Exception {
+    NativeAPIClient apiClient = new NativeAPIClient("app-key", "app-secret");
+    AtomicReference<String> profile = new AtomicReference<>("{\"success\":true,\"primaryDemographics\":{\"firstName\":\"John\"},\"emailOptIn\":false}");
+    try(StubServer server = new StubServer(false)) {
+      server.respondWithETag("/profile/token/abc", profile::get);
+      server.respond("/profile/demographics", "{\"success\":true}");
+      server.respond("/profile/optInStatus", "{\"success\":true}");
+      apiClient.setEndpoint(server.getEndpoint());
+      ClutchClient client = new ClutchClient(apiClient);
+      ProfileCache cache = new ProfileCache();
+      client.setProfileCache(cache);
+
+      ProfileViewResponse first = client.getProfile("abc").toCompletableFuture().get();
+      assertEquals("John", first.primaryDemographics.get("firstName"));
+      // Revalidated with a 304, serving the same instance
+      assertTrue(first == client.getProfile("abc").toCompletableFuture().get());
+      assertTrue(first == client.getProfile("abc", null).get().response);
+      assertEquals(1, cache.getMisses());
+      assertEquals(2, cache.getNotModified());
+      assertEquals(3, server.getRequestCount());
+
+      // Own updates are applied to the cached profile, without changing the instance callers hold
+      assertTrue(client.updateDemographics("abc", Collections.singletonMap("lastName", "Doe"), null).toCompletableFuture().get());
+      assertTrue(client.updateOptInStatus("abc", "news", true, true, null).get().response);
+      ProfileViewResponse updated = client.getProfile("abc").toCompletableFuture().get();
+      assertEquals("Doe", updated.primaryDemographics.get("lastName"));
+      assertEquals("John", updated.primaryDemographics.get("firstName"));
+      assertTrue(updated.emailOptIn);
+      assertTrue(updated.emailSubscriptionLists.get("news"));
+      assertEquals(null, first.primaryDemographics.get("lastName"));
+      assertEquals(3, cache.getNotModified());
+
+      // Changes on the server are downloaded
+      profile.set("{\"success\":true,\"primaryDemographics\":{\"firstName\":\"Jane\"},\"emailOptIn\":true}");
+      assertEquals("Jane", client.getProfile("abc").toCompletableFuture().get().primaryDemographics.get("firstName"));
+      assertEquals(2, cache.getMisses());
+
+      client.releaseToken("abc");
+      assertEquals(0, cache.size());
+    } finally {
+      apiClient.shutdown();
+    }
+  }
+
+  /**
+   * Go through the life cycle of a card against the simulator: captchas, registration, an existing card, profile updates and release.
+   */
+  @Test
+  public void simulatorTest() throws Exception {
+    NativeAPIClient apiClient = new NativeAPIClient("app-key", "app-secret");
+    try(ClutchSimulator simulator = new ClutchSimulator("app-key", "app-secret")) {
+      apiClient.setEndpoint(simulator.getEndpoint());
+      ClutchClient client = new ClutchClient(apiClient);
+      assertTrue(client.getHealthCheck().toCompletableFuture().get());
+      assertEquals(2, client.getSubscriptionLists().toCompletableFuture().get().subscriptionLists.size());
+      assertEquals(3, client.getFields().toCompletableFuture().get().primaryFields.size());
+
+      String captchaId = client.getCaptchaID().toCompletableFuture().get();
+      HttpURLConnection image = (HttpURLConnection) new URL(client.getCaptchaImageURL(captchaId)).openConnection();
+      assertEquals(200, image.getResponseCode());
+      image.disconnect();
+      RegisterResponse registered = client.registerNewCard(captchaId, simulator.solveCaptcha(captchaId),
+              Collections.singletonMap("firstName", "Jane"), null).toCompletableFuture().get();
+      assertTrue(registered.success);
+      // Captchas can only be used once
+      assertFalse(client.registerNewCard(captchaId, "12345", null, null).toCompletableFuture().get().success);
+
+      captchaId = client.getCaptchaID().toCompletableFuture().get();
+      String token = client.getTokenExistingCard(captchaId, simulator.solveCaptcha(captchaId), registered.cardNumber, registered.pin).toCompletableFuture().get();
+      assertTrue(client.updateDemographics(token, Collections.singletonMap("lastName", "Doe"), null).toCompletableFuture().get());
+      assertTrue(client.updateOptInStatus(token, "news", true, true).toCompletableFuture().get());
+      assertTrue(client.updatePushTokenGCM(token, "push-token").toCompletableFuture().get());
+      assertTrue(client.registerEvent(token, "purchase").toCompletableFuture().get());
+
+      ProfileViewResponse profile = client.getProfile(token).toCompletableFuture().get();
+      assertEquals("Jane", profile.primaryDemographics.get("firstName"));
+      assertEquals("Doe", profile.primaryDemographics.get("lastName"));
+      assertTrue(profile.emailOptIn);
+      assertTrue(profile.emailSubscriptionLists.get("news"));
+      assertEquals(Collections.singletonList("purchase"), simulator.getEvents(token));
+
+      assertTrue(client.releaseToken(token).toCompletableFuture().get());
+      assertFalse(client.getProfile(token).toCompletableFuture().get().success);
+      // Other tokens of the card remain valid
+      assertTrue(client.getProfile(registered.token).toCompletableFuture().get().success);
+      assertEquals(0, simulator.getRejected());
+    } finally {
+      apiClient.shutdown();
+    }
+  }
+
+  /**
+   * Requests signed with the wrong secret are rejected by the simulator, like the API would.
+   */
+  @Test
+  public void simulatorSignatureTest() throws Exception {
+    NativeAPIClient apiClient = new NativeAPIClient("app-key", "wrong-secret");
+    try(ClutchSimulator simulator = new ClutchSimulator("app-key", "app-secret")) {
+      apiClient.setEndpoint(simulator.getEndpoint());
+      ClutchClient client = new ClutchClient(apiClient);
+      try {
+        client.updateDemographics("abc", Collections.singletonMap("firstName", "Jane"), null).toCompletableFuture().get();
+        fail("Accepted an invalid signature");
+      } catch(ExecutionException ex) {
+        assertEquals(401, ((APIStatusException) ex.getCause()).getStatusCode());
+      }
+      assertEquals(1, simulator.getRejected());
+      assertEquals(1, simulator.getRequestCount("/profile/demographics"));
+    } finally {
+      apiClient.shutdown();
+    }
+  }
+
+  /**
+   * A client with a deadline fails calls that take longer, while the original client keeps the default deadline.
+   */
+  @Test
+  public void deadlineTest() throws Exception {
+    NativeAPIClient apiClient = new NativeAPIClient("app-key", "app-secret");
+    try(ClutchSimulator simulator = new ClutchSimulator("app-key", "app-secret")) {
+      apiClient.setEndpoint(simulator.getEndpoint());
+      ClutchClient client = new ClutchClient(apiClient);
+      String token = simulator.createToken(simulator.addCard("1234", new ProfileViewResponse(true)));
+      simulator.setLatency(1000, 1000);
+
+      ClutchClient impatient = client.withDeadline(200);
+      assertEquals(200, impatient.getDeadlineMillis());
+      assertEquals(0, client.getDeadlineMillis());
+      long start = System.nanoTime();
+      try {
+        impatient.getProfile(token).toCompletableFuture().get();
+        fail("Deadline passed");
+      } catch(ExecutionException ex) {
+        assertTrue(ex.getCause() instanceof DeadlineExceededException);
+      }
+      assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 900);
+      assertTrue(client.getProfile(token).toCompletableFuture().get().success);
+    } finally {
+      apiClient.shutdown();
+    }
+  }
+
+  /**
+   * Fetch many profiles with a bounded fan-out, where failed calls don't stop the other tokens.
+   */
+  @Test
+  public void bulkProfileTest() throws Exception {
+    NativeAPIClient apiClient = new NativeAPIClient("app-key", "app-secret", 8);
+    try(ClutchSimulator simulator = new ClutchSimulator("app-key", "app-secret")) {
+      apiClient.setEndpoint(simulator.getEndpoint());
+      apiClient.setRetryPolicy(new RetryPolicy(1, 100, 100, 10000));
+      ClutchClient client = new ClutchClient(apiClient);
+      List<String> tokens = new ArrayList<>();
+      for(int i = 0; i < 30; i++) {
+        tokens.add(simulator.createToken(simulator.addCard("1234", new ProfileViewResponse(true))));
+      }
+      simulator.setLatency(10, 30);
+      simulator.setErrorRate(0.3);
+
+      AtomicInteger pulled = new AtomicInteger();
+      AtomicInteger handled = new AtomicInteger();
+      AtomicInteger maxPending = new AtomicInteger();
+      Iterator<String> source = tokens.iterator();
+      Iterator<String> iterator = new Iterator<String>() {
+        @Override
+        public boolean hasNext() {
+          return source.hasNext();
+        }
+
+        @Override
+        public String next() {
+          maxPending.accumulateAndGet(pulled.incrementAndGet() - handled.get(), Math::max);
+          return source.next();
+        }
+      };
+      Map<String, ProfileViewResponse> profiles = new ConcurrentHashMap<>();
+      Map<String, APIException> errors = new ConcurrentHashMap<>();
+      int fetched = client.getProfiles(iterator, 3, new BulkProfileHandler() {
+        @Override
+        public void handleProfile(String token, ProfileViewResponse profile) {
+          profiles.put(token, profile);
+          handled.incrementAndGet();
+        }
+
+        @Override
+        public void handleError(String token, APIException ex) {
+          errors.put(token, ex);
+          handled.incrementAndGet();
+        }
+      }).toCompletableFuture().get(10, TimeUnit.SECONDS);
+
+      assertEquals(30, profiles.size() + errors.size());
+      assertEquals(profiles.size(), fetched);
+      assertTrue(profiles.values().stream().allMatch(profile -> profile.success));
+      assertTrue(maxPending.get() <= 3);
+      assertEquals(30, simulator.getRequestCount("/profile/token/*"));
+    } finally {
+      apiClient.shutdown();
+    }
+  }
+
+  /**
+   * Make sure a bulk fetch whose handler throws fails, and closes the connections of the calls in flight.
+   */
+  @Test
+  public void bulkProfileFailureTest() throws Exception {
+    NativeAPIClient apiClient = new NativeAPIClient("app-key", "app-secret", 8);
+    CountDownLatch disconnected = new CountDownLatch(1);
+    try(StubServer server = new StubServer(false)) {
+      server.respond("/profile/token/fast", "{\"success\":true}");
+      server.handle("/profile/token/slow", exchange -> {
+        exchange.sendResponseHeaders(200, 0);
+        try(OutputStream out = exchange.getResponseBody()) {
+          for(int i = 0; i < 100; i++) {
+            out.write(' ');
+            out.flush();
+            Thread.sleep(50);
+          }
+          out.write("{\"success\":true}".getBytes(StandardCharsets.UTF_8));
+        } catch(IOException ex) {
+          disconnected.countDown();
+        } catch(InterruptedException ex) {
+          Thread.currentThread().interrupt();
+        }
+      });
+      apiClient.setEndpoint(server.getEndpoint());
+      ClutchClient client = new ClutchClient(apiClient);
+
+      CompletableFuture<Integer> fetch = client.getProfiles(Arrays.asList("slow", "fast"), 2, new BulkProfileHandler() {
+        @Override
+        public void handleProfile(String token, ProfileViewResponse profile) {
+          throw new IllegalStateException("Could not store profile");
+        }
+
+        @Override
+        public void handleError(String token, APIException ex) {
+        }
+      }).toCompletableFuture();
+      try {
+        fetch.get(5, TimeUnit.SECONDS);
+        fail("Handler failed");
+      } catch(ExecutionException ex) {
+        assertTrue(ex.getCause() instanceof IllegalStateException);
+      }
+      assertTrue(disconnected.await(2, TimeUnit.SECONDS));
+    } finally {
+      apiClient.shutdown();
+    }
+  }
+
+  /**
+   * Views of a client keep each other's deadline and lane.
+   */
+  @Test
+  public void priorityTest() {
+    ClutchClient client = new ClutchClient(new NativeAPIClient("app-key", "app-secret"));
+    assertNull(client.getPriority());
+    ClutchClient background = client.withPriority(Priority.BACKGROUND).withDeadline(1000);
+    assertEquals(Priority.BACKGROUND, background.getPriority());
+    assertEquals(1000, background.getDeadlineMillis());
+    assertEquals(1000, background.withPriority(null).getDeadlineMillis());
+    assertNull(background.withPriority(null).getPriority());
+  }
+
 }
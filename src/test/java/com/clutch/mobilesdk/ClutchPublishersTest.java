@@ -0,0 +1,464 @@
+package com.clutch.mobilesdk;
+
+import com.clutch.mobilesdk.models.ProfileViewResponse;
+import com.clutch.mobilesdk.network.NativeAPIClient;
+import com.clutch.mobilesdk.network.Priority;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the publishers against the rules of the Reactive Streams specification, like the TCK does, with calls that are
+ * completed by the test.
+ */
+public class ClutchPublishersTest {
+
+  /**
+   * Calls started by the publisher under test, in order.
+   */
+  private final List<CompletableFuture<String>> calls = new CopyOnWriteArrayList<>();
+
+  private ClutchFlow.Publisher<String> publisher(int inputs, int maxConcurrency) {
+    List<Integer> values = new ArrayList<>();
+    for(int i = 0; i < inputs; i++) {
+      values.add(i);
+    }
+    return ClutchPublishers.fromCalls(values, maxConcurrency, input -> {
+      CompletableFuture<String> call = new CompletableFuture<>();
+      calls.add(call);
+      return call;
+    });
+  }
+
+  /**
+   * Rules 1.1 and 3.1: calls only start for requested items, and never more than the maximum concurrency at once.
+   */
+  @Test
+  public void demandTest() {
+    TestSubscriber subscriber = new TestSubscriber();
+    publisher(10, 3).subscribe(subscriber);
+    assertEquals(0, calls.size());
+
+    subscriber.subscription.request(2);
+    assertEquals(2, calls.size());
+    calls.get(1).complete("b");
+    calls.get(0).complete("a");
+    assertEquals(Arrays.asList("b", "a"), subscriber.items);
+    assertEquals(2, calls.size());
+
+    subscriber.subscription.request(5);
+    assertEquals(5, calls.size());
+    for(int i = 2; i < 5; i++) {
+      calls.get(i).complete("c" + i);
+    }
+    // Two more items are requested, so two more calls start
+    assertEquals(7, calls.size());
+    calls.get(5).complete("c5");
+    calls.get(6).complete("c6");
+    assertEquals(7, subscriber.items.size());
+    assertEquals(7, calls.size());
+    assertFalse(subscriber.completed);
+
+    subscriber.subscription.request(Long.MAX_VALUE);
+    for(int i = 7; i < 10; i++) {
+      calls.get(i).complete("c" + i);
+    }
+    assertEquals(10, subscriber.items.size());
+    assertTrue(subscriber.completed);
+    subscriber.assertValid();
+  }
+
+  /**
+   * Rule 1.9: subscribe must throw a NullPointerException for a null subscriber.
+   */
+  @Test
+  public void nullSubscriberTest() {
+    try {
+      publisher(1, 1).subscribe(null);
+      fail("Accepted a null subscriber");
+    } catch(NullPointerException ex) {
+      // Expected
+    }
+  }
+
+  /**
+   * Rules 1.4 and 1.6: an empty publisher completes without a request, and nothing is sent after it completed.
+   */
+  @Test
+  public void emptyTest() {
+    TestSubscriber subscriber = new TestSubscriber();
+    publisher(0, 1).subscribe(subscriber);
+    assertTrue(subscriber.completed);
+    subscriber.subscription.request(1);
+    subscriber.subscription.cancel();
+    assertTrue(subscriber.items.isEmpty());
+    subscriber.assertValid();
+  }
+
+  /**
+   * Rule 3.9: a request that is not positive fails the stream with an IllegalArgumentException.
+   */
+  @Test
+  public void invalidRequestTest() {
+    TestSubscriber subscriber = new TestSubscriber();
+    publisher(3, 1).subscribe(subscriber);
+    subscriber.subscription.request(1);
+    subscriber.subscription.request(0);
+    assertTrue(subscriber.error instanceof IllegalArgumentException);
+    // The call in flight is cancelled
+    assertTrue(calls.get(0).isCancelled());
+    subscriber.subscription.request(1);
+    assertEquals(1, calls.size());
+    subscriber.assertValid();
+  }
+
+  /**
+   * Rules 3.5, 3.6 and 3.7: cancelling cancels the calls in flight, and requests after it do nothing.
+   */
+  @Test
+  public void cancelTest() {
+    TestSubscriber subscriber = new TestSubscriber();
+    publisher(5, 5).subscribe(subscriber);
+    subscriber.subscription.request(3);
+    assertEquals(3, calls.size());
+    calls.get(0).complete("a");
+
+    subscriber.subscription.cancel();
+    subscriber.subscription.cancel();
+    assertTrue(calls.get(1).isCancelled());
+    assertTrue(calls.get(2).isCancelled());
+    subscriber.subscription.request(10);
+    assertEquals(3, calls.size());
+    assertEquals(Collections.singletonList("a"), subscriber.items);
+    assertFalse(subscriber.completed);
+    assertNull(subscriber.error);
+    subscriber.assertValid();
+  }
+
+  /**
+   * Rule 3.3: requesting from within onNext doesn't recurse, even if every call completes right away.
+   */
+  @Test
+  public void reentrantRequestTest() {
+    AtomicInteger depth = new AtomicInteger();
+    AtomicInteger maxDepth = new AtomicInteger();
+    TestSubscriber subscriber = new TestSubscriber(item -> {}) {
+      @Override
+      public void onNext(String item) {
+        maxDepth.accumulateAndGet(depth.incrementAndGet(), Math::max);
+        super.onNext(item);
+        subscription.request(1);
+        depth.decrementAndGet();
+      }
+    };
+    List<Integer> inputs = new ArrayList<>();
+    for(int i = 0; i < 10000; i++) {
+      inputs.add(i);
+    }
+    ClutchPublishers.fromCalls(inputs, 4, input -> CompletableFuture.completedFuture("item" + input)).subscribe(subscriber);
+    subscriber.subscription.request(1);
+    assertEquals(10000, subscriber.items.size());
+    assertEquals(1, maxDepth.get());
+    assertTrue(subscriber.completed);
+    subscriber.assertValid();
+  }
+
+  /**
+   * Rule 3.17: demand adds up to an unbounded amount without overflowing.
+   */
+  @Test
+  public void unboundedDemandTest() {
+    TestSubscriber subscriber = new TestSubscriber();
+    publisher(5, 5).subscribe(subscriber);
+    subscriber.subscription.request(Long.MAX_VALUE);
+    subscriber.subscription.request(Long.MAX_VALUE);
+    calls.forEach(call -> call.complete("x"));
+    assertEquals(5, subscriber.items.size());
+    assertTrue(subscriber.completed);
+    subscriber.assertValid();
+  }
+
+  /**
+   * Rules 1.4 and 1.7: a failed call fails the stream once, and cancels the other calls.
+   */
+  @Test
+  public void failureTest() {
+    TestSubscriber subscriber = new TestSubscriber();
+    publisher(5, 2).subscribe(subscriber);
+    subscriber.subscription.request(5);
+    APIException failure = new APIException("Failed");
+    calls.get(0).completeExceptionally(failure);
+    assertEquals(failure, subscriber.error);
+    assertTrue(calls.get(1).isCancelled());
+    assertEquals(2, calls.size());
+    subscriber.assertValid();
+  }
+
+  /**
+   * Rule 2.13: a call that completes without a result fails the stream with a NullPointerException, instead of sending
+   * null to the subscriber.
+   */
+  @Test
+  public void nullItemTest() {
+    TestSubscriber subscriber = new TestSubscriber();
+    publisher(3, 2).subscribe(subscriber);
+    subscriber.subscription.request(3);
+    calls.get(0).complete(null);
+    assertTrue(subscriber.error instanceof NullPointerException);
+    assertTrue(subscriber.items.isEmpty());
+    assertTrue(calls.get(1).isCancelled());
+    assertEquals(2, calls.size());
+    subscriber.assertValid();
+  }
+
+  /**
+   * Rules 1.6, 3.6 and 3.7: cancelling or requesting after the stream completed or failed does nothing.
+   */
+  @Test
+  public void cancelAfterTerminalTest() {
+    TestSubscriber completed = new TestSubscriber();
+    publisher(1, 1).subscribe(completed);
+    completed.subscription.request(1);
+    calls.get(0).complete("a");
+    assertTrue(completed.completed);
+    completed.subscription.cancel();
+    completed.subscription.request(1);
+    completed.subscription.cancel();
+    assertEquals(Collections.singletonList("a"), completed.items);
+    assertEquals(1, calls.size());
+    completed.assertValid();
+
+    calls.clear();
+    TestSubscriber failed = new TestSubscriber();
+    publisher(2, 1).subscribe(failed);
+    failed.subscription.request(2);
+    calls.get(0).completeExceptionally(new APIException("Failed"));
+    assertTrue(failed.error instanceof APIException);
+    failed.subscription.cancel();
+    failed.subscription.request(1);
+    assertEquals(1, calls.size());
+    assertTrue(failed.items.isEmpty());
+    failed.assertValid();
+  }
+
+  /**
+   * Rule 1.3: signals are serialized, while calls complete in several threads at once.
+   */
+  @Test
+  public void concurrencyTest() throws Exception {
+    TestSubscriber subscriber = new TestSubscriber(item -> Thread.yield());
+    publisher(200, 8).subscribe(subscriber);
+    subscriber.subscription.request(Long.MAX_VALUE);
+    List<Thread> threads = new ArrayList<>();
+    CountDownLatch started = new CountDownLatch(1);
+    for(int t = 0; t < 4; t++) {
+      Thread thread = new Thread(() -> {
+        try {
+          started.await();
+        } catch(InterruptedException ex) {
+          return;
+        }
+        while(!subscriber.completed && subscriber.error == null) {
+          for(CompletableFuture<String> call : calls) {
+            call.complete("x");
+          }
+        }
+      });
+      thread.start();
+      threads.add(thread);
+    }
+    started.countDown();
+    for(Thread thread : threads) {
+      thread.join(10000);
+    }
+    assertEquals(200, subscriber.items.size());
+    assertTrue(subscriber.completed);
+    subscriber.assertValid();
+  }
+
+  /**
+   * Fetch profiles from the simulator in the background lane, and cancel a profile call in flight.
+   */
+  @Test
+  public void profilesTest() throws Exception {
+    NativeAPIClient apiClient = new NativeAPIClient("app-key", "app-secret", 4);
+    try(ClutchSimulator simulator = new ClutchSimulator("app-key", "app-secret")) {
+      apiClient.setEndpoint(simulator.getEndpoint());
+      ClutchClient client = new ClutchClient(apiClient);
+      List<String> tokens = new ArrayList<>();
+      for(int i = 0; i < 6; i++) {
+        tokens.add(simulator.createToken(simulator.addCard("1234", new ProfileViewResponse(true))));
+      }
+
+      CountDownLatch done = new CountDownLatch(1);
+      TestSubscriber all = new TestSubscriber() {
+        @Override
+        public void onComplete() {
+          super.onComplete();
+          done.countDown();
+        }
+      };
+      ClutchFlow.Publisher<ProfileViewResponse> profiles = ClutchPublishers.profiles(client, tokens, 2);
+      profiles.subscribe(new Forwarder(all));
+      all.subscription.request(Long.MAX_VALUE);
+      assertTrue(done.await(10, TimeUnit.SECONDS));
+      assertEquals(6, all.items.size());
+      assertEquals(6, simulator.getRequestCount("/profile/token/*"));
+
+      simulator.setLatency(5000, 5000);
+      TestSubscriber slow = new TestSubscriber();
+      ClutchPublishers.fromCall(() -> client.getProfile(tokens.get(0))).subscribe(new Forwarder(slow));
+      slow.subscription.request(1);
+      await(() -> apiClient.getPriorityLanes().getInFlight(Priority.INTERACTIVE) == 1);
+      slow.subscription.cancel();
+      await(() -> apiClient.getPriorityLanes().getInFlight(Priority.INTERACTIVE) == 0);
+      assertTrue(slow.items.isEmpty());
+      slow.assertValid();
+    } finally {
+      apiClient.shutdown();
+    }
+  }
+
+  private static void await(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while(!condition.getAsBoolean()) {
+      assertTrue("Timed out", System.nanoTime() < deadline);
+      Thread.sleep(10);
+    }
+  }
+
+  /**
+   * Subscriber that records its signals, and the rule violations it sees.
+   */
+  private static class TestSubscriber implements ClutchFlow.Subscriber<String> {
+
+    private final Consumer<String> onItem;
+
+    private final AtomicBoolean active = new AtomicBoolean();
+
+    protected volatile ClutchFlow.Subscription subscription;
+
+    private final List<String> items = new CopyOnWriteArrayList<>();
+
+    private final List<String> violations = new CopyOnWriteArrayList<>();
+
+    private volatile boolean completed;
+
+    private volatile Throwable error;
+
+    private TestSubscriber(Consumer<String> onItem) {
+      this.onItem = onItem;
+    }
+
+    private TestSubscriber() {
+      this(item -> {});
+    }
+
+    private void enter(String signal) {
+      if(!active.compareAndSet(false, true)) {
+        violations.add("Concurrent " + signal);
+      }
+      if(completed || error != null) {
+        violations.add(signal + " after termination");
+      }
+      if(subscription == null && !signal.equals("onSubscribe")) {
+        violations.add(signal + " before onSubscribe");
+      }
+    }
+
+    private void exit() {
+      active.set(false);
+    }
+
+    @Override
+    public void onSubscribe(ClutchFlow.Subscription subscription) {
+      enter("onSubscribe");
+      if(this.subscription != null) {
+        violations.add("Second onSubscribe");
+      }
+      this.subscription = subscription;
+      exit();
+    }
+
+    @Override
+    public void onNext(String item) {
+      enter("onNext");
+      if(item == null) {
+        violations.add("Null item");
+      }
+      items.add(item);
+      onItem.accept(item);
+      exit();
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      enter("onError");
+      error = throwable;
+      exit();
+    }
+
+    @Override
+    public void onComplete() {
+      enter("onComplete");
+      completed = true;
+      exit();
+    }
+
+    void assertValid() {
+      assertEquals(Collections.emptyList(), violations);
+    }
+
+  }
+
+  /**
+   * Subscriber of profiles that forwards their success flags to a test subscriber.
+   */
+  private static class Forwarder implements ClutchFlow.Subscriber<ProfileViewResponse> {
+
+    private final TestSubscriber target;
+
+    private Forwarder(TestSubscriber target) {
+      this.target = target;
+    }
+
+    @Override
+    public void onSubscribe(ClutchFlow.Subscription subscription) {
+      target.onSubscribe(subscription);
+    }
+
+    @Override
+    public void onNext(ProfileViewResponse item) {
+      target.onNext(item.success ? "success" : "failure");
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      target.onError(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+      target.onComplete();
+    }
+
+  }
+
+}
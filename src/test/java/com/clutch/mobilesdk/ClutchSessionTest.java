@@ -0,0 +1,191 @@
+package com.clutch.mobilesdk;
+
+import com.clutch.mobilesdk.models.GetTokenResponse;
+import com.clutch.mobilesdk.models.ProfileViewResponse;
+import com.clutch.mobilesdk.models.RegisterResponse;
+import com.clutch.mobilesdk.network.NativeAPIClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ClutchSessionTest {
+
+  private ClutchSimulator simulator;
+
+  private NativeAPIClient apiClient;
+
+  private ClutchClient client;
+
+  private String token;
+
+  @Before
+  public void setUp() throws Exception {
+    simulator = new ClutchSimulator("app-key", "app-secret");
+    apiClient = new NativeAPIClient("app-key", "app-secret");
+    apiClient.setEndpoint(simulator.getEndpoint());
+    client = new ClutchClient(apiClient);
+    token = simulator.createToken(simulator.addCard("1234", new ProfileViewResponse(true)));
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    apiClient.shutdown();
+    simulator.close();
+  }
+
+  /**
+   * Make sure a fresh profile is served without a call, and updates are applied to it.
+   */
+  @Test
+  public void profileTest() throws Exception {
+    ClutchSession session = new ClutchSession(client, token, null, 60000);
+    CompletableFuture<ProfileViewResponse> first = session.getProfile().toCompletableFuture();
+    CompletableFuture<ProfileViewResponse> second = session.getProfile().toCompletableFuture();
+    assertSame(first.get(), second.get());
+    assertEquals(1, simulator.getRequestCount("/profile/token/*"));
+
+    assertTrue(session.updateDemographics(Collections.singletonMap("firstName", "Jane"), null).toCompletableFuture().get());
+    assertTrue(session.updateOptInStatus("news", true, true).toCompletableFuture().get());
+    assertEquals(0, session.getPendingWrites());
+    ProfileViewResponse profile = session.getProfile().toCompletableFuture().get();
+    assertEquals("Jane", profile.primaryDemographics.get("firstName"));
+    assertTrue(profile.emailOptIn);
+    assertTrue(profile.emailSubscriptionLists.get("news"));
+    assertEquals(1, simulator.getRequestCount("/profile/token/*"));
+
+    // The server agrees with the snapshot, and a forced refresh places a call
+    ProfileViewResponse refreshed = session.refreshProfile().toCompletableFuture().get();
+    assertEquals("Jane", refreshed.primaryDemographics.get("firstName"));
+    assertEquals(2, simulator.getRequestCount("/profile/token/*"));
+  }
+
+  /**
+   * Make sure writes that can't change anything are skipped.
+   */
+  @Test
+  public void skipTest() throws Exception {
+    ClutchSession session = new ClutchSession(client, token, null, 60000);
+    session.getProfile().toCompletableFuture().get();
+    assertTrue(session.updateDemographics(Collections.singletonMap("firstName", "Jane"), null).toCompletableFuture().get());
+    assertTrue(session.updateDemographics(Collections.singletonMap("firstName", "Jane"), null).toCompletableFuture().get());
+    assertEquals(1, simulator.getRequestCount("/profile/demographics"));
+
+    // Only the changed field is sent
+    Map<String, String> fields = new HashMap<>();
+    fields.put("firstName", "Jane");
+    fields.put("lastName", "Doe");
+    assertTrue(session.updateDemographics(fields, null).toCompletableFuture().get());
+    assertEquals(2, simulator.getRequestCount("/profile/demographics"));
+    assertEquals("Doe", simulator.getProfile(token).primaryDemographics.get("lastName"));
+
+    assertTrue(session.updateOptInStatus("news", null, false).toCompletableFuture().get());
+    assertEquals(0, simulator.getRequestCount("/profile/optInStatus"));
+
+    CompletableFuture<Boolean> push = session.updatePushTokenGCM("push-1").toCompletableFuture();
+    CompletableFuture<Boolean> shared = session.updatePushTokenGCM("push-1").toCompletableFuture();
+    assertTrue(push.get());
+    assertTrue(shared.get());
+    assertTrue(session.updatePushTokenGCM("push-1").toCompletableFuture().get());
+    assertEquals(1, simulator.getRequestCount("/profile/pushToken"));
+    assertTrue(session.updatePushTokenAPNS("push-1").toCompletableFuture().get());
+    assertTrue(session.updatePushTokenGCM("push-2").toCompletableFuture().get());
+    assertEquals(3, simulator.getRequestCount("/profile/pushToken"));
+    assertEquals(4, session.getSkippedCalls());
+  }
+
+  /**
+   * Make sure an update that matches the profile isn't skipped while another update of it is in flight, as that update
+   * would otherwise win. The client has a single slot, so the updates reach the API in order.
+   */
+  @Test
+  public void pendingUpdateTest() throws Exception {
+    NativeAPIClient serial = new NativeAPIClient("app-key", "app-secret", 1);
+    serial.setEndpoint(simulator.getEndpoint());
+    try {
+      ClutchSession session = new ClutchSession(new ClutchClient(serial), token, null, 60000);
+      session.getProfile().toCompletableFuture().get();
+      assertTrue(session.updateDemographics(Collections.singletonMap("firstName", "Jane"), null).toCompletableFuture().get());
+      assertTrue(session.updateOptInStatus("news", null, true).toCompletableFuture().get());
+
+      simulator.setLatency(200, 200);
+      CompletableFuture<Boolean> john = session.updateDemographics(Collections.singletonMap("firstName", "John"), null).toCompletableFuture();
+      CompletableFuture<Boolean> jane = session.updateDemographics(Collections.singletonMap("firstName", "Jane"), null).toCompletableFuture();
+      CompletableFuture<Boolean> optOut = session.updateOptInStatus("news", null, false).toCompletableFuture();
+      CompletableFuture<Boolean> optIn = session.updateOptInStatus("news", null, true).toCompletableFuture();
+      assertTrue(john.get() && jane.get() && optOut.get() && optIn.get());
+
+      assertEquals(0, session.getSkippedCalls());
+      assertEquals(3, simulator.getRequestCount("/profile/demographics"));
+      assertEquals("Jane", simulator.getProfile(token).primaryDemographics.get("firstName"));
+      assertTrue(simulator.getProfile(token).emailSubscriptionLists.get("news"));
+      assertEquals("Jane", session.getProfileSnapshot().primaryDemographics.get("firstName"));
+      assertTrue(session.getProfileSnapshot().emailSubscriptionLists.get("news"));
+    } finally {
+      serial.shutdown();
+    }
+  }
+
+  /**
+   * Make sure releasing the session drops all state, and the session can't be used afterwards.
+   */
+  @Test
+  public void releaseTest() throws Exception {
+    ClutchSession session = new ClutchSession(client, token, null, 60000);
+    session.getProfile().toCompletableFuture().get();
+    session.updatePushTokenGCM("push-1").toCompletableFuture().get();
+
+    assertTrue(session.release().toCompletableFuture().get());
+    assertTrue(session.isReleased());
+    assertNull(session.getProfileSnapshot());
+    assertNull(simulator.getProfile(token));
+    try {
+      session.updatePushTokenGCM("push-1").toCompletableFuture().get();
+      fail("Released session placed a call");
+    } catch(ExecutionException ex) {
+      assertTrue(ex.getCause() instanceof APIException);
+    }
+    try {
+      session.getProfile().toCompletableFuture().get();
+      fail("Released session served a profile");
+    } catch(ExecutionException ex) {
+      assertTrue(ex.getCause() instanceof APIException);
+    }
+    assertEquals(1, simulator.getRequestCount("/profile/pushToken"));
+  }
+
+  /**
+   * Make sure sessions are only set up from successful responses.
+   */
+  @Test
+  public void responseTest() {
+    RegisterResponse registered = new RegisterResponse(true);
+    registered.token = token;
+    registered.cardNumber = "1";
+    ClutchSession session = ClutchSession.of(client, registered);
+    assertEquals(token, session.getToken());
+    assertEquals("1", session.getCardNumber());
+    assertFalse(session.isReleased());
+
+    assertNull(ClutchSession.of(client, new GetTokenResponse(true, token)).getCardNumber());
+    try {
+      ClutchSession.of(client, new GetTokenResponse(false, null));
+      fail("Failed response started a session");
+    } catch(APIException ex) {
+      // Expected
+    }
+  }
+
+}
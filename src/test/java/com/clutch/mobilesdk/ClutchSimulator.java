@@ -0,0 +1,654 @@
+package com.clutch.mobilesdk;
+
+import com.clutch.mobilesdk.models.*;
+import com.clutch.mobilesdk.network.APIClient;
+import com.google.gson.Gson;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * In-process simulator of the Clutch mobile API for functional and load tests, serving every method ClutchClient uses.
+ *
+ * Requests are authenticated like the real API does: the application key must match, the request time must be recent,
+ * request IDs can't be reused, and the X-Signature header must be the HMAC-SHA512 of the request, computed with Gson
+ * and the JCA independently of RequestSigner. Cards, tokens, captchas and profiles are kept in memory.
+ *
+ * Latency, server errors, throttling and slow response bodies can be injected to test the client under degraded
+ * conditions. Faults are applied before authentication, like an overloaded load balancer would.
+ */
+public class ClutchSimulator implements AutoCloseable {
+
+  /**
+   * Maximum difference between the request time and the clock of the simulator.
+   */
+  private static final long MAX_CLOCK_SKEW = TimeUnit.MINUTES.toMillis(5);
+
+  private static final Gson GSON = ModelAdapters.gson();
+
+  /**
+   * Plain Gson instance to build the signed JSON array, as the server does.
+   */
+  private static final Gson SIGNATURE_GSON = new Gson();
+
+  private static final byte[] CAPTCHA_IMAGE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+  private final String appKey;
+
+  private final SecretKeySpec key;
+
+  private final HttpServer server;
+
+  private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+    Thread thread = new Thread(runnable, "clutch-simulator");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final ConcurrentHashMap<String, Card> cards = new ConcurrentHashMap<>();
+
+  private final ConcurrentHashMap<String, Card> tokens = new ConcurrentHashMap<>();
+
+  private final ConcurrentHashMap<String, String> captchas = new ConcurrentHashMap<>();
+
+  private final Set<String> requestIds = ConcurrentHashMap.newKeySet();
+
+  private final AtomicLong nextCardNumber = new AtomicLong(6000000000000000L);
+
+  private final ConcurrentHashMap<String, AtomicLong> requestCounts = new ConcurrentHashMap<>();
+
+  private final AtomicLong rejected = new AtomicLong();
+
+  private final AtomicLong injectedErrors = new AtomicLong();
+
+  private final AtomicLong throttled = new AtomicLong();
+
+  private volatile long minLatencyMillis;
+
+  private volatile long maxLatencyMillis;
+
+  private volatile double errorRate;
+
+  private volatile double throttleRate;
+
+  private volatile int retryAfterSeconds;
+
+  private volatile int slowBodyChunkSize;
+
+  private volatile long slowBodyDelayMillis;
+
+  private final AtomicInteger heldCaptchaImages = new AtomicInteger();
+
+  private volatile CountDownLatch captchaImageRelease = new CountDownLatch(0);
+
+  /**
+   * Start a new simulator on a random local port.
+   * @param appKey App key that requests must use
+   * @param appSecret App secret that requests must be signed with
+   * @throws IOException If the server could not be started
+   */
+  public ClutchSimulator(String appKey, String appSecret) throws IOException {
+    this.appKey = appKey;
+    this.key = new SecretKeySpec(appSecret.getBytes(StandardCharsets.UTF_8), "HmacSHA512");
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 256);
+    server.createContext("/", this::handle);
+    server.setExecutor(executor);
+    server.start();
+  }
+
+  /**
+   * Get the endpoint to use with APIClient.setEndpoint.
+   * @return Endpoint, without a trailing slash
+   */
+  public String getEndpoint() {
+    return "http://127.0.0.1:" + server.getAddress().getPort();
+  }
+
+  /**
+   * Delay every response by a random duration in a range.
+   * @param minMillis Minimum delay
+   * @param maxMillis Maximum delay, 0 to not delay responses (default)
+   */
+  public void setLatency(long minMillis, long maxMillis) {
+    this.minLatencyMillis = minMillis;
+    this.maxLatencyMillis = maxMillis;
+  }
+
+  /**
+   * Fail a fraction of the requests with a 500 response, without processing them.
+   * @param errorRate Fraction between 0 (default) and 1
+   */
+  public void setErrorRate(double errorRate) {
+    this.errorRate = errorRate;
+  }
+
+  /**
+   * Reject a fraction of the requests with a 429 response, without processing them.
+   * @param throttleRate Fraction between 0 (default) and 1
+   * @param retryAfterSeconds Seconds to send in the Retry-After header, or 0 to leave it out
+   */
+  public void setThrottleRate(double throttleRate, int retryAfterSeconds) {
+    this.throttleRate = throttleRate;
+    this.retryAfterSeconds = retryAfterSeconds;
+  }
+
+  /**
+   * Send response bodies in chunks with a delay between them, to simulate a slow network.
+   * @param chunkSize Bytes per chunk, or 0 to send the body at once (default)
+   * @param delayMillis Delay after each chunk
+   */
+  public void setSlowBody(int chunkSize, long delayMillis) {
+    this.slowBodyChunkSize = chunkSize;
+    this.slowBodyDelayMillis = delayMillis;
+  }
+
+  /**
+   * Hold the responses to the next captcha image requests, as a slow image server would, until they are released.
+   * @param count Amount of image requests to hold
+   * @return Latch to count down to send the held responses
+   */
+  public CountDownLatch holdCaptchaImages(int count) {
+    CountDownLatch release = new CountDownLatch(1);
+    captchaImageRelease = release;
+    heldCaptchaImages.set(count);
+    return release;
+  }
+
+  /**
+   * Add an existing card, e.g. to use with ClutchClient.getTokenExistingCard.
+   * @param pin PIN of the card
+   * @param profile Profile of the card, missing demographics and subscription lists are filled in
+   * @return Card number
+   */
+  public String addCard(String pin, ProfileViewResponse profile) {
+    ProfileViewResponse complete = newProfile(null, null);
+    if(profile != null) {
+      complete.balances = profile.balances != null ? profile.balances : complete.balances;
+      complete.primaryDemographics = profile.primaryDemographics != null ? new LinkedHashMap<>(profile.primaryDemographics) : complete.primaryDemographics;
+      complete.customDemographics = profile.customDemographics != null ? new LinkedHashMap<>(profile.customDemographics) : complete.customDemographics;
+      complete.emailOptIn = profile.emailOptIn;
+      complete.emailSubscriptionLists = profile.emailSubscriptionLists != null ? new LinkedHashMap<>(profile.emailSubscriptionLists) : complete.emailSubscriptionLists;
+      complete.segments = profile.segments != null ? profile.segments : complete.segments;
+    }
+    String cardNumber = Long.toString(nextCardNumber.incrementAndGet());
+    cards.put(cardNumber, new Card(cardNumber, pin, complete));
+    return cardNumber;
+  }
+
+  /**
+   * Issue a token for a card, without a captcha.
+   * @param cardNumber Card number
+   * @return Token
+   */
+  public String createToken(String cardNumber) {
+    Card card = cards.get(cardNumber);
+    if(card == null) {
+      throw new IllegalArgumentException("Unknown card " + cardNumber);
+    }
+    String token = UUID.randomUUID().toString();
+    tokens.put(token, card);
+    return token;
+  }
+
+  /**
+   * Get the value a user would read from a captcha image.
+   * @param captchaId Captcha ID
+   * @return Captcha value, or null if the captcha does not exist or was used
+   */
+  public String solveCaptcha(String captchaId) {
+    return captchas.get(captchaId);
+  }
+
+  /**
+   * Get a copy of the current profile of a token.
+   * @param token Token
+   * @return Profile, or null if the token does not exist
+   */
+  public ProfileViewResponse getProfile(String token) {
+    Card card = tokens.get(token);
+    return card == null ? null : GSON.fromJson(card.profileJson(), ProfileViewResponse.class);
+  }
+
+  /**
+   * Get the events registered for the card of a token.
+   * @param token Token
+   * @return Event category IDs in order of registration, or an empty list if the token does not exist
+   */
+  public List<String> getEvents(String token) {
+    Card card = tokens.get(token);
+    if(card == null) {
+      return Collections.emptyList();
+    }
+    synchronized(card) {
+      return new ArrayList<>(card.events);
+    }
+  }
+
+  /**
+   * Get the amount of requests received for a method path, including rejected and failed requests.
+   * @param path Normalized method path, see APIClient.normalizePath
+   * @return Amount of requests
+   */
+  public long getRequestCount(String path) {
+    AtomicLong count = requestCounts.get(path);
+    return count == null ? 0 : count.get();
+  }
+
+  /**
+   * Get the amount of requests that were rejected for an invalid key, time, request ID or signature.
+   * @return Amount of rejected requests
+   */
+  public long getRejected() {
+    return rejected.get();
+  }
+
+  public long getInjectedErrors() {
+    return injectedErrors.get();
+  }
+
+  public long getThrottled() {
+    return throttled.get();
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try {
+      String method = exchange.getRequestURI().getRawPath();
+      if(exchange.getRequestURI().getRawQuery() != null) {
+        method += "?" + exchange.getRequestURI().getRawQuery();
+      }
+      String path = exchange.getRequestURI().getPath();
+      requestCounts.computeIfAbsent(APIClient.normalizePath(method), key -> new AtomicLong()).incrementAndGet();
+      byte[] body = readBody(exchange);
+
+      long latency = maxLatencyMillis;
+      if(latency > 0) {
+        sleep(minLatencyMillis + ThreadLocalRandom.current().nextLong(Math.max(1, latency - minLatencyMillis + 1)));
+      }
+      if(ThreadLocalRandom.current().nextDouble() < throttleRate) {
+        throttled.incrementAndGet();
+        if(retryAfterSeconds > 0) {
+          exchange.getResponseHeaders().set("Retry-After", Integer.toString(retryAfterSeconds));
+        }
+        send(exchange, 429, "{\"success\":false,\"error\":\"Too many requests\"}");
+        return;
+      }
+      if(ThreadLocalRandom.current().nextDouble() < errorRate) {
+        injectedErrors.incrementAndGet();
+        send(exchange, 500, "{\"success\":false,\"error\":\"Internal server error\"}");
+        return;
+      }
+
+      if(path.startsWith("/captcha/show/")) {
+        // Loaded by image views, without authentication
+        showCaptcha(exchange, path.substring("/captcha/show/".length()));
+        return;
+      }
+      String error = authenticate(exchange, method, body);
+      if(error != null) {
+        rejected.incrementAndGet();
+        send(exchange, 401, "{\"success\":false,\"error\":\"" + error + "\"}");
+        return;
+      }
+
+      String json = new String(body, StandardCharsets.UTF_8);
+      if(path.startsWith("/profile/token/")) {
+        viewProfile(exchange, path.substring("/profile/token/".length()));
+      } else if(path.startsWith("/auth/token/release/")) {
+        send(exchange, 200, GSON.toJson(new BasicResponse(tokens.remove(path.substring("/auth/token/release/".length())) != null)));
+      } else {
+        send(exchange, 200, route(path, json));
+      }
+    } catch(UnknownMethodException ex) {
+      send(exchange, 404, "{\"error\":\"Not found\"}");
+    } catch(RuntimeException ex) {
+      send(exchange, 500, "{\"success\":false,\"error\":\"" + ex.getClass().getSimpleName() + "\"}");
+    } finally {
+      exchange.close();
+    }
+  }
+
+  /**
+   * Handle the methods that respond with a plain JSON body.
+   * @return Response body
+   */
+  private String route(String path, String json) {
+    switch(path) {
+      case "/health":
+        return "{\"success\":true}";
+      case "/brand/lists":
+        return "{\"subscriptionLists\":[{\"id\":\"news\",\"name\":\"Newsletter\"},{\"id\":\"offers\",\"name\":\"Special offers\"}]}";
+      case "/brand/fields":
+        return "{\"primaryFields\":[{\"apiName\":\"firstName\",\"displayName\":\"First name\",\"required\":true,\"editable\":true},"
+                + "{\"apiName\":\"lastName\",\"displayName\":\"Last name\",\"required\":true,\"editable\":true},"
+                + "{\"apiName\":\"email\",\"displayName\":\"Email\",\"required\":false,\"editable\":true}],"
+                + "\"customFields\":[{\"apiName\":\"favoriteStore\",\"displayName\":\"Favorite store\",\"required\":false,\"editable\":true}]}";
+      case "/captcha/new":
+        String captchaId = UUID.randomUUID().toString();
+        captchas.put(captchaId, Integer.toString(10000 + ThreadLocalRandom.current().nextInt(90000)));
+        return "{\"captchaId\":\"" + captchaId + "\"}";
+      case "/auth/token/register":
+        return register(GSON.fromJson(json, RegisterRequest.class));
+      case "/auth/token/existing":
+        return existingCard(GSON.fromJson(json, GetTokenRequest.class));
+      case "/profile/demographics":
+        DemographicsUpdateRequest demographics = GSON.fromJson(json, DemographicsUpdateRequest.class);
+        return update(demographics.token, profile -> {
+          if(demographics.primaryFields != null) {
+            profile.primaryDemographics.putAll(demographics.primaryFields);
+          }
+          if(demographics.customFields != null) {
+            profile.customDemographics.putAll(demographics.customFields);
+          }
+        });
+      case "/profile/optInStatus":
+        SubscriptionListUpdateRequest optIn = GSON.fromJson(json, SubscriptionListUpdateRequest.class);
+        return update(optIn.token, profile -> {
+          if(optIn.globalOptIn != null) {
+            profile.emailOptIn = optIn.globalOptIn;
+          }
+          if(optIn.subscriptionListId != null && optIn.newOptIn != null) {
+            profile.emailSubscriptionLists.put(optIn.subscriptionListId, optIn.newOptIn);
+          }
+        });
+      case "/profile/pushToken":
+        PushTokenUpdateRequest pushToken = GSON.fromJson(json, PushTokenUpdateRequest.class);
+        return GSON.toJson(new BasicResponse(tokens.containsKey(pushToken.token)));
+      case "/profile/event":
+        return GSON.toJson(registerEvent(GSON.fromJson(json, RegisterEventRequest.class)));
+      case "/profile/events":
+        RegisterEventBatchResponse batch = new RegisterEventBatchResponse();
+        batch.results = new ArrayList<>();
+        for(RegisterEventRequest event : GSON.fromJson(json, RegisterEventBatchRequest.class).events) {
+          batch.results.add(registerEvent(event));
+        }
+        batch.success = true;
+        return GSON.toJson(batch);
+      default:
+        throw new UnknownMethodException();
+    }
+  }
+
+  /**
+   * Check the application key, request time, request ID and signature of a request.
+   * @return Error message, or null if the request is authentic
+   */
+  private String authenticate(HttpExchange exchange, String method, byte[] body) {
+    String requestKey = exchange.getRequestHeaders().getFirst("X-Application-Key");
+    String requestId = exchange.getRequestHeaders().getFirst("X-Request-Id");
+    String requestTime = exchange.getRequestHeaders().getFirst("X-Request-Time");
+    String signature = exchange.getRequestHeaders().getFirst("X-Signature");
+    if(!appKey.equals(requestKey)) {
+      return "Unknown application key";
+    }
+    if(requestId == null || requestTime == null || signature == null) {
+      return "Missing authentication headers";
+    }
+    try {
+      if(Math.abs(System.currentTimeMillis() - Long.parseLong(requestTime)) > MAX_CLOCK_SKEW) {
+        return "Request expired";
+      }
+    } catch(NumberFormatException ex) {
+      return "Invalid request time";
+    }
+    String digest = body.length == 0 ? "" : hex(sha512(body));
+    String signed = SIGNATURE_GSON.toJson(new String[] {requestId, requestTime, method, digest});
+    byte[] expected = hex(hmacSha512(signed.getBytes(StandardCharsets.UTF_8))).getBytes(StandardCharsets.UTF_8);
+    if(!MessageDigest.isEqual(expected, signature.getBytes(StandardCharsets.UTF_8))) {
+      return "Invalid signature";
+    }
+    if(!requestIds.add(requestId)) {
+      return "Duplicate request ID";
+    }
+    return null;
+  }
+
+  private void showCaptcha(HttpExchange exchange, String captchaId) throws IOException {
+    if(!captchas.containsKey(captchaId)) {
+      send(exchange, 404, "{\"error\":\"Not found\"}");
+      return;
+    }
+    if(heldCaptchaImages.getAndUpdate(held -> Math.max(0, held - 1)) > 0) {
+      try {
+        captchaImageRelease.await();
+      } catch(InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Simulator stopped");
+      }
+    }
+    exchange.getResponseHeaders().set("Content-Type", "image/png");
+    sendBytes(exchange, 200, CAPTCHA_IMAGE);
+  }
+
+  private void viewProfile(HttpExchange exchange, String token) throws IOException {
+    Card card = tokens.get(token);
+    if(card == null) {
+      send(exchange, 200, GSON.toJson(new ProfileViewResponse(false)));
+      return;
+    }
+    String json;
+    String etag;
+    synchronized(card) {
+      json = card.profileJson();
+      etag = "\"" + card.cardNumber + "-" + card.version + "\"";
+    }
+    exchange.getResponseHeaders().set("ETag", etag);
+    if(etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+      exchange.sendResponseHeaders(304, -1);
+    } else {
+      send(exchange, 200, json);
+    }
+  }
+
+  /**
+   * Register a new card with the captcha of the request.
+   */
+  private String register(RegisterRequest request) {
+    if(!useCaptcha(request.captchaId, request.captchaSecret)) {
+      return GSON.toJson(new RegisterResponse(false));
+    }
+    String pin = String.format("%04d", ThreadLocalRandom.current().nextInt(10000));
+    String cardNumber = addCard(pin, newProfile(request.primaryFields, request.customFields));
+    RegisterResponse response = new RegisterResponse(true);
+    response.cardNumber = cardNumber;
+    response.pin = pin;
+    response.token = createToken(cardNumber);
+    return GSON.toJson(response);
+  }
+
+  /**
+   * Issue a token for an existing card with the captcha of the request.
+   */
+  private String existingCard(GetTokenRequest request) {
+    Card card = request.cardNumber == null ? null : cards.get(request.cardNumber);
+    if(!useCaptcha(request.captchaId, request.captchaSecret) || card == null || !card.pin.equals(request.pin)) {
+      return GSON.toJson(new GetTokenResponse(false, null));
+    }
+    return GSON.toJson(new GetTokenResponse(true, createToken(card.cardNumber)));
+  }
+
+  /**
+   * Check a captcha value. A captcha can only be used once, even if the value is wrong.
+   */
+  private boolean useCaptcha(String captchaId, String value) {
+    String expected = captchaId == null ? null : captchas.remove(captchaId);
+    return expected != null && expected.equals(value);
+  }
+
+  private String update(String token, Consumer<ProfileViewResponse> update) {
+    Card card = token == null ? null : tokens.get(token);
+    if(card == null) {
+      return GSON.toJson(new BasicResponse(false));
+    }
+    synchronized(card) {
+      update.accept(card.profile);
+      card.version++;
+    }
+    return GSON.toJson(new BasicResponse(true));
+  }
+
+  private BasicResponse registerEvent(RegisterEventRequest event) {
+    Card card = event.token == null ? null : tokens.get(event.token);
+    if(card == null || event.categoryId == null) {
+      return new BasicResponse(false);
+    }
+    synchronized(card) {
+      card.events.add(event.categoryId);
+    }
+    return new BasicResponse(true);
+  }
+
+  private static ProfileViewResponse newProfile(Map<String, String> primaryFields, Map<String, String> customFields) {
+    ProfileViewResponse profile = new ProfileViewResponse(true);
+    profile.balances = new LinkedHashMap<>();
+    profile.balances.put("Points", BigDecimal.ZERO);
+    profile.primaryDemographics = primaryFields != null ? new LinkedHashMap<>(primaryFields) : new LinkedHashMap<>();
+    profile.customDemographics = customFields != null ? new LinkedHashMap<>(customFields) : new LinkedHashMap<>();
+    profile.emailSubscriptionLists = new LinkedHashMap<>();
+    profile.emailSubscriptionLists.put("news", false);
+    profile.emailSubscriptionLists.put("offers", false);
+    profile.segments = new ArrayList<>();
+    return profile;
+  }
+
+  private void send(HttpExchange exchange, int status, String body) throws IOException {
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    sendBytes(exchange, status, body.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Send a response, in slow chunks if configured.
+   */
+  private void sendBytes(HttpExchange exchange, int status, byte[] body) throws IOException {
+    exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+    if(body.length == 0) {
+      return;
+    }
+    int chunkSize = slowBodyChunkSize;
+    try(OutputStream out = exchange.getResponseBody()) {
+      if(chunkSize <= 0) {
+        out.write(body);
+        return;
+      }
+      for(int offset = 0; offset < body.length; offset += chunkSize) {
+        out.write(body, offset, Math.min(chunkSize, body.length - offset));
+        out.flush();
+        sleep(slowBodyDelayMillis);
+      }
+    }
+  }
+
+  private static byte[] readBody(HttpExchange exchange) throws IOException {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    try(InputStream in = exchange.getRequestBody()) {
+      byte[] buffer = new byte[1024];
+      int read;
+      while((read = in.read(buffer)) != -1) {
+        body.write(buffer, 0, read);
+      }
+    }
+    return body.toByteArray();
+  }
+
+  private static void sleep(long millis) throws InterruptedIOException {
+    try {
+      Thread.sleep(millis);
+    } catch(InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Simulator stopped");
+    }
+  }
+
+  private static byte[] sha512(byte[] data) {
+    try {
+      return MessageDigest.getInstance("SHA-512").digest(data);
+    } catch(GeneralSecurityException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
+  private byte[] hmacSha512(byte[] data) {
+    try {
+      Mac mac = Mac.getInstance("HmacSHA512");
+      mac.init(key);
+      return mac.doFinal(data);
+    } catch(GeneralSecurityException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
+  private static String hex(byte[] data) {
+    StringBuilder builder = new StringBuilder(data.length * 2);
+    for(byte b : data) {
+      builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return builder.toString();
+  }
+
+  /**
+   * A card with its profile. Fields other than the number and PIN are guarded by the card itself.
+   */
+  private static class Card {
+
+    private final String cardNumber;
+
+    private final String pin;
+
+    private final ProfileViewResponse profile;
+
+    private final List<String> events = new ArrayList<>();
+
+    private long version;
+
+    Card(String cardNumber, String pin, ProfileViewResponse profile) {
+      this.cardNumber = cardNumber;
+      this.pin = pin;
+      this.profile = profile;
+    }
+
+    synchronized String profileJson() {
+      return GSON.toJson(profile);
+    }
+
+  }
+
+  /**
+   * Thrown for methods that the API does not have, answered with a 404.
+   */
+  private static class UnknownMethodException extends RuntimeException {
+  }
+
+}
@@ -0,0 +1,166 @@
+package com.clutch.mobilesdk;
+
+import com.clutch.mobilesdk.models.ModelAdapters;
+import com.clutch.mobilesdk.models.RegisterEventBatchRequest;
+import com.clutch.mobilesdk.network.NativeAPIClient;
+import com.clutch.mobilesdk.network.StubServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class EventPipelineTest {
+
+  private StubServer server;
+
+  private NativeAPIClient apiClient;
+
+  private ClutchClient client;
+
+  private final AtomicInteger batchCalls = new AtomicInteger();
+
+  private final AtomicInteger singleCalls = new AtomicInteger();
+
+  @Before
+  public void setUp() throws Exception {
+    server = new StubServer(false);
+    server.handle("/profile/event", exchange -> {
+      singleCalls.incrementAndGet();
+      StubServer.respond(exchange, 200, "{\"success\":true}");
+    });
+    apiClient = new NativeAPIClient("app-key", "app-secret", 4);
+    apiClient.setEndpoint(server.getEndpoint());
+    client = new ClutchClient(apiClient);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    apiClient.shutdown();
+    server.close();
+  }
+
+  /**
+   * Stub batch endpoint that fails events with an unknown category.
+   */
+  private void serveBatchEndpoint() {
+    server.handle("/profile/events", exchange -> {
+      batchCalls.incrementAndGet();
+      RegisterEventBatchRequest request = ModelAdapters.gson().fromJson(
+              new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8), RegisterEventBatchRequest.class);
+      StringBuilder results = new StringBuilder();
+      for(int i = 0; i < request.events.size(); i++) {
+        results.append(i == 0 ? "" : ",").append("{\"success\":").append(!"unknown".equals(request.events.get(i).categoryId)).append('}');
+      }
+      StubServer.respond(exchange, 200, "{\"success\":true,\"results\":[" + results + "]}");
+    });
+  }
+
+  /**
+   * Flush full batches right away and the rest after the delay, completing every event with its own result.
+   */
+  @Test
+  public void batchTest() throws Exception {
+    serveBatchEndpoint();
+    try(EventPipeline pipeline = new EventPipeline(client, 1000, 50, 100, true)) {
+      List<CompletableFuture<Boolean>> results = new ArrayList<>();
+      for(int i = 0; i < 120; i++) {
+        results.add(pipeline.submit("abc", i == 7 ? "unknown" : "login").toCompletableFuture());
+      }
+      for(int i = 0; i < results.size(); i++) {
+        assertEquals(i != 7, results.get(i).get(5, TimeUnit.SECONDS));
+      }
+      assertEquals(3, batchCalls.get());
+      assertEquals(0, singleCalls.get());
+      assertEquals(0, pipeline.getPendingEvents());
+    }
+  }
+
+  /**
+   * Fall back to single calls when the batch endpoint is not available.
+   */
+  @Test
+  public void fallbackTest() throws Exception {
+    try(EventPipeline pipeline = new EventPipeline(client, 1000, 10, 50, true)) {
+      List<CompletableFuture<Boolean>> results = new ArrayList<>();
+      for(int i = 0; i < 25; i++) {
+        results.add(pipeline.submit("abc", "login").toCompletableFuture());
+      }
+      for(CompletableFuture<Boolean> result : results) {
+        assertTrue(result.get(5, TimeUnit.SECONDS));
+      }
+      assertFalse(pipeline.isBatchEndpoint());
+      assertEquals(25, singleCalls.get());
+    }
+  }
+
+  /**
+   * Drop events beyond the capacity right away, while the events being sent still complete.
+   */
+  @Test
+  public void capacityTest() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    server.handle("/profile/event", exchange -> {
+      try {
+        release.await(5, TimeUnit.SECONDS);
+      } catch(InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+      StubServer.respond(exchange, 200, "{\"success\":true}");
+    });
+
+    try(EventPipeline pipeline = new EventPipeline(client, 10, 5, 1000, false)) {
+      List<CompletableFuture<Boolean>> results = new ArrayList<>();
+      for(int i = 0; i < 15; i++) {
+        results.add(pipeline.submit("abc", "login").toCompletableFuture());
+      }
+      assertEquals(5, pipeline.getDroppedEvents());
+      for(int i = 10; i < 15; i++) {
+        try {
+          results.get(i).getNow(null);
+          fail("Event should be dropped");
+        } catch(Exception ex) {
+          assertTrue(ex.getCause() instanceof APIException);
+        }
+      }
+
+      release.countDown();
+      for(int i = 0; i < 10; i++) {
+        assertTrue(results.get(i).get(5, TimeUnit.SECONDS));
+      }
+      assertEquals(2, pipeline.getBatches());
+    }
+  }
+
+  /**
+   * Make sure closing sends the queued events, and rejects events submitted afterwards.
+   */
+  @Test
+  public void closeTest() throws Exception {
+    EventPipeline pipeline = new EventPipeline(client, 100, 50, 60000, false);
+    CompletableFuture<Boolean> queued = pipeline.submit("abc", "login").toCompletableFuture();
+    pipeline.close();
+    assertTrue(queued.get(5, TimeUnit.SECONDS));
+
+    try {
+      pipeline.submit("abc", "login").toCompletableFuture().get(5, TimeUnit.SECONDS);
+      fail("Pipeline is closed");
+    } catch(ExecutionException ex) {
+      assertTrue(ex.getCause() instanceof APIException);
+    }
+  }
+
+}
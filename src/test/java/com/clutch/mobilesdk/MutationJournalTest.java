@@ -0,0 +1,121 @@
+package com.clutch.mobilesdk;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MutationJournalTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * Append and acknowledge mutations, and make sure the pending ones are recovered in order after reopening.
+   */
+  @Test
+  public void recoverTest() throws Exception {
+    File directory = folder.newFolder();
+    try(MutationJournal journal = new MutationJournal(directory)) {
+      long first = journal.append("/profile/demographics", "{\"token\":\"abc\",\"primaryFields\":{\"firstName\":\"Jöhn\"}}");
+      long second = journal.append("/profile/event", "{\"token\":\"abc\",\"categoryId\":\"login\"}");
+      long third = journal.append("/profile/event", "{\"token\":\"abc\",\"categoryId\":\"logout\"}");
+      journal.acknowledge(second);
+      assertTrue(first < second && second < third);
+    }
+
+    try(MutationJournal journal = new MutationJournal(directory)) {
+      List<MutationJournal.Entry> pending = journal.getPending();
+      assertEquals(2, pending.size());
+      assertEquals("/profile/demographics", pending.get(0).method);
+      assertEquals("{\"token\":\"abc\",\"primaryFields\":{\"firstName\":\"Jöhn\"}}", pending.get(0).postData);
+      assertEquals("{\"token\":\"abc\",\"categoryId\":\"logout\"}", pending.get(1).postData);
+
+      // Sequence numbers continue after the recovered ones
+      assertTrue(journal.append("/profile/event", "{}") > pending.get(1).sequence);
+    }
+  }
+
+  /**
+   * Make sure a torn write at the end of a segment is ignored, and overwritten by the next append.
+   */
+  @Test
+  public void tornWriteTest() throws Exception {
+    File directory = folder.newFolder();
+    try(MutationJournal journal = new MutationJournal(directory)) {
+      journal.append("/profile/event", "{\"categoryId\":\"first\"}");
+      journal.append("/profile/event", "{\"categoryId\":\"second\"}");
+    }
+    File[] files = directory.listFiles();
+    assertEquals(1, files.length);
+    try(RandomAccessFile file = new RandomAccessFile(files[0], "rw")) {
+      // Corrupt the last byte of the post data of the second record
+      int firstLength = 17 + 4 + "/profile/event".length() + "{\"categoryId\":\"first\"}".length();
+      int secondLength = 17 + 4 + "/profile/event".length() + "{\"categoryId\":\"second\"}".length();
+      file.seek(firstLength + secondLength - 5);
+      file.write('x');
+    }
+
+    try(MutationJournal journal = new MutationJournal(directory)) {
+      assertEquals(1, journal.getPendingCount());
+      journal.append("/profile/event", "{\"categoryId\":\"third\"}");
+    }
+    try(MutationJournal journal = new MutationJournal(directory)) {
+      List<MutationJournal.Entry> pending = journal.getPending();
+      assertEquals(2, pending.size());
+      assertEquals("{\"categoryId\":\"third\"}", pending.get(1).postData);
+    }
+  }
+
+  /**
+   * Make sure acknowledged segments are deleted, and a long pending mutation does not keep old segments around.
+   */
+  @Test
+  public void compactionTest() throws Exception {
+    File directory = folder.newFolder();
+    String postData = "{\"token\":\"abc\",\"categoryId\":\"login\"}";
+    try(MutationJournal journal = new MutationJournal(directory, 1024)) {
+      long stuck = journal.append("/profile/event", "{\"categoryId\":\"stuck\"}");
+      for(int i = 0; i < 500; i++) {
+        journal.acknowledge(journal.append("/profile/event", postData));
+      }
+      assertEquals(1, journal.getPendingCount());
+      assertTrue(journal.getSegmentCount() <= 5);
+      assertEquals(journal.getSegmentCount(), directory.listFiles().length);
+      assertEquals(stuck, journal.getPending().get(0).sequence);
+    }
+
+    try(MutationJournal journal = new MutationJournal(directory, 1024)) {
+      assertEquals(1, journal.getPendingCount());
+      assertEquals("{\"categoryId\":\"stuck\"}", journal.getPending().get(0).postData);
+    }
+  }
+
+  /**
+   * Measure the cost of an append, which should only be a few microseconds.
+   */
+  @Test
+  public void appendCostTest() throws Exception {
+    String postData = "{\"token\":\"abc\",\"primaryFields\":{\"firstName\":\"John\",\"lastName\":\"Doe\"},\"customFields\":{}}";
+    try(MutationJournal journal = new MutationJournal(folder.newFolder(), 4 * 1024 * 1024)) {
+      for(int i = 0; i < 10000; i++) {
+        journal.acknowledge(journal.append("/profile/demographics", postData));
+      }
+      long start = System.nanoTime();
+      for(int i = 0; i < 10000; i++) {
+        journal.acknowledge(journal.append("/profile/demographics", postData));
+      }
+      long nanosPerMutation = (System.nanoTime() - start) / 10000;
+      // Generous bound for slow build machines, a regression to a write per call is far above it
+      assertTrue("Append and acknowledge took " + nanosPerMutation + " ns", nanosPerMutation < TimeUnit.MICROSECONDS.toNanos(100));
+    }
+  }
+
+}
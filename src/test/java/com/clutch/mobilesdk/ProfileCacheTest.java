@@ -0,0 +1,135 @@
+package com.clutch.mobilesdk;
+
+import com.clutch.mobilesdk.models.ProfileViewResponse;
+import com.clutch.mobilesdk.network.ConditionalResponse;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ProfileCacheTest {
+
+  /**
+   * Entity tags the loader was called with.
+   */
+  private final List<String> requested = new ArrayList<>();
+
+  private ConditionalResponse<ProfileViewResponse> next;
+
+  private final Function<String, CompletionStage<ConditionalResponse<ProfileViewResponse>>> loader = etag -> {
+    requested.add(etag);
+    return CompletableFuture.completedFuture(next);
+  };
+
+  private ProfileViewResponse get(ProfileCache cache, String token) throws Exception {
+    return cache.get("app-key", token, loader).toCompletableFuture().get();
+  }
+
+  /**
+   * Make sure profiles within the maximum age are served without a call, and older ones are revalidated with their tag.
+   */
+  @Test
+  public void maxAgeTest() throws Exception {
+    ProfileCache cache = new ProfileCache(10, 100);
+    ProfileViewResponse profile = new ProfileViewResponse(true);
+    next = new ConditionalResponse<>(false, profile, "\"v1\"");
+    assertTrue(profile == get(cache, "abc"));
+    assertTrue(profile == get(cache, "abc"));
+    assertEquals(Collections.singletonList(null), requested);
+    assertEquals(1, cache.getHits());
+
+    Thread.sleep(150);
+    next = new ConditionalResponse<>(true, null, "\"v1\"");
+    assertTrue(profile == get(cache, "abc"));
+    assertEquals("\"v1\"", requested.get(1));
+    assertEquals(1, cache.getNotModified());
+  }
+
+  /**
+   * Make sure failed and untagged profiles are not cached, and the least recently used profile is evicted.
+   */
+  @Test
+  public void evictionTest() throws Exception {
+    ProfileCache cache = new ProfileCache(2, 0);
+    next = new ConditionalResponse<>(false, new ProfileViewResponse(false), "\"v1\"");
+    get(cache, "failed");
+    next = new ConditionalResponse<>(false, new ProfileViewResponse(true), null);
+    get(cache, "untagged");
+    assertEquals(0, cache.size());
+
+    next = new ConditionalResponse<>(false, new ProfileViewResponse(true), "\"v1\"");
+    get(cache, "a");
+    get(cache, "b");
+    get(cache, "a");
+    get(cache, "c");
+    assertEquals(2, cache.size());
+    requested.clear();
+    get(cache, "b");
+    assertNull(requested.get(0));
+  }
+
+  /**
+   * Make sure updates are applied to a copy of the cached profile.
+   */
+  @Test
+  public void applyTest() throws Exception {
+    ProfileCache cache = new ProfileCache();
+    ProfileViewResponse profile = new ProfileViewResponse(true);
+    next = new ConditionalResponse<>(false, profile, "\"v1\"");
+    get(cache, "abc");
+
+    cache.applyDemographics("app-key", "abc", Collections.singletonMap("firstName", "John"), null);
+    cache.applyOptIn("app-key", "abc", "news", true, false);
+    cache.applyOptIn("app-key", "other", "news", true, false);
+    next = new ConditionalResponse<>(true, null, "\"v1\"");
+    ProfileViewResponse updated = get(cache, "abc");
+    assertEquals("John", updated.primaryDemographics.get("firstName"));
+    assertNull(updated.customDemographics);
+    assertTrue(updated.emailOptIn);
+    assertEquals(Boolean.FALSE, updated.emailSubscriptionLists.get("news"));
+    assertNull(profile.primaryDemographics);
+    assertEquals(1, cache.size());
+  }
+
+  /**
+   * Make sure a profile that was downloaded before an update was applied does not overwrite the update.
+   */
+  @Test
+  public void staleDownloadTest() throws Exception {
+    ProfileCache cache = new ProfileCache();
+    next = new ConditionalResponse<>(false, new ProfileViewResponse(true), "\"v1\"");
+    get(cache, "abc");
+
+    CompletableFuture<ConditionalResponse<ProfileViewResponse>> call = new CompletableFuture<>();
+    CompletableFuture<ProfileViewResponse> stage = cache.get("app-key", "abc", etag -> call).toCompletableFuture();
+    cache.applyDemographics("app-key", "abc", Collections.singletonMap("firstName", "John"), null);
+    call.complete(new ConditionalResponse<>(false, new ProfileViewResponse(true), "\"v2\""));
+    assertEquals("John", stage.get().primaryDemographics.get("firstName"));
+
+    next = new ConditionalResponse<>(true, null, "\"v1\"");
+    assertEquals("John", get(cache, "abc").primaryDemographics.get("firstName"));
+  }
+
+  /**
+   * Make sure cancelling the stage cancels the call of the loader.
+   */
+  @Test
+  public void cancelTest() {
+    ProfileCache cache = new ProfileCache();
+    CompletableFuture<ConditionalResponse<ProfileViewResponse>> call = new CompletableFuture<>();
+    CompletableFuture<ProfileViewResponse> stage = cache.get("app-key", "abc", etag -> call).toCompletableFuture();
+    assertFalse(call.isDone());
+    stage.cancel(true);
+    assertTrue(call.isCancelled());
+  }
+
+}
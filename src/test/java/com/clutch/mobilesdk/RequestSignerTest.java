@@ -0,0 +1,95 @@
+package com.clutch.mobilesdk;
+
+import com.google.gson.Gson;
+import org.junit.Test;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RequestSignerTest {
+
+  private static final String SECRET = "supersecretkey123";
+
+  /**
+   * Compare signatures with the original Gson and ShaHelper based signing for ASCII input.
+   */
+  @Test
+  public void legacySignatureTest() {
+    RequestSigner signer = new RequestSigner(SECRET);
+    String[] methods = {"/brand/lists", "/profile/token/abc+def/ghi==", "/auth/token/release/<a&b>'\"\\\t\n\r\b\f\u0001"};
+    String[] postData = {null, "", "{\"token\":\"abc\",\"categoryId\":\"login\"}", new String(new char[5000]).replace('\0', 'x')};
+
+    for(String method : methods) {
+      for(String data : postData) {
+        String requestId = UUID.randomUUID().toString();
+        String requestTime = Long.toString(System.currentTimeMillis());
+        String contentDigest = data == null ? "" : ShaHelper.sha512(data);
+        String hmacData = new Gson().toJson(Arrays.asList(requestId, requestTime, method, contentDigest));
+
+        assertEquals(contentDigest, signer.digest(data));
+        assertEquals(ShaHelper.hmacSha512(hmacData, SECRET), signer.sign(requestId, requestTime, method, signer.digest(data)));
+      }
+    }
+  }
+
+  /**
+   * Compare signatures with Gson and UTF-8 encoding for non-ASCII input, which is how the post data is sent.
+   */
+  @Test
+  public void utf8SignatureTest() throws Exception {
+    RequestSigner signer = new RequestSigner(SECRET);
+    String method = "/profile/token/é€😀  \u007f";
+    String data = "{\"firstName\":\"Renée 😀 €\"}";
+
+    MessageDigest digest = MessageDigest.getInstance("SHA-512");
+    String contentDigest = ShaHelper.encodeHex(digest.digest(data.getBytes(StandardCharsets.UTF_8)));
+    String hmacData = new Gson().toJson(Arrays.asList("id", "123", method, contentDigest));
+    Mac mac = Mac.getInstance("HmacSHA512");
+    mac.init(new SecretKeySpec(SECRET.getBytes(StandardCharsets.UTF_8), "HmacSHA512"));
+
+    assertEquals(contentDigest, signer.digest(data));
+    assertEquals(ShaHelper.encodeHex(mac.doFinal(hmacData.getBytes(StandardCharsets.UTF_8))), signer.sign("id", "123", method, contentDigest));
+  }
+
+  /**
+   * Make sure request IDs are formatted as random version 4 UUIDs.
+   */
+  @Test
+  public void requestIdTest() {
+    RequestSigner signer = new RequestSigner(SECRET);
+    Set<String> ids = new HashSet<>();
+    for(int i = 0; i < 1000; i++) {
+      String id = signer.newRequestId();
+      UUID uuid = UUID.fromString(id);
+      assertEquals(id, uuid.toString());
+      assertEquals(4, uuid.version());
+      assertEquals(2, uuid.variant());
+      assertTrue(ids.add(id));
+    }
+  }
+
+  /**
+   * An empty app secret can't sign, but only fails once a request is signed, like before signers were reused.
+   */
+  @Test
+  public void emptySecretTest() {
+    RequestSigner signer = new RequestSigner("");
+    try {
+      signer.sign("id", "123", "/brand/lists", "");
+      fail("Signed with an empty secret");
+    } catch(IllegalArgumentException ex) {
+      // Expected
+    }
+  }
+
+}
@@ -0,0 +1,121 @@
+package com.clutch.mobilesdk.models;
+
+import com.google.gson.Gson;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ModelAdaptersTest {
+
+  private static final List<Class<?>> MODELS = Arrays.asList(BasicResponse.class, CaptchaResponse.class, DemographicField.class,
+          DemographicsUpdateRequest.class, GetTokenRequest.class, GetTokenResponse.class, ListFieldsResponse.class,
+          ListSubscriptionListsResponse.class, ProfileViewResponse.class, PushTokenUpdateRequest.class, RegisterEventBatchRequest.class,
+          RegisterEventBatchResponse.class, RegisterEventRequest.class,
+          RegisterRequest.class, RegisterResponse.class, ReleaseTokenResponse.class, Segment.class, SubscriptionList.class,
+          SubscriptionListUpdateRequest.class);
+
+  private final Gson reflective = new Gson();
+
+  /**
+   * Make sure no model falls back to the reflective adapter.
+   */
+  @Test
+  public void allModelsRegisteredTest() {
+    for(Class<?> model : MODELS) {
+      assertTrue(model.getSimpleName(), ModelAdapters.gson().getAdapter(model) instanceof ModelAdapters.ModelAdapter);
+    }
+  }
+
+  /**
+   * Serialize request models and compare with the reflective output.
+   */
+  @Test
+  public void serializeTest() {
+    Map<String, String> fields = new LinkedHashMap<>();
+    fields.put("firstName", "John <&>");
+    fields.put("lastName", null);
+
+    DemographicsUpdateRequest demographics = new DemographicsUpdateRequest();
+    demographics.token = "abc=";
+    demographics.primaryFields = fields;
+    demographics.customFields = new HashMap<>();
+    assertSameJson(demographics);
+    assertSameJson(new DemographicsUpdateRequest());
+
+    RegisterRequest register = new RegisterRequest();
+    register.captchaId = "captcha";
+    register.captchaSecret = "secret";
+    register.primaryFields = fields;
+    assertSameJson(register);
+
+    GetTokenRequest getToken = new GetTokenRequest();
+    getToken.cardNumber = "1234";
+    getToken.captchaId = "captcha";
+    assertSameJson(getToken);
+
+    SubscriptionListUpdateRequest optIn = new SubscriptionListUpdateRequest();
+    optIn.token = "abc";
+    optIn.subscriptionListId = "list";
+    optIn.newOptIn = false;
+    assertSameJson(optIn);
+    optIn.globalOptIn = true;
+    assertSameJson(optIn);
+
+    PushTokenUpdateRequest pushToken = new PushTokenUpdateRequest();
+    pushToken.token = "abc";
+    pushToken.pushTokenType = "gcm";
+    pushToken.pushToken = "push";
+    assertSameJson(pushToken);
+
+    RegisterEventRequest event = new RegisterEventRequest();
+    event.token = "abc";
+    event.categoryId = "login";
+    assertSameJson(event);
+
+    RegisterEventBatchRequest batch = new RegisterEventBatchRequest();
+    batch.events = Arrays.asList(event, null, new RegisterEventRequest());
+    assertSameJson(batch);
+  }
+
+  /**
+   * Parse responses and compare with the reflective result.
+   */
+  @Test
+  public void parseTest() {
+    assertSameParse("{\"success\":true,\"balances\":{\"Points\":12.50,\"Currency.USD\":\"1E+3\",\"Custom.ABC\":null},"
+            + "\"primaryDemographics\":{\"firstName\":\"John\",\"active\":true},\"customDemographics\":null,\"emailOptIn\":null,"
+            + "\"emailSubscriptionLists\":{\"a\":true,\"b\":\"false\",\"c\":null},\"unknown\":{\"nested\":[1,2]},"
+            + "\"segments\":[{\"name\":\"Gold\",\"description\":\"Gold members\",\"id\":\"s1\"},null]}", ProfileViewResponse.class);
+    assertSameParse("{\"primaryFields\":[{\"apiName\":\"firstName\",\"displayName\":\"First name\",\"required\":true,\"editable\":true}],"
+            + "\"customFields\":[]}", ListFieldsResponse.class);
+    assertSameParse("{\"subscriptionLists\":[{\"id\":\"1\",\"name\":\"News\"}]}", ListSubscriptionListsResponse.class);
+    assertSameParse("{\"success\":true,\"token\":\"abc\",\"cardNumber\":\"1234\",\"pin\":\"0000\"}", RegisterResponse.class);
+    assertSameParse("{\"success\":true,\"token\":\"abc\"}", GetTokenResponse.class);
+    assertSameParse("{\"captchaId\":\"captcha\"}", CaptchaResponse.class);
+    assertSameParse("{\"success\":false}", BasicResponse.class);
+    assertSameParse("{\"success\":true}", ReleaseTokenResponse.class);
+    assertSameParse("null", BasicResponse.class);
+    assertSameParse("{\"success\":true,\"results\":[{\"success\":true},{\"success\":false,\"error\":\"Unknown category\"}]}",
+            RegisterEventBatchResponse.class);
+
+    ProfileViewResponse profile = ModelAdapters.gson().fromJson("{\"balances\":{\"Points\":12.50}}", ProfileViewResponse.class);
+    assertEquals(new BigDecimal("12.50"), profile.balances.get("Points"));
+  }
+
+  private void assertSameJson(Object value) {
+    assertEquals(reflective.toJson(value), ModelAdapters.gson().toJson(value));
+  }
+
+  private void assertSameParse(String json, Class<?> type) {
+    assertEquals(reflective.toJson(reflective.fromJson(json, type)), reflective.toJson(ModelAdapters.gson().fromJson(json, type)));
+  }
+
+}
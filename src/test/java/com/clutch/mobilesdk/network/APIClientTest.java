@@ -0,0 +1,48 @@
+package com.clutch.mobilesdk.network;
+
+import com.clutch.mobilesdk.ShaHelper;
+import com.google.gson.Gson;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+
+public class APIClientTest {
+
+  private final APIClient client = new APIClient("app-key", "app-secret") {
+    @Override
+    public <T> Future<ResponseWrapper<T>> placeAsyncCall(String method, String postData, Function<String, T> parser, ResponseHandler<T> handler) {
+      throw new UnsupportedOperationException();
+    }
+  };
+
+  /**
+   * Make sure the signature header matches the original Gson and ShaHelper based signature.
+   */
+  @Test
+  public void headersTest() {
+    String postData = "{\"token\":\"abc=\",\"pushTokenType\":\"gcm\",\"pushToken\":\"<token>\"}";
+    Map<String, String> headers = client.getHeaders("/profile/pushToken", postData);
+
+    String hmacData = new Gson().toJson(Arrays.asList(headers.get("X-Request-Id"), headers.get("X-Request-Time"), "/profile/pushToken", ShaHelper.sha512(postData)));
+    assertEquals("app-key", headers.get("X-Application-Key"));
+    assertEquals(ShaHelper.hmacSha512(hmacData, "app-secret"), headers.get("X-Signature"));
+  }
+
+  /**
+   * Make sure tokens and IDs are left out of method paths, so every method has a single path.
+   */
+  @Test
+  public void normalizePathTest() {
+    assertEquals("/profile/token/*", APIClient.normalizePath("/profile/token/abc="));
+    assertEquals("/auth/token/release/*", APIClient.normalizePath("/auth/token/release/abc"));
+    assertEquals("/captcha/show/*", APIClient.normalizePath("/captcha/show/123?size=2"));
+    assertEquals("/brand/fields", APIClient.normalizePath("/brand/fields"));
+    assertEquals("/auth/token/existing", APIClient.normalizePath("/auth/token/existing"));
+  }
+
+}
@@ -0,0 +1,81 @@
+package com.clutch.mobilesdk.network;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CircuitBreakerTest {
+
+  private static final long FAST = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(200);
+
+  /**
+   * Make sure the breaker opens on the failure rate, but only once the window holds the minimum amount of calls.
+   */
+  @Test
+  public void failureRateTest() {
+    CircuitBreaker breaker = new CircuitBreaker(0.5f, 1f, 100, 10, 4, 1000);
+    breaker.record(FAST, true);
+    breaker.record(FAST, true);
+    breaker.record(FAST, true);
+    assertTrue(breaker.allowCall());
+
+    breaker.record(FAST, false);
+    assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    assertFalse(breaker.allowCall());
+  }
+
+  /**
+   * Make sure old outcomes leave the sliding window.
+   */
+  @Test
+  public void slidingWindowTest() {
+    CircuitBreaker breaker = new CircuitBreaker(0.5f, 0.5f, 100, 4, 4, 1000);
+    breaker.record(FAST, true);
+    for(int i = 0; i < 10; i++) {
+      breaker.record(FAST, false);
+    }
+    assertEquals(0f, breaker.getFailureRate(), 0f);
+
+    breaker.record(SLOW, false);
+    assertEquals(0.25f, breaker.getSlowCallRate(), 0f);
+    breaker.record(SLOW, false);
+    assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+  }
+
+  /**
+   * Walk through the probe states, and make sure the listener sees every change.
+   */
+  @Test
+  public void probeTest() throws Exception {
+    CircuitBreaker breaker = new CircuitBreaker(0.5f, 1f, 100, 1, 1, 50);
+    List<CircuitBreaker.State> states = new ArrayList<>();
+    breaker.addListener((b, from, to) -> states.add(to));
+
+    breaker.record(FAST, true);
+    assertFalse(breaker.startProbe());
+    Thread.sleep(60);
+    assertTrue(breaker.startProbe());
+    assertFalse(breaker.startProbe());
+    assertFalse(breaker.allowCall());
+
+    breaker.finishProbe(false);
+    Thread.sleep(60);
+    assertTrue(breaker.startProbe());
+    breaker.finishProbe(true);
+    assertTrue(breaker.allowCall());
+    assertEquals(0f, breaker.getFailureRate(), 0f);
+
+    assertEquals(Arrays.asList(CircuitBreaker.State.OPEN, CircuitBreaker.State.HALF_OPEN, CircuitBreaker.State.OPEN,
+            CircuitBreaker.State.HALF_OPEN, CircuitBreaker.State.CLOSED), states);
+  }
+
+}
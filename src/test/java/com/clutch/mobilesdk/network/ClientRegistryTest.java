@@ -0,0 +1,104 @@
+package com.clutch.mobilesdk.network;
+
+import com.clutch.mobilesdk.APIException;
+import com.clutch.mobilesdk.ClutchClient;
+import com.clutch.mobilesdk.ClutchSimulator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ClientRegistryTest {
+
+  private ClutchSimulator simulator;
+
+  @Before
+  public void setUp() throws Exception {
+    simulator = new ClutchSimulator("app-key", "app-secret");
+  }
+
+  @After
+  public void tearDown() {
+    simulator.close();
+  }
+
+  /**
+   * Make sure clients share their threads and connections, but sign with their own secret and get a fair share.
+   */
+  @Test
+  public void tenantTest() throws Exception {
+    try(ClientRegistry registry = new ClientRegistry(NativeAPIClient.ExecutionMode.FIXED_POOL, 4, 60000)) {
+      registry.setEndpoint(simulator.getEndpoint());
+      InMemoryInstrumentation instrumentation = new InMemoryInstrumentation();
+      registry.setInstrumentation(instrumentation);
+
+      NativeAPIClient brand = registry.get("app-key", "app-secret");
+      assertSame(brand, registry.get("app-key", "app-secret"));
+      assertEquals(4, brand.getPriorityLanes().getMaxConcurrency());
+
+      NativeAPIClient other = registry.get("other-key", "other-secret");
+      assertEquals(2, registry.size());
+      assertEquals(2, brand.getPriorityLanes().getMaxConcurrency());
+      assertEquals(2, other.getPriorityLanes().getMaxConcurrency());
+      assertSame(brand.getConnectionPool(), other.getConnectionPool());
+
+      assertTrue(new ClutchClient(brand).getHealthCheck().toCompletableFuture().get(5, TimeUnit.SECONDS));
+      try {
+        new ClutchClient(other).getHealthCheck().toCompletableFuture().get(5, TimeUnit.SECONDS);
+        fail("Simulator accepted an unknown app key");
+      } catch(ExecutionException ex) {
+        assertTrue(ex.getCause() instanceof APIException);
+      }
+      assertEquals(1, simulator.getRejected());
+      assertEquals(2, instrumentation.snapshot().get("/health").getCounter(Instrumentation.Counter.CALLS));
+
+      // Shutting down a client leaves the shared threads running
+      other.shutdown();
+      assertTrue(new ClutchClient(brand).getHealthCheck().toCompletableFuture().get(5, TimeUnit.SECONDS));
+
+      // A rotated secret replaces the client, and the old one no longer takes a share
+      NativeAPIClient rotated = registry.get("other-key", "new-secret");
+      assertNotSame(other, rotated);
+      assertEquals(2, registry.size());
+      assertEquals(1, other.getPriorityLanes().getMaxConcurrency());
+      assertEquals(2, rotated.getPriorityLanes().getMaxConcurrency());
+      assertEquals(0, registry.getEvictions());
+    }
+  }
+
+  /**
+   * Make sure idle clients are evicted, and the others get their share.
+   */
+  @Test
+  public void evictionTest() throws Exception {
+    try(ClientRegistry registry = new ClientRegistry(NativeAPIClient.ExecutionMode.FIXED_POOL, 4, 300)) {
+      registry.setEndpoint(simulator.getEndpoint());
+      NativeAPIClient idle = registry.get("idle-key", "idle-secret");
+      assertEquals(4, idle.getPriorityLanes().getMaxConcurrency());
+
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+      NativeAPIClient busy = registry.get("app-key", "app-secret");
+      while(registry.getEvictions() == 0) {
+        assertTrue("Timed out", System.nanoTime() < deadline);
+        new ClutchClient(registry.get("app-key", "app-secret")).getHealthCheck().toCompletableFuture().get(5, TimeUnit.SECONDS);
+        Thread.sleep(50);
+      }
+      assertEquals(1, registry.getEvictions());
+      assertEquals(1, registry.size());
+      assertSame(busy, registry.get("app-key", "app-secret"));
+      assertEquals(4, busy.getPriorityLanes().getMaxConcurrency());
+      // The evicted client no longer gets a share of the threads
+      assertEquals(1, idle.getPriorityLanes().getMaxConcurrency());
+      assertNotSame(idle, registry.get("idle-key", "idle-secret"));
+    }
+  }
+
+}
@@ -0,0 +1,106 @@
+package com.clutch.mobilesdk.network;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ConcurrencyLimiterTest {
+
+  private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+
+  private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(100);
+
+  /**
+   * Make sure calls over the limit are queued in order, and rejected once the queue is full.
+   */
+  @Test
+  public void queueTest() {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 1, 2, 0.5, 2, 2);
+    List<Integer> started = new ArrayList<>();
+    for(int i = 0; i < 4; i++) {
+      int call = i;
+      assertTrue(limiter.acquire(() -> started.add(call)));
+    }
+    assertFalse(limiter.acquire(() -> started.add(4)));
+    assertEquals(Arrays.asList(0, 1), started);
+    assertEquals(2, limiter.getInFlight());
+    assertEquals(2, limiter.getQueueDepth());
+    assertEquals(1, limiter.getRejected());
+
+    limiter.release(FAST, false);
+    assertEquals(Arrays.asList(0, 1, 2), started);
+    limiter.release();
+    assertEquals(Arrays.asList(0, 1, 2, 3), started);
+    assertEquals(0, limiter.getQueueDepth());
+    assertEquals(2, limiter.getInFlight());
+  }
+
+  /**
+   * Make sure a removed call is never started.
+   */
+  @Test
+  public void removeTest() {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 1, 0.5, 2, 10);
+    List<String> started = new ArrayList<>();
+    Runnable queued = () -> started.add("queued");
+    limiter.acquire(() -> started.add("first"));
+    limiter.acquire(queued);
+    assertTrue(limiter.remove(queued));
+    limiter.release();
+    assertEquals(Arrays.asList("first"), started);
+    assertEquals(0, limiter.getInFlight());
+  }
+
+  /**
+   * Make sure the limit grows additively while it is in use, and shrinks multiplicatively on failures and slow calls.
+   */
+  @Test
+  public void adaptTest() {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(4, 1, 100, 0.5, 2, 10);
+    // Grows by about one after a full limit of calls
+    for(int i = 0; i < 5; i++) {
+      fill(limiter);
+      limiter.release(FAST, false);
+      drain(limiter);
+    }
+    assertEquals(5, limiter.getLimit());
+
+    fill(limiter);
+    limiter.release(FAST, true);
+    drain(limiter);
+    assertEquals(2, limiter.getLimit());
+
+    fill(limiter);
+    limiter.release(SLOW, false);
+    drain(limiter);
+    assertEquals(1, limiter.getLimit());
+
+    // Doesn't grow while less than half of the limit is in use
+    limiter = new ConcurrencyLimiter(4, 1, 100, 0.5, 2, 10);
+    for(int i = 0; i < 20; i++) {
+      limiter.acquire(() -> {});
+      limiter.release(FAST, false);
+    }
+    assertEquals(4, limiter.getLimit());
+  }
+
+  private static void fill(ConcurrencyLimiter limiter) {
+    while(limiter.getInFlight() < limiter.getLimit()) {
+      limiter.acquire(() -> {});
+    }
+  }
+
+  private static void drain(ConcurrencyLimiter limiter) {
+    while(limiter.getInFlight() > 0) {
+      limiter.release();
+    }
+  }
+
+}
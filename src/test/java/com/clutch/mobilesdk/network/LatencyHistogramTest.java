@@ -0,0 +1,75 @@
+package com.clutch.mobilesdk.network;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+  /**
+   * Make sure percentiles are within the relative error of the buckets.
+   */
+  @Test
+  public void percentileTest() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for(int i = 1; i <= 1000; i++) {
+      histogram.record(TimeUnit.MICROSECONDS.toNanos(i));
+    }
+    LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+    assertEquals(1000, snapshot.getCount());
+    assertEquals(500.5, snapshot.getMean(TimeUnit.MICROSECONDS), 0.001);
+    assertEquals(1000, snapshot.getMax(TimeUnit.MICROSECONDS));
+    assertWithin(500, snapshot.getPercentile(50, TimeUnit.MICROSECONDS));
+    assertWithin(990, snapshot.getPercentile(99, TimeUnit.MICROSECONDS));
+    assertEquals(1000, snapshot.getPercentile(100, TimeUnit.MICROSECONDS));
+  }
+
+  /**
+   * Make sure small, negative and huge values end up in the first and last buckets.
+   */
+  @Test
+  public void rangeTest() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(-5);
+    histogram.record(3);
+    histogram.record(Long.MAX_VALUE / 2);
+    LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+    assertEquals(0, snapshot.getPercentile(10, TimeUnit.NANOSECONDS));
+    assertEquals(3, snapshot.getPercentile(50, TimeUnit.NANOSECONDS));
+    assertEquals((1L << 40) - 1, snapshot.getPercentile(100, TimeUnit.NANOSECONDS));
+    assertEquals(0, new LatencyHistogram().snapshot().getPercentile(50, TimeUnit.NANOSECONDS));
+  }
+
+  /**
+   * Record from several threads at once, and make sure no value is lost.
+   */
+  @Test
+  public void concurrentTest() throws Exception {
+    LatencyHistogram histogram = new LatencyHistogram();
+    List<Thread> threads = new ArrayList<>();
+    for(int t = 0; t < 4; t++) {
+      Thread thread = new Thread(() -> {
+        for(int i = 0; i < 100000; i++) {
+          histogram.record(i);
+        }
+      });
+      threads.add(thread);
+      thread.start();
+    }
+    for(Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(400000, histogram.snapshot().getCount());
+    assertEquals(99999, histogram.snapshot().getMax(TimeUnit.NANOSECONDS));
+  }
+
+  private static void assertWithin(long expected, long actual) {
+    assertTrue("Expected about " + expected + " but was " + actual, Math.abs(actual - expected) <= expected / 16 + 1);
+  }
+
+}
@@ -0,0 +1,702 @@
+package com.clutch.mobilesdk.network;
+
+import com.clutch.mobilesdk.APIException;
+import com.clutch.mobilesdk.APIStatusException;
+import com.clutch.mobilesdk.CircuitOpenException;
+import com.clutch.mobilesdk.ConcurrencyLimitException;
+import com.clutch.mobilesdk.DeadlineExceededException;
+import com.clutch.mobilesdk.ResponseTooLargeException;
+import com.google.gson.stream.JsonReader;
+import com.sun.net.httpserver.HttpHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class NativeAPIClientTest {
+
+  private StubServer server;
+
+  private NativeAPIClient client;
+
+  @Before
+  public void setUp() throws Exception {
+    server = new StubServer(true);
+    server.respond("/brand/lists", "{\"subscriptionLists\":[]}");
+    client = new NativeAPIClient("app-key", "app-secret");
+    client.setEndpoint(server.getEndpoint());
+    client.setConnectionPool(new ConnectionPool(2, server.getSocketFactory()));
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    client.shutdown();
+    server.close();
+  }
+
+  /**
+   * Place sequential calls over HTTPS and make sure only the first one needs a new connection and TLS handshake.
+   */
+  @Test
+  public void connectionReuseTest() throws Exception {
+    for(int i = 0; i < 10; i++) {
+      ResponseWrapper<String> result = client.placeAsyncCall("/brand/lists", null, data -> data, null).get();
+      assertEquals("{\"subscriptionLists\":[]}", result.response);
+    }
+
+    assertEquals(1, client.getConnectionPool().getNewTlsConnections());
+    assertEquals(9, client.getConnectionPool().getReusedTlsConnections());
+  }
+
+  /**
+   * Make sure error responses are drained so the connection is kept alive afterwards.
+   */
+  @Test
+  public void connectionReuseAfterErrorTest() throws Exception {
+    assertEquals(false, client.placeAsyncCall("/does-not-exist", null, data -> data, null).get().success);
+    assertEquals(true, client.placeAsyncCall("/brand/lists", null, data -> data, null).get().success);
+
+    // A 404 is not retried, and both calls use the same connection
+    assertEquals(1, client.getConnectionPool().getNewTlsConnections());
+    assertEquals(1, client.getConnectionPool().getReusedTlsConnections());
+  }
+
+  /**
+   * Make sure a connection that followed a redirect to another endpoint hands back the slot of the endpoint it was opened for.
+   */
+  @Test
+  public void redirectReleaseTest() throws Exception {
+    try(StubServer origin = new StubServer(false); StubServer target = new StubServer(false)) {
+      target.respond("/brand/lists", "{\"subscriptionLists\":[]}");
+      origin.handle("/brand/lists", exchange -> {
+        exchange.getResponseHeaders().set("Location", target.getEndpoint() + "/brand/lists");
+        StubServer.respond(exchange, 302, "");
+      });
+      NativeAPIClient redirected = new NativeAPIClient("app-key", "app-secret");
+      try {
+        redirected.setEndpoint(origin.getEndpoint());
+        redirected.setConnectionPool(new ConnectionPool(1));
+        // With a single slot for the origin, a leaked slot would block the second call
+        for(int i = 0; i < 3; i++) {
+          assertEquals("{\"subscriptionLists\":[]}", redirected.placeAsyncCall("/brand/lists", null, data -> data, null).get(5, TimeUnit.SECONDS).response);
+        }
+        assertEquals(3, target.getRequestCount());
+      } finally {
+        redirected.shutdown();
+      }
+    }
+  }
+
+  /**
+   * Make sure transient failures are retried with a growing backoff, with fresh headers for every attempt.
+   */
+  @Test
+  public void retryBackoffTest() throws Exception {
+    List<Long> times = new ArrayList<>();
+    List<String> requestIds = new ArrayList<>();
+    server.handle("/brand/fields", exchange -> {
+      synchronized(times) {
+        times.add(System.nanoTime());
+        requestIds.add(exchange.getRequestHeaders().getFirst("X-Request-ID"));
+        StubServer.respond(exchange, times.size() < 3 ? 503 : 200, "{}");
+      }
+    });
+    client.setRetryPolicy(new RetryPolicy(3, 100, 1000, 10000));
+
+    assertTrue(client.placeAsyncCall("/brand/fields", null, data -> data, null).get().success);
+    assertEquals(3, times.size());
+    assertEquals(3, new HashSet<>(requestIds).size());
+    // Backoff of 100 ms and 200 ms, of which at least half is fixed
+    assertTrue(times.get(1) - times.get(0) >= TimeUnit.MILLISECONDS.toNanos(50));
+    assertTrue(times.get(2) - times.get(1) >= TimeUnit.MILLISECONDS.toNanos(100));
+  }
+
+  /**
+   * Make sure failures are only retried when that is safe and could help.
+   */
+  @Test
+  public void retryClassificationTest() throws Exception {
+    server.handle("/brand/fields", exchange -> StubServer.respond(exchange, 500, "{}"));
+    client.setRetryPolicy(new RetryPolicy(3, 1, 1, 10000));
+
+    // A client error is never retried, and surfaces the status code
+    AtomicReference<APIException> error = new AtomicReference<>();
+    client.placeAsyncCall("/does-not-exist", null, data -> data, new ResponseHandler<String>() {
+      @Override
+      public void handleSuccess(String response) {
+      }
+
+      @Override
+      public void handleError(APIException ex) {
+        error.set(ex);
+      }
+    }).get();
+    assertEquals(404, ((APIStatusException) error.get()).getStatusCode());
+    assertEquals(1, server.getRequestCount());
+
+    // A server error is retried for a GET call, but not for a POST call, as it may have been processed
+    assertFalse(client.placeAsyncCall("/brand/fields", null, data -> data, null).get().success);
+    assertEquals(4, server.getRequestCount());
+    assertFalse(client.placeAsyncCall("/brand/fields", "{}", data -> data, null).get().success);
+    assertEquals(5, server.getRequestCount());
+  }
+
+  /**
+   * Make sure a Retry-After header is honored, but only if it fits within the deadline.
+   */
+  @Test
+  public void retryAfterTest() throws Exception {
+    AtomicInteger count = new AtomicInteger();
+    server.handle("/brand/fields", exchange -> {
+      if(count.incrementAndGet() == 1) {
+        exchange.getResponseHeaders().set("Retry-After", "1");
+        StubServer.respond(exchange, 429, "{}");
+      } else {
+        StubServer.respond(exchange, 200, "{}");
+      }
+    });
+
+    client.setRetryPolicy(new RetryPolicy(3, 1, 1, 10000));
+    long start = System.nanoTime();
+    assertTrue(client.placeAsyncCall("/brand/fields", "{}", data -> data, null).get().success);
+    assertTrue(System.nanoTime() - start >= TimeUnit.SECONDS.toNanos(1));
+    assertEquals(2, count.get());
+
+    count.set(0);
+    client.setRetryPolicy(new RetryPolicy(3, 1, 1, 500));
+    assertFalse(client.placeAsyncCall("/brand/fields", "{}", data -> data, null).get().success);
+    assertEquals(1, count.get());
+  }
+
+  /**
+   * Parse a response straight from the response stream.
+   */
+  @Test
+  public void streamingParseTest() throws Exception {
+    ResponseWrapper<Integer> result = client.placeAsyncStreamingCall("/brand/lists", null, reader -> {
+      JsonReader jsonReader = new JsonReader(reader);
+      jsonReader.beginObject();
+      jsonReader.nextName();
+      jsonReader.beginArray();
+      jsonReader.endArray();
+      return 0;
+    }, null).get();
+    assertTrue(result.success);
+    assertEquals(0, (int) result.response);
+  }
+
+  /**
+   * Make sure a response that can't be parsed is not retried.
+   */
+  @Test
+  public void parseFailureTest() throws Exception {
+    AtomicReference<APIException> error = new AtomicReference<>();
+    client.placeAsyncStreamingCall("/brand/lists", null, reader -> {
+      throw new IllegalStateException("Unexpected input");
+    }, new ResponseHandler<Object>() {
+      @Override
+      public void handleSuccess(Object response) {
+      }
+
+      @Override
+      public void handleError(APIException ex) {
+        error.set(ex);
+      }
+    }).get();
+    assertTrue(error.get().getCause() instanceof IllegalStateException);
+    assertEquals(1, server.getRequestCount());
+  }
+
+  /**
+   * Make sure a staged call with a malformed response fails with an APIException instead of the failure of the parser.
+   */
+  @Test
+  public void stagedParseFailureTest() throws Exception {
+    server.respond("/profile/token/abc", "{\"balance\":\"12,5\"}");
+    try {
+      client.placeStagedCall("/profile/token/abc", null, reader -> {
+        JsonReader jsonReader = new JsonReader(reader);
+        jsonReader.beginObject();
+        jsonReader.nextName();
+        return new BigDecimal(jsonReader.nextString());
+      }).toCompletableFuture().get(5, TimeUnit.SECONDS);
+      fail("Response is malformed");
+    } catch(ExecutionException ex) {
+      assertEquals(APIException.class, ex.getCause().getClass());
+      assertEquals("Could not parse response", ex.getCause().getMessage());
+      assertTrue(ex.getCause().getCause() instanceof NumberFormatException);
+    }
+    assertEquals(1, server.getRequestCount());
+  }
+
+  /**
+   * Make sure the circuit breaker makes calls fail fast once the API is degraded, and closes after a successful probe.
+   */
+  @Test
+  public void circuitBreakerTest() throws Exception {
+    server.handle("/brand/fields", exchange -> StubServer.respond(exchange, 503, "{}"));
+    server.respond("/health", "{}");
+    CircuitBreaker breaker = new CircuitBreaker(0.5f, 1f, 5000, 4, 4, 200);
+    CountDownLatch closed = new CountDownLatch(1);
+    breaker.addListener((b, from, to) -> {
+      if(to == CircuitBreaker.State.CLOSED) {
+        closed.countDown();
+      }
+    });
+    client.setCircuitBreaker(breaker);
+    client.setRetryPolicy(RetryPolicy.noRetries(10000));
+
+    for(int i = 0; i < 4; i++) {
+      assertFalse(client.placeAsyncCall("/brand/fields", null, data -> data, null).get().success);
+    }
+    assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+    AtomicReference<APIException> error = new AtomicReference<>();
+    client.placeAsyncCall("/brand/lists", null, data -> data, new ResponseHandler<String>() {
+      @Override
+      public void handleSuccess(String response) {
+      }
+
+      @Override
+      public void handleError(APIException ex) {
+        error.set(ex);
+      }
+    }).get();
+    assertTrue(error.get() instanceof CircuitOpenException);
+    assertEquals(4, server.getRequestCount());
+
+    // The /health probe closes the breaker again
+    assertTrue(closed.await(5, TimeUnit.SECONDS));
+    assertEquals(5, server.getRequestCount());
+    assertTrue(client.placeAsyncCall("/brand/lists", null, data -> data, null).get().success);
+  }
+
+  /**
+   * Place more calls than the concurrency limit allows, and make sure they queue up to the queue size and the rest fail fast.
+   */
+  @Test
+  public void concurrencyLimiterTest() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch arrived = new CountDownLatch(2);
+    AtomicInteger concurrent = new AtomicInteger();
+    AtomicInteger maxConcurrent = new AtomicInteger();
+    server.handle("/brand/fields", exchange -> {
+      maxConcurrent.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+      arrived.countDown();
+      try {
+        release.await(5, TimeUnit.SECONDS);
+      } catch(InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+      concurrent.decrementAndGet();
+      StubServer.respond(exchange, 200, "{}");
+    });
+    NativeAPIClient limited = new NativeAPIClient("app-key", "app-secret", 8);
+    try {
+      limited.setEndpoint(server.getEndpoint());
+      limited.setConnectionPool(new ConnectionPool(8, server.getSocketFactory()));
+      limited.setCoalescing(false);
+      ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 1, 2, 0.5, 2, 3);
+      limited.setConcurrencyLimiter(limiter);
+
+      List<CompletableFuture<String>> calls = new ArrayList<>();
+      for(int i = 0; i < 5; i++) {
+        calls.add(limited.placeStagedCall("/brand/fields", null, reader -> "parsed").toCompletableFuture());
+      }
+      CompletableFuture<String> rejected = limited.placeStagedCall("/brand/fields", null, reader -> "parsed").toCompletableFuture();
+      try {
+        rejected.get(1, TimeUnit.SECONDS);
+        fail();
+      } catch(ExecutionException ex) {
+        assertTrue(ex.getCause() instanceof ConcurrencyLimitException);
+      }
+      assertEquals(3, limiter.getQueueDepth());
+
+      // A cancelled call leaves the queue
+      calls.remove(4).cancel(true);
+      assertEquals(2, limiter.getQueueDepth());
+
+      assertTrue(arrived.await(5, TimeUnit.SECONDS));
+      release.countDown();
+      for(CompletableFuture<String> call : calls) {
+        assertEquals("parsed", call.get(5, TimeUnit.SECONDS));
+      }
+      assertEquals(2, maxConcurrent.get());
+      assertEquals(0, limiter.getInFlight());
+      assertEquals(0, limiter.getQueueDepth());
+    } finally {
+      limited.shutdown();
+    }
+  }
+
+  /**
+   * Place a few calls, and make sure every phase and counter is recorded under the normalized method path.
+   */
+  @Test
+  public void instrumentationTest() throws Exception {
+    server.respond("/profile/token/abc", "{\"success\":true}");
+    server.respond("/profile/token/xyz", "{\"success\":true}");
+    server.handle("/profile/demographics", exchange -> StubServer.respond(exchange, 400, "{}"));
+    InMemoryInstrumentation instrumentation = new InMemoryInstrumentation();
+    client.setInstrumentation(instrumentation);
+
+    assertEquals("parsed", client.placeStagedCall("/profile/token/abc", null, reader -> "parsed").toCompletableFuture().get());
+    assertTrue(client.placeAsyncCall("/profile/token/xyz", null, data -> data, new ResponseHandler<String>() {
+      @Override
+      public void handleSuccess(String response) {
+      }
+
+      @Override
+      public void handleError(APIException ex) {
+      }
+    }).get().success);
+    assertFalse(client.placeAsyncCall("/profile/demographics", "{}", data -> data, null).get().success);
+
+    InMemoryInstrumentation.PathSnapshot profile = instrumentation.snapshot().get("/profile/token/*");
+    assertEquals(2, profile.getCounter(Instrumentation.Counter.CALLS));
+    assertEquals(0, profile.getCounter(Instrumentation.Counter.FAILURES));
+    assertEquals(32, profile.getCounter(Instrumentation.Counter.BYTES_RECEIVED));
+    for(Instrumentation.Phase phase : Instrumentation.Phase.values()) {
+      assertEquals(phase.toString(), 2, profile.getTimer(phase).getCount());
+    }
+
+    InMemoryInstrumentation.PathSnapshot demographics = instrumentation.snapshot().get("/profile/demographics");
+    assertEquals(1, demographics.getCounter(Instrumentation.Counter.FAILURES));
+    assertEquals(2, demographics.getCounter(Instrumentation.Counter.BYTES_SENT));
+    assertEquals(0, demographics.getTimer(Instrumentation.Phase.PARSE).getCount());
+    assertEquals(2, instrumentation.snapshot().size());
+  }
+
+  /**
+   * Place identical GET calls concurrently, and make sure they share a single request if they opt in, while other GET
+   * calls and POST calls never do.
+   */
+  @Test
+  public void coalescingTest() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    server.handle("/profile/token/abc", exchange -> {
+      try {
+        release.await(5, TimeUnit.SECONDS);
+      } catch(InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+      StubServer.respond(exchange, 200, "{\"success\":true}");
+    });
+    StreamParser<String> parser = reader -> "parsed";
+    CallOptions coalesced = CallOptions.DEFAULT.withCoalescing(true);
+
+    AtomicInteger handled = new AtomicInteger();
+    List<Future<ResponseWrapper<String>>> futures = new ArrayList<>();
+    for(int i = 0; i < 20; i++) {
+      futures.add(client.placeAsyncStreamingCall("/profile/token/abc", null, parser, new ResponseHandler<String>() {
+        @Override
+        public void handleSuccess(String response) {
+          handled.incrementAndGet();
+        }
+
+        @Override
+        public void handleError(APIException ex) {
+        }
+      }, coalesced));
+    }
+    CompletionStage<String> stage = client.placeStagedCall("/profile/token/abc", null, parser, coalesced);
+    // Calls that did not opt in place a request of their own
+    CompletionStage<String> own = client.placeStagedCall("/profile/token/abc", null, parser);
+    // Cancelling one caller must not cancel the shared call
+    futures.remove(0).cancel(true);
+    release.countDown();
+
+    for(Future<ResponseWrapper<String>> future : futures) {
+      assertEquals("parsed", future.get().response);
+    }
+    assertEquals("parsed", stage.toCompletableFuture().get());
+    assertEquals("parsed", own.toCompletableFuture().get());
+    assertEquals(19, handled.get());
+    assertEquals(2, server.getRequestCount());
+    assertEquals(20, client.getCoalescedCalls());
+
+    // Calls after completion place a new request, and POST calls are never coalesced
+    Future<ResponseWrapper<String>> get = client.placeAsyncStreamingCall("/profile/token/abc", null, parser, null, coalesced);
+    Future<ResponseWrapper<String>> post1 = client.placeAsyncStreamingCall("/profile/token/abc", "{}", parser, null, coalesced);
+    Future<ResponseWrapper<String>> post2 = client.placeAsyncStreamingCall("/profile/token/abc", "{}", parser, null, coalesced);
+    assertTrue(get.get().success && post1.get().success && post2.get().success);
+    assertEquals(5, server.getRequestCount());
+  }
+
+  @Test
+  public void conditionalCallTest() throws Exception {
+    server.respondWithETag("/profile/token/abc", () -> "{\"success\":true}");
+    AtomicInteger parsed = new AtomicInteger();
+    StreamParser<String> parser = reader -> "parsed " + parsed.incrementAndGet();
+
+    ConditionalResponse<String> first = client.placeConditionalCall("/profile/token/abc", null, parser).toCompletableFuture().get();
+    assertFalse(first.notModified);
+    assertEquals("parsed 1", first.response);
+    assertNotNull(first.etag);
+
+    ConditionalResponse<String> second = client.placeConditionalCall("/profile/token/abc", first.etag, parser).toCompletableFuture().get();
+    assertTrue(second.notModified);
+    assertNull(second.response);
+    assertEquals(first.etag, second.etag);
+    assertEquals(1, parsed.get());
+
+    ConditionalResponse<String> changed = client.placeConditionalCall("/profile/token/abc", "\"outdated\"", parser).toCompletableFuture().get();
+    assertEquals("parsed 2", changed.response);
+    assertEquals(3, server.getRequestCount());
+  }
+
+  /**
+   * Make sure a call that is still reading a slow body fails once its deadline passes, closing the connection.
+   */
+  @Test
+  public void deadlineTest() throws Exception {
+    CountDownLatch disconnected = new CountDownLatch(1);
+    server.handle("/slow", trickle(disconnected));
+    // Complete the TLS handshake first, so the deadline only covers the slow body
+    assertTrue(client.placeAsyncCall("/brand/lists", null, data -> data, null).get().success);
+    long start = System.nanoTime();
+    try {
+      client.placeStagedCall("/slow", null, reader -> "parsed", CallOptions.DEFAULT.withDeadline(500)).toCompletableFuture().get();
+      fail("Deadline passed");
+    } catch(ExecutionException ex) {
+      assertTrue(ex.getCause() instanceof DeadlineExceededException);
+    }
+    long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    assertTrue(elapsedMillis >= 500 && elapsedMillis < 2000);
+    // The server can't write the rest of the body
+    assertTrue(disconnected.await(2, TimeUnit.SECONDS));
+
+    // Handler calls get the same deadline
+    Future<ResponseWrapper<String>> future = client.placeAsyncStreamingCall("/slow", null, reader -> "parsed", null, CallOptions.DEFAULT.withDeadline(500));
+    assertFalse(future.get(2, TimeUnit.SECONDS).success);
+  }
+
+  /**
+   * Cancel a running call and a queued call, and make sure the connection is closed and the queued call is never placed.
+   */
+  @Test
+  public void cancelTest() throws Exception {
+    NativeAPIClient singleThread = new NativeAPIClient("app-key", "app-secret", 1);
+    singleThread.setEndpoint(server.getEndpoint());
+    singleThread.setConnectionPool(new ConnectionPool(2, server.getSocketFactory()));
+    CountDownLatch disconnected = new CountDownLatch(1);
+    server.handle("/slow", trickle(disconnected));
+    try {
+      CompletableFuture<String> running = singleThread.placeStagedCall("/slow", null, reader -> "parsed").toCompletableFuture();
+      CompletableFuture<String> queued = singleThread.placeStagedCall("/brand/lists", null, reader -> "parsed").toCompletableFuture();
+      Thread.sleep(200);
+      queued.cancel(true);
+      running.cancel(true);
+      assertTrue(disconnected.await(2, TimeUnit.SECONDS));
+
+      // The network thread is free right away
+      assertEquals("parsed", singleThread.placeStagedCall("/brand/lists", null, reader -> "parsed").toCompletableFuture().get(2, TimeUnit.SECONDS));
+      assertEquals(2, server.getRequestCount());
+    } finally {
+      singleThread.shutdown();
+    }
+  }
+
+  /**
+   * Queue background calls behind a busy thread, and make sure an interactive call placed after them goes first.
+   */
+  @Test
+  public void priorityTest() throws Exception {
+    NativeAPIClient singleThread = new NativeAPIClient("app-key", "app-secret", 1);
+    singleThread.setEndpoint(server.getEndpoint());
+    singleThread.setConnectionPool(new ConnectionPool(2, server.getSocketFactory()));
+    CountDownLatch blocked = new CountDownLatch(1);
+    CountDownLatch unblock = new CountDownLatch(1);
+    List<String> order = Collections.synchronizedList(new ArrayList<>());
+    server.handle("/block", exchange -> {
+      blocked.countDown();
+      try {
+        unblock.await(5, TimeUnit.SECONDS);
+      } catch(InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+      StubServer.respond(exchange, 200, "{}");
+    });
+    for(String method : Arrays.asList("/event", "/profile")) {
+      server.handle(method, exchange -> {
+        order.add(method);
+        StubServer.respond(exchange, 200, "{}");
+      });
+    }
+    try {
+      CompletableFuture<String> blocking = singleThread.placeStagedCall("/block", null, reader -> "parsed").toCompletableFuture();
+      assertTrue(blocked.await(5, TimeUnit.SECONDS));
+      CallOptions background = CallOptions.DEFAULT.withPriority(Priority.BACKGROUND);
+      List<CompletableFuture<String>> events = new ArrayList<>();
+      for(int i = 0; i < 5; i++) {
+        events.add(singleThread.placeStagedCall("/event", "{}", reader -> "parsed", background).toCompletableFuture());
+      }
+      CompletableFuture<String> profile = singleThread.placeStagedCall("/profile", null, reader -> "parsed",
+              CallOptions.DEFAULT.withPriority(Priority.INTERACTIVE)).toCompletableFuture();
+      assertEquals(5, singleThread.getPriorityLanes().getQueueDepth(Priority.BACKGROUND));
+      assertEquals(1, singleThread.getPriorityLanes().getQueueDepth(Priority.INTERACTIVE));
+
+      unblock.countDown();
+      assertEquals("parsed", blocking.get(5, TimeUnit.SECONDS));
+      assertEquals("parsed", profile.get(5, TimeUnit.SECONDS));
+      for(CompletableFuture<String> event : events) {
+        assertEquals("parsed", event.get(5, TimeUnit.SECONDS));
+      }
+      assertEquals("/profile", order.get(0));
+      assertEquals(6, order.size());
+    } finally {
+      unblock.countDown();
+      singleThread.shutdown();
+    }
+  }
+
+  /**
+   * Respond with a body that trickles in for 5 seconds.
+   * @param disconnected Counted down once the client closed the connection
+   */
+  private static HttpHandler trickle(CountDownLatch disconnected) {
+    return exchange -> {
+      exchange.sendResponseHeaders(200, 0);
+      try(OutputStream out = exchange.getResponseBody()) {
+        for(int i = 0; i < 100; i++) {
+          out.write(' ');
+          out.flush();
+          Thread.sleep(50);
+        }
+        out.write("{}".getBytes(StandardCharsets.UTF_8));
+      } catch(IOException ex) {
+        disconnected.countDown();
+      } catch(InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    };
+  }
+
+  /**
+   * Make sure oversized responses are aborted, both with and without a content length.
+   */
+  @Test
+  public void maxResponseSizeTest() throws Exception {
+    byte[] body = new byte[64 * 1024];
+    server.handle("/large", exchange -> StubServer.respond(exchange, 200, new String(body, StandardCharsets.UTF_8)));
+    server.handle("/chunked", exchange -> {
+      exchange.sendResponseHeaders(200, 0);
+      try(OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      } catch(Exception ex) {
+        // The client stops reading
+      }
+    });
+    client.setMaxResponseSize(1024);
+
+    for(String method : new String[]{"/large", "/chunked"}) {
+      AtomicReference<APIException> error = new AtomicReference<>();
+      client.placeAsyncStreamingCall(method, null, reader -> {
+        char[] buffer = new char[1024];
+        while(reader.read(buffer) != -1) {
+          // Read everything
+        }
+        return null;
+      }, new ResponseHandler<Object>() {
+        @Override
+        public void handleSuccess(Object response) {
+        }
+
+        @Override
+        public void handleError(APIException ex) {
+          error.set(ex);
+        }
+      }).get();
+      assertTrue(method, error.get() instanceof ResponseTooLargeException);
+    }
+    assertEquals(2, server.getRequestCount());
+  }
+
+  /**
+   * Place a burst of calls against a slow endpoint in both execution modes, and make sure the concurrency limit is
+   * respected: 2 threads take at least 50 rounds of 20 ms, while a limit of 32 calls overlaps them. Without virtual
+   * threads, the second client falls back to a pool of 32 threads, which must behave the same.
+   */
+  @Test
+  public void executionModeLoadTest() throws Exception {
+    AtomicInteger inFlight = new AtomicInteger();
+    AtomicInteger maxInFlight = new AtomicInteger();
+    try(StubServer slowServer = new StubServer(false)) {
+      slowServer.handle("/brand/fields", exchange -> {
+        maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        try {
+          Thread.sleep(20);
+        } catch(InterruptedException ex) {
+          Thread.currentThread().interrupt();
+        }
+        inFlight.decrementAndGet();
+        StubServer.respond(exchange, 200, "{}");
+      });
+
+      long fixedPoolMillis = runLoad(new NativeAPIClient("app-key", "app-secret", 2), slowServer.getEndpoint());
+      assertTrue(maxInFlight.get() <= 2);
+      assertTrue(fixedPoolMillis >= 1000);
+
+      maxInFlight.set(0);
+      NativeAPIClient virtualClient = new NativeAPIClient("app-key", "app-secret", NativeAPIClient.ExecutionMode.VIRTUAL_THREADS, 32);
+      assertEquals(hasVirtualThreads() ? NativeAPIClient.ExecutionMode.VIRTUAL_THREADS : NativeAPIClient.ExecutionMode.FIXED_POOL,
+              virtualClient.getExecutionMode());
+      long virtualMillis = runLoad(virtualClient, slowServer.getEndpoint());
+      assertTrue(maxInFlight.get() <= 32);
+      assertTrue(maxInFlight.get() > 2);
+      assertTrue(virtualMillis < fixedPoolMillis);
+    }
+  }
+
+  private long runLoad(NativeAPIClient loadClient, String endpoint) throws Exception {
+    loadClient.setEndpoint(endpoint);
+    loadClient.setCoalescing(false);
+    try {
+      long start = System.nanoTime();
+      List<Future<ResponseWrapper<String>>> futures = new ArrayList<>();
+      for(int i = 0; i < 100; i++) {
+        futures.add(loadClient.placeAsyncCall("/brand/fields", null, data -> data, null));
+      }
+      for(Future<ResponseWrapper<String>> future : futures) {
+        assertTrue(future.get().success);
+      }
+      return (System.nanoTime() - start) / 1000000;
+    } finally {
+      loadClient.shutdown();
+    }
+  }
+
+  private static boolean hasVirtualThreads() {
+    try {
+      java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+      return true;
+    } catch(Exception ex) {
+      return false;
+    }
+  }
+
+}
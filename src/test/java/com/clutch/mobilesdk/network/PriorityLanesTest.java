@@ -0,0 +1,122 @@
+package com.clutch.mobilesdk.network;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PriorityLanesTest {
+
+  /**
+   * Queue calls in every lane behind a busy slot, and make sure freed slots are shared in proportion to the weights.
+   */
+  @Test
+  public void weightTest() {
+    PriorityLanes lanes = new PriorityLanes(1);
+    List<Priority> started = new ArrayList<>();
+    lanes.acquire(Priority.NORMAL, () -> started.add(Priority.NORMAL));
+    for(int i = 0; i < 20; i++) {
+      for(Priority priority : Arrays.asList(Priority.BACKGROUND, Priority.NORMAL, Priority.INTERACTIVE)) {
+        lanes.acquire(priority, () -> started.add(priority));
+      }
+    }
+    assertEquals(1, started.size());
+    assertEquals(20, lanes.getQueueDepth(Priority.INTERACTIVE));
+
+    Priority running = Priority.NORMAL;
+    for(int i = 0; i < 60; i++) {
+      lanes.release(running);
+      running = started.get(started.size() - 1);
+    }
+    lanes.release(running);
+    assertEquals(61, started.size());
+
+    // The first 20 slots, including the busy one, are shared 12:6:2
+    List<Priority> first = started.subList(0, 20);
+    assertEquals(12, Collections.frequency(first, Priority.INTERACTIVE));
+    assertEquals(6, Collections.frequency(first, Priority.NORMAL));
+    assertEquals(2, Collections.frequency(first, Priority.BACKGROUND));
+    // The interactive lane goes first, but the background lane gets a slot within the first 10
+    assertEquals(Priority.INTERACTIVE, started.get(1));
+    assertTrue(started.subList(1, 11).contains(Priority.BACKGROUND));
+    for(Priority priority : Priority.values()) {
+      assertEquals(0, lanes.getInFlight(priority));
+      assertEquals(0, lanes.getQueueDepth(priority));
+    }
+  }
+
+  /**
+   * Start a long queue of calls that release their slot right away, as calls rejected by a full concurrency limiter do,
+   * and make sure they are started one after the other instead of on top of each other's stack.
+   */
+  @Test
+  public void releaseChainTest() {
+    PriorityLanes lanes = new PriorityLanes(1);
+    lanes.acquire(Priority.NORMAL, () -> { });
+    int[] started = new int[1];
+    for(int i = 0; i < 100000; i++) {
+      lanes.acquire(Priority.NORMAL, () -> {
+        started[0]++;
+        lanes.release(Priority.NORMAL);
+      });
+    }
+    lanes.release(Priority.NORMAL);
+    assertEquals(100000, started[0]);
+    assertEquals(0, lanes.getInFlight(Priority.NORMAL));
+    assertEquals(0, lanes.getQueueDepth(Priority.NORMAL));
+  }
+
+  /**
+   * Make sure background calls leave a slot free for the other lanes.
+   */
+  @Test
+  public void backgroundTest() {
+    PriorityLanes lanes = new PriorityLanes(3);
+    List<String> started = new ArrayList<>();
+    for(int i = 0; i < 3; i++) {
+      int call = i;
+      lanes.acquire(Priority.BACKGROUND, () -> started.add("background-" + call));
+    }
+    assertEquals(Arrays.asList("background-0", "background-1"), started);
+    lanes.acquire(Priority.INTERACTIVE, () -> started.add("interactive"));
+    assertEquals(Arrays.asList("background-0", "background-1", "interactive"), started);
+
+    // Freeing the interactive slot doesn't let the third background call in, freeing a background slot does
+    lanes.release(Priority.INTERACTIVE);
+    assertEquals(3, started.size());
+    lanes.release(Priority.BACKGROUND);
+    assertEquals("background-2", started.get(3));
+    assertEquals(2, lanes.getInFlight(Priority.BACKGROUND));
+
+    // With a single slot, background calls can still use it
+    PriorityLanes single = new PriorityLanes(1);
+    List<String> singleStarted = new ArrayList<>();
+    single.acquire(Priority.BACKGROUND, () -> singleStarted.add("background"));
+    assertEquals(Collections.singletonList("background"), singleStarted);
+  }
+
+  /**
+   * Remove a waiting call, and make sure it is never started.
+   */
+  @Test
+  public void removeTest() {
+    PriorityLanes lanes = new PriorityLanes(1);
+    List<String> started = new ArrayList<>();
+    lanes.acquire(Priority.NORMAL, () -> started.add("running"));
+    Runnable removed = () -> started.add("removed");
+    lanes.acquire(Priority.INTERACTIVE, removed);
+    lanes.acquire(Priority.BACKGROUND, () -> started.add("background"));
+
+    assertTrue(lanes.remove(Priority.INTERACTIVE, removed));
+    assertFalse(lanes.remove(Priority.INTERACTIVE, removed));
+    lanes.release(Priority.NORMAL);
+    assertEquals(Arrays.asList("running", "background"), started);
+  }
+
+}
@@ -0,0 +1,176 @@
+package com.clutch.mobilesdk.network;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Local stub of the Clutch mobile API for tests, serving fixed responses per method.
+ */
+public class StubServer implements AutoCloseable {
+
+  private static final char[] PASSWORD = "changeit".toCharArray();
+
+  private final HttpServer server;
+
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+
+  private final SSLContext sslContext;
+
+  private final ConcurrentHashMap<String, HttpHandler> handlers = new ConcurrentHashMap<>();
+
+  private final AtomicInteger requestCount = new AtomicInteger();
+
+  /**
+   * Start a new stub server on a random local port.
+   * @param https True to serve HTTPS with the self-signed certificate from stub-server.jks
+   * @throws Exception If the server could not be started
+   */
+  public StubServer(boolean https) throws Exception {
+    InetSocketAddress address = new InetSocketAddress("127.0.0.1", 0);
+    if(https) {
+      sslContext = createSSLContext();
+      HttpsServer httpsServer = HttpsServer.create(address, 0);
+      httpsServer.setHttpsConfigurator(new HttpsConfigurator(sslContext));
+      server = httpsServer;
+    } else {
+      sslContext = null;
+      server = HttpServer.create(address, 0);
+    }
+    server.createContext("/", exchange -> {
+      requestCount.incrementAndGet();
+      HttpHandler handler = handlers.get(exchange.getRequestURI().getPath());
+      if(handler == null) {
+        respond(exchange, 404, "{\"error\":\"Not found\"}");
+      } else {
+        handler.handle(exchange);
+      }
+    });
+    server.setExecutor(executor);
+    server.start();
+  }
+
+  /**
+   * Serve a fixed JSON body for a method.
+   * @param method Method, e.g. /brand/lists
+   * @param body Response body
+   */
+  public void respond(String method, String body) {
+    handle(method, exchange -> respond(exchange, 200, body));
+  }
+
+  /**
+   * Serve a JSON body with an entity tag for a method, responding with 304 Not Modified if the request holds that tag
+   * in If-None-Match.
+   * @param method Method, e.g. /profile/token/abc
+   * @param body Supplier of the current response body, the entity tag is derived from it
+   */
+  public void respondWithETag(String method, Supplier<String> body) {
+    handle(method, exchange -> {
+      String current = body.get();
+      String etag = "\"" + Integer.toHexString(current.hashCode()) + "\"";
+      exchange.getResponseHeaders().set("ETag", etag);
+      if(etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+        exchange.sendResponseHeaders(304, -1);
+        exchange.close();
+      } else {
+        respond(exchange, 200, current);
+      }
+    });
+  }
+
+  /**
+   * Serve a method with a custom handler.
+   * @param method Method, e.g. /brand/lists
+   * @param handler Handler
+   */
+  public void handle(String method, HttpHandler handler) {
+    handlers.put(method, handler);
+  }
+
+  /**
+   * Write a complete response, consuming the request body first.
+   * @param exchange Exchange
+   * @param status HTTP status code
+   * @param body Response body
+   * @throws IOException If the response could not be written
+   */
+  public static void respond(HttpExchange exchange, int status, String body) throws IOException {
+    try(InputStream in = exchange.getRequestBody()) {
+      byte[] buffer = new byte[1024];
+      while(in.read(buffer) != -1) {
+        // Discard
+      }
+    }
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+    try(OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+
+  /**
+   * Get the endpoint to use with APIClient.setEndpoint.
+   * @return Endpoint, without a trailing slash
+   */
+  public String getEndpoint() {
+    return (sslContext != null ? "https" : "http") + "://localhost:" + server.getAddress().getPort();
+  }
+
+  /**
+   * Get a socket factory that trusts the self-signed certificate of this server.
+   * @return SSL socket factory
+   */
+  public SSLSocketFactory getSocketFactory() {
+    return sslContext.getSocketFactory();
+  }
+
+  /**
+   * Get the amount of requests this server received.
+   * @return Amount of requests
+   */
+  public int getRequestCount() {
+    return requestCount.get();
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  private static SSLContext createSSLContext() throws Exception {
+    KeyStore keyStore = KeyStore.getInstance("JKS");
+    try(InputStream in = StubServer.class.getResourceAsStream("/stub-server.jks")) {
+      keyStore.load(in, PASSWORD);
+    }
+    KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+    keyManagerFactory.init(keyStore, PASSWORD);
+    TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+    trustManagerFactory.init(keyStore);
+
+    SSLContext context = SSLContext.getInstance("TLS");
+    context.init(keyManagerFactory.getKeyManagers(), trustManagerFactory.getTrustManagers(), null);
+    return context;
+  }
+
+}